@@ -78,6 +78,20 @@ public interface RawDataFile {
   @Nonnull
   public int[] getScanNumbers(int msLevel, @Nonnull Range<Double> rtRange);
 
+  /**
+   * Returns sorted array of all MS/MS (MS level 2) scan numbers in given retention time range, with
+   * precursor m/z within given m/z range. The scans are looked up in an index sorted by precursor
+   * m/z, which is much faster than checking the precursor of each scan returned by
+   * getScanNumbers(2, rtRange).
+   * 
+   * @param rtRange Retention time range
+   * @param precursorMZRange Precursor m/z range
+   * @return Sorted array of scan numbers, never returns null
+   */
+  @Nonnull
+  public int[] getMS2ScanNumbers(@Nonnull Range<Double> rtRange,
+      @Nonnull Range<Double> precursorMZRange);
+
   /**
    * Scan could be null if scanID is not contained in the raw data file
    *
@@ -86,6 +100,24 @@ public interface RawDataFile {
    */
   public @Nullable Scan getScan(int scan);
 
+  /**
+   * Returns the retention time of given scan. This is a primitive lookup, which is much faster than
+   * getScan(scan).getRetentionTime() when called for many data points.
+   *
+   * @param scan Scan number
+   * @return Retention time, or NaN if the scan is not contained in the raw data file
+   */
+  public double getRetentionTime(int scan);
+
+  /**
+   * Returns the index of given scan in the sorted array returned by getScanNumbers().
+   *
+   * @param scan Scan number
+   * @return Index of the scan, or a negative value if the scan is not contained in the raw data
+   *         file
+   */
+  public int getScanIndex(int scan);
+
   @Nonnull
   public Range<Double> getDataMZRange();
 
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.datamodel;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Computes a scan of a derived raw data file from a scan of its parent file (see
+ * VirtualRawDataFileWriter). The transformation may be called several times for the same scan and
+ * from several threads at once, so it must not have side effects.
+ */
+@FunctionalInterface
+public interface ScanTransformation {
+
+  /**
+   * Returns the transformed scan. Only the data points and spectrum type of the returned scan are
+   * used, other values are taken from the parent scan. Null means the scan has no data points.
+   */
+  @Nullable
+  public Scan transform(@Nonnull Scan parentScan);
+
+}
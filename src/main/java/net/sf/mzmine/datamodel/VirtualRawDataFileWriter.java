@@ -0,0 +1,43 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.datamodel;
+
+import java.io.IOException;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Writer of a raw data file derived from another (parent) raw data file. Instead of storing the
+ * data points of the added scans, the derived file keeps a reference to the parent scan and a
+ * transformation, and computes the data points when they are read. Scans added by the
+ * addScan(Scan) method are stored as usual.
+ */
+public interface VirtualRawDataFileWriter extends RawDataFileWriter {
+
+  /**
+   * Adds a scan with the same scan number and attributes as the given scan of the parent file,
+   * whose data points are computed by the transformation on access
+   * 
+   * @param parentScan Scan of the parent file
+   * @param transformation Transformation computing the data points of the new scan
+   */
+  public void addScan(@Nonnull Scan parentScan, @Nonnull ScanTransformation transformation)
+      throws IOException;
+
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.datamodel.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import net.sf.mzmine.datamodel.DataPoint;
+import net.sf.mzmine.desktop.preferences.MZminePreferences;
+import net.sf.mzmine.main.MZmineConfiguration;
+import net.sf.mzmine.main.MZmineCore;
+
+/**
+ * Temporary file which keeps the scan numbers and data points of features (see SimpleFeature), if
+ * the "Store feature data points on disk" preference is enabled. Each trace is appended to the
+ * file and identified by its offset, so the features do not need any other bookkeeping. Traces are
+ * written at offsets reserved atomically and read with positional reads, so several threads can
+ * store and load traces at the same time. Space of traces of removed features is not reclaimed,
+ * the file is closed and removed when MZmine exits. Missing data points (null) are stored with NaN
+ * m/z.
+ */
+class FeatureTraceStorage {
+
+  private static final Logger logger = Logger.getLogger(FeatureTraceStorage.class.getName());
+
+  // scan number (int), m/z (double) and intensity (double)
+  private static final int BYTES_PER_DATA_POINT = 4 + 8 + 8;
+
+  private static volatile FileChannel channel;
+  private static final AtomicLong fileLength = new AtomicLong(0);
+
+  /**
+   * Checks whether the features should store their data points on disk
+   */
+  static boolean isEnabled() {
+    MZmineConfiguration configuration = MZmineCore.getConfiguration();
+    if (configuration == null)
+      return false;
+    Boolean enabled = configuration.getPreferences()
+        .getParameter(MZminePreferences.storeFeaturesOnDisk).getValue();
+    return (enabled != null) && enabled;
+  }
+
+  /**
+   * Appends the trace to the storage file
+   *
+   * @return offset of the stored trace
+   */
+  static long storeTrace(int scanNumbers[], DataPoint dataPoints[]) throws IOException {
+
+    final FileChannel fileChannel = getChannel();
+
+    final int numOfDataPoints = scanNumbers.length;
+    final ByteBuffer buffer = ByteBuffer.allocate(numOfDataPoints * BYTES_PER_DATA_POINT);
+    for (int i = 0; i < numOfDataPoints; i++) {
+      buffer.putInt(scanNumbers[i]);
+      if (dataPoints[i] == null) {
+        buffer.putDouble(Double.NaN);
+        buffer.putDouble(Double.NaN);
+        continue;
+      }
+      buffer.putDouble(dataPoints[i].getMZ());
+      buffer.putDouble(dataPoints[i].getIntensity());
+    }
+    ((Buffer) buffer).flip();
+
+    final long offset = fileLength.getAndAdd(buffer.remaining());
+    long position = offset;
+    while (buffer.hasRemaining())
+      position += fileChannel.write(buffer, position);
+
+    return offset;
+  }
+
+  /**
+   * Reads a trace stored by storeTrace() into the given arrays
+   */
+  static void loadTrace(long offset, int scanNumbers[], DataPoint dataPoints[])
+      throws IOException {
+
+    final FileChannel fileChannel = getChannel();
+
+    final int numOfDataPoints = scanNumbers.length;
+    final ByteBuffer buffer = ByteBuffer.allocate(numOfDataPoints * BYTES_PER_DATA_POINT);
+    long position = offset;
+    while (buffer.hasRemaining()) {
+      int read = fileChannel.read(buffer, position);
+      if (read < 0)
+        throw new IOException("Unexpected end of the feature storage file");
+      position += read;
+    }
+    ((Buffer) buffer).flip();
+
+    for (int i = 0; i < numOfDataPoints; i++) {
+      scanNumbers[i] = buffer.getInt();
+      double mz = buffer.getDouble();
+      double intensity = buffer.getDouble();
+      dataPoints[i] = Double.isNaN(mz) ? null : new SimpleDataPoint(mz, intensity);
+    }
+  }
+
+  private static FileChannel getChannel() throws IOException {
+    FileChannel result = channel;
+    if (result == null) {
+      synchronized (FeatureTraceStorage.class) {
+        result = channel;
+        if (result == null)
+          channel = result = openStorageFile();
+      }
+    }
+    return result;
+  }
+
+  private static FileChannel openStorageFile() throws IOException {
+
+    File storageFileName = File.createTempFile("mzmine", ".features");
+    RandomAccessFile storageFile = new RandomAccessFile(storageFileName, "rw");
+
+    // Lock the file, same as the data points files of raw data, so it is not removed by another
+    // instance of MZmine in TmpFileCleanup
+    try {
+      storageFile.getChannel().lock();
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Failed to lock the file " + storageFileName, e);
+    }
+    storageFileName.deleteOnExit();
+
+    // deleteOnExit() does not remove open files on Windows, so the file is closed first. The hook
+    // is registered here, because the ShutDownHook of MZmineCore only runs in GUI mode.
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+      try {
+        storageFile.close();
+      } catch (IOException e) {
+        logger.warning("Could not close file " + storageFileName + ": " + e.toString());
+      }
+      storageFileName.delete();
+    }, "Feature storage cleanup"));
+
+    logger.info("Storing feature data points in " + storageFileName);
+
+    return storageFile.getChannel();
+  }
+
+}
@@ -18,7 +18,11 @@
 
 package net.sf.mzmine.datamodel.impl;
 
+import java.io.IOException;
+import java.lang.ref.SoftReference;
 import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import com.google.common.collect.Range;
@@ -37,6 +41,8 @@ import net.sf.mzmine.util.scans.ScanUtils;
  */
 public class SimpleFeature implements Feature {
 
+  private static final Logger logger = Logger.getLogger(SimpleFeature.class.getName());
+
   private SimplePeakInformation peakInfo;
   private FeatureStatus peakStatus;
   private RawDataFile dataFile;
@@ -46,6 +52,12 @@ public class SimpleFeature implements Feature {
 
   private DataPoint dataPointsPerScan[];
 
+  // If the data points are stored on disk, scanNumbers and dataPointsPerScan are null and the
+  // loaded trace is cached until the memory is needed
+  private long traceOffset = -1;
+  private int traceLength;
+  private volatile SoftReference<StoredTrace> storedTrace;
+
   // M/Z, RT, Height and Area, FWHM, Tailing factor, Asymmetry factor
   private double mz, rt, height, area;
   private Double fwhm, tf, af;
@@ -90,7 +102,6 @@ public class SimpleFeature implements Feature {
     this.rt = RT;
     this.height = height;
     this.area = area;
-    this.scanNumbers = scanNumbers;
     this.peakStatus = peakStatus;
     this.representativeScan = representativeScan;
     this.fragmentScanNumber = fragmentScanNumber;
@@ -98,7 +109,7 @@ public class SimpleFeature implements Feature {
     this.rtRange = rtRange;
     this.mzRange = mzRange;
     this.intensityRange = intensityRange;
-    this.dataPointsPerScan = dataPointsPerScan;
+    setTrace(scanNumbers, dataPointsPerScan);
     this.fwhm = null;
     this.tf = null;
     this.af = null;
@@ -125,15 +136,17 @@ public class SimpleFeature implements Feature {
     this.mzRange = p.getRawDataPointsMZRange();
     this.intensityRange = p.getRawDataPointsIntensityRange();
 
-    this.scanNumbers = p.getScanNumbers();
+    int scanNumbers[] = p.getScanNumbers();
 
-    this.dataPointsPerScan = new DataPoint[scanNumbers.length];
+    DataPoint dataPointsPerScan[] = new DataPoint[scanNumbers.length];
 
     for (int i = 0; i < scanNumbers.length; i++) {
       dataPointsPerScan[i] = p.getDataPoint(scanNumbers[i]);
 
     }
 
+    setTrace(scanNumbers, dataPointsPerScan);
+
     this.peakStatus = p.getFeatureStatus();
 
     this.representativeScan = p.getRepresentativeScanNumber();
@@ -167,8 +180,8 @@ public class SimpleFeature implements Feature {
     this.mzRange = Range.encloseAll(Doubles.asList(mzValues));
     this.intensityRange = Range.closed(0.0, msdkFeature.getHeight().doubleValue());
 
-    this.scanNumbers = new int[rtValues.length];
-    this.dataPointsPerScan = new DataPoint[scanNumbers.length];
+    int scanNumbers[] = new int[rtValues.length];
+    DataPoint dataPointsPerScan[] = new DataPoint[scanNumbers.length];
     for (int i = 0; i < scanNumbers.length; i++) {
       scanNumbers[i] = RawDataFileUtils.getClosestScanNumber(dataFile, rtValues[i] / 60.0);
       dataPointsPerScan[i] = new SimpleDataPoint(mzValues[i], intensityValues[i]);
@@ -187,6 +200,8 @@ public class SimpleFeature implements Feature {
       }
     }
 
+    setTrace(scanNumbers, dataPointsPerScan);
+
     this.parentChromatogramRowID = null; // TODO: ask Tomas and update
   }
 
@@ -259,6 +274,8 @@ public class SimpleFeature implements Feature {
    */
   @Override
   public @Nonnull int[] getScanNumbers() {
+    if (traceOffset >= 0)
+      return getStoredTrace().scanNumbers;
     return scanNumbers;
   }
 
@@ -267,12 +284,55 @@ public class SimpleFeature implements Feature {
    */
   @Override
   public DataPoint getDataPoint(int scanNumber) {
+    if (traceOffset >= 0) {
+      StoredTrace trace = getStoredTrace();
+      int index = Arrays.binarySearch(trace.scanNumbers, scanNumber);
+      if (index < 0)
+        return null;
+      return trace.dataPoints[index];
+    }
     int index = Arrays.binarySearch(scanNumbers, scanNumber);
     if (index < 0)
       return null;
     return dataPointsPerScan[index];
   }
 
+  /**
+   * Keeps the scan numbers and data points in memory, or stores them on disk if enabled in the
+   * preferences
+   */
+  private void setTrace(int scanNumbers[], DataPoint dataPointsPerScan[]) {
+    if (FeatureTraceStorage.isEnabled()) {
+      try {
+        traceOffset = FeatureTraceStorage.storeTrace(scanNumbers, dataPointsPerScan);
+        traceLength = scanNumbers.length;
+        return;
+      } catch (IOException e) {
+        logger.log(Level.WARNING, "Could not store feature data points on disk", e);
+      }
+    }
+    this.scanNumbers = scanNumbers;
+    this.dataPointsPerScan = dataPointsPerScan;
+  }
+
+  /**
+   * Returns the trace stored on disk, loading it if it is not cached
+   */
+  private StoredTrace getStoredTrace() {
+    SoftReference<StoredTrace> reference = storedTrace;
+    StoredTrace trace = (reference != null) ? reference.get() : null;
+    if (trace == null) {
+      trace = new StoredTrace(traceLength);
+      try {
+        FeatureTraceStorage.loadTrace(traceOffset, trace.scanNumbers, trace.dataPoints);
+      } catch (IOException e) {
+        throw new IllegalStateException("Could not load data points of feature " + this, e);
+      }
+      storedTrace = new SoftReference<>(trace);
+    }
+    return trace;
+  }
+
   /**
    * @see net.sf.mzmine.datamodel.Feature#getDataFile()
    */
@@ -452,4 +512,18 @@ public class SimpleFeature implements Feature {
     }
     setFragmentScanNumber(best);
   }
+
+  /**
+   * Scan numbers and data points loaded from disk
+   */
+  private static class StoredTrace {
+
+    private final int scanNumbers[];
+    private final DataPoint dataPoints[];
+
+    StoredTrace(int length) {
+      scanNumbers = new int[length];
+      dataPoints = new DataPoint[length];
+    }
+  }
 }
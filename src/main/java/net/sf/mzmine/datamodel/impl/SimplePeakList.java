@@ -198,6 +198,25 @@ public class SimplePeakList implements PeakList {
     }
   }
 
+  /**
+   * Adds all given rows at once, updating the maximum intensity and ranges only once. Used by
+   * SimplePeakListBuilder.
+   */
+  void addRows(PeakListRow rows[]) {
+    List<RawDataFile> myFiles = Arrays.asList(this.getRawDataFiles());
+    for (PeakListRow row : rows) {
+      for (RawDataFile testFile : row.getRawDataFiles()) {
+        if (!myFiles.contains(testFile))
+          throw (new IllegalArgumentException(
+              "Data file " + testFile + " is not in this feature list"));
+      }
+    }
+
+    peakListRows.ensureCapacity(peakListRows.size() + rows.length);
+    peakListRows.addAll(Arrays.asList(rows));
+    updateMaxIntensity();
+  }
+
   /**
    * Returns all peaks overlapping with a retention time range
    * 
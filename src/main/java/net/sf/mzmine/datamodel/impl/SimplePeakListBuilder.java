@@ -0,0 +1,74 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.datamodel.impl;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import net.sf.mzmine.datamodel.PeakListRow;
+import net.sf.mzmine.datamodel.RawDataFile;
+import net.sf.mzmine.util.PeakListRowSorter;
+import net.sf.mzmine.util.SortingDirection;
+import net.sf.mzmine.util.SortingProperty;
+
+/**
+ * Collects the rows of a new feature list from several threads without locking. Once all rows are
+ * added, build() creates the feature list with all rows sorted by their ID, so the result does not
+ * depend on the order in which the threads finished. No rows can be added after build().
+ */
+public class SimplePeakListBuilder {
+
+  private final String name;
+  private final RawDataFile dataFiles[];
+  private final ConcurrentLinkedQueue<PeakListRow> rows = new ConcurrentLinkedQueue<>();
+  private volatile boolean built = false;
+
+  public SimplePeakListBuilder(String name, RawDataFile dataFiles[]) {
+    this.name = name;
+    this.dataFiles = dataFiles;
+  }
+
+  /**
+   * Adds a row, may be called from any thread
+   */
+  public void addRow(PeakListRow row) {
+    if (built)
+      throw new IllegalStateException("Feature list " + name + " was already built");
+    rows.add(row);
+  }
+
+  public int getNumberOfRows() {
+    return rows.size();
+  }
+
+  /**
+   * Creates the feature list containing all added rows, sorted by ID
+   */
+  public SimplePeakList build() {
+    built = true;
+
+    PeakListRow sortedRows[] = rows.toArray(new PeakListRow[0]);
+    Arrays.sort(sortedRows, new PeakListRowSorter(SortingProperty.ID, SortingDirection.Ascending));
+
+    SimplePeakList peakList = new SimplePeakList(name, dataFiles);
+    peakList.addRows(sortedRows);
+    return peakList;
+  }
+
+}
@@ -26,6 +26,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Vector;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.annotation.Nonnull;
 import net.sf.mzmine.datamodel.Feature;
 import net.sf.mzmine.datamodel.IsotopePattern;
@@ -52,14 +53,14 @@ public class SimplePeakListRow implements PeakListRow {
   private String comment;
   private PeakInformation information;
   private int myID;
-  private double maxDataPointIntensity = 0;
 
   /**
-   * These variables are used for caching the average values, so we don't need to calculate them
-   * again and again
+   * The average values are cached, so we don't need to calculate them again and again. They are
+   * recalculated on first access after the peaks of this row changed, so adding many peaks (e.g.
+   * from several threads) does not recalculate them each time.
    */
-  private double averageRT, averageMZ, averageHeight, averageArea;
-  private int rowCharge;
+  private volatile AverageValues averageValues;
+  private final AtomicInteger peaksVersion = new AtomicInteger(0);
 
   public SimplePeakListRow(int myID) {
     this.myID = myID;
@@ -88,7 +89,7 @@ public class SimplePeakListRow implements PeakListRow {
   @Override
   public void removePeak(RawDataFile file) {
     this.peaks.remove(file);
-    calculateAverageValues();
+    peaksVersion.incrementAndGet();
   }
 
   /**
@@ -108,46 +109,55 @@ public class SimplePeakListRow implements PeakListRow {
   }
 
   @Override
-  public synchronized void addPeak(RawDataFile rawData, Feature peak) {
+  public void addPeak(RawDataFile rawData, Feature peak) {
     if (peak == null)
       throw new IllegalArgumentException("Cannot add null feature to a feature list row");
 
     // ConcurrentHashMap is already synchronized
     peaks.put(rawData, peak);
-
-    if (peak.getRawDataPointsIntensityRange().upperEndpoint() > maxDataPointIntensity)
-      maxDataPointIntensity = peak.getRawDataPointsIntensityRange().upperEndpoint();
-    calculateAverageValues();
+    peaksVersion.incrementAndGet();
   }
 
   @Override
   public double getAverageMZ() {
-    return averageMZ;
+    return getAverageValues().mz;
   }
 
   @Override
   public double getAverageRT() {
-    return averageRT;
+    return getAverageValues().rt;
   }
 
   @Override
   public double getAverageHeight() {
-    return averageHeight;
+    return getAverageValues().height;
   }
 
   @Override
   public double getAverageArea() {
-    return averageArea;
+    return getAverageValues().area;
   }
 
   @Override
   public int getRowCharge() {
-    return rowCharge;
+    return getAverageValues().charge;
   }
 
-  private synchronized void calculateAverageValues() {
-    double rtSum = 0, mzSum = 0, heightSum = 0, areaSum = 0;
-    int charge = 0;
+  /**
+   * Returns the cached average values, recalculating them if the peaks changed since
+   */
+  private AverageValues getAverageValues() {
+    AverageValues values = averageValues;
+    if ((values == null) || (values.version != peaksVersion.get()))
+      values = calculateAverageValues();
+    return values;
+  }
+
+  private AverageValues calculateAverageValues() {
+    // Any peak added after reading the version will cause another recalculation
+    final int version = peaksVersion.get();
+    double rtSum = 0, mzSum = 0, heightSum = 0, areaSum = 0, maxIntensity = 0;
+    int charge = 0, numOfPeaks = 0;
     HashSet<Integer> chargeArr = new HashSet<Integer>();
     Enumeration<Feature> peakEnum = peaks.elements();
     while (peakEnum.hasMoreElements()) {
@@ -156,20 +166,23 @@ public class SimplePeakListRow implements PeakListRow {
       mzSum += p.getMZ();
       heightSum += p.getHeight();
       areaSum += p.getArea();
+      maxIntensity = Math.max(maxIntensity, p.getRawDataPointsIntensityRange().upperEndpoint());
       if (p.getCharge() > 0) {
         chargeArr.add(p.getCharge());
         charge = p.getCharge();
       }
+      numOfPeaks++;
     }
-    averageRT = rtSum / peaks.size();
-    averageMZ = mzSum / peaks.size();
-    averageHeight = heightSum / peaks.size();
-    averageArea = areaSum / peaks.size();
-    if (chargeArr.size() < 2) {
-      rowCharge = charge;
-    } else {
-      rowCharge = 0;
+    if (numOfPeaks == 0) {
+      AverageValues values = new AverageValues(version, 0, 0, 0, 0, 0, 0);
+      averageValues = values;
+      return values;
     }
+    AverageValues values = new AverageValues(version, rtSum / numOfPeaks, mzSum / numOfPeaks,
+        heightSum / numOfPeaks, areaSum / numOfPeaks, maxIntensity,
+        (chargeArr.size() < 2) ? charge : 0);
+    averageValues = values;
+    return values;
   }
 
   /**
@@ -216,16 +229,20 @@ public class SimplePeakListRow implements PeakListRow {
    * @see net.sf.mzmine.datamodel.PeakListRow#setAverageMZ(java.lang.String)
    */
   @Override
-  public void setAverageMZ(double mz) {
-    this.averageMZ = mz;
+  public synchronized void setAverageMZ(double mz) {
+    AverageValues values = getAverageValues();
+    averageValues = new AverageValues(values.version, values.rt, mz, values.height, values.area,
+        values.maxDataPointIntensity, values.charge);
   }
 
   /**
    * @see net.sf.mzmine.datamodel.PeakListRow#setAverageRT(java.lang.String)
    */
   @Override
-  public void setAverageRT(double rt) {
-    this.averageRT = rt;
+  public synchronized void setAverageRT(double rt) {
+    AverageValues values = getAverageValues();
+    averageValues = new AverageValues(values.version, rt, values.mz, values.height, values.area,
+        values.maxDataPointIntensity, values.charge);
   }
 
   /**
@@ -310,7 +327,7 @@ public class SimplePeakListRow implements PeakListRow {
    */
   @Override
   public double getDataPointMaxIntensity() {
-    return maxDataPointIntensity;
+    return getAverageValues().maxDataPointIntensity;
   }
 
   @Override
@@ -410,8 +427,29 @@ public class SimplePeakListRow implements PeakListRow {
    * Update average values
    */
   public void update() {
-    this.calculateAverageValues();
+    peaksVersion.incrementAndGet();
   }
   // End Gauthier edit
+
+  /**
+   * Average values of the peaks of this row, calculated from the given version of the peaks
+   */
+  private static final class AverageValues {
+
+    private final int version;
+    private final double rt, mz, height, area, maxDataPointIntensity;
+    private final int charge;
+
+    private AverageValues(int version, double rt, double mz, double height, double area,
+        double maxDataPointIntensity, int charge) {
+      this.version = version;
+      this.rt = rt;
+      this.mz = mz;
+      this.height = height;
+      this.area = area;
+      this.maxDataPointIntensity = maxDataPointIntensity;
+      this.charge = charge;
+    }
+  }
 }
 // End DorresteinLab edit
@@ -66,11 +66,17 @@ public class MZminePreferences extends SimpleParameterSet {
       new OptionalModuleParameter("Send error e-Mail notifications",
           "Send error e-Mail notifications", new ErrorMailSettings());
 
+  public static final BooleanParameter storeFeaturesOnDisk = new BooleanParameter(
+      "Store feature data points on disk",
+      "Keep the data points of new features in a temporary file instead of memory. This allows to process large feature lists (many samples and rows) with less memory, but accessing the data points is slower.",
+      false);
+
   public static final WindowSettingsParameter windowSetttings = new WindowSettingsParameter();
 
   public MZminePreferences() {
     super(new Parameter[] {colorPalettes, mzFormat, rtFormat, intensityFormat, numOfThreads,
-        proxySettings, rExecPath, sendStatistics, windowSetttings, sendErrorEMail});
+        proxySettings, rExecPath, sendStatistics, storeFeaturesOnDisk, windowSetttings,
+        sendErrorEMail});
   }
 
   @Override
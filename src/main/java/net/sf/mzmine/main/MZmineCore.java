@@ -21,11 +21,15 @@ package net.sf.mzmine.main;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.Hashtable;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.LogManager;
 import java.util.logging.Logger;
@@ -33,7 +37,9 @@ import java.util.logging.Logger;
 import javax.annotation.Nonnull;
 import javax.swing.SwingUtilities;
 
+import net.sf.mzmine.datamodel.RawDataFile;
 import net.sf.mzmine.datamodel.RawDataFileWriter;
+import net.sf.mzmine.datamodel.VirtualRawDataFileWriter;
 import net.sf.mzmine.desktop.Desktop;
 import net.sf.mzmine.desktop.impl.HeadLessDesktop;
 import net.sf.mzmine.desktop.impl.MainWindow;
@@ -49,6 +55,7 @@ import net.sf.mzmine.project.ProjectManager;
 import net.sf.mzmine.project.impl.MZmineProjectImpl;
 import net.sf.mzmine.project.impl.ProjectManagerImpl;
 import net.sf.mzmine.project.impl.RawDataFileImpl;
+import net.sf.mzmine.project.impl.VirtualRawDataFile;
 import net.sf.mzmine.taskcontrol.TaskController;
 import net.sf.mzmine.taskcontrol.impl.TaskControllerImpl;
 import net.sf.mzmine.util.ExitCode;
@@ -68,10 +75,12 @@ public final class MZmineCore {
   private static Map<Class<?>, MZmineModule> initializedModules =
       new Hashtable<Class<?>, MZmineModule>();
 
+  // Modules which failed to initialize, so we do not try again. Guarded by initializedModules.
+  private static Set<Class<?>> failedModules = new HashSet<Class<?>>();
+
   /**
    * Main method
    */
-  @SuppressWarnings("unchecked")
   public static void main(String args[]) {
 
     // In the beginning, set the default locale to English, to avoid
@@ -81,6 +90,9 @@ public final class MZmineCore {
 
     logger.info("Starting MZmine " + getMZmineVersion());
 
+    final long startTime = System.currentTimeMillis();
+    long phaseTime = startTime;
+
     // Remove old temporary files, if we find any
     TmpFileCleanup.removeOldTemporaryFiles();
 
@@ -98,34 +110,10 @@ public final class MZmineCore {
     projectManager.initModule();
     taskController.initModule();
 
-    logger.fine("Loading modules");
-
-    for (Class<?> moduleClass : MZmineModulesList.MODULES) {
-
-      try {
-
-        logger.finest("Loading module " + moduleClass.getName());
-
-        // Create instance and init module
-        MZmineModule moduleInstance = (MZmineModule) moduleClass.newInstance();
-
-        // Add to the module list
-        initializedModules.put(moduleClass, moduleInstance);
-
-        // Create an instance of parameter set
-        Class<? extends ParameterSet> parameterSetClass = moduleInstance.getParameterSetClass();
-        ParameterSet parameterSetInstance = parameterSetClass.newInstance();
-
-        // Add the parameter set to the configuration
-        configuration.setModuleParameters((Class<MZmineModule>) moduleClass, parameterSetInstance);
-
-      } catch (Throwable e) {
-        logger.log(Level.SEVERE, "Could not load module " + moduleClass, e);
-        e.printStackTrace();
-        continue;
-      }
+    phaseTime = logStartupPhase("Core classes initialized", phaseTime);
 
-    }
+    // Modules are initialized on demand, when they are first referenced (e.g. from a batch file)
+    // by getModuleInstance(). The GUI initializes all modules to build the menus.
 
     // If we have no arguments, run in GUI mode, otherwise run in batch mode
     if (args.length == 0) {
@@ -146,8 +134,7 @@ public final class MZmineCore {
           currentProject.activateProject();
 
           // add desktop menu icon
-          for (Class<?> moduleClass : MZmineModulesList.MODULES) {
-            MZmineModule module = initializedModules.get(moduleClass);
+          for (MZmineModule module : getAllModules()) {
             if (module instanceof MZmineRunnableModule) {
 
               mainWindow.getMainMenu().addMenuItemForModule((MZmineRunnableModule) module);
@@ -164,6 +151,7 @@ public final class MZmineCore {
         e.printStackTrace();
         System.exit(1);
       }
+      phaseTime = logStartupPhase("GUI initialized", phaseTime);
 
     } else {
       desktop = new HeadLessDesktop();
@@ -176,8 +164,11 @@ public final class MZmineCore {
       } catch (Exception e) {
         e.printStackTrace();
       }
+      logStartupPhase("Configuration loaded", phaseTime);
     }
 
+    logger.info("MZmine started in " + (System.currentTimeMillis() - startTime) + " ms");
+
     // if we have GUI, show it now
     if (desktop.getMainWindow() != null && !(desktop instanceof HeadLessDesktop)) {
       // update the size and position of the main window
@@ -273,21 +264,124 @@ public final class MZmineCore {
   }
 
   /**
-   * Returns the instance of a module of given class
+   * Returns the instance of a module of given class. The module and its parameter set are
+   * initialized when the module is first requested.
    */
   @SuppressWarnings("unchecked")
   public static <ModuleType> ModuleType getModuleInstance(Class<ModuleType> moduleClass) {
-    return (ModuleType) initializedModules.get(moduleClass);
+    synchronized (initializedModules) {
+      MZmineModule module = initializedModules.get(moduleClass);
+      if ((module == null) && !failedModules.contains(moduleClass))
+        module = initializeModule(moduleClass);
+      return (ModuleType) module;
+    }
   }
 
+  /**
+   * Returns the instance of a module of given class name, or null if there is no such module. Only
+   * the classes listed in MZmineModulesList are accepted, so class names read from batch or
+   * configuration files cannot instantiate arbitrary classes.
+   */
+  public static MZmineModule getModuleInstance(String moduleClassName) {
+    for (Class<?> moduleClass : MZmineModulesList.MODULES) {
+      if (moduleClass.getName().equals(moduleClassName))
+        return (MZmineModule) getModuleInstance(moduleClass);
+    }
+    logger.warning("Module " + moduleClassName + " does not exist");
+    return null;
+  }
+
+  /**
+   * Returns all modules in MZmineModulesList, initializing those which were not used yet
+   */
   public static Collection<MZmineModule> getAllModules() {
-    return initializedModules.values();
+    List<MZmineModule> allModules = new ArrayList<>(MZmineModulesList.MODULES.length);
+    for (Class<?> moduleClass : MZmineModulesList.MODULES) {
+      MZmineModule module = (MZmineModule) getModuleInstance(moduleClass);
+      if (module != null)
+        allModules.add(module);
+    }
+    return allModules;
+  }
+
+  /**
+   * Creates the instance of a module and registers its parameter set in the configuration. Must be
+   * called while holding the lock of initializedModules.
+   * 
+   * @return the module instance, or null if the module could not be initialized
+   */
+  @SuppressWarnings("unchecked")
+  private static MZmineModule initializeModule(Class<?> moduleClass) {
+
+    if (!MZmineModule.class.isAssignableFrom(moduleClass)) {
+      logger.warning(moduleClass + " is not an MZmine module");
+      failedModules.add(moduleClass);
+      return null;
+    }
+
+    final long startTime = System.nanoTime();
+
+    try {
+
+      logger.finest("Loading module " + moduleClass.getName());
+
+      // Create instance and init module
+      MZmineModule moduleInstance = (MZmineModule) moduleClass.newInstance();
+
+      // Add to the module list
+      initializedModules.put(moduleClass, moduleInstance);
+
+      try {
+        // Create an instance of parameter set
+        Class<? extends ParameterSet> parameterSetClass = moduleInstance.getParameterSetClass();
+        ParameterSet parameterSetInstance = parameterSetClass.newInstance();
+
+        // Add the parameter set to the configuration
+        configuration.setModuleParameters((Class<MZmineModule>) moduleClass,
+            parameterSetInstance);
+      } catch (Throwable e) {
+        initializedModules.remove(moduleClass);
+        throw e;
+      }
+
+      logger.finest("Loaded module " + moduleClass.getName() + " in "
+          + ((System.nanoTime() - startTime) / 1000000) + " ms");
+
+      return moduleInstance;
+
+    } catch (Throwable e) {
+      logger.log(Level.SEVERE, "Could not load module " + moduleClass, e);
+      e.printStackTrace();
+      failedModules.add(moduleClass);
+      return null;
+    }
+  }
+
+  /**
+   * Logs the duration of a startup phase and returns the current time, which is the start of the
+   * next phase
+   */
+  private static long logStartupPhase(String phase, long phaseStartTime) {
+    final long now = System.currentTimeMillis();
+    logger.info(phase + " in " + (now - phaseStartTime) + " ms");
+    return now;
   }
 
   public static RawDataFileWriter createNewFile(String name) throws IOException {
     return new RawDataFileImpl(name);
   }
 
+  /**
+   * Creates a raw data file derived from the given parent file, whose scans compute their data
+   * points from the parent scans when they are read
+   *
+   * @param cacheDataPoints keep the computed data points until the memory is needed
+   */
+  public static VirtualRawDataFileWriter createNewVirtualFile(String name, RawDataFile parentFile,
+      boolean cacheDataPoints) throws IOException {
+    return new VirtualRawDataFile(name, parentFile, cacheDataPoints);
+  }
+
   @Nonnull
   public static String getMZmineVersion() {
     try {
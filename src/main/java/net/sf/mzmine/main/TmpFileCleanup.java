@@ -35,11 +35,12 @@ class TmpFileCleanup {
     logger.fine("Checking for old temporary files...");
     try {
 
-      // Find all temporary files with the mask mzmine*.scans
+      // Find all temporary files with the mask mzmine*.scans (and the 2D rasters, which are stored
+      // as mzmine*.scans.pyramid) or mzmine*.features
       File tempDir = new File(System.getProperty("java.io.tmpdir"));
       File remainingTmpFiles[] = tempDir.listFiles(new FilenameFilter() {
         public boolean accept(File dir, String name) {
-          return name.matches("mzmine.*\\.scans");
+          return name.matches("mzmine.*\\.(scans(\\.pyramid)?|features)");
         }
       });
 
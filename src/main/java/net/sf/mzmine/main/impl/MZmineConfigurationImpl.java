@@ -51,6 +51,7 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.LinkOption;
 import java.text.NumberFormat;
+import java.util.ArrayList;
 import java.util.Hashtable;
 import java.util.List;
 import java.util.Map;
@@ -72,8 +73,13 @@ public class MZmineConfigurationImpl implements MZmineConfiguration {
 
   private final Map<Class<? extends MZmineModule>, ParameterSet> moduleParameters;
 
+  // Parameters of modules which were not initialized yet when the configuration was loaded, by
+  // module class name. They are applied once the module is initialized.
+  private final Map<String, Element> unappliedModuleParameters;
+
   public MZmineConfigurationImpl() {
     moduleParameters = new Hashtable<Class<? extends MZmineModule>, ParameterSet>();
+    unappliedModuleParameters = new Hashtable<String, Element>();
     preferences = new MZminePreferences();
     lastProjects = new FileNameListSilentParameter("Last projets");
     globalEncrypter = new EncryptionKeyParameter();
@@ -89,6 +95,11 @@ public class MZmineConfigurationImpl implements MZmineConfiguration {
   @Override
   public ParameterSet getModuleParameters(Class<? extends MZmineModule> moduleClass) {
     ParameterSet parameters = moduleParameters.get(moduleClass);
+    if (parameters == null) {
+      // Initializing the module registers its parameter set
+      MZmineCore.getModuleInstance(moduleClass);
+      parameters = moduleParameters.get(moduleClass);
+    }
     if (parameters == null) {
       throw new IllegalArgumentException(
           "Module " + moduleClass + " does not have any parameter set instance");
@@ -107,10 +118,29 @@ public class MZmineConfigurationImpl implements MZmineConfiguration {
       throw new IllegalArgumentException("Given parameter set is an instance of "
           + parameters.getClass() + " instead of " + parametersClass);
     }
+
+    Element unappliedElement = unappliedModuleParameters.remove(moduleClass.getName());
+    if (unappliedElement != null)
+      parameters.loadValuesFromXML(unappliedElement);
+
     moduleParameters.put(moduleClass, parameters);
 
   }
 
+  /**
+   * Returns the parameter set of an already initialized module of given class name, or null
+   */
+  private ParameterSet getInitializedModuleParameters(String className) {
+    synchronized (moduleParameters) {
+      for (Map.Entry<Class<? extends MZmineModule>, ParameterSet> entry : moduleParameters
+          .entrySet()) {
+        if (entry.getKey().getName().equals(className))
+          return entry.getValue();
+      }
+    }
+    return null;
+  }
+
   // color palettes
   @Override
   public ColorPalettes.Vision getColorVision() {
@@ -183,19 +213,25 @@ public class MZmineConfigurationImpl implements MZmineConfiguration {
 
       logger.finest("Loading modules configuration");
 
-      for (MZmineModule module : MZmineCore.getAllModules()) {
+      // Only the parameters of modules which are already initialized are loaded now, the others
+      // when their module is initialized
+      expr = xpath.compile("//configuration/modules/module");
+      nodes = (NodeList) expr.evaluate(configuration, XPathConstants.NODESET);
+      for (int i = 0; i < nodes.getLength(); i++) {
 
-        String className = module.getClass().getName();
-        expr =
-            xpath.compile("//configuration/modules/module[@class='" + className + "']/parameters");
-        nodes = (NodeList) expr.evaluate(configuration, XPathConstants.NODESET);
-        if (nodes.getLength() != 1)
+        Element moduleElement = (Element) nodes.item(i);
+        String className = moduleElement.getAttribute("class");
+        NodeList paramNodes = moduleElement.getElementsByTagName("parameters");
+        if (paramNodes.getLength() != 1)
           continue;
 
-        Element moduleElement = (Element) nodes.item(0);
+        Element paramElement = (Element) paramNodes.item(0);
 
-        ParameterSet moduleParameters = getModuleParameters(module.getClass());
-        moduleParameters.loadValuesFromXML(moduleElement);
+        ParameterSet moduleParameters = getInitializedModuleParameters(className);
+        if (moduleParameters != null)
+          moduleParameters.loadValuesFromXML(paramElement);
+        else
+          unappliedModuleParameters.put(className, paramElement);
       }
 
       logger.info("Loaded configuration from file " + file);
@@ -229,10 +265,23 @@ public class MZmineConfigurationImpl implements MZmineConfiguration {
       Element modulesElement = configuration.createElement("modules");
       configRoot.appendChild(modulesElement);
 
-      // traverse modules
-      for (MZmineModule module : MZmineCore.getAllModules()) {
+      // sensitive parameters can only be skipped by the parameter set, so the modules with
+      // unapplied parameters have to be initialized
+      if (skipSensitive) {
+        for (String className : new ArrayList<>(unappliedModuleParameters.keySet())) {
+          if (MZmineCore.getModuleInstance(className) == null)
+            unappliedModuleParameters.remove(className);
+        }
+      }
+
+      // traverse initialized modules
+      final List<Map.Entry<Class<? extends MZmineModule>, ParameterSet>> initializedModules;
+      synchronized (moduleParameters) {
+        initializedModules = new ArrayList<>(moduleParameters.entrySet());
+      }
+      for (Map.Entry<Class<? extends MZmineModule>, ParameterSet> entry : initializedModules) {
 
-        String className = module.getClass().getName();
+        String className = entry.getKey().getName();
 
         Element moduleElement = configuration.createElement("module");
         moduleElement.setAttribute("class", className);
@@ -241,11 +290,25 @@ public class MZmineConfigurationImpl implements MZmineConfiguration {
         Element paramElement = configuration.createElement("parameters");
         moduleElement.appendChild(paramElement);
 
-        ParameterSet moduleParameters = getModuleParameters(module.getClass());
+        ParameterSet moduleParameters = entry.getValue();
         moduleParameters.setSkipSensitiveParameters(skipSensitive);
         moduleParameters.saveValuesToXML(paramElement);
       }
 
+      // keep the loaded parameters of modules which were not initialized
+      final List<Map.Entry<String, Element>> unappliedModules;
+      synchronized (unappliedModuleParameters) {
+        unappliedModules = new ArrayList<>(unappliedModuleParameters.entrySet());
+      }
+      for (Map.Entry<String, Element> entry : unappliedModules) {
+
+        Element moduleElement = configuration.createElement("module");
+        moduleElement.setAttribute("class", entry.getKey());
+        modulesElement.appendChild(moduleElement);
+
+        moduleElement.appendChild(configuration.importNode(entry.getValue(), true));
+      }
+
       // save encryption key to local config only
       // ATTENTION: this should to be written after all other configs
       final SimpleParameterSet encSet = new SimpleParameterSet(new Parameter[]{globalEncrypter});
@@ -27,6 +27,7 @@ import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import org.w3c.dom.Document;
 import net.sf.mzmine.datamodel.MZmineProject;
+import net.sf.mzmine.main.MZmineCore;
 import net.sf.mzmine.modules.MZmineModuleCategory;
 import net.sf.mzmine.modules.MZmineProcessingModule;
 import net.sf.mzmine.parameters.ParameterSet;
@@ -59,7 +60,7 @@ public class BatchModeModule implements MZmineProcessingModule {
   @Nonnull
   public ExitCode runModule(@Nonnull MZmineProject project, @Nonnull ParameterSet parameters,
       @Nonnull Collection<Task> tasks) {
-    BatchTask newTask = new BatchTask(project, parameters);
+    Task newTask = createBatchTask(project, parameters);
 
     /*
      * We do not add the task to the tasks collection, but instead directly submit to the task
@@ -87,7 +88,14 @@ public class BatchModeModule implements MZmineProcessingModule {
       BatchQueue newQueue = BatchQueue.loadFromXml(parsedBatchXML.getDocumentElement());
       ParameterSet parameters = new BatchModeParameters();
       parameters.getParameter(BatchModeParameters.batchQueue).setValue(newQueue);
-      Task batchTask = new BatchTask(project, parameters);
+
+      // The batch file only contains the queue, take the execution mode from the configuration
+      Boolean parallelFiles = MZmineCore.getConfiguration()
+          .getModuleParameters(BatchModeModule.class)
+          .getParameter(BatchModeParameters.parallelFiles).getValue();
+      parameters.getParameter(BatchModeParameters.parallelFiles).setValue(parallelFiles);
+
+      Task batchTask = createBatchTask(project, parameters);
       batchTask.run();
       if (batchTask.getStatus() == TaskStatus.FINISHED)
         return ExitCode.OK;
@@ -101,6 +109,13 @@ public class BatchModeModule implements MZmineProcessingModule {
 
   }
 
+  private static Task createBatchTask(MZmineProject project, ParameterSet parameters) {
+    Boolean parallelFiles = parameters.getParameter(BatchModeParameters.parallelFiles).getValue();
+    if ((parallelFiles != null) && parallelFiles)
+      return new ParallelBatchTask(project, parameters);
+    return new BatchTask(project, parameters);
+  }
+
   @Override
   public @Nonnull Class<? extends ParameterSet> getParameterSetClass() {
     return BatchModeParameters.class;
@@ -23,6 +23,7 @@ import java.util.logging.Logger;
 import net.sf.mzmine.parameters.Parameter;
 import net.sf.mzmine.parameters.dialogs.ParameterSetupDialog;
 import net.sf.mzmine.parameters.impl.SimpleParameterSet;
+import net.sf.mzmine.parameters.parametertypes.BooleanParameter;
 import net.sf.mzmine.parameters.parametertypes.filenames.FileNameListSilentParameter;
 import net.sf.mzmine.util.ExitCode;
 
@@ -33,8 +34,13 @@ public class BatchModeParameters extends SimpleParameterSet {
   public static final FileNameListSilentParameter lastFiles = new FileNameListSilentParameter("Last used files");
   public static final BatchQueueParameter batchQueue = new BatchQueueParameter();
 
+  public static final BooleanParameter parallelFiles = new BooleanParameter(
+      "Parallel per-file processing",
+      "Run the steps which process each raw data file independently (e.g. import, mass detection, chromatogram building, deconvolution, deisotoping) in parallel for each file, and wait for all files only before other steps (e.g. alignment, gap filling)",
+      false);
+
   public BatchModeParameters() {
-    super(new Parameter[] {batchQueue, lastFiles});
+    super(new Parameter[] {batchQueue, parallelFiles, lastFiles});
   }
 
   @Override
@@ -18,7 +18,6 @@
 
 package net.sf.mzmine.modules.batchmode;
 
-import java.util.Collection;
 import java.util.Vector;
 
 import net.sf.mzmine.main.MZmineCore;
@@ -80,9 +79,6 @@ public class BatchQueue extends Vector<MZmineProcessingStep<MZmineProcessingModu
     // Create an empty queue.
     final BatchQueue queue = new BatchQueue();
 
-    // Get the loaded modules.
-    final Collection<MZmineModule> allModules = MZmineCore.getAllModules();
-
     // Process the batch step elements.
     final NodeList nodes = xmlElement.getElementsByTagName(BATCH_STEP_ELEMENT);
     final int nodesLength = nodes.getLength();
@@ -91,21 +87,17 @@ public class BatchQueue extends Vector<MZmineProcessingStep<MZmineProcessingModu
       final Element stepElement = (Element) nodes.item(i);
       final String methodName = stepElement.getAttribute(METHOD_ELEMENT);
 
-      // Find a matching module.
-      for (final MZmineModule module : allModules) {
-
-        if (module instanceof MZmineProcessingModule
-            && module.getClass().getName().equals(methodName)) {
-
-          // Get parameters and add step to queue.
-          final ParameterSet parameterSet =
-              MZmineCore.getConfiguration().getModuleParameters(module.getClass());
-          final ParameterSet methodParams = parameterSet.cloneParameterSet();
-          methodParams.loadValuesFromXML(stepElement);
-          queue.add(new MZmineProcessingStepImpl<MZmineProcessingModule>(
-              (MZmineProcessingModule) module, methodParams));
-          break;
-        }
+      // Find the matching module, it is initialized on first use.
+      final MZmineModule module = MZmineCore.getModuleInstance(methodName);
+      if (module instanceof MZmineProcessingModule) {
+
+        // Get parameters and add step to queue.
+        final ParameterSet parameterSet =
+            MZmineCore.getConfiguration().getModuleParameters(module.getClass());
+        final ParameterSet methodParams = parameterSet.cloneParameterSet();
+        methodParams.loadValuesFromXML(stepElement);
+        queue.add(new MZmineProcessingStepImpl<MZmineProcessingModule>(
+            (MZmineProcessingModule) module, methodParams));
       }
     }
 
@@ -115,11 +115,6 @@ public class BatchTask extends AbstractTask {
 
     logger.info("Starting step # " + (stepNumber + 1));
 
-    // Run next step of the batch
-    MZmineProcessingStep<?> currentStep = queue.get(stepNumber);
-    MZmineProcessingModule method = (MZmineProcessingModule) currentStep.getModule();
-    ParameterSet batchStepParameters = currentStep.getParameterSet();
-
     // If the last step did not produce any data files or feature lists, use
     // the ones from the previous step
     if (createdDataFiles.isEmpty())
@@ -127,25 +122,8 @@ public class BatchTask extends AbstractTask {
     if (createdPeakLists.isEmpty())
       createdPeakLists.addAll(previousCreatedPeakLists);
 
-    // Update the RawDataFilesParameter parameters to reflect the current
-    // state of the batch
-    for (Parameter<?> p : batchStepParameters.getParameters()) {
-      if (p instanceof RawDataFilesParameter) {
-        RawDataFilesParameter rdp = (RawDataFilesParameter) p;
-        RawDataFile createdFiles[] = createdDataFiles.toArray(new RawDataFile[0]);
-        rdp.getValue().setBatchLastFiles(createdFiles);
-      }
-    }
-
-    // Update the PeakListsParameter parameters to reflect the current
-    // state of the batch
-    for (Parameter<?> p : batchStepParameters.getParameters()) {
-      if (p instanceof PeakListsParameter) {
-        PeakListsParameter rdp = (PeakListsParameter) p;
-        PeakList createdPls[] = createdPeakLists.toArray(new PeakList[0]);
-        rdp.getValue().setBatchLastPeakLists(createdPls);
-      }
-    }
+    RawDataFile createdFiles[] = createdDataFiles.toArray(new RawDataFile[0]);
+    PeakList createdPls[] = createdPeakLists.toArray(new PeakList[0]);
 
     // Clear the saved data files and feature lists. Save them to the
     // "previous" lists, in case the next step does not produce any new data
@@ -156,84 +134,124 @@ public class BatchTask extends AbstractTask {
     createdDataFiles.clear();
     createdPeakLists.clear();
 
-    // Check if the parameter settings are valid
-    ArrayList<String> messages = new ArrayList<String>();
-    boolean paramsCheck = batchStepParameters.checkParameterValues(messages);
-    if (!paramsCheck) {
-      setStatus(TaskStatus.ERROR);
-      setErrorMessage("Invalid parameter settings for module " + method.getName() + ": "
-          + Arrays.toString(messages.toArray()));
-    }
-
-    ArrayList<Task> currentStepTasks = new ArrayList<Task>();
-    ExitCode exitCode = method.runModule(project, batchStepParameters, currentStepTasks);
-
-    if (exitCode != ExitCode.OK) {
-      setStatus(TaskStatus.ERROR);
-      setErrorMessage("Could not start batch step " + method.getName());
+    List<Task> currentStepTasks =
+        createStepTasks(this, project, queue.get(stepNumber), createdFiles, createdPls, false);
+    if (currentStepTasks == null)
       return;
-    }
 
     // If current step didn't produce any tasks, continue with next step
     if (currentStepTasks.isEmpty())
       return;
 
-    boolean allTasksFinished = false;
-
     // Submit the tasks to the task controller for processing
     MZmineCore.getTaskController().addTasks(currentStepTasks.toArray(new Task[0]));
 
-    while (!allTasksFinished) {
+    while (!checkTasks(this, currentStepTasks)) {
 
-      // If we canceled the batch, cancel all running tasks
+      // If we canceled the batch or ran into error, cancel all running tasks
       if (isCanceled()) {
         for (Task stepTask : currentStepTasks)
           stepTask.cancel();
         return;
       }
 
-      // First set to true, then check all tasks
-      allTasksFinished = true;
+      // Wait 1s before checking the tasks again
+      synchronized (this) {
+        try {
+          this.wait(1000);
+        } catch (InterruptedException e) {
+          // ignore
+        }
+      }
+
+    }
 
-      for (Task stepTask : currentStepTasks) {
+  }
 
-        TaskStatus stepStatus = stepTask.getStatus();
+  /**
+   * Creates the tasks of a batch step on given data files and feature lists. This is shared by
+   * BatchTask and ParallelBatchTask.
+   *
+   * @param batchTask batch which gets the error status if the step cannot be started
+   * @param copyParameters if true, the tasks get their own copy of the step parameters, so several
+   *        pipelines can run the same step at the same time
+   * @return Created tasks, or null if the step failed
+   */
+  static List<Task> createStepTasks(AbstractTask batchTask, MZmineProject project,
+      MZmineProcessingStep<?> step, RawDataFile dataFiles[], PeakList peakLists[],
+      boolean copyParameters) {
+
+    MZmineProcessingModule method = (MZmineProcessingModule) step.getModule();
+    ParameterSet batchStepParameters = step.getParameterSet();
+    if (copyParameters)
+      batchStepParameters = batchStepParameters.cloneParameterSet();
+
+    // Update the RawDataFilesParameter and PeakListsParameter parameters to
+    // reflect the current state of the batch
+    for (Parameter<?> p : batchStepParameters.getParameters()) {
+      if (p instanceof RawDataFilesParameter)
+        ((RawDataFilesParameter) p).getValue().setBatchLastFiles(dataFiles);
+      if (p instanceof PeakListsParameter)
+        ((PeakListsParameter) p).getValue().setBatchLastPeakLists(peakLists);
+    }
 
-        // If any of them is not finished, keep checking
-        if (stepStatus != TaskStatus.FINISHED)
-          allTasksFinished = false;
+    // Check if the parameter settings are valid
+    ArrayList<String> messages = new ArrayList<String>();
+    boolean paramsCheck = batchStepParameters.checkParameterValues(messages);
+    if (!paramsCheck) {
+      batchTask.setStatus(TaskStatus.ERROR);
+      batchTask.setErrorMessage("Invalid parameter settings for module " + method.getName()
+          + ": " + Arrays.toString(messages.toArray()));
+      return null;
+    }
 
-        // If there was an error, we have to stop the whole batch
-        if (stepStatus == TaskStatus.ERROR) {
-          setStatus(TaskStatus.ERROR);
-          setErrorMessage(stepTask.getTaskDescription() + ": " + stepTask.getErrorMessage());
-          return;
-        }
+    ArrayList<Task> moduleTasks = new ArrayList<Task>();
+    ExitCode exitCode = method.runModule(project, batchStepParameters, moduleTasks);
 
-        // If user canceled any of the tasks, we have to cancel the
-        // whole batch
-        if (stepStatus == TaskStatus.CANCELED) {
-          setStatus(TaskStatus.CANCELED);
-          for (Task t : currentStepTasks)
-            t.cancel();
-          return;
-        }
+    if (exitCode != ExitCode.OK) {
+      batchTask.setStatus(TaskStatus.ERROR);
+      batchTask.setErrorMessage("Could not start batch step " + method.getName());
+      return null;
+    }
+
+    return moduleTasks;
+  }
+
+  /**
+   * Checks the status of the tasks of a step. If any of them failed or was canceled, the batch
+   * task gets the same status.
+   *
+   * @return true if all tasks finished
+   */
+  static boolean checkTasks(AbstractTask batchTask, List<Task> stepTasks) {
+
+    boolean allTasksFinished = true;
 
+    for (Task stepTask : stepTasks) {
+
+      TaskStatus stepStatus = stepTask.getStatus();
+
+      // If any of them is not finished, keep checking
+      if (stepStatus != TaskStatus.FINISHED)
+        allTasksFinished = false;
+
+      // If there was an error, we have to stop the whole batch
+      if (stepStatus == TaskStatus.ERROR) {
+        batchTask.setStatus(TaskStatus.ERROR);
+        batchTask
+            .setErrorMessage(stepTask.getTaskDescription() + ": " + stepTask.getErrorMessage());
+        return false;
       }
 
-      // Wait 1s before checking the tasks again
-      if (!allTasksFinished) {
-        synchronized (this) {
-          try {
-            this.wait(1000);
-          } catch (InterruptedException e) {
-            // ignore
-          }
-        }
+      // If user canceled any of the tasks, we have to cancel the whole batch
+      if (stepStatus == TaskStatus.CANCELED) {
+        batchTask.setStatus(TaskStatus.CANCELED);
+        return false;
       }
 
     }
 
+    return allTasksFinished;
   }
 
   @Override
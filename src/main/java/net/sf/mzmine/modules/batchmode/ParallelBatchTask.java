@@ -0,0 +1,630 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.modules.batchmode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Logger;
+import net.sf.mzmine.datamodel.MZmineProject;
+import net.sf.mzmine.datamodel.MZmineProjectListener;
+import net.sf.mzmine.datamodel.PeakList;
+import net.sf.mzmine.datamodel.RawDataFile;
+import net.sf.mzmine.main.MZmineCore;
+import net.sf.mzmine.modules.MZmineProcessingStep;
+import net.sf.mzmine.modules.masslistmethods.ADAPchromatogrambuilder.ADAPChromatogramBuilderModule;
+import net.sf.mzmine.modules.masslistmethods.chromatogrambuilder.ChromatogramBuilderModule;
+import net.sf.mzmine.modules.masslistmethods.shoulderpeaksfilter.ShoulderPeaksFilterModule;
+import net.sf.mzmine.modules.peaklistmethods.filtering.duplicatefilter.DuplicateFilterModule;
+import net.sf.mzmine.modules.peaklistmethods.filtering.groupms2.GroupMS2Module;
+import net.sf.mzmine.modules.peaklistmethods.filtering.peakfilter.PeakFilterModule;
+import net.sf.mzmine.modules.peaklistmethods.isotopes.deisotoper.IsotopeGrouperModule;
+import net.sf.mzmine.modules.peaklistmethods.peakpicking.deconvolution.DeconvolutionModule;
+import net.sf.mzmine.modules.peaklistmethods.peakpicking.peakextender.PeakExtenderModule;
+import net.sf.mzmine.modules.peaklistmethods.peakpicking.shapemodeler.ShapeModelerModule;
+import net.sf.mzmine.modules.peaklistmethods.peakpicking.smoothing.SmoothingModule;
+import net.sf.mzmine.modules.rawdatamethods.filtering.cropper.CropFilterModule;
+import net.sf.mzmine.modules.rawdatamethods.filtering.scanfilters.ScanFiltersModule;
+import net.sf.mzmine.modules.rawdatamethods.filtering.scansmoothing.ScanSmoothingModule;
+import net.sf.mzmine.modules.rawdatamethods.peakpicking.massdetection.MassDetectionModule;
+import net.sf.mzmine.modules.rawdatamethods.rawdataimport.RawDataImportModule;
+import net.sf.mzmine.parameters.Parameter;
+import net.sf.mzmine.parameters.ParameterSet;
+import net.sf.mzmine.parameters.parametertypes.selectors.PeakListsParameter;
+import net.sf.mzmine.parameters.parametertypes.selectors.PeakListsSelectionType;
+import net.sf.mzmine.parameters.parametertypes.selectors.RawDataFilesParameter;
+import net.sf.mzmine.parameters.parametertypes.selectors.RawDataFilesSelectionType;
+import net.sf.mzmine.taskcontrol.AbstractTask;
+import net.sf.mzmine.taskcontrol.Task;
+import net.sf.mzmine.taskcontrol.TaskPriority;
+import net.sf.mzmine.taskcontrol.TaskStatus;
+
+/**
+ * Batch mode task which processes each raw data file in its own pipeline. Consecutive batch steps
+ * which process every file independently (import, mass detection, chromatogram building,
+ * deconvolution, deisotoping etc.) run for all files in parallel, and each file continues with its
+ * next step as soon as its own tasks finished, so a slow file does not stall the others. Steps
+ * which only work on feature lists (e.g. filters after the alignment) run in one pipeline for each
+ * feature list instead. All pipelines are synchronized before any other step (e.g. alignment or
+ * gap filling), which runs on all files at once, same as in BatchTask. The wall time of each step
+ * and file is logged when the batch is finished.
+ */
+public class ParallelBatchTask extends AbstractTask {
+
+  private Logger logger = Logger.getLogger(this.getClass().getName());
+
+  /**
+   * Modules which process each raw data file or feature list independently of the others
+   */
+  private static final Set<Class<?>> PIPELINE_MODULES = new HashSet<>(Arrays.asList(
+      RawDataImportModule.class, CropFilterModule.class, ScanFiltersModule.class,
+      ScanSmoothingModule.class, MassDetectionModule.class, ShoulderPeaksFilterModule.class,
+      ChromatogramBuilderModule.class, ADAPChromatogramBuilderModule.class,
+      DeconvolutionModule.class, SmoothingModule.class, ShapeModelerModule.class,
+      PeakExtenderModule.class, IsotopeGrouperModule.class, GroupMS2Module.class,
+      PeakFilterModule.class, DuplicateFilterModule.class));
+
+  private final int totalSteps;
+  private volatile double processedSteps;
+
+  private MZmineProject project;
+  private final BatchQueue queue;
+
+  // Data files and feature lists created by the last synchronized step, or by all pipelines
+  private final List<RawDataFile> createdDataFiles, previousCreatedDataFiles;
+  private final List<PeakList> createdPeakLists, previousCreatedPeakLists;
+
+  // Pipeline of the task running in the current thread, to assign new items to their pipeline
+  private final ThreadLocal<Pipeline> currentPipeline = new ThreadLocal<>();
+
+  // Set when any task of this batch finished
+  private boolean taskFinished = false;
+
+  private final List<String> timings = Collections.synchronizedList(new ArrayList<>());
+
+  ParallelBatchTask(MZmineProject project, ParameterSet parameters) {
+    this.project = project;
+    this.queue = parameters.getParameter(BatchModeParameters.batchQueue).getValue();
+    totalSteps = queue.size();
+    createdDataFiles = Collections.synchronizedList(new ArrayList<>());
+    createdPeakLists = Collections.synchronizedList(new ArrayList<>());
+    previousCreatedDataFiles = new ArrayList<>();
+    previousCreatedPeakLists = new ArrayList<>();
+  }
+
+  @Override
+  public void run() {
+
+    setStatus(TaskStatus.PROCESSING);
+    logger.info("Starting a batch of " + totalSteps + " steps with parallel per-file processing");
+
+    // Listen for new items in the project
+    MZmineProjectListener listener = new MZmineProjectListener() {
+      @Override
+      public void peakListAdded(PeakList newPeakList) {
+        Pipeline pipeline = currentPipeline.get();
+        if (pipeline != null)
+          pipeline.createdPeakLists.add(newPeakList);
+        else
+          createdPeakLists.add(newPeakList);
+      }
+
+      @Override
+      public void dataFileAdded(RawDataFile newFile) {
+        Pipeline pipeline = currentPipeline.get();
+        if (pipeline != null)
+          pipeline.createdDataFiles.add(newFile);
+        else
+          createdDataFiles.add(newFile);
+      }
+    };
+    project.addProjectListener(listener);
+
+    int stepNumber = 0;
+    while (stepNumber < totalSteps) {
+
+      if (isPipelineStep(stepNumber)) {
+        // Run all following per-file steps in pipelines. A source step (e.g. raw data import)
+        // starts new pipelines, otherwise it would run once in every pipeline. A data file step
+        // after a feature list step starts new pipelines too, because a feature list may contain
+        // several data files.
+        int lastStep = stepNumber;
+        while ((lastStep + 1 < totalSteps) && isPipelineStep(lastStep + 1)
+            && !isSourceStep(lastStep + 1)
+            && !(isPeakListStep(lastStep) && isDataFileStep(lastStep + 1)))
+          lastStep++;
+        processPipelineSteps(stepNumber, lastStep);
+        stepNumber = lastStep + 1;
+      } else {
+        processQueueStep(stepNumber);
+        stepNumber++;
+      }
+      processedSteps = stepNumber;
+
+      // Update the project reference in case new project was loaded
+      if (project != MZmineCore.getProjectManager().getCurrentProject()) {
+        project.removeProjectListener(listener);
+        project = MZmineCore.getProjectManager().getCurrentProject();
+        project.addProjectListener(listener);
+      }
+
+      // If we are canceled or ran into error, stop here
+      if (isCanceled()) {
+        project.removeProjectListener(listener);
+        return;
+      }
+
+    }
+
+    project.removeProjectListener(listener);
+
+    StringBuilder report = new StringBuilder("Finished a batch of " + totalSteps + " steps");
+    synchronized (timings) {
+      for (String timing : timings)
+        report.append("\n").append(timing);
+    }
+    logger.info(report.toString());
+
+    setStatus(TaskStatus.FINISHED);
+
+  }
+
+  /**
+   * Runs a step which is not processed per file, on all data files and feature lists created by
+   * the previous steps, and waits for all its tasks
+   */
+  private void processQueueStep(int stepNumber) {
+
+    logger.info("Starting step # " + (stepNumber + 1));
+
+    // If the last step did not produce any data files or feature lists, use
+    // the ones from the previous step
+    synchronized (createdDataFiles) {
+      if (createdDataFiles.isEmpty())
+        createdDataFiles.addAll(previousCreatedDataFiles);
+      previousCreatedDataFiles.clear();
+      previousCreatedDataFiles.addAll(createdDataFiles);
+      createdDataFiles.clear();
+    }
+    synchronized (createdPeakLists) {
+      if (createdPeakLists.isEmpty())
+        createdPeakLists.addAll(previousCreatedPeakLists);
+      previousCreatedPeakLists.clear();
+      previousCreatedPeakLists.addAll(createdPeakLists);
+      createdPeakLists.clear();
+    }
+
+    final long startTime = System.currentTimeMillis();
+
+    List<Task> stepTasks =
+        startStep(stepNumber, previousCreatedDataFiles.toArray(new RawDataFile[0]),
+            previousCreatedPeakLists.toArray(new PeakList[0]), null);
+    if (stepTasks == null)
+      return;
+
+    while (!isCanceled()) {
+      if (BatchTask.checkTasks(this, stepTasks)) {
+        addTiming(stepNumber, "all files", startTime);
+        return;
+      }
+      waitForTasks();
+    }
+
+    for (Task stepTask : stepTasks)
+      stepTask.cancel();
+
+  }
+
+  /**
+   * Runs the given range of per-file steps in parallel pipelines
+   */
+  private void processPipelineSteps(int firstStep, int lastStep) {
+
+    logger.info("Starting steps # " + (firstStep + 1) + " - " + (lastStep + 1)
+        + " in parallel for each file");
+
+    // Same as in processQueueStep, use the latest created data files and feature lists
+    final RawDataFile inputDataFiles[];
+    final PeakList inputPeakLists[];
+    synchronized (createdDataFiles) {
+      if (createdDataFiles.isEmpty())
+        createdDataFiles.addAll(previousCreatedDataFiles);
+      inputDataFiles = createdDataFiles.toArray(new RawDataFile[0]);
+      createdDataFiles.clear();
+    }
+    synchronized (createdPeakLists) {
+      if (createdPeakLists.isEmpty())
+        createdPeakLists.addAll(previousCreatedPeakLists);
+      inputPeakLists = createdPeakLists.toArray(new PeakList[0]);
+      createdPeakLists.clear();
+    }
+
+    final List<Pipeline> pipelines = new ArrayList<>();
+
+    if (isSourceStep(firstStep)) {
+
+      // The first step (e.g. raw data import) does not have any input files, so we run it once and
+      // create one pipeline for each of its tasks
+      List<Task> sourceTasks = BatchTask.createStepTasks(this, project, queue.get(firstStep),
+          inputDataFiles, inputPeakLists, true);
+      if (sourceTasks == null)
+        return;
+      final long startTime = System.currentTimeMillis();
+      for (Task sourceTask : sourceTasks) {
+        Pipeline pipeline =
+            new Pipeline(sourceTask.getTaskDescription(), new RawDataFile[0], new PeakList[0]);
+        // Name the pipeline by the file created by its task
+        pipeline.renameByDataFile = true;
+        pipeline.stepNumber = firstStep;
+        pipeline.stepStartTime = startTime;
+        pipeline.stepTasks = Collections.singletonList(new PipelineTask(sourceTask, pipeline));
+        pipelines.add(pipeline);
+      }
+      List<Task> wrappedTasks = new ArrayList<>();
+      for (Pipeline pipeline : pipelines)
+        wrappedTasks.addAll(pipeline.stepTasks);
+      MZmineCore.getTaskController().addTasks(wrappedTasks.toArray(new Task[0]));
+
+    } else if (isDataFileStep(firstStep)) {
+
+      // One pipeline for each data file, together with the feature lists of that file
+      for (RawDataFile dataFile : inputDataFiles) {
+        List<PeakList> filePeakLists = new ArrayList<>();
+        for (PeakList peakList : inputPeakLists) {
+          RawDataFile peakListFiles[] = peakList.getRawDataFiles();
+          if ((peakListFiles.length == 1) && (peakListFiles[0] == dataFile))
+            filePeakLists.add(peakList);
+        }
+        pipelines.add(new Pipeline(dataFile.getName(), new RawDataFile[] {dataFile},
+            filePeakLists.toArray(new PeakList[0])));
+      }
+
+    } else {
+
+      // One pipeline for each feature list. The range contains only feature list steps, so the
+      // pipelines do not need any data files.
+      for (PeakList peakList : inputPeakLists) {
+        pipelines.add(
+            new Pipeline(peakList.getName(), new RawDataFile[0], new PeakList[] {peakList}));
+      }
+
+    }
+
+    if (!isSourceStep(firstStep)) {
+      for (Pipeline pipeline : pipelines) {
+        pipeline.stepNumber = firstStep - 1;
+        startNextStep(pipeline, lastStep);
+        if (isCanceled())
+          break;
+      }
+    }
+
+    final int numOfPipelines = pipelines.size();
+    final int numOfSteps = lastStep - firstStep + 1;
+    int finishedPipelineSteps = 0;
+
+    while (!isCanceled()) {
+
+      boolean allPipelinesFinished = true;
+
+      for (Pipeline pipeline : pipelines) {
+
+        if (pipeline.stepTasks == null)
+          continue;
+
+        // Start the following steps of the pipeline until one of them is still running
+        while ((pipeline.stepTasks != null) && BatchTask.checkTasks(this, pipeline.stepTasks)) {
+          pipeline.finishStep();
+          addTiming(pipeline.stepNumber, pipeline.name, pipeline.stepStartTime);
+          finishedPipelineSteps++;
+          processedSteps = firstStep + (double) finishedPipelineSteps / numOfPipelines;
+          startNextStep(pipeline, lastStep);
+        }
+
+        if (isCanceled())
+          break;
+
+        if (pipeline.stepTasks != null)
+          allPipelinesFinished = false;
+      }
+
+      if (isCanceled())
+        break;
+
+      if (allPipelinesFinished) {
+
+        // The items created by the last step of each pipeline are the input of the next step. If
+        // the pipelines did not create any, the inputs of the range are used again.
+        synchronized (createdDataFiles) {
+          previousCreatedDataFiles.clear();
+          previousCreatedDataFiles.addAll(Arrays.asList(inputDataFiles));
+          for (Pipeline pipeline : pipelines)
+            createdDataFiles.addAll(Arrays.asList(pipeline.dataFiles));
+        }
+        synchronized (createdPeakLists) {
+          previousCreatedPeakLists.clear();
+          previousCreatedPeakLists.addAll(Arrays.asList(inputPeakLists));
+          for (Pipeline pipeline : pipelines)
+            createdPeakLists.addAll(Arrays.asList(pipeline.peakLists));
+        }
+
+        logger.info("Finished steps # " + (firstStep + 1) + " - " + (lastStep + 1) + " for "
+            + numOfPipelines + " pipelines (" + numOfSteps + " steps each)");
+        return;
+      }
+
+      waitForTasks();
+    }
+
+    // If we canceled the batch or ran into an error, cancel all running tasks
+    for (Pipeline pipeline : pipelines) {
+      if (pipeline.stepTasks == null)
+        continue;
+      for (Task stepTask : pipeline.stepTasks)
+        stepTask.cancel();
+    }
+
+  }
+
+  /**
+   * Starts the next step of the pipeline. Steps which do not create any tasks are skipped.
+   *
+   * If the pipeline finished its last step or the batch failed, its tasks are set to null.
+   */
+  private void startNextStep(Pipeline pipeline, int lastStep) {
+    while (pipeline.stepNumber < lastStep) {
+      pipeline.stepNumber++;
+      pipeline.stepStartTime = System.currentTimeMillis();
+      pipeline.stepTasks =
+          startStep(pipeline.stepNumber, pipeline.dataFiles, pipeline.peakLists, pipeline);
+      if ((pipeline.stepTasks == null) || !pipeline.stepTasks.isEmpty())
+        return;
+    }
+    pipeline.stepTasks = null;
+  }
+
+  /**
+   * Starts the tasks of a batch step on given data files and feature lists, for given pipeline or
+   * for all files if the pipeline is null
+   *
+   * @return Started tasks, or null if the step failed
+   */
+  private List<Task> startStep(int stepNumber, RawDataFile dataFiles[], PeakList peakLists[],
+      Pipeline pipeline) {
+
+    List<Task> moduleTasks = BatchTask.createStepTasks(this, project, queue.get(stepNumber),
+        dataFiles, peakLists, pipeline != null);
+    if (moduleTasks == null)
+      return null;
+
+    List<Task> stepTasks = new ArrayList<>();
+    for (Task moduleTask : moduleTasks)
+      stepTasks.add(new PipelineTask(moduleTask, pipeline));
+
+    // Submit the tasks to the task controller for processing
+    if (!stepTasks.isEmpty())
+      MZmineCore.getTaskController().addTasks(stepTasks.toArray(new Task[0]));
+
+    return stepTasks;
+  }
+
+  /**
+   * Waits until any task of this batch finishes, at most 1s
+   */
+  private synchronized void waitForTasks() {
+    if (!taskFinished) {
+      try {
+        this.wait(1000);
+      } catch (InterruptedException e) {
+        // ignore
+      }
+    }
+    taskFinished = false;
+  }
+
+  private synchronized void notifyTaskFinished() {
+    taskFinished = true;
+    this.notifyAll();
+  }
+
+  private void addTiming(int stepNumber, String fileName, long startTime) {
+    String moduleName = queue.get(stepNumber).getModule().getName();
+    timings.add("Step # " + (stepNumber + 1) + " (" + moduleName + ") on " + fileName + ": "
+        + (System.currentTimeMillis() - startTime) + " ms");
+  }
+
+  /**
+   * Checks whether the given step processes each data file or feature list independently, and
+   * works on the items created by the previous batch step
+   */
+  private boolean isPipelineStep(int stepNumber) {
+    MZmineProcessingStep<?> step = queue.get(stepNumber);
+    if (!PIPELINE_MODULES.contains(step.getModule().getClass()))
+      return false;
+    for (Parameter<?> p : step.getParameterSet().getParameters()) {
+      if ((p instanceof RawDataFilesParameter) && (((RawDataFilesParameter) p).getValue()
+          .getSelectionType() != RawDataFilesSelectionType.BATCH_LAST_FILES))
+        return false;
+      if ((p instanceof PeakListsParameter) && (((PeakListsParameter) p).getValue()
+          .getSelectionType() != PeakListsSelectionType.BATCH_LAST_PEAKLISTS))
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * Checks whether the given step works on raw data files
+   */
+  private boolean isDataFileStep(int stepNumber) {
+    for (Parameter<?> p : queue.get(stepNumber).getParameterSet().getParameters()) {
+      if (p instanceof RawDataFilesParameter)
+        return true;
+    }
+    return false;
+  }
+
+  /**
+   * Checks whether the given step works on feature lists
+   */
+  private boolean isPeakListStep(int stepNumber) {
+    for (Parameter<?> p : queue.get(stepNumber).getParameterSet().getParameters()) {
+      if (p instanceof PeakListsParameter)
+        return true;
+    }
+    return false;
+  }
+
+  /**
+   * Checks whether the given step creates new data without any input data files or feature lists
+   */
+  private boolean isSourceStep(int stepNumber) {
+    for (Parameter<?> p : queue.get(stepNumber).getParameterSet().getParameters()) {
+      if ((p instanceof RawDataFilesParameter) || (p instanceof PeakListsParameter))
+        return false;
+    }
+    return true;
+  }
+
+  @Override
+  public TaskPriority getTaskPriority() {
+    // to not block mzmine when run with single thread
+    return TaskPriority.HIGH;
+  }
+
+  @Override
+  public double getFinishedPercentage() {
+    if (totalSteps == 0)
+      return 0;
+    return processedSteps / totalSteps;
+  }
+
+  @Override
+  public String getTaskDescription() {
+    return "Batch of " + totalSteps + " steps (parallel per-file processing)";
+  }
+
+  /**
+   * Per-file pipeline, keeps the data files and feature lists created by its last step
+   */
+  private static class Pipeline {
+
+    private String name;
+    private boolean renameByDataFile = false;
+    private RawDataFile dataFiles[];
+    private PeakList peakLists[];
+
+    // Items created by the running step, added from the task threads
+    private final List<RawDataFile> createdDataFiles =
+        Collections.synchronizedList(new ArrayList<>());
+    private final List<PeakList> createdPeakLists = Collections.synchronizedList(new ArrayList<>());
+
+    private int stepNumber;
+    private long stepStartTime;
+    private List<Task> stepTasks;
+
+    Pipeline(String name, RawDataFile dataFiles[], PeakList peakLists[]) {
+      this.name = name;
+      this.dataFiles = dataFiles;
+      this.peakLists = peakLists;
+    }
+
+    /**
+     * If the step did not produce any data files or feature lists, the pipeline keeps the ones
+     * from the previous step
+     */
+    void finishStep() {
+      synchronized (createdDataFiles) {
+        if (!createdDataFiles.isEmpty()) {
+          dataFiles = createdDataFiles.toArray(new RawDataFile[0]);
+          if (renameByDataFile) {
+            name = dataFiles[0].getName();
+            renameByDataFile = false;
+          }
+          createdDataFiles.clear();
+        }
+      }
+      synchronized (createdPeakLists) {
+        if (!createdPeakLists.isEmpty()) {
+          peakLists = createdPeakLists.toArray(new PeakList[0]);
+          createdPeakLists.clear();
+        }
+      }
+    }
+  }
+
+  /**
+   * Runs a task of a batch step, records the pipeline of the running thread so new data files and
+   * feature lists are assigned to it, and wakes up the batch when the task finished
+   */
+  private class PipelineTask implements Task {
+
+    private final Task task;
+    private final Pipeline pipeline;
+
+    PipelineTask(Task task, Pipeline pipeline) {
+      this.task = task;
+      this.pipeline = pipeline;
+    }
+
+    @Override
+    public void run() {
+      currentPipeline.set(pipeline);
+      try {
+        task.run();
+      } finally {
+        currentPipeline.remove();
+        notifyTaskFinished();
+      }
+    }
+
+    @Override
+    public String getTaskDescription() {
+      return task.getTaskDescription();
+    }
+
+    @Override
+    public double getFinishedPercentage() {
+      return task.getFinishedPercentage();
+    }
+
+    @Override
+    public TaskStatus getStatus() {
+      return task.getStatus();
+    }
+
+    @Override
+    public String getErrorMessage() {
+      return task.getErrorMessage();
+    }
+
+    @Override
+    public TaskPriority getTaskPriority() {
+      return task.getTaskPriority();
+    }
+
+    @Override
+    public void cancel() {
+      task.cancel();
+    }
+  }
+
+}
@@ -32,6 +32,7 @@ import net.sf.mzmine.datamodel.MZmineProject;
 import net.sf.mzmine.datamodel.MassList;
 import net.sf.mzmine.datamodel.RawDataFile;
 import net.sf.mzmine.datamodel.Scan;
+import net.sf.mzmine.datamodel.impl.SimpleDataPoint;
 import net.sf.mzmine.datamodel.impl.SimplePeakList;
 import net.sf.mzmine.datamodel.impl.SimplePeakListRow;
 import net.sf.mzmine.main.MZmineCore;
@@ -79,6 +80,7 @@ public class ADAPChromatogramBuilderTask extends AbstractTask {
   // Owen added User parameers;
   private double IntensityThresh2;
   private double minIntensityForStartChrom;
+  private boolean lowMemory;
 
   private SimplePeakList newPeakList;
 
@@ -114,6 +116,8 @@ public class ADAPChromatogramBuilderTask extends AbstractTask {
         parameters.getParameter(ADAPChromatogramBuilderParameters.IntensityThresh2).getValue();
     this.minIntensityForStartChrom =
         parameters.getParameter(ADAPChromatogramBuilderParameters.startIntensity).getValue();
+    this.lowMemory =
+        parameters.getParameter(ADAPChromatogramBuilderParameters.lowMemory).getValue();
 
 
   }
@@ -204,19 +208,90 @@ public class ADAPChromatogramBuilderTask extends AbstractTask {
     //
 
 
+    // Detect the chromatograms, they are returned sorted by m/z
+    List<ADAPChromatogram> allChromatograms =
+        lowMemory ? buildChromatogramsLowMemory(allScanNumbers) : buildChromatograms(allScanNumbers);
+    if (allChromatograms == null)
+      return;
+
+    // finish chromatograms
+    List<ADAPChromatogram> buildingChromatograms = new ArrayList<ADAPChromatogram>();
+
+    double progressStep = (allChromatograms.size() > 0) ? 0.5 / allChromatograms.size() : 0.0;
+    for (ADAPChromatogram chromatogram : allChromatograms) {
+      if (isCanceled()) {
+        return;
+      }
+
+      progress += progressStep;
+
+      chromatogram.finishChromatogram();
+
+      // And remove chromatograms who dont have a certian number of continous points above the
+      // IntensityThresh2 level.
+      double numberOfContinuousPointsAboveNoise =
+          chromatogram.findNumberOfContinuousPointsAboveNoise(IntensityThresh2);
+      if (numberOfContinuousPointsAboveNoise < minimumScanSpan) {
+        // System.out.println("skipping chromatogram because it does not meet the min point scan
+        // requirements");
+        continue;
+      } else {
+        buildingChromatograms.add(chromatogram);
+      }
+
+    }
+
+    ADAPChromatogram[] chromatograms = buildingChromatograms.toArray(new ADAPChromatogram[0]);
+
+
+    // Sort the final chromatograms by m/z
+    Arrays.sort(chromatograms, new PeakSorter(SortingProperty.MZ, SortingDirection.Ascending));
+
+
+    // Add the chromatograms to the new feature list
+    for (Feature finishedPeak : chromatograms) {
+      SimplePeakListRow newRow = new SimplePeakListRow(newPeakID);
+      newPeakID++;
+      newRow.addPeak(dataFile, finishedPeak);
+      newPeakList.addRow(newRow);
+
+      // finishedPeak.outputChromToFile();
+    }
+
+    // Add new peaklist to the project
+    project.addPeakList(newPeakList);
+
+    // Add quality parameters to peaks
+    QualityParameters.calculateQualityParameters(newPeakList);
+
+    progress = 1.0;
+
+    setStatus(TaskStatus.FINISHED);
+
+    logger.info("Finished chromatogram builder on " + dataFile);
+  }
+
+  /**
+   * Builds the chromatograms from ExpandedDataPoint objects, using a RangeSet to find the
+   * chromatogram of each data point.
+   *
+   * @return Chromatograms sorted by m/z, or null if the task was canceled or failed
+   */
+  private List<ADAPChromatogram> buildChromatograms(int allScanNumbers[]) {
+
     // make a list of all the data points
     List<ExpandedDataPoint> allMzValues = new ArrayList<ExpandedDataPoint>();
 
     for (Scan scan : scans) {
       if (isCanceled())
-        return;
+        return null;
 
       MassList massList = scan.getMassList(massListName);
       if (massList == null) {
         setStatus(TaskStatus.ERROR);
         setErrorMessage("Scan " + dataFile + " #" + scan.getScanNumber()
             + " does not have a mass list " + massListName);
-        return;
+        return null;
       }
 
       DataPoint mzValues[] = massList.getDataPoints();
@@ -225,7 +300,7 @@ public class ADAPChromatogramBuilderTask extends AbstractTask {
         setStatus(TaskStatus.ERROR);
         setErrorMessage("Mass list " + massListName + " does not contain m/z values for scan #"
             + scan.getScanNumber() + " of file " + dataFile);
-        return;
+        return null;
       }
 
       for (DataPoint mzPeak : mzValues) {
@@ -269,7 +344,7 @@ public class ADAPChromatogramBuilderTask extends AbstractTask {
       progress += progressStep;
 
       if (isCanceled()) {
-        return;
+        return null;
       }
 
       if (mzPeak == null || Double.isNaN(mzPeak.getMZ()) || Double.isNaN(mzPeak.getIntensity())) {
@@ -363,68 +438,165 @@ public class ADAPChromatogramBuilderTask extends AbstractTask {
     // System.out.println("search chroms (ms): " + stopwatch.elapsed(TimeUnit.MILLISECONDS));
     // System.out.println("making new chrom (ms): " + stopwatch2.elapsed(TimeUnit.MILLISECONDS));
 
-    // finish chromatograms
-    Set<Range<Double>> ranges = rangeSet.asRanges();
-    Iterator<Range<Double>> RangeIterator = ranges.iterator();
+    List<ADAPChromatogram> chromatograms = new ArrayList<ADAPChromatogram>();
+    for (Range<Double> range : rangeSet.asRanges()) {
+      chromatograms.add(rangeToChromMap.get(range));
+    }
+    return chromatograms;
+  }
 
-    List<ADAPChromatogram> buildingChromatograms = new ArrayList<ADAPChromatogram>();
+  /**
+   * Builds the chromatograms the same way as buildChromatograms(), but keeps the centroids of all
+   * scans in parallel primitive arrays and the m/z ranges of the chromatograms in a MZIntervalSet.
+   * Only the data points which are added to a chromatogram are created as objects.
+   *
+   * @return Chromatograms sorted by m/z, or null if the task was canceled or failed
+   */
+  private List<ADAPChromatogram> buildChromatogramsLowMemory(int allScanNumbers[]) {
 
-    progressStep = (ranges.size() > 0) ? 0.5 / ranges.size() : 0.0;
-    while (RangeIterator.hasNext()) {
-      if (isCanceled()) {
-        return;
+    // Count the data points, so the arrays can be allocated at once
+    int numOfPoints = 0;
+    for (Scan scan : scans) {
+      if (isCanceled())
+        return null;
+
+      MassList massList = scan.getMassList(massListName);
+      if (massList == null) {
+        setStatus(TaskStatus.ERROR);
+        setErrorMessage("Scan " + dataFile + " #" + scan.getScanNumber()
+            + " does not have a mass list " + massListName);
+        return null;
       }
 
-      progress += progressStep;
+      DataPoint mzValues[] = massList.getDataPoints();
+      if (mzValues == null) {
+        setStatus(TaskStatus.ERROR);
+        setErrorMessage("Mass list " + massListName + " does not contain m/z values for scan #"
+            + scan.getScanNumber() + " of file " + dataFile);
+        return null;
+      }
 
-      Range<Double> curRangeKey = RangeIterator.next();
+      numOfPoints += mzValues.length;
+    }
 
-      ADAPChromatogram chromatogram = rangeToChromMap.get(curRangeKey);
+    // Centroids of all scans, data points with undefined m/z or intensity are skipped
+    double mzValues[] = new double[numOfPoints];
+    double intensities[] = new double[numOfPoints];
+    int scanIndexes[] = new int[numOfPoints];
+    numOfPoints = 0;
+    for (int i = 0; i < scans.length; i++) {
+      if (isCanceled())
+        return null;
+      for (DataPoint dp : scans[i].getMassList(massListName).getDataPoints()) {
+        if (Double.isNaN(dp.getMZ()) || Double.isNaN(dp.getIntensity()))
+          continue;
+        mzValues[numOfPoints] = dp.getMZ();
+        intensities[numOfPoints] = dp.getIntensity();
+        scanIndexes[numOfPoints] = i;
+        numOfPoints++;
+      }
+    }
 
-      chromatogram.finishChromatogram();
+    // sort data points by intensity
+    int order[] = sortByIntensity(mzValues, intensities, numOfPoints);
 
-      // And remove chromatograms who dont have a certian number of continous points above the
-      // IntensityThresh2 level.
-      double numberOfContinuousPointsAboveNoise =
-          chromatogram.findNumberOfContinuousPointsAboveNoise(IntensityThresh2);
-      if (numberOfContinuousPointsAboveNoise < minimumScanSpan) {
-        // System.out.println("skipping chromatogram because it does not meet the min point scan
-        // requirements");
-        continue;
-      } else {
-        buildingChromatograms.add(chromatogram);
-      }
+    MZIntervalSet intervals = new MZIntervalSet();
+    List<ADAPChromatogram> chromatograms = new ArrayList<ADAPChromatogram>();
 
-    }
+    progress = 0.0;
+    double progressStep = (numOfPoints > 0) ? 0.5 / numOfPoints : 0.0;
 
-    ADAPChromatogram[] chromatograms = buildingChromatograms.toArray(new ADAPChromatogram[0]);
+    for (int i = 0; i < numOfPoints; i++) {
 
+      progress += progressStep;
 
-    // Sort the final chromatograms by m/z
-    Arrays.sort(chromatograms, new PeakSorter(SortingProperty.MZ, SortingDirection.Ascending));
+      if (isCanceled()) {
+        return null;
+      }
 
+      final int point = order[i];
+      final double mz = mzValues[point];
+      final int scanNumber = scans[scanIndexes[point]].getScanNumber();
 
-    // Add the chromatograms to the new feature list
-    for (Feature finishedPeak : chromatograms) {
-      SimplePeakListRow newRow = new SimplePeakListRow(newPeakID);
-      newPeakID++;
-      newRow.addPeak(dataFile, finishedPeak);
-      newPeakList.addRow(newRow);
+      int chromIndex = intervals.getContaining(mz);
 
-      // finishedPeak.outputChromToFile();
-    }
+      if (chromIndex < 0) {
+        // skip it entierly if the intensity is not high enough
+        if (intensities[point] < minIntensityForStartChrom) {
+          continue;
+        }
 
-    // Add new peaklist to the project
-    project.addPeakList(newPeakList);
+        // The new range spans the m/z tolerance, limited by the closest ranges below and above
+        // so that none of the ranges overlap
+        Range<Double> toleranceRange = mzTolerance.getToleranceRange(mz);
+        double toBeLowerBound =
+            Math.max(toleranceRange.lowerEndpoint(), intervals.getUpperEndpointBelow(mz));
+        double toBeUpperBound =
+            Math.min(toleranceRange.upperEndpoint(), intervals.getLowerEndpointAbove(mz));
 
-    // Add quality parameters to peaks
-    QualityParameters.calculateQualityParameters(newPeakList);
+        if (toBeLowerBound < toBeUpperBound) {
+          ADAPChromatogram newChrom = new ADAPChromatogram(dataFile, allScanNumbers);
+          newChrom.addMzPeak(scanNumber, new SimpleDataPoint(mz, intensities[point]));
+          newChrom.setHighPointMZ(mz);
 
-    progress = 1.0;
+          intervals.add(toBeLowerBound, toBeUpperBound, chromatograms.size());
+          chromatograms.add(newChrom);
+          continue;
+        } else if (toBeLowerBound == toBeUpperBound && intervals.getIdAbove(mz) >= 0) {
+          chromIndex = intervals.getIdAbove(mz);
+        } else
+          throw new IllegalStateException(String.format("Incorrect range [%f, %f] for m/z %f",
+              toBeLowerBound, toBeUpperBound, mz));
+      }
 
-    setStatus(TaskStatus.FINISHED);
+      // Only the first (most intense) point of each scan is kept
+      ADAPChromatogram curChrom = chromatograms.get(chromIndex);
+      if (curChrom.getDataPoint(scanNumber) == null)
+        curChrom.addMzPeak(scanNumber, new SimpleDataPoint(mz, intensities[point]));
+    }
 
-    logger.info("Finished chromatogram builder on " + dataFile);
+    List<ADAPChromatogram> sortedChromatograms = new ArrayList<ADAPChromatogram>();
+    for (int chromIndex : intervals.getIdsInOrder()) {
+      sortedChromatograms.add(chromatograms.get(chromIndex));
+    }
+    return sortedChromatograms;
+  }
+
+  /**
+   * Returns the indexes of the first numOfPoints data points, sorted by descending intensity and
+   * m/z. The sort is stable, so the order is the same as when sorting DataPoint objects with
+   * DataPointSorter.
+   */
+  private static int[] sortByIntensity(double mzValues[], double intensities[], int numOfPoints) {
+
+    int order[] = new int[numOfPoints];
+    for (int i = 0; i < numOfPoints; i++)
+      order[i] = i;
+
+    // Bottom-up merge sort, merging runs of the given width from order to buffer in each pass
+    int buffer[] = new int[numOfPoints];
+    for (int width = 1; width < numOfPoints; width *= 2) {
+      for (int left = 0; left < numOfPoints; left += 2 * width) {
+        int mid = Math.min(left + width, numOfPoints);
+        int right = Math.min(left + 2 * width, numOfPoints);
+        int i = left, j = mid, k = left;
+        while ((i < mid) && (j < right)) {
+          int result = Double.compare(intensities[order[i]], intensities[order[j]]);
+          if (result == 0)
+            result = Double.compare(mzValues[order[i]], mzValues[order[j]]);
+          buffer[k++] = (result < 0) ? order[j++] : order[i++];
+        }
+        while (i < mid)
+          buffer[k++] = order[i++];
+        while (j < right)
+          buffer[k++] = order[j++];
+      }
+      int swap[] = order;
+      order = buffer;
+      buffer = swap;
+    }
+
+    return order;
   }
 
 }
@@ -0,0 +1,236 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.modules.masslistmethods.ADAPchromatogrambuilder;
+
+import java.util.Arrays;
+
+/**
+ * Set of non-overlapping open m/z intervals, each mapped to an integer ID (index of a
+ * chromatogram). The intervals are kept sorted by their lower endpoint in blocks of primitive
+ * arrays, so an insertion only shifts the entries of a single block. Lookups are two binary
+ * searches. This class is not thread-safe.
+ */
+class MZIntervalSet {
+
+  private static final int BLOCK_SIZE = 512;
+
+  private double lowers[][] = new double[16][];
+  private double uppers[][] = new double[16][];
+  private int ids[][] = new int[16][];
+  private int blockSizes[] = new int[16];
+  private double blockMins[] = new double[16];
+  private int numOfBlocks = 0, size = 0;
+
+  // Result of the last findFloor() call
+  private int floorBlock, floorPos;
+
+  int size() {
+    return size;
+  }
+
+  /**
+   * Returns the ID of the interval which contains the given m/z value, or -1
+   */
+  int getContaining(double mz) {
+    if (!findFloor(mz))
+      return -1;
+    if (mz < uppers[floorBlock][floorPos])
+      return ids[floorBlock][floorPos];
+    return -1;
+  }
+
+  /**
+   * Returns the upper endpoint of the closest interval whose lower endpoint is smaller than the
+   * given m/z value, or NEGATIVE_INFINITY
+   */
+  double getUpperEndpointBelow(double mz) {
+    if (!findFloor(mz))
+      return Double.NEGATIVE_INFINITY;
+    return uppers[floorBlock][floorPos];
+  }
+
+  /**
+   * Returns the lower endpoint of the closest interval whose lower endpoint is greater than or equal
+   * to the given m/z value, or POSITIVE_INFINITY
+   */
+  double getLowerEndpointAbove(double mz) {
+    if (!findCeiling(mz))
+      return Double.POSITIVE_INFINITY;
+    return lowers[floorBlock][floorPos];
+  }
+
+  /**
+   * Returns the ID of the closest interval whose lower endpoint is greater than or equal to the
+   * given m/z value, or -1
+   */
+  int getIdAbove(double mz) {
+    if (!findCeiling(mz))
+      return -1;
+    return ids[floorBlock][floorPos];
+  }
+
+  /**
+   * Adds the open interval (lower, upper). The interval must not overlap with any interval in this
+   * set.
+   */
+  void add(double lower, double upper, int id) {
+
+    int block, pos;
+    if (findFloor(lower)) {
+      block = floorBlock;
+      pos = floorPos + 1;
+    } else {
+      if (numOfBlocks == 0)
+        insertBlock(0);
+      block = 0;
+      pos = 0;
+    }
+
+    if (blockSizes[block] == BLOCK_SIZE) {
+      splitBlock(block);
+      if (pos > blockSizes[block]) {
+        pos -= blockSizes[block];
+        block++;
+      }
+    }
+
+    final int blockSize = blockSizes[block];
+    System.arraycopy(lowers[block], pos, lowers[block], pos + 1, blockSize - pos);
+    System.arraycopy(uppers[block], pos, uppers[block], pos + 1, blockSize - pos);
+    System.arraycopy(ids[block], pos, ids[block], pos + 1, blockSize - pos);
+    lowers[block][pos] = lower;
+    uppers[block][pos] = upper;
+    ids[block][pos] = id;
+    blockSizes[block]++;
+    blockMins[block] = lowers[block][0];
+    size++;
+  }
+
+  /**
+   * Returns the IDs of all intervals, sorted by m/z
+   */
+  int[] getIdsInOrder() {
+    int result[] = new int[size];
+    int index = 0;
+    for (int block = 0; block < numOfBlocks; block++) {
+      System.arraycopy(ids[block], 0, result, index, blockSizes[block]);
+      index += blockSizes[block];
+    }
+    return result;
+  }
+
+  /**
+   * Finds the last interval with lower endpoint < mz and stores its position in floorBlock and
+   * floorPos. Returns false if there is no such interval.
+   */
+  private boolean findFloor(double mz) {
+    // Last block whose first lower endpoint is < mz
+    int lo = 0, hi = numOfBlocks - 1, block = -1;
+    while (lo <= hi) {
+      int mid = (lo + hi) >>> 1;
+      if (blockMins[mid] < mz) {
+        block = mid;
+        lo = mid + 1;
+      } else {
+        hi = mid - 1;
+      }
+    }
+    if (block < 0)
+      return false;
+
+    final double blockLowers[] = lowers[block];
+    lo = 0;
+    hi = blockSizes[block] - 1;
+    int pos = 0;
+    while (lo <= hi) {
+      int mid = (lo + hi) >>> 1;
+      if (blockLowers[mid] < mz) {
+        pos = mid;
+        lo = mid + 1;
+      } else {
+        hi = mid - 1;
+      }
+    }
+
+    floorBlock = block;
+    floorPos = pos;
+    return true;
+  }
+
+  /**
+   * Finds the first interval with lower endpoint >= mz and stores its position in floorBlock and
+   * floorPos. Returns false if there is no such interval.
+   */
+  private boolean findCeiling(double mz) {
+    int block, pos;
+    if (findFloor(mz)) {
+      block = floorBlock;
+      pos = floorPos + 1;
+    } else {
+      block = 0;
+      pos = 0;
+    }
+    if ((block < numOfBlocks) && (pos == blockSizes[block])) {
+      block++;
+      pos = 0;
+    }
+    if (block >= numOfBlocks)
+      return false;
+    floorBlock = block;
+    floorPos = pos;
+    return true;
+  }
+
+  private void insertBlock(int block) {
+    if (numOfBlocks == lowers.length) {
+      int newLength = lowers.length * 2;
+      lowers = Arrays.copyOf(lowers, newLength);
+      uppers = Arrays.copyOf(uppers, newLength);
+      ids = Arrays.copyOf(ids, newLength);
+      blockSizes = Arrays.copyOf(blockSizes, newLength);
+      blockMins = Arrays.copyOf(blockMins, newLength);
+    }
+    final int moved = numOfBlocks - block;
+    System.arraycopy(lowers, block, lowers, block + 1, moved);
+    System.arraycopy(uppers, block, uppers, block + 1, moved);
+    System.arraycopy(ids, block, ids, block + 1, moved);
+    System.arraycopy(blockSizes, block, blockSizes, block + 1, moved);
+    System.arraycopy(blockMins, block, blockMins, block + 1, moved);
+    lowers[block] = new double[BLOCK_SIZE];
+    uppers[block] = new double[BLOCK_SIZE];
+    ids[block] = new int[BLOCK_SIZE];
+    blockSizes[block] = 0;
+    numOfBlocks++;
+  }
+
+  /**
+   * Moves the upper half of a full block to a new block following it
+   */
+  private void splitBlock(int block) {
+    insertBlock(block + 1);
+    final int half = BLOCK_SIZE / 2;
+    System.arraycopy(lowers[block], half, lowers[block + 1], 0, BLOCK_SIZE - half);
+    System.arraycopy(uppers[block], half, uppers[block + 1], 0, BLOCK_SIZE - half);
+    System.arraycopy(ids[block], half, ids[block + 1], 0, BLOCK_SIZE - half);
+    blockSizes[block] = half;
+    blockSizes[block + 1] = BLOCK_SIZE - half;
+    blockMins[block + 1] = lowers[block + 1][0];
+  }
+
+}
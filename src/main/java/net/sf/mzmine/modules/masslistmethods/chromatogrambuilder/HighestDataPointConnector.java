@@ -19,9 +19,11 @@
 package net.sf.mzmine.modules.masslistmethods.chromatogrambuilder;
 
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.Set;
+import java.util.TreeSet;
 
 import com.google.common.collect.Range;
 
@@ -42,6 +44,10 @@ public class HighestDataPointConnector {
   // Mapping of last data point m/z --> chromatogram
   private Set<Chromatogram> buildingChromatograms;
 
+  // Building chromatograms ordered by the m/z of their last data point
+  private static final Comparator<IndexEntry> indexComparator =
+      Comparator.<IndexEntry>comparingDouble(e -> e.lastMz).thenComparingInt(e -> e.position);
+
   public HighestDataPointConnector(RawDataFile dataFile, int allScanNumbers[],
       double minimumTimeSpan, double minimumHeight, MZTolerance mzTolerance) {
 
@@ -67,20 +73,39 @@ public class HighestDataPointConnector {
     // Set of already connected chromatograms in each iteration
     Set<Chromatogram> connectedChromatograms = new LinkedHashSet<Chromatogram>();
 
-    // TODO: these two nested cycles should be optimized for speed
+    // Index the building chromatograms by the m/z of their last data point. The position in
+    // buildingChromatograms is kept to resolve ties the same way as iterating over the set.
+    TreeSet<IndexEntry> mzIndex = new TreeSet<IndexEntry>(indexComparator);
+    int position = 0;
+    for (Chromatogram chrom : buildingChromatograms) {
+      mzIndex.add(new IndexEntry(chrom, position++));
+    }
+
     for (DataPoint mzPeak : mzValues) {
 
-      // Search for best chromatogram, which has highest last data point
+      // Search for best chromatogram, which has highest last data point. The tolerance is
+      // calculated from the m/z of the chromatogram, so we search in a window twice as wide and
+      // check each chromatogram in it exactly.
       Chromatogram bestChromatogram = null;
+      IndexEntry bestEntry = null;
 
-      for (Chromatogram testChrom : buildingChromatograms) {
+      final double mz = mzPeak.getMZ();
+      final double searchWidth = 2 * mzTolerance.getMzToleranceForMass(mz);
+      IndexEntry fromKey = new IndexEntry(mz - searchWidth, Integer.MIN_VALUE);
+      IndexEntry toKey = new IndexEntry(mz + searchWidth, Integer.MAX_VALUE);
 
+      for (IndexEntry testEntry : mzIndex.subSet(fromKey, true, toKey, true)) {
+
+        Chromatogram testChrom = testEntry.chromatogram;
         DataPoint lastMzPeak = testChrom.getLastMzPeak();
         Range<Double> toleranceRange = mzTolerance.getToleranceRange(lastMzPeak.getMZ());
-        if (toleranceRange.contains(mzPeak.getMZ())) {
-          if ((bestChromatogram == null) || (testChrom.getLastMzPeak()
-              .getIntensity() > bestChromatogram.getLastMzPeak().getIntensity())) {
+        if (toleranceRange.contains(mz)) {
+          if ((bestChromatogram == null)
+              || (lastMzPeak.getIntensity() > bestChromatogram.getLastMzPeak().getIntensity())
+              || ((lastMzPeak.getIntensity() == bestChromatogram.getLastMzPeak().getIntensity())
+                  && (testEntry.position < bestEntry.position))) {
             bestChromatogram = testChrom;
+            bestEntry = testEntry;
           }
         }
 
@@ -97,8 +122,14 @@ public class HighestDataPointConnector {
         bestChromatogram = new Chromatogram(dataFile, allScanNumbers);
       }
 
-      // Add this mzPeak to the chromatogram
+      // Add this mzPeak to the chromatogram, and move it in the index if it was there
+      if (bestEntry != null)
+        mzIndex.remove(bestEntry);
       bestChromatogram.addMzPeak(scanNumber, mzPeak);
+      if (bestEntry != null) {
+        bestEntry.lastMz = mz;
+        mzIndex.add(bestEntry);
+      }
 
       // Move the chromatogram to the set of connected chromatograms
       connectedChromatograms.add(bestChromatogram);
@@ -173,4 +204,27 @@ public class HighestDataPointConnector {
     return chromatograms;
   }
 
+  /**
+   * Entry of the m/z index of building chromatograms
+   */
+  private static class IndexEntry {
+
+    private final Chromatogram chromatogram;
+    private final int position;
+    private double lastMz;
+
+    private IndexEntry(Chromatogram chromatogram, int position) {
+      this.chromatogram = chromatogram;
+      this.position = position;
+      this.lastMz = chromatogram.getLastMzPeak().getMZ();
+    }
+
+    // Search key
+    private IndexEntry(double mz, int position) {
+      this.chromatogram = null;
+      this.position = position;
+      this.lastMz = mz;
+    }
+  }
+
 }
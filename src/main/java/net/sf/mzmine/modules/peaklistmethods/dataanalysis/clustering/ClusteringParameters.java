@@ -23,6 +23,8 @@ import java.util.Arrays;
 import net.sf.mzmine.modules.peaklistmethods.dataanalysis.clustering.em.EMClusterer;
 import net.sf.mzmine.modules.peaklistmethods.dataanalysis.clustering.farthestfirst.FarthestFirstClusterer;
 import net.sf.mzmine.modules.peaklistmethods.dataanalysis.clustering.hierarchical.HierarClusterer;
+import net.sf.mzmine.modules.peaklistmethods.dataanalysis.clustering.kmeans.KMeansClusterer;
+import net.sf.mzmine.modules.peaklistmethods.dataanalysis.clustering.minibatchkmeans.MiniBatchKMeansClusterer;
 import net.sf.mzmine.modules.peaklistmethods.dataanalysis.clustering.simplekmeans.SimpleKMeansClusterer;
 import net.sf.mzmine.parameters.Parameter;
 import net.sf.mzmine.parameters.impl.SimpleParameterSet;
@@ -52,7 +54,8 @@ public class ClusteringParameters extends SimpleParameterSet {
           Arrays.asList(new PeakSelection[] {new PeakSelection(null, null, null, null)}));
 
   private static ClusteringAlgorithm algorithms[] = new ClusteringAlgorithm[] {new EMClusterer(),
-      new FarthestFirstClusterer(), new SimpleKMeansClusterer(), new HierarClusterer()};
+      new FarthestFirstClusterer(), new SimpleKMeansClusterer(), new KMeansClusterer(),
+      new MiniBatchKMeansClusterer(), new HierarClusterer()};
 
   public static final ModuleComboParameter<ClusteringAlgorithm> clusteringAlgorithm =
       new ModuleComboParameter<ClusteringAlgorithm>("Clustering algorithm",
@@ -25,11 +25,8 @@ import java.util.regex.Pattern;
 import javax.swing.JFrame;
 import javax.swing.JTextField;
 import org.jfree.data.xy.AbstractXYDataset;
-import jmprojection.PCA;
-import jmprojection.Preprocess;
 import jmprojection.ProjectionStatus;
 import jmprojection.Sammons;
-import net.sf.mzmine.datamodel.Feature;
 import net.sf.mzmine.datamodel.PeakList;
 import net.sf.mzmine.datamodel.PeakListRow;
 import net.sf.mzmine.datamodel.RawDataFile;
@@ -42,7 +39,9 @@ import net.sf.mzmine.modules.peaklistmethods.dataanalysis.projectionplots.Projec
 import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.taskcontrol.TaskPriority;
 import net.sf.mzmine.taskcontrol.TaskStatus;
+import net.sf.mzmine.util.PeakListMatrixUtils;
 import net.sf.mzmine.util.PeakMeasurementType;
+import net.sf.mzmine.util.maths.PrincipalComponentAnalysis;
 import weka.core.Attribute;
 import weka.core.FastVector;
 import weka.core.Instance;
@@ -70,6 +69,7 @@ public class ClusteringTask extends AbstractXYDataset implements ProjectionPlotD
   private TaskStatus status = TaskStatus.WAITING;
   private String errorMessage;
   private ProjectionStatus projectionStatus;
+  private PrincipalComponentAnalysis pca;
   private MZmineProcessingStep<ClusteringAlgorithm> clusteringStep;
   private ClusteringDataType typeOfData;
   private Instances dataset;
@@ -186,20 +186,28 @@ public class ClusteringTask extends AbstractXYDataset implements ProjectionPlotD
 
     double[][] rawData;
 
-    // Creating weka dataset using samples or metabolites (variables)
+    ClusteringAlgorithm clusteringAlgorithm = clusteringStep.getModule();
+    ParameterSet clusteringParameters = clusteringStep.getParameterSet();
+    ClusteringResult result;
 
-    if (typeOfData == ClusteringDataType.VARIABLES) {
-      rawData = createMatrix(false);
-      dataset = createVariableWekaDataset(rawData);
+    if (clusteringAlgorithm instanceof MatrixClusteringAlgorithm) {
+      // Cluster the matrix of samples or metabolites (variables) directly
+      rawData = createMatrix(typeOfData != ClusteringDataType.VARIABLES);
+      result = ((MatrixClusteringAlgorithm) clusteringAlgorithm).performClustering(rawData,
+          clusteringParameters);
     } else {
-      rawData = createMatrix(true);
-      dataset = createSampleWekaDataset(rawData);
-    }
+      // Creating weka dataset using samples or metabolites (variables)
+      if (typeOfData == ClusteringDataType.VARIABLES) {
+        rawData = createMatrix(false);
+        dataset = createVariableWekaDataset(rawData);
+      } else {
+        rawData = createMatrix(true);
+        dataset = createSampleWekaDataset(rawData);
+      }
 
-    // Run the clustering algorithm
-    ClusteringAlgorithm clusteringAlgorithm = clusteringStep.getModule();
-    ParameterSet clusteringParameters = clusteringStep.getParameterSet();
-    ClusteringResult result = clusteringAlgorithm.performClustering(dataset, clusteringParameters);
+      // Run the clustering algorithm
+      result = clusteringAlgorithm.performClustering(dataset, clusteringParameters);
+    }
 
     String cluster = "";
     if (clusteringAlgorithm.getName().toString().equals("Hierarchical clusterer")) {
@@ -307,13 +315,21 @@ public class ClusteringTask extends AbstractXYDataset implements ProjectionPlotD
 
       if (result.getVisualizationType() == VisualizationType.PCA) {
         // Scale data and do PCA
-        Preprocess.scaleToUnityVariance(rawData);
-        PCA pcaProj = new PCA(rawData, numComponents);
-        projectionStatus = pcaProj.getProjectionStatus();
+        PeakListMatrixUtils.scaleToUnitVariance(rawData);
 
-        double[][] pcaResult = pcaProj.getState();
+        // Replace NaN values of constant columns with 0.0
+        for (double[] values : rawData) {
+          for (int j = 0; j < values.length; j++) {
+            if (Double.isNaN(values[j])) {
+              values[j] = 0.0;
+            }
+          }
+        }
 
-        if (status == TaskStatus.CANCELED) {
+        pca = new PrincipalComponentAnalysis();
+        double[][] pcaResult = pca.getProjection(rawData, numComponents);
+
+        if ((pcaResult == null) || (status == TaskStatus.CANCELED)) {
           return;
         }
 
@@ -321,7 +337,7 @@ public class ClusteringTask extends AbstractXYDataset implements ProjectionPlotD
         component2Coords = pcaResult[yAxisDimension - 1];
       } else if (result.getVisualizationType() == VisualizationType.SAMMONS) {
         // Scale data and do Sammon's mapping
-        Preprocess.scaleToUnityVariance(rawData);
+        PeakListMatrixUtils.scaleToUnitVariance(rawData);
         Sammons sammonsProj = new Sammons(rawData);
         projectionStatus = sammonsProj.getProjectionStatus();
 
@@ -352,52 +368,13 @@ public class ClusteringTask extends AbstractXYDataset implements ProjectionPlotD
    * @return
    */
   private double[][] createMatrix(boolean isForSamples) {
-    // Generate matrix of raw data (input to CDA)
-    boolean useArea = true;
-    if (parameters.getParameter(ClusteringParameters.peakMeasurementType)
-        .getValue() == PeakMeasurementType.AREA) {
-      useArea = true;
-    }
-    if (parameters.getParameter(ClusteringParameters.peakMeasurementType)
-        .getValue() == PeakMeasurementType.HEIGHT) {
-      useArea = false;
-    }
-    double[][] rawData;
+    PeakMeasurementType measure =
+        parameters.getParameter(ClusteringParameters.peakMeasurementType).getValue();
     if (isForSamples) {
-      rawData = new double[selectedRawDataFiles.length][selectedRows.length];
-      for (int rowIndex = 0; rowIndex < selectedRows.length; rowIndex++) {
-        PeakListRow peakListRow = selectedRows[rowIndex];
-        for (int fileIndex = 0; fileIndex < selectedRawDataFiles.length; fileIndex++) {
-          RawDataFile rawDataFile = selectedRawDataFiles[fileIndex];
-          Feature p = peakListRow.getPeak(rawDataFile);
-          if (p != null) {
-            if (useArea) {
-              rawData[fileIndex][rowIndex] = p.getArea();
-            } else {
-              rawData[fileIndex][rowIndex] = p.getHeight();
-            }
-          }
-        }
-      }
+      return PeakListMatrixUtils.getFileMatrix(selectedRows, selectedRawDataFiles, measure, 0.0);
     } else {
-      rawData = new double[selectedRows.length][selectedRawDataFiles.length];
-      for (int rowIndex = 0; rowIndex < selectedRows.length; rowIndex++) {
-        PeakListRow peakListRow = selectedRows[rowIndex];
-        for (int fileIndex = 0; fileIndex < selectedRawDataFiles.length; fileIndex++) {
-          RawDataFile rawDataFile = selectedRawDataFiles[fileIndex];
-          Feature p = peakListRow.getPeak(rawDataFile);
-          if (p != null) {
-            if (useArea) {
-              rawData[rowIndex][fileIndex] = p.getArea();
-            } else {
-              rawData[rowIndex][fileIndex] = p.getHeight();
-            }
-          }
-        }
-      }
+      return PeakListMatrixUtils.getRowMatrix(selectedRows, selectedRawDataFiles, measure, 0.0);
     }
-
-    return rawData;
   }
 
   /**
@@ -477,6 +454,9 @@ public class ClusteringTask extends AbstractXYDataset implements ProjectionPlotD
     if (projectionStatus != null) {
       projectionStatus.cancel();
     }
+    if (pca != null) {
+      pca.cancel();
+    }
 
     status = TaskStatus.CANCELED;
   }
@@ -518,6 +498,8 @@ public class ClusteringTask extends AbstractXYDataset implements ProjectionPlotD
         return 1.0;
       }
       return projectionStatus.getFinishedPercentage();
+    } else if (pca != null) {
+      return pca.getFinishedPercentage();
     } else {
       if (progress > 100) {
         return 1.0;
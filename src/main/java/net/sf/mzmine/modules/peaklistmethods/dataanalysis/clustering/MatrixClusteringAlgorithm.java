@@ -0,0 +1,54 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.modules.peaklistmethods.dataanalysis.clustering;
+
+import net.sf.mzmine.parameters.ParameterSet;
+import weka.core.Attribute;
+import weka.core.Instances;
+
+/**
+ * Clustering algorithm working directly on the matrix of peak heights or areas, so the task does
+ * not need to build a weka data set for it
+ */
+public interface MatrixClusteringAlgorithm extends ClusteringAlgorithm {
+
+  /**
+   * @param data points x dimensions, the points are clustered
+   * @return the cluster of each point
+   */
+  public ClusteringResult performClustering(double data[][], ParameterSet parameters);
+
+  @Override
+  public default ClusteringResult performClustering(Instances dataset, ParameterSet parameters) {
+    int numOfNumeric = 0;
+    for (int j = 0; j < dataset.numAttributes(); j++) {
+      if (dataset.attribute(j).type() == Attribute.NUMERIC)
+        numOfNumeric++;
+    }
+    double data[][] = new double[dataset.numInstances()][numOfNumeric];
+    for (int i = 0; i < data.length; i++) {
+      for (int j = 0, k = 0; j < dataset.numAttributes(); j++) {
+        if (dataset.attribute(j).type() == Attribute.NUMERIC)
+          data[i][k++] = dataset.instance(i).value(j);
+      }
+    }
+    return performClustering(data, parameters);
+  }
+
+}
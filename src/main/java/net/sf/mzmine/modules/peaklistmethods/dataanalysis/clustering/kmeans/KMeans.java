@@ -0,0 +1,283 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.modules.peaklistmethods.dataanalysis.clustering.kmeans;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * K-means clustering of the rows of a matrix, with k-means++ seeding. Each dimension is scaled to
+ * the range 0 - 1 like the Euclidean distance of weka. The scaling is applied while reading the
+ * points, so the data is not copied. The points are assigned to the clusters in parallel and the
+ * centroids are updated in parallel over blocks of dimensions.
+ */
+public class KMeans {
+
+  private final double data[][];
+  private final int numOfPoints, numOfDimensions;
+
+  // Scaling of each dimension: (x - min) * scale
+  private final double min[], scale[];
+
+  private final Random random;
+
+  // Buffer for the scaled point of each thread
+  private final ThreadLocal<double[]> pointBuffer;
+
+  /**
+   * @param data points x dimensions
+   * @param seed seed of the random choice of the initial centroids
+   */
+  public KMeans(double data[][], long seed) {
+    this.data = data;
+    this.numOfPoints = data.length;
+    this.numOfDimensions = (numOfPoints > 0) ? data[0].length : 0;
+    this.random = new Random(seed);
+    this.min = new double[numOfDimensions];
+    this.scale = new double[numOfDimensions];
+    this.pointBuffer = ThreadLocal.withInitial(() -> new double[numOfDimensions]);
+    computeScaling();
+  }
+
+  /**
+   * Lloyd's algorithm on all points, until no point changes its cluster
+   *
+   * @return the cluster of each point
+   */
+  public int[] cluster(int numOfClusters, int maxIterations) {
+
+    final int k = Math.min(numOfClusters, numOfPoints);
+    if (k <= 0)
+      return new int[numOfPoints];
+    final int all[] = IntStream.range(0, numOfPoints).toArray();
+    final double centroids[][] = seedCentroids(all, k);
+
+    int clusters[] = assign(all, centroids);
+    for (int iteration = 1; iteration < maxIterations; iteration++) {
+      updateCentroids(clusters, centroids);
+      final int newClusters[] = assign(all, centroids);
+      final boolean changed = !Arrays.equals(clusters, newClusters);
+      clusters = newClusters;
+      if (!changed)
+        break;
+    }
+    return clusters;
+  }
+
+  /**
+   * Mini-batch k-means (Sculley 2010). Each iteration moves the centroids towards a random sample
+   * of the points, so the time per iteration does not depend on the number of points.
+   *
+   * @return the cluster of each point
+   */
+  public int[] clusterMiniBatch(int numOfClusters, int batchSize, int iterations) {
+
+    final int k = Math.min(numOfClusters, numOfPoints);
+    if (k <= 0)
+      return new int[numOfPoints];
+    final int size = Math.max(k, Math.min(batchSize, numOfPoints));
+
+    // Seeding on a larger sample gives better initial centroids
+    final double centroids[][] = seedCentroids(sample((int) Math.min(3L * size, numOfPoints)), k);
+
+    final int counts[] = new int[k];
+    for (int iteration = 0; iteration < iterations; iteration++) {
+      final int batch[] = sample(size);
+      final int batchClusters[] = assign(batch, centroids);
+      for (int b = 0; b < batch.length; b++) {
+        final int c = batchClusters[b];
+        counts[c]++;
+        final double rate = 1.0 / counts[c];
+        final double point[] = data[batch[b]];
+        final double centroid[] = centroids[c];
+        for (int j = 0; j < numOfDimensions; j++)
+          centroid[j] += rate * ((point[j] - min[j]) * scale[j] - centroid[j]);
+      }
+    }
+
+    return assign(IntStream.range(0, numOfPoints).toArray(), centroids);
+  }
+
+  /**
+   * k-means++ seeding: each next centroid is a point chosen with probability proportional to its
+   * squared distance to the nearest centroid chosen so far
+   */
+  private double[][] seedCentroids(final int points[], final int k) {
+
+    final double centroids[][] = new double[k][];
+    final double distances[] = new double[points.length];
+    Arrays.fill(distances, Double.POSITIVE_INFINITY);
+
+    int chosen = points[random.nextInt(points.length)];
+    for (int c = 0; c < k; c++) {
+      final double centroid[] = scaledPoint(chosen, new double[numOfDimensions]);
+      centroids[c] = centroid;
+      if (c == k - 1)
+        break;
+
+      IntStream.range(0, points.length).parallel().forEach(p -> {
+        final double point[] = scaledPoint(points[p], pointBuffer.get());
+        distances[p] = Math.min(distances[p], distance(point, centroid, distances[p]));
+      });
+
+      double sum = 0;
+      for (double d : distances)
+        sum += d;
+      if (sum == 0) {
+        // All points are equal to a centroid, take any point
+        chosen = points[random.nextInt(points.length)];
+        continue;
+      }
+      double target = random.nextDouble() * sum;
+      int p = 0;
+      while ((p < points.length - 1) && ((target -= distances[p]) > 0))
+        p++;
+      chosen = points[p];
+    }
+    return centroids;
+  }
+
+  /**
+   * Returns the nearest centroid of each point, computed in parallel
+   */
+  private int[] assign(final int points[], final double centroids[][]) {
+    final int clusters[] = new int[points.length];
+    IntStream.range(0, points.length).parallel().forEach(p -> {
+      final double point[] = scaledPoint(points[p], pointBuffer.get());
+      int nearest = 0;
+      double minDistance = Double.POSITIVE_INFINITY;
+      for (int c = 0; c < centroids.length; c++) {
+        final double d = distance(point, centroids[c], minDistance);
+        if (d < minDistance) {
+          minDistance = d;
+          nearest = c;
+        }
+      }
+      clusters[p] = nearest;
+    });
+    return clusters;
+  }
+
+  /**
+   * Moves each centroid to the mean of its points. Each task sums a block of dimensions of all
+   * centroids, so no partial sums need to be merged. Centroids without points are not moved.
+   */
+  private void updateCentroids(final int clusters[], final double centroids[][]) {
+
+    final int k = centroids.length;
+    final int counts[] = new int[k];
+    for (int c : clusters)
+      counts[c]++;
+
+    final int numOfBlocks =
+        Math.min(numOfDimensions, (ForkJoinPool.getCommonPoolParallelism() + 1) * 4);
+    IntStream.range(0, numOfBlocks).parallel().forEach(b -> {
+      final int from = (int) ((long) numOfDimensions * b / numOfBlocks);
+      final int to = (int) ((long) numOfDimensions * (b + 1) / numOfBlocks);
+      final double sums[][] = new double[k][to - from];
+      for (int i = 0; i < numOfPoints; i++) {
+        final double point[] = data[i];
+        final double sum[] = sums[clusters[i]];
+        for (int j = from; j < to; j++)
+          sum[j - from] += (point[j] - min[j]) * scale[j];
+      }
+      for (int c = 0; c < k; c++) {
+        if (counts[c] == 0)
+          continue;
+        for (int j = from; j < to; j++)
+          centroids[c][j] = sums[c][j - from] / counts[c];
+      }
+    });
+  }
+
+  /**
+   * Squared Euclidean distance, the sum is not finished once it exceeds the limit
+   */
+  private double distance(final double point[], final double centroid[], final double limit) {
+    double sum = 0;
+    for (int j = 0; j < numOfDimensions; j++) {
+      final double d = point[j] - centroid[j];
+      sum += d * d;
+      if (((j & 63) == 63) && (sum >= limit))
+        return sum;
+    }
+    return sum;
+  }
+
+  private double[] scaledPoint(int i, double buffer[]) {
+    final double point[] = data[i];
+    for (int j = 0; j < numOfDimensions; j++)
+      buffer[j] = (point[j] - min[j]) * scale[j];
+    return buffer;
+  }
+
+  /**
+   * Random sample of the points without repetition
+   */
+  private int[] sample(int size) {
+    if (size >= numOfPoints)
+      return IntStream.range(0, numOfPoints).toArray();
+    final int sample[] = new int[size];
+    final boolean taken[] = new boolean[numOfPoints];
+    for (int s = 0; s < size; s++) {
+      int i;
+      do {
+        i = random.nextInt(numOfPoints);
+      } while (taken[i]);
+      taken[i] = true;
+      sample[s] = i;
+    }
+    return sample;
+  }
+
+  /**
+   * Finds the range of each dimension in parallel over blocks of dimensions. Constant dimensions
+   * are scaled to 0.
+   */
+  private void computeScaling() {
+    if (numOfPoints == 0)
+      return;
+    final double max[] = new double[numOfDimensions];
+    Arrays.fill(min, Double.POSITIVE_INFINITY);
+    Arrays.fill(max, Double.NEGATIVE_INFINITY);
+
+    final int numOfBlocks =
+        Math.min(numOfDimensions, (ForkJoinPool.getCommonPoolParallelism() + 1) * 4);
+    IntStream.range(0, numOfBlocks).parallel().forEach(b -> {
+      final int from = (int) ((long) numOfDimensions * b / numOfBlocks);
+      final int to = (int) ((long) numOfDimensions * (b + 1) / numOfBlocks);
+      for (int i = 0; i < numOfPoints; i++) {
+        final double point[] = data[i];
+        for (int j = from; j < to; j++) {
+          min[j] = Math.min(min[j], point[j]);
+          max[j] = Math.max(max[j], point[j]);
+        }
+      }
+      for (int j = from; j < to; j++) {
+        final double range = max[j] - min[j];
+        scale[j] = (range > 0) ? 1.0 / range : 0.0;
+        if (Double.isInfinite(min[j]) || Double.isNaN(min[j]))
+          min[j] = 0.0;
+      }
+    });
+  }
+
+}
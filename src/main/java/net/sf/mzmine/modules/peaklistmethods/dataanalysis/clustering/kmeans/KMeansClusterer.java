@@ -0,0 +1,66 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.modules.peaklistmethods.dataanalysis.clustering.kmeans;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+
+import net.sf.mzmine.modules.peaklistmethods.dataanalysis.clustering.ClusteringResult;
+import net.sf.mzmine.modules.peaklistmethods.dataanalysis.clustering.MatrixClusteringAlgorithm;
+import net.sf.mzmine.parameters.ParameterSet;
+
+/**
+ * Parallel k-means on the matrix of peak heights or areas, without weka
+ */
+public class KMeansClusterer implements MatrixClusteringAlgorithm {
+
+  private static final String MODULE_NAME = "K-means (parallel)";
+
+  // Same default seed as weka SimpleKMeans
+  private static final long SEED = 10;
+
+  @Override
+  public @Nonnull String getName() {
+    return MODULE_NAME;
+  }
+
+  @Override
+  public ClusteringResult performClustering(double data[][], ParameterSet parameters) {
+
+    int numberOfGroups =
+        parameters.getParameter(KMeansClustererParameters.numberOfGroups).getValue();
+    int maxIterations = parameters.getParameter(KMeansClustererParameters.maxIterations).getValue();
+
+    KMeans kMeans = new KMeans(data, SEED);
+    int clusters[] = kMeans.cluster(numberOfGroups, maxIterations);
+
+    List<Integer> clusterList = new ArrayList<Integer>(clusters.length);
+    for (int cluster : clusters)
+      clusterList.add(cluster);
+    return new ClusteringResult(clusterList, null, Math.min(numberOfGroups, data.length),
+        parameters.getParameter(KMeansClustererParameters.visualization).getValue());
+  }
+
+  @Override
+  public @Nonnull Class<? extends ParameterSet> getParameterSetClass() {
+    return KMeansClustererParameters.class;
+  }
+}
@@ -95,6 +95,10 @@ public class HeatMapParameters extends SimpleParameterSet {
   public static final IntegerParameter rowMargin =
       new IntegerParameter("Row margin", "Row margin of the heat map", 10);
 
+  public static final BooleanParameter useR = new BooleanParameter("Use R",
+      "Create the heat map with the R function heatmap.2 (package gplots) instead of the built-in implementation. The \"fig\" output type always uses R.",
+      false);
+
   /**
    * R engine type.
    */
@@ -105,7 +109,7 @@ public class HeatMapParameters extends SimpleParameterSet {
   public HeatMapParameters() {
     super(new Parameter[] {peakLists, fileName, fileTypeSelection, selectionData, referenceGroup,
         useIdenfiedRows, usePeakArea, scale, log, showControlSamples, plegend, star, height, width,
-        columnMargin, rowMargin, RENGINE_TYPE});
+        columnMargin, rowMargin, useR, RENGINE_TYPE});
   }
 
   @Override
@@ -0,0 +1,342 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.modules.peaklistmethods.dataanalysis.heatmaps;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Path2D;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+
+import org.jfree.chart.plot.Plot;
+import org.jfree.chart.plot.PlotRenderingInfo;
+import org.jfree.chart.plot.PlotState;
+
+import net.sf.mzmine.modules.peaklistmethods.dataanalysis.heatmaps.HierarchicalClustering.Dendrogram;
+
+/**
+ * Heat map with row and column dendrograms, drawn with the layout of the R function heatmap.2: the
+ * color key and the dendrograms take 1.5 / 5.5 of the width and height, the row and column names
+ * are written in the margins on the right and below the matrix. Negative values are blue, positive
+ * values red and missing values grey. The matrix is drawn as one image with a pixel per cell, so
+ * large matrices are fast to draw and small in vector formats.
+ */
+class HeatMapPlot extends Plot {
+
+  private static final long serialVersionUID = 1L;
+
+  private static final float LABEL_FONT_SIZE = 12f;
+  private static final double KEY_FRACTION = 1.5 / 5.5;
+  private static final Color MISSING_COLOR = new Color(190, 190, 190);
+
+  private final double data[][];
+  private final String rowNames[], columnNames[];
+  private final String stars[][];
+  private final Dendrogram rowDendrogram, columnDendrogram;
+  private final int starSize, columnMargin, rowMargin;
+  private final double minValue, maxValue;
+
+  /**
+   * @param data rows x columns, NaN for missing values
+   * @param stars p-value legend of each cell (rows x columns), or null
+   * @param starSize size of the p-value legend, relative to the label font
+   * @param columnMargin lines of text below the matrix, for the column names
+   * @param rowMargin lines of text right of the matrix, for the row names
+   */
+  HeatMapPlot(double data[][], String rowNames[], String columnNames[], String stars[][],
+      Dendrogram rowDendrogram, Dendrogram columnDendrogram, int starSize, int columnMargin,
+      int rowMargin) {
+    this.data = data;
+    this.rowNames = rowNames;
+    this.columnNames = columnNames;
+    this.stars = stars;
+    this.rowDendrogram = rowDendrogram;
+    this.columnDendrogram = columnDendrogram;
+    this.starSize = starSize;
+    this.columnMargin = columnMargin;
+    this.rowMargin = rowMargin;
+
+    double min = 0, max = 0;
+    for (double row[] : data) {
+      for (double value : row) {
+        if (Double.isNaN(value))
+          continue;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+      }
+    }
+    this.minValue = min;
+    this.maxValue = max;
+  }
+
+  @Override
+  public String getPlotType() {
+    return "Heat map";
+  }
+
+  @Override
+  public void draw(Graphics2D g2, Rectangle2D area, Point2D anchor, PlotState parentState,
+      PlotRenderingInfo info) {
+
+    if (info != null)
+      info.setPlotArea(area);
+
+    final Graphics2D g = (Graphics2D) g2.create();
+    try {
+      g.setColor(Color.WHITE);
+      g.fill(area);
+      g.clip(area);
+
+      final int numOfRows = rowDendrogram.getNumberOfLeaves();
+      final int numOfColumns = columnDendrogram.getNumberOfLeaves();
+      if ((numOfRows == 0) || (numOfColumns == 0))
+        return;
+
+      // Layout
+      final double lineHeight = LABEL_FONT_SIZE * 1.2;
+      final double keyWidth = area.getWidth() * KEY_FRACTION;
+      final double keyHeight = area.getHeight() * KEY_FRACTION;
+      final double rightMargin = Math.min(rowMargin * lineHeight, area.getWidth() * 0.4);
+      final double bottomMargin = Math.min(columnMargin * lineHeight, area.getHeight() * 0.4);
+      final Rectangle2D matrix = new Rectangle2D.Double(area.getX() + keyWidth,
+          area.getY() + keyHeight, area.getWidth() - keyWidth - rightMargin,
+          area.getHeight() - keyHeight - bottomMargin);
+      if ((matrix.getWidth() <= 0) || (matrix.getHeight() <= 0))
+        return;
+      final double cellWidth = matrix.getWidth() / numOfColumns;
+      final double cellHeight = matrix.getHeight() / numOfRows;
+
+      drawMatrix(g, matrix, numOfRows, numOfColumns);
+      if (stars != null)
+        drawStars(g, matrix, cellWidth, cellHeight);
+      drawRowNames(g, matrix, cellHeight);
+      drawColumnNames(g, matrix, cellWidth);
+
+      g.setColor(Color.BLACK);
+      g.setStroke(new BasicStroke(0.5f));
+      drawDendrogram(g, rowDendrogram, new Rectangle2D.Double(area.getX(), matrix.getY(),
+          keyWidth, matrix.getHeight()), cellHeight, true);
+      drawDendrogram(g, columnDendrogram, new Rectangle2D.Double(matrix.getX(), area.getY(),
+          matrix.getWidth(), keyHeight), cellWidth, false);
+
+      drawColorKey(g,
+          new Rectangle2D.Double(area.getX(), area.getY(), keyWidth, keyHeight));
+
+    } finally {
+      g.dispose();
+    }
+  }
+
+  /**
+   * Draws the cells as an image with one pixel per cell, scaled to the matrix area
+   */
+  private void drawMatrix(Graphics2D g, Rectangle2D matrix, int numOfRows, int numOfColumns) {
+
+    final BufferedImage image =
+        new BufferedImage(numOfColumns, numOfRows, BufferedImage.TYPE_INT_RGB);
+    final int pixels[] = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+    for (int r = 0; r < numOfRows; r++) {
+      final double row[] = data[rowDendrogram.order[r]];
+      for (int c = 0; c < numOfColumns; c++)
+        pixels[r * numOfColumns + c] = getColor(row[columnDendrogram.order[c]]);
+    }
+
+    final AffineTransform transform = AffineTransform.getTranslateInstance(matrix.getX(),
+        matrix.getY());
+    transform.scale(matrix.getWidth() / numOfColumns, matrix.getHeight() / numOfRows);
+    g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+        RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+    g.drawImage(image, transform, null);
+  }
+
+  /**
+   * Returns the RGB color of the value, from blue (minimum) over white (0) to red (maximum)
+   */
+  private int getColor(double value) {
+    if (Double.isNaN(value))
+      return MISSING_COLOR.getRGB();
+    if (value < 0) {
+      final int level = (int) Math.round(255 * (1 - value / minValue));
+      return (level << 16) | (level << 8) | 255;
+    }
+    if (value > 0) {
+      final int level = (int) Math.round(255 * (1 - value / maxValue));
+      return (255 << 16) | (level << 8) | level;
+    }
+    return 0xFFFFFF;
+  }
+
+  private void drawStars(Graphics2D g, Rectangle2D matrix, double cellWidth, double cellHeight) {
+
+    final float fontSize = (float) Math.min(starSize * LABEL_FONT_SIZE, cellHeight);
+    if (fontSize < 1)
+      return;
+    g.setFont(g.getFont().deriveFont(Font.PLAIN, fontSize));
+    g.setColor(Color.BLACK);
+    final FontMetrics metrics = g.getFontMetrics();
+
+    for (int r = 0; r < rowDendrogram.order.length; r++) {
+      final String rowStars[] = stars[rowDendrogram.order[r]];
+      final double y = matrix.getY() + (r + 0.5) * cellHeight + metrics.getAscent() * 0.35;
+      for (int c = 0; c < columnDendrogram.order.length; c++) {
+        final String star = rowStars[columnDendrogram.order[c]];
+        if ((star == null) || star.isEmpty())
+          continue;
+        final double x =
+            matrix.getX() + (c + 0.5) * cellWidth - metrics.stringWidth(star) / 2.0;
+        g.drawString(star, (float) x, (float) y);
+      }
+    }
+  }
+
+  private void drawRowNames(Graphics2D g, Rectangle2D matrix, double cellHeight) {
+
+    final float fontSize = (float) Math.min(LABEL_FONT_SIZE, cellHeight);
+    if (fontSize < 1)
+      return;
+    g.setFont(g.getFont().deriveFont(Font.PLAIN, fontSize));
+    g.setColor(Color.BLACK);
+
+    final float x = (float) (matrix.getMaxX() + fontSize / 4);
+    for (int r = 0; r < rowDendrogram.order.length; r++) {
+      final double y = matrix.getY() + (r + 0.5) * cellHeight + fontSize * 0.35;
+      g.drawString(rowNames[rowDendrogram.order[r]], x, (float) y);
+    }
+  }
+
+  private void drawColumnNames(Graphics2D g, Rectangle2D matrix, double cellWidth) {
+
+    final float fontSize = (float) Math.min(LABEL_FONT_SIZE, cellWidth);
+    if (fontSize < 1)
+      return;
+    g.setFont(g.getFont().deriveFont(Font.PLAIN, fontSize));
+    g.setColor(Color.BLACK);
+    final FontMetrics metrics = g.getFontMetrics();
+
+    // Vertical names, ending below the matrix
+    final AffineTransform saved = g.getTransform();
+    for (int c = 0; c < columnDendrogram.order.length; c++) {
+      final String name = columnNames[columnDendrogram.order[c]];
+      final double x = matrix.getX() + (c + 0.5) * cellWidth + fontSize * 0.35;
+      final double y = matrix.getMaxY() + fontSize / 4 + metrics.stringWidth(name);
+      g.translate(x, y);
+      g.rotate(-Math.PI / 2);
+      g.drawString(name, 0f, 0f);
+      g.setTransform(saved);
+    }
+  }
+
+  /**
+   * Draws the dendrogram with its leaves at the side of the matrix
+   *
+   * @param cellSize size of the cells along the leaves
+   * @param rows dendrogram of the rows, left of the matrix, otherwise of the columns, above it
+   */
+  private void drawDendrogram(Graphics2D g, Dendrogram dendrogram, Rectangle2D bounds,
+      double cellSize, boolean rows) {
+
+    final int numOfLeaves = dendrogram.getNumberOfLeaves();
+    final int numOfMerges = dendrogram.height.length;
+    if (numOfMerges == 0)
+      return;
+
+    // Rows without common values are joined above the highest finite merge
+    double maxHeight = 0;
+    for (double h : dendrogram.height) {
+      if (!Double.isInfinite(h))
+        maxHeight = Math.max(maxHeight, h);
+    }
+    final double infiniteHeight = (maxHeight > 0) ? maxHeight * 1.1 : 1;
+    final double topHeight = dendrogram.getMaxHeight() > maxHeight ? infiniteHeight : maxHeight;
+    final double depth = rows ? bounds.getWidth() : bounds.getHeight();
+    final double scale = (topHeight > 0) ? depth * 0.95 / topHeight : 0;
+
+    // Position along the leaves and height of each node
+    final double position[] = new double[numOfLeaves + numOfMerges];
+    final double height[] = new double[numOfLeaves + numOfMerges];
+    for (int i = 0; i < numOfLeaves; i++)
+      position[dendrogram.order[i]] = (i + 0.5) * cellSize;
+
+    final Path2D path = new Path2D.Double();
+    for (int m = 0; m < numOfMerges; m++) {
+      final int left = dendrogram.left[m], right = dendrogram.right[m];
+      final int node = numOfLeaves + m;
+      position[node] = (position[left] + position[right]) / 2;
+      height[node] = Double.isInfinite(dendrogram.height[m]) ? infiniteHeight
+          : dendrogram.height[m];
+
+      final double h = height[node] * scale;
+      final double leftHeight = height[left] * scale, rightHeight = height[right] * scale;
+      if (rows) {
+        path.moveTo(bounds.getMaxX() - leftHeight, bounds.getY() + position[left]);
+        path.lineTo(bounds.getMaxX() - h, bounds.getY() + position[left]);
+        path.lineTo(bounds.getMaxX() - h, bounds.getY() + position[right]);
+        path.lineTo(bounds.getMaxX() - rightHeight, bounds.getY() + position[right]);
+      } else {
+        path.moveTo(bounds.getX() + position[left], bounds.getMaxY() - leftHeight);
+        path.lineTo(bounds.getX() + position[left], bounds.getMaxY() - h);
+        path.lineTo(bounds.getX() + position[right], bounds.getMaxY() - h);
+        path.lineTo(bounds.getX() + position[right], bounds.getMaxY() - rightHeight);
+      }
+    }
+    g.draw(path);
+  }
+
+  /**
+   * Draws a horizontal bar with the colors from the minimum to the maximum value
+   */
+  private void drawColorKey(Graphics2D g, Rectangle2D bounds) {
+
+    final double x = bounds.getX() + bounds.getWidth() * 0.1;
+    final double width = bounds.getWidth() * 0.8;
+    final double y = bounds.getY() + bounds.getHeight() * 0.4;
+    final double height = bounds.getHeight() * 0.2;
+    if ((width <= 0) || (height <= 0))
+      return;
+
+    final int steps = 256;
+    for (int i = 0; i < steps; i++) {
+      final double value = minValue + (maxValue - minValue) * (i + 0.5) / steps;
+      g.setColor(new Color(getColor(value)));
+      g.fill(new Rectangle2D.Double(x + width * i / steps, y, width / steps + 0.5, height));
+    }
+    g.setColor(Color.BLACK);
+    g.draw(new Rectangle2D.Double(x, y, width, height));
+
+    final float fontSize = (float) Math.min(LABEL_FONT_SIZE, height);
+    g.setFont(g.getFont().deriveFont(Font.PLAIN, fontSize));
+    final FontMetrics metrics = g.getFontMetrics();
+    final float labelY = (float) (y + height + metrics.getAscent() + 2);
+    final String minLabel = String.format("%.2f", minValue);
+    final String maxLabel = String.format("%.2f", maxValue);
+    g.drawString(minLabel, (float) x, labelY);
+    g.drawString(maxLabel, (float) (x + width - metrics.stringWidth(maxLabel)), labelY);
+    final String title = "Color Key";
+    g.drawString(title, (float) (x + (width - metrics.stringWidth(title)) / 2),
+        (float) (y - metrics.getDescent() - 2));
+  }
+
+}
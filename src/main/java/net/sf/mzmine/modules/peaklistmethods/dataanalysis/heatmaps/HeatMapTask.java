@@ -18,17 +18,22 @@
 
 package net.sf.mzmine.modules.peaklistmethods.dataanalysis.heatmaps;
 
+import java.awt.Color;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Vector;
 import java.util.logging.Logger;
+import java.util.stream.IntStream;
 
-import org.apache.commons.math.MathException;
 import org.apache.commons.math.stat.descriptive.DescriptiveStatistics;
-import org.apache.commons.math.stat.inference.TTestImpl;
+import org.apache.commons.math3.exception.MathIllegalArgumentException;
+import org.apache.commons.math3.exception.MathIllegalStateException;
+import org.apache.commons.math3.stat.inference.TTest;
+import org.jfree.chart.JFreeChart;
 
+import net.sf.mzmine.chartbasics.graphicsexport.ChartExportUtil;
 import net.sf.mzmine.datamodel.Feature;
 import net.sf.mzmine.datamodel.MZmineProject;
 import net.sf.mzmine.datamodel.PeakList;
@@ -38,6 +43,8 @@ import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.parameters.UserParameter;
 import net.sf.mzmine.taskcontrol.AbstractTask;
 import net.sf.mzmine.taskcontrol.TaskStatus;
+import net.sf.mzmine.util.PeakListMatrixUtils;
+import net.sf.mzmine.util.PeakMeasurementType;
 import net.sf.mzmine.util.R.REngineType;
 import net.sf.mzmine.util.R.RSessionWrapper;
 import net.sf.mzmine.util.R.RSessionWrapperException;
@@ -53,7 +60,7 @@ public class HeatMapTask extends AbstractTask {
   private final MZmineProject project;
   private final REngineType rEngineType;
   private final String outputType;
-  private final boolean log, rcontrol, scale, plegend, area, onlyIdentified;
+  private final boolean log, rcontrol, scale, plegend, area, onlyIdentified, useR;
   private final int height, width, columnMargin, rowMargin, starSize;
   private final File outputFile;
   private double[][] newPeakList;
@@ -83,6 +90,7 @@ public class HeatMapTask extends AbstractTask {
     scale = parameters.getParameter(HeatMapParameters.scale).getValue();
     rcontrol = parameters.getParameter(HeatMapParameters.showControlSamples).getValue();
     plegend = parameters.getParameter(HeatMapParameters.plegend).getValue();
+    useR = parameters.getParameter(HeatMapParameters.useR).getValue();
 
     height = parameters.getParameter(HeatMapParameters.height).getValue();
     width = parameters.getParameter(HeatMapParameters.width).getValue();
@@ -133,6 +141,34 @@ public class HeatMapTask extends AbstractTask {
       return;
     }
 
+    if (outputType.contains("png")) {
+      if (height < 500 || width < 500) {
+
+        setStatus(TaskStatus.ERROR);
+        setErrorMessage(
+            "Figure height or width is too small. " + "Minimun height and width is 500.");
+        return;
+      }
+    }
+
+    // R is only needed for the formats the chart export does not support
+    if (!useR && !outputType.contains("fig")) {
+      try {
+        createHeatMap();
+      } catch (Exception e) {
+        if (!isCanceled()) {
+          errorMsg = "'Unknown error' during heatmap generation. \n" + e.getMessage();
+        }
+      }
+      if (errorMsg != null) {
+        setErrorMessage(errorMsg);
+        setStatus(TaskStatus.ERROR);
+      } else if (!isCanceled()) {
+        setStatus(TaskStatus.FINISHED);
+      }
+      return;
+    }
+
     try {
 
       // Load gplots library
@@ -143,16 +179,6 @@ public class HeatMapTask extends AbstractTask {
 
       finishedPercentage = 0.3f;
 
-      if (outputType.contains("png")) {
-        if (height < 500 || width < 500) {
-
-          setStatus(TaskStatus.ERROR);
-          setErrorMessage(
-              "Figure height or width is too small. " + "Minimun height and width is 500.");
-          return;
-        }
-      }
-
       rSession.eval("dataset<- matrix(\"\",nrow =" + newPeakList[0].length + ",ncol="
           + newPeakList.length + ")");
 
@@ -300,6 +326,116 @@ public class HeatMapTask extends AbstractTask {
     }
   }
 
+  /**
+   * Creates the heat map without R: clusters the rows and columns and draws the plot with the chart
+   * export. Same as in R, rows which have no values in common with one of the previous rows are
+   * removed, their distances can't be calculated.
+   */
+  private void createHeatMap() throws Exception {
+
+    final int numOfColumns = newPeakList.length;
+    final int numOfRows = newPeakList[0].length;
+
+    // Presence of the values of each row, to find the rows without common values
+    final int numOfWords = (numOfColumns + 63) / 64;
+    final long present[][] = new long[numOfRows][numOfWords];
+    for (int row = 0; row < numOfRows; row++) {
+      for (int column = 0; column < numOfColumns; column++) {
+        double value = newPeakList[column][row];
+        if (!Double.isInfinite(value) && !Double.isNaN(value))
+          present[row][column / 64] |= 1L << (column % 64);
+      }
+    }
+    List<Integer> keptRows = new ArrayList<Integer>();
+    for (int row = 0; row < numOfRows; row++) {
+      boolean comparable = true;
+      for (int previous = 0; comparable && previous < row; previous++) {
+        boolean common = false;
+        for (int w = 0; !common && w < numOfWords; w++)
+          common = (present[row][w] & present[previous][w]) != 0;
+        comparable = common;
+      }
+      if (comparable)
+        keptRows.add(row);
+    }
+
+    if (keptRows.isEmpty()) {
+      errorMsg = "The data for heat map is empty.";
+      return;
+    }
+
+    // Data as rows x columns, missing values are NaN
+    final int n = keptRows.size();
+    double data[][] = new double[n][numOfColumns];
+    double transposed[][] = new double[numOfColumns][n];
+    String names[] = new String[n];
+    String rowStars[][] = plegend ? new String[n][numOfColumns] : null;
+    for (int i = 0; i < n; i++) {
+      int row = keptRows.get(i);
+      names[i] = rowNames[row];
+      for (int column = 0; column < numOfColumns; column++) {
+        double value = newPeakList[column][row];
+        if (Double.isInfinite(value))
+          value = Double.NaN;
+        data[i][column] = value;
+        transposed[column][i] = value;
+        if (plegend)
+          rowStars[i][column] = pValueMatrix[column][row];
+      }
+    }
+
+    finishedPercentage = 0.4f;
+    if (isCanceled())
+      return;
+
+    // Branches are ordered by the means of the rows and columns, same as heatmap.2
+    HierarchicalClustering.Dendrogram rowDendrogram =
+        HierarchicalClustering.clusterRows(data, getMeans(data));
+    finishedPercentage = 0.7f;
+    if (isCanceled())
+      return;
+    HierarchicalClustering.Dendrogram columnDendrogram =
+        HierarchicalClustering.clusterRows(transposed, getMeans(transposed));
+    finishedPercentage = 0.8f;
+    if (isCanceled())
+      return;
+
+    HeatMapPlot plot = new HeatMapPlot(data, names, colNames, rowStars, rowDendrogram,
+        columnDendrogram, starSize, columnMargin, rowMargin);
+    JFreeChart chart = new JFreeChart(null, null, plot, false);
+    chart.setBackgroundPaint(Color.WHITE);
+
+    // Same as the R devices, the size of the vector formats is given in inches
+    if (outputType.contains("pdf")) {
+      ChartExportUtil.writeChartToPDF(chart, width * 72, height * 72, outputFile);
+    } else if (outputType.contains("svg")) {
+      ChartExportUtil.writeChartToSVG(chart, width * 72, height * 72, outputFile);
+    } else if (outputType.contains("png")) {
+      ChartExportUtil.writeChartToPNG(chart, null, width, height, outputFile);
+    }
+
+    finishedPercentage = 1.0;
+  }
+
+  /**
+   * Returns the mean of the values of each row, ignoring missing values
+   */
+  private double[] getMeans(double data[][]) {
+    double means[] = new double[data.length];
+    for (int i = 0; i < data.length; i++) {
+      double sum = 0;
+      int count = 0;
+      for (double value : data[i]) {
+        if (!Double.isNaN(value)) {
+          sum += value;
+          count++;
+        }
+      }
+      means[i] = count > 0 ? sum / count : 0;
+    }
+    return means;
+  }
+
   private double[][] modifySimpleDataset(UserParameter<?, ?> selectedParameter,
       String referenceGroup) {
 
@@ -456,123 +592,99 @@ public class HeatMapTask extends AbstractTask {
     }
   }
 
+  /**
+   * Returns the groups x rows matrix of the mean of each group divided by the mean of the
+   * reference group, and fills the pValueMatrix with the significance of the t-test of each group
+   * against the reference group. The heights or areas are read into a primitive matrix and the
+   * rows are processed in parallel.
+   */
   private double[][] groupingDataset(UserParameter<?, ?> selectedParameter, String referenceGroup) {
     // Collect all data files
-    Vector<RawDataFile> allDataFiles = new Vector<RawDataFile>();
-    DescriptiveStatistics meanControlStats = new DescriptiveStatistics();
-    DescriptiveStatistics meanGroupStats = new DescriptiveStatistics();
-    allDataFiles.addAll(Arrays.asList(peakList.getRawDataFiles()));
-
-    // Determine the reference group and non reference group (the rest of
-    // the samples) for raw data files
-    List<RawDataFile> referenceDataFiles = new ArrayList<RawDataFile>();
-    List<RawDataFile> nonReferenceDataFiles = new ArrayList<RawDataFile>();
+    final RawDataFile allDataFiles[] = peakList.getRawDataFiles();
 
+    // Determine the groups of the data files, in the order of their first file. Files of the
+    // reference group get column -1.
     List<String> groups = new ArrayList<String>();
-
-    for (RawDataFile rawDataFile : allDataFiles) {
-
-      Object paramValue = project.getParameterValue(selectedParameter, rawDataFile);
-      if (!groups.contains(String.valueOf(paramValue))) {
-        groups.add(String.valueOf(paramValue));
+    final int fileColumns[] = new int[allDataFiles.length];
+    int numOfReferenceFiles = 0;
+    for (int f = 0; f < allDataFiles.length; f++) {
+
+      Object paramValue = project.getParameterValue(selectedParameter, allDataFiles[f]);
+      String group = String.valueOf(paramValue);
+      if (!groups.contains(group)) {
+        groups.add(group);
       }
-      if (String.valueOf(paramValue).equals(referenceGroup)) {
-
-        referenceDataFiles.add(rawDataFile);
-      } else {
-
-        nonReferenceDataFiles.add(rawDataFile);
+      if (group.equals(referenceGroup)) {
+        fileColumns[f] = -1;
+        numOfReferenceFiles++;
       }
     }
-
-    int numRows = 0;
-    for (int row = 0; row < peakList.getNumberOfRows(); row++) {
-
-      if (!onlyIdentified
-          || (onlyIdentified && peakList.getRow(row).getPeakIdentities().length > 0)) {
-        numRows++;
+    List<String> shownGroups = new ArrayList<String>(groups);
+    shownGroups.remove(referenceGroup);
+    for (int f = 0; f < allDataFiles.length; f++) {
+      if (fileColumns[f] != -1) {
+        fileColumns[f] = shownGroups.indexOf(
+            String.valueOf(project.getParameterValue(selectedParameter, allDataFiles[f])));
       }
     }
+    final int numOfColumns = groups.size() - 1;
+    final int maxNumOfReferenceFiles = numOfReferenceFiles;
 
-    // Create a new aligned feature list with all the samples if the reference
-    // group has to be shown or with only
-    // the non reference group if not.
-    double[][] dataMatrix = new double[groups.size() - 1][numRows];
-    pValueMatrix = new String[groups.size() - 1][numRows];
-
-    // data files that should be in the heat map
-    List<RawDataFile> shownDataFiles = nonReferenceDataFiles;
-
-    for (int row = 0, rowIndex = 0; row < peakList.getNumberOfRows(); row++) {
-      PeakListRow rowPeak = peakList.getRow(row);
-      if (!onlyIdentified || (onlyIdentified && rowPeak.getPeakIdentities().length > 0)) {
-        // Average area or height of the reference group
-        meanControlStats.clear();
-        for (int column = 0; column < referenceDataFiles.size(); column++) {
-
-          if (rowPeak.getPeak(referenceDataFiles.get(column)) != null) {
-
-            if (area) {
-
-              meanControlStats.addValue(rowPeak.getPeak(referenceDataFiles.get(column)).getArea());
-            } else {
-
-              meanControlStats
-                  .addValue(rowPeak.getPeak(referenceDataFiles.get(column)).getHeight());
-            }
-
-          }
+    List<PeakListRow> shownRowList = new ArrayList<PeakListRow>();
+    for (PeakListRow row : peakList.getRows()) {
+      if (!onlyIdentified || (onlyIdentified && row.getPeakIdentities().length > 0)) {
+        shownRowList.add(row);
+      }
+    }
+    final PeakListRow shownRows[] = shownRowList.toArray(new PeakListRow[0]);
+    final int numRows = shownRows.length;
+
+    // Missing peaks are NaN
+    final double values[][] = PeakListMatrixUtils.getRowMatrix(shownRows, allDataFiles,
+        area ? PeakMeasurementType.AREA : PeakMeasurementType.HEIGHT, Double.NaN);
+
+    // Create a new aligned feature list with only the non reference groups
+    final double[][] dataMatrix = new double[numOfColumns][numRows];
+    pValueMatrix = new String[numOfColumns][numRows];
+
+    IntStream.range(0, numRows).parallel().forEach(rowIndex -> {
+      final double rowValues[] = values[rowIndex];
+
+      // Values of the reference group
+      final double controlValues[] = new double[maxNumOfReferenceFiles];
+      int numOfControlValues = 0;
+      for (int f = 0; f < rowValues.length; f++) {
+        if ((fileColumns[f] == -1) && !Double.isNaN(rowValues[f]))
+          controlValues[numOfControlValues++] = rowValues[f];
+      }
+      final double control[] = Arrays.copyOf(controlValues, numOfControlValues);
+      final double controlMean = getMean(control);
+
+      // Divide the mean area or height of each group by the mean of the reference group
+      final double groupValues[] = new double[rowValues.length];
+      for (int column = 0; column < numOfColumns; column++) {
+        int numOfGroupValues = 0;
+        for (int f = 0; f < rowValues.length; f++) {
+          if ((fileColumns[f] == column) && !Double.isInfinite(rowValues[f])
+              && !Double.isNaN(rowValues[f]))
+            groupValues[numOfGroupValues++] = rowValues[f];
         }
+        final double group[] = Arrays.copyOf(groupValues, numOfGroupValues);
 
-        // Divide the area or height of each peak by the average of the
-        // area or height of the reference peaks in each row
-        int columnIndex = 0;
-        for (int column = 0; column < groups.size(); column++) {
-          String group = groups.get(column);
-          meanGroupStats.clear();
-          if (!group.equals(referenceGroup)) {
-
-            for (int dataColumn = 0; dataColumn < shownDataFiles.size(); dataColumn++) {
-
-              Object paramValue =
-                  project.getParameterValue(selectedParameter, shownDataFiles.get(dataColumn));
-              if (rowPeak.getPeak(shownDataFiles.get(dataColumn)) != null
-                  && String.valueOf(paramValue).equals(group)) {
-
-                Feature peak = rowPeak.getPeak(shownDataFiles.get(dataColumn));
-
-                if (!Double.isInfinite(peak.getArea()) && !Double.isNaN(peak.getArea())) {
-
-                  if (area) {
-
-                    meanGroupStats.addValue(peak.getArea());
-                  } else {
-
-                    meanGroupStats.addValue(peak.getHeight());
-                  }
-                }
-
-              }
-            }
-
-            double value = meanGroupStats.getMean() / meanControlStats.getMean();
-            if (meanGroupStats.getN() > 1 && meanControlStats.getN() > 1) {
-              pValueMatrix[columnIndex][rowIndex] =
-                  this.getPvalue(meanGroupStats, meanControlStats);
-            } else {
-              pValueMatrix[columnIndex][rowIndex] = "";
-            }
+        double value = getMean(group) / controlMean;
+        if (group.length > 1 && control.length > 1) {
+          pValueMatrix[column][rowIndex] = getPvalue(group, control);
+        } else {
+          pValueMatrix[column][rowIndex] = "";
+        }
 
-            if (log) {
+        if (log) {
 
-              value = Math.log(value);
-            }
-            dataMatrix[columnIndex++][rowIndex] = value;
-          }
+          value = Math.log(value);
         }
-        rowIndex++;
+        dataMatrix[column][rowIndex] = value;
       }
-    }
+    });
 
     // Scale the data dividing the peak area/height by the standard
     // deviation of each column
@@ -609,11 +721,23 @@ public class HeatMapTask extends AbstractTask {
     return dataMatrix;
   }
 
-  private String getPvalue(DescriptiveStatistics group1, DescriptiveStatistics group2) {
-    TTestImpl ttest = new TTestImpl();
+  private static double getMean(double values[]) {
+    if (values.length == 0)
+      return Double.NaN;
+    double sum = 0;
+    for (double value : values)
+      sum += value;
+    return sum / values.length;
+  }
+
+  /**
+   * Welch's t-test, same as TTestImpl.tTest(). The test of commons-math3 does not keep any state,
+   * so it can be called from several threads.
+   */
+  private static String getPvalue(double group1[], double group2[]) {
     String sig = "";
     try {
-      double pValue = ttest.tTest(group1, group2);
+      double pValue = new TTest().tTest(group1, group2);
       if (pValue < 0.05) {
         sig = "*";
       }
@@ -624,10 +748,10 @@ public class HeatMapTask extends AbstractTask {
         sig = "***";
       }
 
-    } catch (IllegalArgumentException ex) {
+    } catch (MathIllegalArgumentException ex) {
       sig = "-";
 
-    } catch (MathException ex) {
+    } catch (MathIllegalStateException ex) {
       sig = "-";
     }
     return sig;
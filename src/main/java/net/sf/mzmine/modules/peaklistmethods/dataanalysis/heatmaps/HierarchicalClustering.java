@@ -0,0 +1,254 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.modules.peaklistmethods.dataanalysis.heatmaps;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Complete linkage hierarchical clustering of Euclidean distances, the defaults of the R function
+ * heatmap.2. Missing values (NaN) are left out of the distances, which are scaled up by the
+ * proportion of the columns used, same as the R function dist. The distances are kept in a
+ * triangular float matrix and the clusters are merged with the nearest neighbour chain algorithm,
+ * so the clustering takes O(n^2) time and memory.
+ */
+class HierarchicalClustering {
+
+  /**
+   * Result of the clustering. Nodes 0 to n - 1 are the leaves (rows of the data), node n + i is
+   * created by the i-th merge.
+   */
+  static class Dendrogram {
+
+    final int left[], right[];
+    final double height[];
+
+    // Leaves in the order of the dendrogram
+    final int order[];
+
+    private Dendrogram(int left[], int right[], double height[], int order[]) {
+      this.left = left;
+      this.right = right;
+      this.height = height;
+      this.order = order;
+    }
+
+    int getNumberOfLeaves() {
+      return order.length;
+    }
+
+    double getMaxHeight() {
+      double max = 0;
+      for (double h : height)
+        max = Math.max(max, h);
+      return max;
+    }
+  }
+
+  /**
+   * Clusters the rows of the data. The branches of each node are ordered by the sum of the weights
+   * of their leaves, lowest first, like the function reorder of R.
+   *
+   * @param data rows x columns, NaN for missing values
+   * @param weights weight of each row
+   */
+  static Dendrogram clusterRows(final double data[][], final double weights[]) {
+
+    final int n = data.length;
+    if (n == 0)
+      return new Dendrogram(new int[0], new int[0], new double[0], new int[0]);
+
+    if ((long) n * (n - 1) / 2 > Integer.MAX_VALUE - 8)
+      throw new IllegalArgumentException("Too many rows to cluster: " + n);
+
+    final float distances[] = computeDistances(data);
+
+    final int numOfMerges = n - 1;
+    final int left[] = new int[numOfMerges];
+    final int right[] = new int[numOfMerges];
+    final double height[] = new double[numOfMerges];
+
+    // Node of each active cluster, indexed by its first row
+    final int node[] = new int[n];
+    final boolean active[] = new boolean[n];
+    for (int i = 0; i < n; i++) {
+      node[i] = i;
+      active[i] = true;
+    }
+
+    // Nearest neighbour chain
+    final int chain[] = new int[n];
+    int chainLength = 0;
+    int firstActive = 0;
+
+    for (int merge = 0; merge < numOfMerges; merge++) {
+
+      if (chainLength == 0) {
+        while (!active[firstActive])
+          firstActive++;
+        chain[chainLength++] = firstActive;
+      }
+
+      // Extend the chain until two clusters are mutual nearest neighbours
+      int a, b;
+      while (true) {
+        a = chain[chainLength - 1];
+        final int previous = (chainLength > 1) ? chain[chainLength - 2] : -1;
+
+        // Prefer the previous cluster on ties, so the chain can not cycle
+        b = previous;
+        float minDistance = (previous >= 0) ? distances[index(a, previous)] : Float.MAX_VALUE;
+        for (int k = 0; k < n; k++) {
+          if (!active[k] || (k == a))
+            continue;
+          final float d = distances[index(a, k)];
+          if ((d < minDistance) || (b < 0)) {
+            minDistance = d;
+            b = k;
+          }
+        }
+
+        if (b == previous)
+          break;
+        chain[chainLength++] = b;
+      }
+      chainLength -= 2;
+
+      left[merge] = node[a];
+      right[merge] = node[b];
+      height[merge] = distances[index(a, b)];
+
+      // Complete linkage: distance to the merged cluster is the maximum of the two distances
+      final int kept = Math.min(a, b), removed = Math.max(a, b);
+      for (int k = 0; k < n; k++) {
+        if (!active[k] || (k == a) || (k == b))
+          continue;
+        final int keptIndex = index(kept, k);
+        distances[keptIndex] = Math.max(distances[keptIndex], distances[index(removed, k)]);
+      }
+      active[removed] = false;
+      node[kept] = n + merge;
+    }
+
+    return new Dendrogram(left, right, height, orderLeaves(n, left, right, weights));
+  }
+
+  /**
+   * Computes the distances between all rows in parallel. Missing values are replaced by 0 with a
+   * weight of 0, so the inner loops have no branches.
+   */
+  private static float[] computeDistances(final double data[][]) {
+
+    final int n = data.length;
+    final int numOfColumns = data[0].length;
+    final float distances[] = new float[(int) ((long) n * (n - 1) / 2)];
+
+    final double ones[] = new double[numOfColumns];
+    Arrays.fill(ones, 1.0);
+    final double values[][] = new double[n][];
+    final double weights[][] = new double[n][];
+    for (int i = 0; i < n; i++) {
+      values[i] = data[i];
+      weights[i] = ones;
+      for (int c = 0; c < numOfColumns; c++) {
+        if (!Double.isNaN(data[i][c]))
+          continue;
+        if (weights[i] == ones) {
+          values[i] = data[i].clone();
+          weights[i] = ones.clone();
+        }
+        values[i][c] = 0;
+        weights[i][c] = 0;
+      }
+    }
+
+    IntStream.range(1, n).parallel().forEach(i -> {
+      final double x[] = values[i], wx[] = weights[i];
+      final int offset = index(i, 0);
+      for (int j = 0; j < i; j++) {
+        final double y[] = values[j], wy[] = weights[j];
+        double sum = 0, count = 0;
+        if ((wx == ones) && (wy == ones)) {
+          for (int c = 0; c < numOfColumns; c++) {
+            final double d = x[c] - y[c];
+            sum += d * d;
+          }
+          count = numOfColumns;
+        } else {
+          for (int c = 0; c < numOfColumns; c++) {
+            final double w = wx[c] * wy[c];
+            final double d = x[c] - y[c];
+            sum += w * d * d;
+            count += w;
+          }
+        }
+        // Rows without common values are joined last
+        distances[offset + j] = (count > 0) ? (float) Math.sqrt(sum * numOfColumns / count)
+            : Float.POSITIVE_INFINITY;
+      }
+    });
+
+    return distances;
+  }
+
+  /**
+   * Returns the order of the leaves, with the branch of lower total weight first at each node
+   */
+  private static int[] orderLeaves(int n, int left[], int right[], double weights[]) {
+
+    final int numOfMerges = left.length;
+    final double nodeWeights[] = new double[n + numOfMerges];
+    for (int i = 0; i < n; i++)
+      nodeWeights[i] = weights[i];
+    for (int m = 0; m < numOfMerges; m++)
+      nodeWeights[n + m] = nodeWeights[left[m]] + nodeWeights[right[m]];
+
+    final int order[] = new int[n];
+    int numOfLeaves = 0;
+    final int stack[] = new int[n];
+    int stackSize = 0;
+    stack[stackSize++] = n + numOfMerges - 1;
+    while (stackSize > 0) {
+      final int node = stack[--stackSize];
+      if (node < n) {
+        order[numOfLeaves++] = node;
+        continue;
+      }
+      int first = left[node - n], second = right[node - n];
+      if (nodeWeights[second] < nodeWeights[first]) {
+        first = right[node - n];
+        second = left[node - n];
+      }
+      // The first branch is visited first
+      stack[stackSize++] = second;
+      stack[stackSize++] = first;
+    }
+    return order;
+  }
+
+  /**
+   * Index of the distance between rows i and j in the triangular matrix
+   */
+  private static int index(int i, int j) {
+    if (i < j)
+      return (int) ((long) j * (j - 1) / 2 + i);
+    return (int) ((long) i * (i - 1) / 2 + j);
+  }
+
+}
@@ -21,10 +21,6 @@ package net.sf.mzmine.modules.peaklistmethods.dataanalysis.projectionplots;
 import java.util.Vector;
 import java.util.logging.Logger;
 import org.jfree.data.xy.AbstractXYDataset;
-import jmprojection.PCA;
-import jmprojection.Preprocess;
-import jmprojection.ProjectionStatus;
-import net.sf.mzmine.datamodel.Feature;
 import net.sf.mzmine.datamodel.MZmineProject;
 import net.sf.mzmine.datamodel.PeakList;
 import net.sf.mzmine.datamodel.PeakListRow;
@@ -33,7 +29,9 @@ import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.parameters.UserParameter;
 import net.sf.mzmine.taskcontrol.TaskPriority;
 import net.sf.mzmine.taskcontrol.TaskStatus;
+import net.sf.mzmine.util.PeakListMatrixUtils;
 import net.sf.mzmine.util.PeakMeasurementType;
+import net.sf.mzmine.util.maths.PrincipalComponentAnalysis;
 
 public class PCADataset extends AbstractXYDataset implements ProjectionPlotDataset {
 
@@ -63,7 +61,7 @@ public class PCADataset extends AbstractXYDataset implements ProjectionPlotDatas
   private TaskStatus status = TaskStatus.WAITING;
   private String errorMessage;
 
-  private ProjectionStatus projectionStatus;
+  private final PrincipalComponentAnalysis pca = new PrincipalComponentAnalysis();
 
   public PCADataset(MZmineProject project, ParameterSet parameters) {
 
@@ -210,10 +208,6 @@ public class PCADataset extends AbstractXYDataset implements ProjectionPlotDatas
 
     logger.info("Computing PCA projection plot");
 
-    // Generate matrix of raw data (input to PCA)
-    final boolean useArea = (parameters.getParameter(ProjectionPlotParameters.peakMeasurementType)
-        .getValue() == PeakMeasurementType.AREA);
-
     if (selectedRows.length == 0) {
       this.status = TaskStatus.ERROR;
       errorMessage = "No peaks selected for PCA plot";
@@ -225,27 +219,19 @@ public class PCADataset extends AbstractXYDataset implements ProjectionPlotDatas
       return;
     }
 
-    double[][] rawData = new double[selectedRawDataFiles.length][selectedRows.length];
-    for (int rowIndex = 0; rowIndex < selectedRows.length; rowIndex++) {
-      PeakListRow peakListRow = selectedRows[rowIndex];
-      for (int fileIndex = 0; fileIndex < selectedRawDataFiles.length; fileIndex++) {
-        RawDataFile rawDataFile = selectedRawDataFiles[fileIndex];
-        Feature p = peakListRow.getPeak(rawDataFile);
-        if (p != null) {
-          if (useArea)
-            rawData[fileIndex][rowIndex] = p.getArea();
-          else
-            rawData[fileIndex][rowIndex] = p.getHeight();
-        }
-      }
-    }
+    // Generate matrix of raw data (input to PCA)
+    final PeakMeasurementType measure =
+        parameters.getParameter(ProjectionPlotParameters.peakMeasurementType).getValue();
+
+    double[][] rawData = PeakListMatrixUtils.getFileMatrix(selectedRows, selectedRawDataFiles,
+        measure, 0.0);
 
     int numComponents = xAxisPC;
     if (yAxisPC > numComponents)
       numComponents = yAxisPC;
 
     // Scale data and do PCA
-    Preprocess.scaleToUnityVariance(rawData);
+    PeakListMatrixUtils.scaleToUnitVariance(rawData);
 
     // Replace NaN values with 0.0
     for (int i = 0; i < rawData.length; i++) {
@@ -255,13 +241,9 @@ public class PCADataset extends AbstractXYDataset implements ProjectionPlotDatas
       }
     }
 
-    PCA pcaProj = new PCA(rawData, numComponents);
-
-    projectionStatus = pcaProj.getProjectionStatus();
-
-    double[][] result = pcaProj.getState();
+    double[][] result = pca.getProjection(rawData, numComponents);
 
-    if (status == TaskStatus.CANCELED)
+    if ((result == null) || (status == TaskStatus.CANCELED))
       return;
 
     component1Coords = result[xAxisPC - 1];
@@ -277,8 +259,7 @@ public class PCADataset extends AbstractXYDataset implements ProjectionPlotDatas
 
   @Override
   public void cancel() {
-    if (projectionStatus != null)
-      projectionStatus.cancel();
+    pca.cancel();
     status = TaskStatus.CANCELED;
   }
 
@@ -299,9 +280,7 @@ public class PCADataset extends AbstractXYDataset implements ProjectionPlotDatas
 
   @Override
   public double getFinishedPercentage() {
-    if (projectionStatus == null)
-      return 0;
-    return projectionStatus.getFinishedPercentage();
+    return pca.getFinishedPercentage();
   }
 
 }
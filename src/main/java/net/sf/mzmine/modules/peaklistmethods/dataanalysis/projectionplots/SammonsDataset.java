@@ -21,10 +21,8 @@ package net.sf.mzmine.modules.peaklistmethods.dataanalysis.projectionplots;
 import java.util.Vector;
 import java.util.logging.Logger;
 import org.jfree.data.xy.AbstractXYDataset;
-import jmprojection.Preprocess;
 import jmprojection.ProjectionStatus;
 import jmprojection.Sammons;
-import net.sf.mzmine.datamodel.Feature;
 import net.sf.mzmine.datamodel.MZmineProject;
 import net.sf.mzmine.datamodel.PeakList;
 import net.sf.mzmine.datamodel.PeakListRow;
@@ -33,6 +31,7 @@ import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.parameters.UserParameter;
 import net.sf.mzmine.taskcontrol.TaskPriority;
 import net.sf.mzmine.taskcontrol.TaskStatus;
+import net.sf.mzmine.util.PeakListMatrixUtils;
 import net.sf.mzmine.util.PeakMeasurementType;
 
 public class SammonsDataset extends AbstractXYDataset implements ProjectionPlotDataset {
@@ -217,32 +216,18 @@ public class SammonsDataset extends AbstractXYDataset implements ProjectionPlotD
     logger.info("Computing projection plot");
 
     // Generate matrix of raw data (input to Sammon's projection)
-    boolean useArea = false;
-    if (parameters.getParameter(ProjectionPlotParameters.peakMeasurementType)
-        .getValue() == PeakMeasurementType.AREA)
-      useArea = true;
-
-    double[][] rawData = new double[selectedRawDataFiles.length][selectedRows.length];
-    for (int rowIndex = 0; rowIndex < selectedRows.length; rowIndex++) {
-      PeakListRow peakListRow = selectedRows[rowIndex];
-      for (int fileIndex = 0; fileIndex < selectedRawDataFiles.length; fileIndex++) {
-        RawDataFile rawDataFile = selectedRawDataFiles[fileIndex];
-        Feature p = peakListRow.getPeak(rawDataFile);
-        if (p != null) {
-          if (useArea)
-            rawData[fileIndex][rowIndex] = p.getArea();
-          else
-            rawData[fileIndex][rowIndex] = p.getHeight();
-        }
-      }
-    }
+    final PeakMeasurementType measure =
+        parameters.getParameter(ProjectionPlotParameters.peakMeasurementType).getValue();
+
+    double[][] rawData = PeakListMatrixUtils.getFileMatrix(selectedRows, selectedRawDataFiles,
+        measure, 0.0);
 
     int numComponents = xAxisDimension;
     if (yAxisDimension > numComponents)
       numComponents = yAxisDimension;
 
     // Scale data and do Sammon's mapping
-    Preprocess.scaleToUnityVariance(rawData);
+    PeakListMatrixUtils.scaleToUnitVariance(rawData);
     Sammons sammonsProj = new Sammons(rawData);
 
     projectionStatus = sammonsProj.getProjectionStatus();
@@ -20,6 +20,7 @@ package net.sf.mzmine.modules.peaklistmethods.dataanalysis.significance;
 
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
@@ -33,6 +34,8 @@ import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.parameters.UserParameter;
 import net.sf.mzmine.taskcontrol.AbstractTask;
 import net.sf.mzmine.taskcontrol.TaskStatus;
+import net.sf.mzmine.util.PeakListMatrixUtils;
+import net.sf.mzmine.util.PeakMeasurementType;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -46,7 +49,7 @@ public class SignificanceTask extends AbstractTask {
   private static final String P_VALUE_KEY = "ANOVA_P_VALUE";
 
   private Logger logger = Logger.getLogger(this.getClass().getName());
-  private double finishedPercentage = 0.0;
+  private volatile double finishedPercentage = 0.0;
 
   private final PeakListRow[] peakListRows;
   private final UserParameter userParameter;
@@ -104,27 +107,43 @@ public class SignificanceTask extends AbstractTask {
 
     List<Set<RawDataFile>> groups = getGroups(userParameter);
 
-    finishedPercentage = 0.0;
-    final double finishedStep = 1.0 / peakListRows.length;
+    // Files of all groups and the group of each file
+    List<RawDataFile> files = new ArrayList<>();
+    List<Integer> fileGroups = new ArrayList<>();
+    for (int i = 0; i < groups.size(); ++i) {
+      for (RawDataFile file : groups.get(i)) {
+        files.add(file);
+        fileGroups.add(i);
+      }
+    }
+    final int numGroups = groups.size();
+    final int[] groupOfFile = fileGroups.stream().mapToInt(Integer::intValue).toArray();
 
-    for (PeakListRow row : peakListRows) {
+    // Heights of the peaks, NaN for missing peaks
+    final double[][] heights = PeakListMatrixUtils.getRowMatrix(peakListRows,
+        files.toArray(new RawDataFile[0]), PeakMeasurementType.HEIGHT, Double.NaN);
+
+    finishedPercentage = 0.0;
+    final AtomicInteger processedRows = new AtomicInteger();
+    final Double[] pValues = new Double[peakListRows.length];
 
+    // The rows are independent, so the tests run in parallel
+    IntStream.range(0, peakListRows.length).parallel().forEach(r -> {
       if (isCanceled()) {
-        break;
+        return;
       }
+      pValues[r] = oneWayAnova(heights[r], groupOfFile, numGroups);
+      finishedPercentage = (double) processedRows.incrementAndGet() / peakListRows.length;
+    });
 
-      finishedPercentage += finishedStep;
+    if (isCanceled()) {
+      return;
+    }
 
-      double[][] intensityGroups = new double[groups.size()][];
-      for (int i = 0; i < groups.size(); ++i) {
-        Set<RawDataFile> groupFiles = groups.get(i);
-        intensityGroups[i] = Arrays.stream(row.getPeaks())
-            .filter(peak -> groupFiles.contains(peak.getDataFile()))
-            .mapToDouble(Feature::getHeight)
-            .toArray();
-      }
+    for (int r = 0; r < peakListRows.length; ++r) {
 
-      Double pValue = oneWayAnova(intensityGroups);
+      PeakListRow row = peakListRows[r];
+      Double pValue = pValues[r];
 
       // Save results
       PeakInformation peakInformation = row.getPeakInformation();
@@ -143,13 +162,16 @@ public class SignificanceTask extends AbstractTask {
     MZmineProject project = MZmineCore.getProjectManager().getCurrentProject();
 
     // Find the parameter value of each data file
-    Map<RawDataFile, Object> paramMap = new HashMap<>();
+    Set<RawDataFile> files = new HashSet<>();
     for (PeakListRow row : peakListRows) {
-      for (RawDataFile file : row.getRawDataFiles()) {
-        Object paramValue = project.getParameterValue(factor, file);
-        if (paramValue != null) {
-          paramMap.put(file, paramValue);
-        }
+      files.addAll(Arrays.asList(row.getRawDataFiles()));
+    }
+
+    Map<RawDataFile, Object> paramMap = new HashMap<>();
+    for (RawDataFile file : files) {
+      Object paramValue = project.getParameterValue(factor, file);
+      if (paramValue != null) {
+        paramMap.put(file, paramValue);
       }
     }
 
@@ -172,35 +194,57 @@ public class SignificanceTask extends AbstractTask {
     return groups;
   }
 
+  /**
+   * One-way ANOVA of the intensities of one row
+   *
+   * @param intensities intensity in each file, NaN for missing peaks
+   * @param groupOfFile group index of each file
+   * @param numGroups number of groups
+   * @return p-value, or null if the test is not defined
+   */
   @Nullable
-  private Double oneWayAnova(@Nonnull double[][] intensityGroups) {
+  private Double oneWayAnova(@Nonnull double[] intensities, @Nonnull int[] groupOfFile,
+      int numGroups) {
+
+    double[] groupSums = new double[numGroups];
+    int[] groupCounts = new int[numGroups];
+    double overallSum = 0.0;
+    long numIntensities = 0;
+    for (int f = 0; f < intensities.length; ++f) {
+      double x = intensities[f];
+      if (Double.isNaN(x)) {
+        continue;
+      }
+      groupSums[groupOfFile[f]] += x;
+      groupCounts[groupOfFile[f]]++;
+      overallSum += x;
+      numIntensities++;
+    }
 
-    int numGroups = intensityGroups.length;
-    long numIntensities = Arrays.stream(intensityGroups)
-        .flatMapToDouble(Arrays::stream)
-        .count();
+    // Empty groups have mean 0, same as the average of an empty stream
+    double[] groupMeans = new double[numGroups];
+    for (int i = 0; i < numGroups; ++i) {
+      groupMeans[i] = groupCounts[i] > 0 ? groupSums[i] / groupCounts[i] : 0.0;
+    }
 
-    double[] groupMeans = Arrays.stream(intensityGroups)
-        .mapToDouble(intensities -> Arrays.stream(intensities).average().orElse(0.0))
-        .toArray();
+    double overallMean = numIntensities > 0 ? overallSum / numIntensities : 0.0;
 
-    double overallMean = Arrays.stream(intensityGroups)
-        .flatMapToDouble(Arrays::stream)
-        .average()
-        .orElse(0.0);
-
-    double sumOfSquaresOfError = IntStream.range(0, intensityGroups.length)
-        .mapToDouble(i -> Arrays
-            .stream(intensityGroups[i])
-            .map(x -> x - groupMeans[i])
-            .map(x -> x * x)
-            .sum())
-        .sum();
-
-    double sumOfSquaresOfTreatment = (numGroups - 1) * Arrays.stream(groupMeans)
-        .map(x -> x - overallMean)
-        .map(x -> x * x)
-        .sum();
+    double sumOfSquaresOfError = 0.0;
+    for (int f = 0; f < intensities.length; ++f) {
+      double x = intensities[f];
+      if (Double.isNaN(x)) {
+        continue;
+      }
+      double d = x - groupMeans[groupOfFile[f]];
+      sumOfSquaresOfError += d * d;
+    }
+
+    double sumOfSquaresOfTreatment = 0.0;
+    for (double groupMean : groupMeans) {
+      double d = groupMean - overallMean;
+      sumOfSquaresOfTreatment += d * d;
+    }
+    sumOfSquaresOfTreatment *= (numGroups - 1);
 
     long degreesOfFreedomOfTreatment = numGroups - 1;
     long degreesOfFreedomOfError = numIntensities - numGroups;
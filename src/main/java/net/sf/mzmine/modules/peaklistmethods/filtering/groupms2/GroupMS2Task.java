@@ -21,13 +21,11 @@ package net.sf.mzmine.modules.peaklistmethods.filtering.groupms2;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import com.google.common.collect.Range;
-import it.unimi.dsi.fastutil.ints.IntArrayList;
 import net.sf.mzmine.datamodel.Feature;
 import net.sf.mzmine.datamodel.MZmineProject;
 import net.sf.mzmine.datamodel.PeakList;
 import net.sf.mzmine.datamodel.PeakListRow;
 import net.sf.mzmine.datamodel.RawDataFile;
-import net.sf.mzmine.datamodel.Scan;
 import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.parameters.parametertypes.tolerances.MZTolerance;
 import net.sf.mzmine.parameters.parametertypes.tolerances.RTTolerance;
@@ -100,48 +98,18 @@ public class GroupMS2Task extends AbstractTask {
             return;
 
           RawDataFile raw = f.getDataFile();
-          IntArrayList scans = new IntArrayList();
-          int best = f.getRepresentativeScanNumber();
           double frt = f.getRT();
           double fmz = f.getMZ();
-          Range<Double> rtRange = f.getRawDataPointsRTRange();
-          int i = best;
-          // left
-          while (i > 1) {
-            i--;
-            Scan scan = raw.getScan(i);
-            if (scan != null) {
-              if ((!limitRTByFeature || rtRange.contains(scan.getRetentionTime()))
-                  && rtTol.checkWithinTolerance(frt, scan.getRetentionTime())) {
-                if (scan.getPrecursorMZ() != 0
-                    && mzTol.checkWithinTolerance(fmz, scan.getPrecursorMZ()))
-                  scans.add(i);
-              } else {
-                // end of loop - out of tolerance
-                break;
-              }
-            }
-          }
-          int[] scanNumbers = raw.getScanNumbers();
-          // right
-          while (i < scanNumbers[scanNumbers.length - 1]) {
-            i++;
-            Scan scan = raw.getScan(i);
-            // scanID does not have to be contiguous
-            if (scan != null) {
-              if ((!limitRTByFeature || rtRange.contains(scan.getRetentionTime()))
-                  && rtTol.checkWithinTolerance(frt, scan.getRetentionTime())) {
-                if (scan.getPrecursorMZ() != 0
-                    && mzTol.checkWithinTolerance(fmz, scan.getPrecursorMZ()))
-                  scans.add(i);
-              } else {
-                // end of loop - out of tolerance
-                break;
-              }
-            }
+          Range<Double> rtRange = rtTol.getToleranceRange(frt);
+          if (limitRTByFeature) {
+            Range<Double> featureRTRange = f.getRawDataPointsRTRange();
+            rtRange = rtRange.isConnected(featureRTRange) ? rtRange.intersection(featureRTRange)
+                : Range.closedOpen(frt, frt);
           }
+          // MS2 scans are looked up by precursor m/z in the index of the raw data file
+          int scans[] = raw.getMS2ScanNumbers(rtRange, mzTol.getToleranceRange(fmz));
           // set list to feature
-          f.setAllMS2FragmentScanNumbers(scans.toIntArray());
+          f.setAllMS2FragmentScanNumbers(scans);
         }
         processedRows++;
       }
@@ -20,6 +20,7 @@ package net.sf.mzmine.modules.peaklistmethods.gapfilling.peakfinder;
 
 import java.util.List;
 import java.util.Vector;
+import javax.annotation.Nullable;
 import com.google.common.collect.Range;
 import net.sf.mzmine.datamodel.DataPoint;
 import net.sf.mzmine.datamodel.Feature.FeatureStatus;
@@ -62,28 +63,56 @@ public class Gap {
 
   }
 
+  public Range<Double> getMZRange() {
+    return mzRange;
+  }
+
+  public Range<Double> getRTRange() {
+    return rtRange;
+  }
+
   public void offerNextScan(Scan scan) {
 
     double scanRT = scan.getRetentionTime();
 
+    if (!isAcceptingScan(scanRT))
+      return;
+
+    // Find top m/z peak in our range
+    DataPoint basePeak = ScanUtils.findBasePeak(scan, mzRange);
+
+    offerBasePeak(scan.getScanNumber(), scanRT, basePeak);
+  }
+
+  /**
+   * Checks whether a scan of given retention time can still change this gap. Once this returns
+   * false for a scan after the RT range, it returns false for all following scans.
+   */
+  public boolean isAcceptingScan(double scanRT) {
+
     // If not yet inside the RT range
     if (scanRT < rtRange.lowerEndpoint())
-      return;
+      return false;
 
     // If we have passed the RT range and finished processing last peak
     if ((scanRT > rtRange.upperEndpoint()) && (currentPeakDataPoints == null))
-      return;
+      return false;
 
-    // Find top m/z peak in our range
-    DataPoint basePeak = ScanUtils.findBasePeak(scan, mzRange);
+    return true;
+  }
+
+  /**
+   * Offers the most intense data point of the next scan within the m/z range of this gap (or null
+   * if there is none). The scan has to be accepted by isAcceptingScan().
+   */
+  public void offerBasePeak(int scanNumber, double scanRT, @Nullable DataPoint basePeak) {
 
     GapDataPoint currentDataPoint;
     if (basePeak != null) {
       currentDataPoint =
-          new GapDataPoint(scan.getScanNumber(), basePeak.getMZ(), scanRT, basePeak.getIntensity());
+          new GapDataPoint(scanNumber, basePeak.getMZ(), scanRT, basePeak.getIntensity());
     } else {
-      currentDataPoint =
-          new GapDataPoint(scan.getScanNumber(), RangeUtils.rangeCenter(mzRange), scanRT, 0);
+      currentDataPoint = new GapDataPoint(scanNumber, RangeUtils.rangeCenter(mzRange), scanRT, 0);
     }
 
     // If we have not yet started, just create a new peak
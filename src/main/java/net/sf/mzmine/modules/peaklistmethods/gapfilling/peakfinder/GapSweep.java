@@ -0,0 +1,182 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.modules.peaklistmethods.gapfilling.peakfinder;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+import net.sf.mzmine.datamodel.DataPoint;
+import net.sf.mzmine.datamodel.RawDataFile;
+import net.sf.mzmine.datamodel.Scan;
+import net.sf.mzmine.taskcontrol.AbstractTask;
+
+/**
+ * Fills all gaps of one raw data file in a single pass over its MS1 scans. The gaps enter the set
+ * of active gaps when the scans reach their RT range and leave it once they can not change anymore
+ * (see Gap.isAcceptingScan()). The active gaps are kept sorted by the lower end of their m/z range,
+ * so the data points of each scan are read only once and walked with a sweep line to find the base
+ * peak of every active gap. The result is the same as offering each scan to each gap.
+ */
+public class GapSweep {
+
+  // Minimum number of active gaps to split a scan between threads
+  private static final int MIN_PARALLEL_GAPS = 1000;
+
+  private static final Comparator<Gap> MZ_ORDER =
+      Comparator.comparingDouble(gap -> gap.getMZRange().lowerEndpoint());
+
+  /**
+   * Offers all MS1 scans of the data file to the gaps, then finalizes the gaps.
+   *
+   * @param parallel process the gaps of each scan and finalize them in parallel
+   * @param task task to check for cancellation, the gaps are not finalized if it was canceled
+   * @param scanProcessed called after each scan, to update the progress
+   */
+  public static void fillGaps(RawDataFile dataFile, List<Gap> gaps, boolean parallel,
+      AbstractTask task, Runnable scanProcessed) {
+
+    // Gaps in order of their RT range, to find the gaps becoming active
+    final Gap gapsByRT[] = gaps.toArray(new Gap[0]);
+    Arrays.sort(gapsByRT, Comparator.comparingDouble(gap -> gap.getRTRange().lowerEndpoint()));
+    int nextGap = 0;
+
+    // Active gaps sorted by m/z
+    Gap activeGaps[] = new Gap[0];
+
+    for (int scanNumber : dataFile.getScanNumbers(1)) {
+
+      if (task.isCanceled())
+        return;
+
+      final Scan scan = dataFile.getScan(scanNumber);
+      final double scanRT = scan.getRetentionTime();
+
+      // Add the gaps whose RT range starts before this scan
+      int firstNewGap = nextGap;
+      while ((nextGap < gapsByRT.length)
+          && (gapsByRT[nextGap].getRTRange().lowerEndpoint() <= scanRT))
+        nextGap++;
+      if (nextGap > firstNewGap) {
+        Gap newGaps[] = Arrays.copyOfRange(gapsByRT, firstNewGap, nextGap);
+        Arrays.sort(newGaps, MZ_ORDER);
+        activeGaps = merge(activeGaps, newGaps);
+      }
+
+      // Remove the gaps which are finished
+      int numOfActive = 0;
+      for (Gap gap : activeGaps) {
+        if (gap.isAcceptingScan(scanRT))
+          activeGaps[numOfActive++] = gap;
+      }
+      if (numOfActive < activeGaps.length)
+        activeGaps = Arrays.copyOf(activeGaps, numOfActive);
+
+      if (numOfActive > 0) {
+        final DataPoint dataPoints[] = scan.getDataPoints();
+        final Gap scanGaps[] = activeGaps;
+        if (parallel && (scanGaps.length >= MIN_PARALLEL_GAPS)) {
+          final int numOfChunks = (ForkJoinPool.getCommonPoolParallelism() + 1) * 4;
+          final int chunkSize = (scanGaps.length + numOfChunks - 1) / numOfChunks;
+          IntStream.range(0, numOfChunks).parallel()
+              .forEach(chunk -> offerScan(scanNumber, scanRT, dataPoints, scanGaps,
+                  chunk * chunkSize, Math.min(scanGaps.length, (chunk + 1) * chunkSize)));
+        } else {
+          offerScan(scanNumber, scanRT, dataPoints, scanGaps, 0, scanGaps.length);
+        }
+      }
+
+      scanProcessed.run();
+    }
+
+    if (task.isCanceled())
+      return;
+
+    // Finalize gaps
+    if (parallel)
+      gaps.parallelStream().forEach(Gap::noMoreOffers);
+    else
+      gaps.forEach(Gap::noMoreOffers);
+  }
+
+  /**
+   * Offers the base peak within their m/z range to the gaps from fromIndex to toIndex (exclusive),
+   * sorted by m/z
+   */
+  private static void offerScan(int scanNumber, double scanRT, DataPoint dataPoints[],
+      Gap gaps[], int fromIndex, int toIndex) {
+
+    if (fromIndex >= toIndex)
+      return;
+
+    // First data point of the first gap, then the sweep line only moves up
+    int start = findFirstAbove(dataPoints, gaps[fromIndex].getMZRange().lowerEndpoint());
+
+    for (int i = fromIndex; i < toIndex; i++) {
+      final Gap gap = gaps[i];
+      final double lower = gap.getMZRange().lowerEndpoint();
+      final double upper = gap.getMZRange().upperEndpoint();
+
+      while ((start < dataPoints.length) && (dataPoints[start].getMZ() < lower))
+        start++;
+
+      DataPoint basePeak = null;
+      for (int j = start; (j < dataPoints.length) && (dataPoints[j].getMZ() <= upper); j++) {
+        if ((basePeak == null) || (dataPoints[j].getIntensity() > basePeak.getIntensity()))
+          basePeak = dataPoints[j];
+      }
+
+      gap.offerBasePeak(scanNumber, scanRT, basePeak);
+    }
+  }
+
+  /**
+   * Returns the index of the first data point with m/z >= given value
+   */
+  private static int findFirstAbove(DataPoint dataPoints[], double mz) {
+    int low = 0, high = dataPoints.length;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (dataPoints[mid].getMZ() < mz)
+        low = mid + 1;
+      else
+        high = mid;
+    }
+    return low;
+  }
+
+  private static Gap[] merge(Gap first[], Gap second[]) {
+    Gap merged[] = new Gap[first.length + second.length];
+    int i = 0, j = 0, k = 0;
+    while ((i < first.length) && (j < second.length)) {
+      if (MZ_ORDER.compare(first[i], second[j]) <= 0)
+        merged[k++] = first[i++];
+      else
+        merged[k++] = second[j++];
+    }
+    while (i < first.length)
+      merged[k++] = first[i++];
+    while (j < second.length)
+      merged[k++] = second[j++];
+    return merged;
+  }
+
+}
@@ -48,7 +48,7 @@ public class PeakFinderParameters extends SimpleParameterSet {
 
   public static final BooleanParameter useParallel =
       new BooleanParameter("Parallel (never combined with RT correction)",
-          "Parallel processing of gaps (RT correction is always on a single thread)");
+          "Parallel processing of the raw data files (RT correction is always on a single thread) and of the gaps within each file");
 
   public static final BooleanParameter autoRemove = new BooleanParameter(
       "Remove original feature list", "If checked, the original feature list will be removed");
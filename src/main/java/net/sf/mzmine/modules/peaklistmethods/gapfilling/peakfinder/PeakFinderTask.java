@@ -31,7 +31,6 @@ import net.sf.mzmine.datamodel.PeakIdentity;
 import net.sf.mzmine.datamodel.PeakList;
 import net.sf.mzmine.datamodel.PeakListRow;
 import net.sf.mzmine.datamodel.RawDataFile;
-import net.sf.mzmine.datamodel.Scan;
 import net.sf.mzmine.datamodel.impl.SimplePeakList;
 import net.sf.mzmine.datamodel.impl.SimplePeakListAppliedMethod;
 import net.sf.mzmine.datamodel.impl.SimplePeakListRow;
@@ -168,32 +167,9 @@ class PeakFinderTask extends AbstractTask {
           return;
         }
 
-        // Get all scans of this data file
-        int scanNumbers[] = dataFile.getScanNumbers(1);
-
-        // Process each scan
-        for (int scanNumber : scanNumbers) {
-          // Canceled?
-          if (isCanceled()) {
-            // inside stream - only skips this element
-            return;
-          }
-
-          // Get the scan
-          Scan scan = dataFile.getScan(scanNumber);
-
-          // Feed this scan to all gaps
-          for (Gap gap : gaps) {
-            gap.offerNextScan(scan);
-          }
-
-          processedScans.incrementAndGet();
-        }
-
-        // Finalize gaps
-        for (Gap gap : gaps) {
-          gap.noMoreOffers();
-        }
+        // Feed all scans to the gaps in a single pass and finalize them
+        GapSweep.fillGaps(dataFile, gaps, useParallelStream, this,
+            processedScans::incrementAndGet);
       });
     }
     // terminate - stream only skips all elements
@@ -304,31 +280,9 @@ class PeakFinderTask extends AbstractTask {
           continue;
         }
 
-        // Get all scans of this data file
-        int scanNumbers[] = datafile1.getScanNumbers(1);
-
-        // Process each scan
-        for (int scanNumber : scanNumbers) {
-
-          // Canceled?
-          if (isCanceled()) {
-            return;
-          }
-
-          // Get the scan
-          Scan scan = datafile1.getScan(scanNumber);
-
-          // Feed this scan to all gaps
-          for (Gap gap : gaps) {
-            gap.offerNextScan(scan);
-          }
-          processedScans.incrementAndGet();
-        }
-
-        // Finalize gaps
-        for (Gap gap : gaps) {
-          gap.noMoreOffers();
-        }
+        // Feed all scans to the gaps in a single pass and finalize them
+        GapSweep.fillGaps(datafile1, gaps, useParallelStream, this,
+            processedScans::incrementAndGet);
       }
     }
   }
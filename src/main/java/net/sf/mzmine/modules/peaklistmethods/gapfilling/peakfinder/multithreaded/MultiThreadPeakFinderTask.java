@@ -27,8 +27,8 @@ import net.sf.mzmine.datamodel.MZmineProject;
 import net.sf.mzmine.datamodel.PeakList;
 import net.sf.mzmine.datamodel.PeakListRow;
 import net.sf.mzmine.datamodel.RawDataFile;
-import net.sf.mzmine.datamodel.Scan;
 import net.sf.mzmine.modules.peaklistmethods.gapfilling.peakfinder.Gap;
+import net.sf.mzmine.modules.peaklistmethods.gapfilling.peakfinder.GapSweep;
 import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.parameters.parametertypes.tolerances.MZTolerance;
 import net.sf.mzmine.parameters.parametertypes.tolerances.RTTolerance;
@@ -126,30 +126,12 @@ class MultiThreadPeakFinderTask extends AbstractTask {
         continue;
       }
 
-      // Get all scans of this data file
-      int scanNumbers[] = dataFile.getScanNumbers(1);
+      // Feed all scans to the gaps in a single pass and finalize them
+      GapSweep.fillGaps(dataFile, gaps, false, this, () -> processedScans++);
 
-      // Process each scan
-      for (int scanNumber : scanNumbers) {
-        // Canceled?
-        if (isCanceled()) {
-          return;
-        }
-
-        // Get the scan
-        Scan scan = dataFile.getScan(scanNumber);
-
-        // Feed this scan to all gaps
-        for (Gap gap : gaps) {
-          gap.offerNextScan(scan);
-        }
-
-        processedScans++;
-      }
-
-      // Finalize gaps
-      for (Gap gap : gaps) {
-        gap.noMoreOffers();
+      // fillGaps returns early when canceled, so the gaps of this file are not finished
+      if (isCanceled()) {
+        return;
       }
     }
 
@@ -18,9 +18,6 @@
 
 package net.sf.mzmine.modules.peaklistmethods.gapfilling.samerange;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 import com.google.common.collect.Range;
@@ -33,7 +30,7 @@ import net.sf.mzmine.datamodel.PeakListRow;
 import net.sf.mzmine.datamodel.RawDataFile;
 import net.sf.mzmine.datamodel.Scan;
 import net.sf.mzmine.datamodel.impl.SimpleDataPoint;
-import net.sf.mzmine.datamodel.impl.SimplePeakList;
+import net.sf.mzmine.datamodel.impl.SimplePeakListBuilder;
 import net.sf.mzmine.datamodel.impl.SimplePeakListAppliedMethod;
 import net.sf.mzmine.datamodel.impl.SimplePeakListRow;
 import net.sf.mzmine.modules.peaklistmethods.qualityparameters.QualityParameters;
@@ -84,8 +81,9 @@ class SameRangeTask extends AbstractTask {
     // Get feature list columns
     RawDataFile columns[] = peakList.getRawDataFiles();
 
-    // Create new feature list
-    processedPeakList = new SimplePeakList(peakList + " " + suffix, columns);
+    // Create new feature list, the rows are added from several threads
+    SimplePeakListBuilder peakListBuilder =
+        new SimplePeakListBuilder(peakList + " " + suffix, columns);
 
     /*************************************************************
      * Creating a stream to process the data in parallel
@@ -93,8 +91,6 @@ class SameRangeTask extends AbstractTask {
 
     processedRowsAtomic = new AtomicInteger(0);
 
-    List<PeakListRow> outputList = Collections.synchronizedList(new ArrayList<>());
-
     peakList.parallelStream().forEach(sourceRow -> {
       // Canceled?
       if (isCanceled())
@@ -129,14 +125,12 @@ class SameRangeTask extends AbstractTask {
           newRow.addPeak(column, currentPeak);
       }
 
-      outputList.add(newRow);
+      peakListBuilder.addRow(newRow);
 
       processedRowsAtomic.getAndAdd(1);
     });
 
-    outputList.stream().forEach(newRow -> {
-      processedPeakList.addRow((PeakListRow) newRow);
-    });
+    processedPeakList = peakListBuilder.build();
 
     /* End Parallel Implementation */
     /*******************************************************************************/
@@ -23,7 +23,9 @@ import static net.sf.mzmine.modules.peaklistmethods.identification.adductsearch.
 import static net.sf.mzmine.modules.peaklistmethods.identification.adductsearch.AdductSearchParameters.MZ_TOLERANCE;
 import static net.sf.mzmine.modules.peaklistmethods.identification.adductsearch.AdductSearchParameters.RT_TOLERANCE;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -36,19 +38,17 @@ import net.sf.mzmine.main.MZmineCore;
 import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.parameters.parametertypes.tolerances.MZTolerance;
 import net.sf.mzmine.parameters.parametertypes.tolerances.RTTolerance;
-import net.sf.mzmine.taskcontrol.AbstractTask;
+import net.sf.mzmine.taskcontrol.AbstractRowTask;
 import net.sf.mzmine.taskcontrol.TaskStatus;
 import net.sf.mzmine.util.PeakListRowSorter;
 import net.sf.mzmine.util.SortingDirection;
 import net.sf.mzmine.util.SortingProperty;
 
-public class AdductSearchTask extends AbstractTask {
+public class AdductSearchTask extends AbstractRowTask {
 
   // Logger.
   private static final Logger LOG = Logger.getLogger(AdductSearchTask.class.getName());
 
-  private int finishedRows;
-  private int totalRows;
   private final PeakList peakList;
 
   private final RTTolerance rtTolerance;
@@ -69,21 +69,12 @@ public class AdductSearchTask extends AbstractTask {
     peakList = list;
     parameters = parameterSet;
 
-    finishedRows = 0;
-    totalRows = 0;
-
     rtTolerance = parameterSet.getParameter(RT_TOLERANCE).getValue();
     mzTolerance = parameterSet.getParameter(MZ_TOLERANCE).getValue();
     selectedAdducts = parameterSet.getParameter(ADDUCTS).getValue();
     maxAdductHeight = parameterSet.getParameter(MAX_ADDUCT_HEIGHT).getValue();
   }
 
-  @Override
-  public double getFinishedPercentage() {
-
-    return totalRows == 0 ? 0.0 : (double) finishedRows / (double) totalRows;
-  }
-
   @Override
   public String getTaskDescription() {
 
@@ -127,47 +118,54 @@ public class AdductSearchTask extends AbstractTask {
   /**
    * Search peak-list for adducts.
    */
-  private void searchAdducts() {
+  private void searchAdducts() throws Exception {
 
     // Get rows.
     final PeakListRow[] rows = peakList.getRows();
-    totalRows = rows.length;
 
     // Start with the highest peaks.
     Arrays.sort(rows, new PeakListRowSorter(SortingProperty.Height, SortingDirection.Descending));
 
-    // Compare each pair of rows against each other.
-    for (int i = 0; !isCanceled() && i < totalRows; i++) {
-      for (int j = 0; !isCanceled() && j < totalRows; j++) {
+    // Compare each row against all other rows.
+    final List<List<AdductMatch>> matches =
+        processRows(rows, mainRow -> findAdducts(mainRow, rows));
+    if (matches == null)
+      return;
 
-        if (i == j)
-          continue;
+    // Add adduct identities and notify GUI, in the order of the main rows.
+    for (final List<AdductMatch> rowMatches : matches) {
+      for (final AdductMatch match : rowMatches) {
 
-        findAdducts(rows[i], rows[j]);
+        match.adductRow.addPeakIdentity(new AdductIdentity(match.mainRow, match.adduct), false);
+        MZmineCore.getProjectManager().getCurrentProject().notifyObjectChanged(match.adductRow,
+            false);
       }
-
-      finishedRows++;
     }
   }
 
   /**
-   * Check if candidate peak may be a possible adduct of a given main peak.
+   * Find all rows which may be adducts of a given main peak.
    *
    * @param mainRow main peak.
-   * @param possibleAdduct candidate adduct peak.
+   * @param rows all rows.
+   * @return the adducts found.
    */
-  private void findAdducts(final PeakListRow mainRow, final PeakListRow possibleAdduct) {
+  private List<AdductMatch> findAdducts(final PeakListRow mainRow, final PeakListRow[] rows) {
 
-    for (final AdductType adduct : selectedAdducts) {
+    final List<AdductMatch> rowMatches = new ArrayList<>();
+    for (final PeakListRow possibleAdduct : rows) {
 
-      if (checkAdduct(mainRow, possibleAdduct, adduct)) {
+      if (possibleAdduct == mainRow)
+        continue;
 
-        // Add adduct identity and notify GUI.
-        possibleAdduct.addPeakIdentity(new AdductIdentity(mainRow, adduct), false);
-        MZmineCore.getProjectManager().getCurrentProject().notifyObjectChanged(possibleAdduct,
-            false);
+      for (final AdductType adduct : selectedAdducts) {
+
+        if (checkAdduct(mainRow, possibleAdduct, adduct)) {
+          rowMatches.add(new AdductMatch(mainRow, possibleAdduct, adduct));
+        }
       }
     }
+    return rowMatches;
   }
 
   /**
@@ -193,4 +191,22 @@ public class AdductSearchTask extends AbstractTask {
         // Check height condition.
         && possibleAdduct.getAverageHeight() <= mainPeak.getAverageHeight() * maxAdductHeight;
   }
+
+  /**
+   * Row found to be an adduct of a main row. The identity is created when the matches are added to
+   * the rows, as formatting the m/z value is not thread-safe.
+   */
+  private static final class AdductMatch {
+
+    private final PeakListRow mainRow;
+    private final PeakListRow adductRow;
+    private final AdductType adduct;
+
+    private AdductMatch(final PeakListRow mainRow, final PeakListRow adductRow,
+        final AdductType adduct) {
+      this.mainRow = mainRow;
+      this.adductRow = adductRow;
+      this.adduct = adduct;
+    }
+  }
 }
@@ -108,9 +108,9 @@ public class CameraSearchTask extends AbstractTask {
   MZmineProject project;
 
   // R session.
-  private RSessionWrapper rSession;
+  private volatile RSessionWrapper rSession;
   private String errorMsg;
-  private boolean userCanceled;
+  private volatile boolean userCanceled;
 
   // Parameters.
   private final ParameterSet parameters;
@@ -244,21 +244,23 @@ public class CameraSearchTask extends AbstractTask {
 
       String[] reqPackages = {"CAMERA"};
       String[] reqPackagesVersions = {CAMERA_VERSION};
-      this.rSession = new RSessionWrapper(this.rEngineType, "Camera search feature", reqPackages,
-          reqPackagesVersions);
+      // Reuse the R session of a previous feature list of the batch, if any.
+      this.rSession = RSessionWrapper.acquire(this.rEngineType, "Camera search feature",
+          reqPackages, reqPackagesVersions);
       this.rSession.open();
 
-
-      // Create empty peaks matrix.
-      this.rSession.eval(
-          "columnHeadings <- c('mz','mzmin','mzmax','rt','rtmin','rtmax','into','intb','maxo','sn')");
-      this.rSession.eval("peaks <- matrix(nrow=0, ncol=length(columnHeadings))");
-      this.rSession.eval("colnames(peaks) <- columnHeadings");
-
       // Initialize.
       final Feature[] peaks = peakList.getPeaks(rawFile);
       progress = 0.0;
 
+      // Columns of the peaks matrix.
+      final double[] peakMz = new double[peaks.length];
+      final double[] peakRt = new double[peaks.length];
+      final double[] peakRtMin = new double[peaks.length];
+      final double[] peakRtMax = new double[peaks.length];
+      final double[] peakArea = new double[peaks.length];
+      final double[] peakMaxo = new double[peaks.length];
+
       // Initialize scan map.
       final Map<Scan, Set<DataPoint>> peakDataPointsByScan =
           new HashMap<Scan, Set<DataPoint>>(rawFile.getNumOfScans(MS_LEVEL));
@@ -279,7 +281,9 @@ public class CameraSearchTask extends AbstractTask {
       // Add peaks.
       // 80 percents for building peaks list.
       double progressInc = 0.8 / (double) peaks.length;
-      for (final Feature peak : peaks) {
+      for (int peakIndex = 0; peakIndex < peaks.length; peakIndex++) {
+
+        final Feature peak = peaks[peakIndex];
 
         // Get peak data.
         Range<Double> rtRange = null;
@@ -326,20 +330,35 @@ public class CameraSearchTask extends AbstractTask {
             (rtRange == null ? peak.getRawDataPointsRTRange() : rtRange).upperEndpoint();
 
         // Add peak row.
-        this.rSession.eval("peaks <- rbind(peaks, c(" + mz + ", " // mz
-            + mz + ", " // mzmin: use the same as mz.
-            + mz + ", " // mzmax: use the same as mz.
-            + peak.getRT() + ", " // rt
-            + rtMin + ", " // rtmin
-            + rtMax + ", " // rtmax
-            + area + ", " // into: peak area.
-            + area + ", " // intb: doesn't affect result, use area.
-            + maxo + ", " // maxo
-            + SIGNAL_TO_NOISE + "))", false);
+        peakMz[peakIndex] = mz;
+        peakRt[peakIndex] = peak.getRT();
+        peakRtMin[peakIndex] = rtMin;
+        peakRtMax[peakIndex] = rtMax;
+        peakArea[peakIndex] = area;
+        peakMaxo[peakIndex] = maxo;
 
         progress += progressInc;
       }
 
+      // Create peaks matrix, transferring whole columns at once.
+      this.rSession.eval(
+          "columnHeadings <- c('mz','mzmin','mzmax','rt','rtmin','rtmax','into','intb','maxo','sn')");
+      if (peaks.length == 0) {
+        this.rSession.eval("peaks <- matrix(nrow=0, ncol=length(columnHeadings))");
+      } else {
+        this.rSession.assign("peakMz", peakMz);
+        this.rSession.assign("peakRt", peakRt);
+        this.rSession.assign("peakRtMin", peakRtMin);
+        this.rSession.assign("peakRtMax", peakRtMax);
+        this.rSession.assign("peakArea", peakArea);
+        this.rSession.assign("peakMaxo", peakMaxo);
+        // mzmin and mzmax: use the same as mz, into: peak area, intb: doesn't affect result, use
+        // area.
+        this.rSession.eval("peaks <- cbind(peakMz, peakMz, peakMz, peakRt, peakRtMin, peakRtMax, "
+            + "peakArea, peakArea, peakMaxo, " + SIGNAL_TO_NOISE + ")");
+      }
+      this.rSession.eval("colnames(peaks) <- columnHeadings");
+
       // 20 percents (5*4) for building pseudo-isotopes groups.
       progressInc = 0.05;
 
@@ -463,9 +482,12 @@ public class CameraSearchTask extends AbstractTask {
         addPseudoSpectraIdentities(peaks, spectra, isotopes, adducts);
       }
       progress += progressInc;
-      // Turn off R instance, once task ended gracefully.
-      if (!this.userCanceled)
-        this.rSession.close(false);
+      // Keep R instance for the next feature list, once task ended gracefully.
+      if (!this.userCanceled) {
+        final RSessionWrapper session = this.rSession;
+        this.rSession = null;
+        session.release();
+      }
 
     } catch (RSessionWrapperException e) {
       if (!this.userCanceled) {
@@ -481,7 +503,7 @@ public class CameraSearchTask extends AbstractTask {
 
     // Turn off R instance, once task ended UNgracefully.
     try {
-      if (!this.userCanceled)
+      if (!this.userCanceled && this.rSession != null)
         this.rSession.close(this.userCanceled);
     } catch (RSessionWrapperException e) {
       if (!this.userCanceled) {
@@ -564,10 +586,11 @@ public class CameraSearchTask extends AbstractTask {
 
     super.cancel();
 
-    // Turn off R instance, if already existing.
+    // Turn off R instance, if already existing. The task thread may release it meanwhile.
     try {
-      if (this.rSession != null)
-        this.rSession.close(true);
+      final RSessionWrapper session = this.rSession;
+      if (session != null)
+        session.close(true);
     } catch (RSessionWrapperException e) {
       // Silent, always...
     }
@@ -17,9 +17,14 @@
  */
 package net.sf.mzmine.modules.peaklistmethods.identification.formulapredictionpeaklist;
 
+import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.openscience.cdk.formula.MolecularFormulaGenerator;
 import org.openscience.cdk.formula.MolecularFormulaRange;
@@ -48,27 +53,27 @@ import net.sf.mzmine.modules.peaklistmethods.msms.msmsscore.MSMSScoreCalculator;
 import net.sf.mzmine.modules.peaklistmethods.msms.msmsscore.MSMSScoreParameters;
 import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.parameters.parametertypes.tolerances.MZTolerance;
-import net.sf.mzmine.taskcontrol.AbstractTask;
+import net.sf.mzmine.taskcontrol.AbstractRowTask;
 import net.sf.mzmine.taskcontrol.TaskStatus;
+import net.sf.mzmine.util.ExceptionUtils;
 import net.sf.mzmine.util.FormulaUtils;
 
-public class FormulaPredictionPeakListTask extends AbstractTask {
+public class FormulaPredictionPeakListTask extends AbstractRowTask {
 
   private Logger logger = Logger.getLogger(this.getClass().getName());
-  private Range<Double> massRange;
   private MolecularFormulaRange elementCounts;
-  private MolecularFormulaGenerator generator;
   private IonizationType ionType;
-  private double searchedMass;
   private int charge;
   private PeakList peakList;
   private boolean checkIsotopes, checkMSMS, checkRatios, checkRDBE;
   private ParameterSet isotopeParameters, msmsParameters, ratiosParameters, rdbeParameters;
   private MZTolerance mzTolerance;
   private String message;
-  private int totalRows, finishedRows;
   private int maxBestFormulasPerPeak;
 
+  // Formula generators of the rows being processed, they are canceled with this task
+  private final Set<MolecularFormulaGenerator> generators = ConcurrentHashMap.newKeySet();
+
   /**
    *
    * @param parameters
@@ -112,17 +117,7 @@ public class FormulaPredictionPeakListTask extends AbstractTask {
     maxBestFormulasPerPeak = parameters
         .getParameter(FormulaPredictionPeakListParameters.maxBestFormulasPerPeak).getValue();
 
-    message = "Formula Prediction";
-  }
-
-  /**
-   * @see net.sf.mzmine.taskcontrol.Task#getFinishedPercentage()
-   */
-  @Override
-  public double getFinishedPercentage() {
-    if (totalRows == 0)
-      return 0.0;
-    return (double) finishedRows / (double) totalRows;
+    message = "Formula prediction on " + peakList;
   }
 
   /**
@@ -141,32 +136,69 @@ public class FormulaPredictionPeakListTask extends AbstractTask {
 
     setStatus(TaskStatus.PROCESSING);
 
-    totalRows = peakList.getNumberOfRows();
+    try {
 
-    for (PeakListRow row : peakList.getRows()) {
+      // Predict the formulas of all rows in parallel
+      final PeakListRow rows[] = peakList.getRows();
+      final List<List<String>> bestFormulas = processRows(rows, row -> predictFormulas(row));
 
-      if (row.getPeakIdentities().length > 0) {
-        continue;
+      if (bestFormulas == null)
+        return;
+
+      // Add the new formula entry top results
+      for (int i = 0; i < rows.length; i++) {
+        if (bestFormulas.get(i) == null)
+          continue;
+        for (String formula : bestFormulas.get(i)) {
+          SimplePeakIdentity newIdentity =
+              new SimplePeakIdentity(formula, formula, this.getClass().getName(), null, null);
+          rows[i].addPeakIdentity(newIdentity, false);
+        }
       }
 
-      this.searchedMass = (row.getAverageMZ() - ionType.getAddedMass()) * charge;
+    } catch (Exception e) {
+      logger.log(Level.SEVERE, "Formula prediction error", e);
+      setStatus(TaskStatus.ERROR);
+      setErrorMessage(ExceptionUtils.exceptionToString(e));
+      return;
+    }
 
-      message = "Formula prediction for "
-          + MZmineCore.getConfiguration().getMZFormat().format(searchedMass);
+    if (isCanceled())
+      return;
+
+    logger.finest("Finished formula search for all the peaks");
 
-      massRange = mzTolerance.getToleranceRange(searchedMass);
+    setStatus(TaskStatus.FINISHED);
 
-      IChemObjectBuilder builder = SilentChemObjectBuilder.getInstance();
-      generator = new MolecularFormulaGenerator(builder, massRange.lowerEndpoint(),
-          massRange.upperEndpoint(), elementCounts);
+  }
 
-      IMolecularFormula cdkFormula;
+  /**
+   * Returns the best formulas of given row, sorted by their mass deviation, or null if the row
+   * already has identities or the task was canceled
+   */
+  private List<String> predictFormulas(PeakListRow row) {
 
-      // create a map to store ResultFormula and relative mass deviation for sorting
-      Map<Double, String> possibleFormulas = new TreeMap<>();
+    if (row.getPeakIdentities().length > 0) {
+      return null;
+    }
+
+    final double searchedMass = (row.getAverageMZ() - ionType.getAddedMass()) * charge;
+
+    final Range<Double> massRange = mzTolerance.getToleranceRange(searchedMass);
+
+    IChemObjectBuilder builder = SilentChemObjectBuilder.getInstance();
+    MolecularFormulaGenerator generator = new MolecularFormulaGenerator(builder,
+        massRange.lowerEndpoint(), massRange.upperEndpoint(), elementCounts);
+    generators.add(generator);
+
+    IMolecularFormula cdkFormula;
+
+    // create a map to store ResultFormula and relative mass deviation for sorting
+    Map<Double, String> possibleFormulas = new TreeMap<>();
+    try {
       while ((cdkFormula = generator.getNextFormula()) != null) {
         if (isCanceled())
-          return;
+          return null;
 
         // Mass is ok, so test other constraints
         if (checkConstraints(cdkFormula, row) == true) {
@@ -181,37 +213,26 @@ public class FormulaPredictionPeakListTask extends AbstractTask {
           possibleFormulas.put(relMassDev, formula);
         }
       }
-
-      if (isCanceled())
-        return;
-
-      // create a map to store ResultFormula and relative mass deviation for sorting
-      Map<Double, String> possibleFormulasSorted = new TreeMap<>(
-          (Comparator<Double>) (o1, o2) -> Double.compare(Math.abs(o1), Math.abs(o2)));
-      possibleFormulasSorted.putAll(possibleFormulas);
-
-      // Add the new formula entry top results
-      int ctr = 0;
-      for (Map.Entry<Double, String> entry : possibleFormulasSorted.entrySet()) {
-        if (ctr < maxBestFormulasPerPeak) {
-          SimplePeakIdentity newIdentity = new SimplePeakIdentity(entry.getValue(),
-              entry.getValue(), this.getClass().getName(), null, null);
-          row.addPeakIdentity(newIdentity, false);
-          ctr++;
-        }
-      }
-      if (isCanceled())
-        return;
-      finishedRows++;
-
+    } finally {
+      generators.remove(generator);
     }
 
     if (isCanceled())
-      return;
-
-    logger.finest("Finished formula search for all the peaks");
-
-    setStatus(TaskStatus.FINISHED);
+      return null;
+
+    // create a map to store ResultFormula and relative mass deviation for sorting
+    Map<Double, String> possibleFormulasSorted = new TreeMap<>(
+        (Comparator<Double>) (o1, o2) -> Double.compare(Math.abs(o1), Math.abs(o2)));
+    possibleFormulasSorted.putAll(possibleFormulas);
+
+    // Keep the top results
+    List<String> bestFormulas = new ArrayList<>();
+    for (Map.Entry<Double, String> entry : possibleFormulasSorted.entrySet()) {
+      if (bestFormulas.size() >= maxBestFormulasPerPeak)
+        break;
+      bestFormulas.add(entry.getValue());
+    }
+    return bestFormulas;
 
   }
 
@@ -305,9 +326,9 @@ public class FormulaPredictionPeakListTask extends AbstractTask {
   public void cancel() {
     super.cancel();
 
-    // We need to cancel the formula generator, because searching for next
+    // We need to cancel the formula generators, because searching for next
     // candidate formula may take a looong time
-    if (generator != null) {
+    for (MolecularFormulaGenerator generator : generators) {
       generator.cancel();
     }
 
@@ -22,6 +22,7 @@ import java.io.File;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -41,7 +42,7 @@ import net.sf.mzmine.modules.visualization.spectra.simplespectra.spectraidentifi
 import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.parameters.parametertypes.tolerances.MZTolerance;
 import net.sf.mzmine.parameters.parametertypes.tolerances.RTTolerance;
-import net.sf.mzmine.taskcontrol.AbstractTask;
+import net.sf.mzmine.taskcontrol.AbstractRowTask;
 import net.sf.mzmine.taskcontrol.TaskStatus;
 import net.sf.mzmine.util.exceptions.MissingMassListException;
 import net.sf.mzmine.util.scans.ScanAlignment;
@@ -53,13 +54,13 @@ import net.sf.mzmine.util.spectraldb.entry.DBEntryField;
 import net.sf.mzmine.util.spectraldb.entry.SpectralDBEntry;
 import net.sf.mzmine.util.spectraldb.entry.SpectralDBPeakIdentity;
 
-public class RowsSpectralMatchTask extends AbstractTask {
+public class RowsSpectralMatchTask extends AbstractRowTask {
 
   private Logger logger = Logger.getLogger(this.getClass().getName());
 
   private static final String METHOD = "Spectral DB search";
   private static final int MAX_ERROR = 3;
-  private int errorCounter = 0;
+  private final AtomicInteger errorCounter = new AtomicInteger(0);
   private String description;
   private PeakListRow[] rows;
   private final @Nonnull String massListName;
@@ -68,8 +69,6 @@ public class RowsSpectralMatchTask extends AbstractTask {
   private final MZTolerance mzTolerancePrecursor;
   private final RTTolerance rtTolerance;
   private final boolean useRT;
-  private int finishedRows = 0;
-  private final int totalRows;
 
   private ParameterSet parameters;
 
@@ -147,18 +146,6 @@ public class RowsSpectralMatchTask extends AbstractTask {
       mzTolerancePrecursor = null;
 
     allMS2Scans = parameters.getParameter(LocalSpectralDBSearchParameters.allMS2Spectra).getValue();
-
-    totalRows = rows.length;
-  }
-
-  /**
-   * @see net.sf.mzmine.taskcontrol.Task#getFinishedPercentage()
-   */
-  @Override
-  public double getFinishedPercentage() {
-    if (totalRows == 0)
-      return 0;
-    return ((double) finishedRows) / totalRows;
   }
 
   /**
@@ -177,63 +164,42 @@ public class RowsSpectralMatchTask extends AbstractTask {
   @Override
   public void run() {
     setStatus(TaskStatus.PROCESSING);
-    for (PeakListRow row : rows) {
-      if (isCanceled()) {
-        logger.info("Added " + count + " spectral library matches (before being cancelled)");
-        repaintWindow();
-        return;
-      }
 
-      try {
-        // All MS2 or only best MS2 scan
-        // best MS1 scan
-        // check for MS1 or MSMS scan
-        List<Scan> scans = getScans(row);
-        List<DataPoint[]> rowMassLists = new ArrayList<>();
-        for (Scan scan : scans) {
-          // get mass list and perform deisotoping if active
-          DataPoint[] rowMassList = getDataPoints(scan, true);
-          if (removeIsotopes)
-            rowMassList = removeIsotopes(rowMassList);
-          rowMassLists.add(rowMassList);
-        }
+    // match the rows in parallel
+    final List<List<LibraryMatch>> matches;
+    try {
+      matches = processRows(rows, row -> matchRow(row));
+    } catch (Exception e) {
+      logger.log(Level.SEVERE, "Spectral data base matching failed", e);
+      setStatus(TaskStatus.ERROR);
+      setErrorMessage("Spectral data base matching failed: " + e.getMessage());
+      list = null;
+      return;
+    }
 
-        // match against all library entries
-        for (SpectralDBEntry ident : list) {
-          SpectralDBPeakIdentity best = null;
-          // match all scans against this ident to find best match
-          for (int i = 0; i < scans.size(); i++) {
-            SpectralSimilarity sim = spectraDBMatch(row, rowMassLists.get(i), ident);
-            if (sim != null
-                && (!needsIsotopePattern || SpectralMatchTask.checkForIsotopePattern(sim,
-                    mzToleranceSpectra, minMatchedIsoSignals))
-                && (best == null || best.getSimilarity().getScore() < sim.getScore())) {
-              best = new SpectralDBPeakIdentity(scans.get(i), massListName, ident, sim, METHOD);
-            }
-          }
-          // has match?
-          if (best != null) {
-            addIdentity(row, best);
-            count++;
-          }
-        }
-        // sort identities based on similarity score
-        SortSpectralDBIdentitiesTask.sortIdentities(row);
-      } catch (MissingMassListException e) {
-        logger.log(Level.WARNING, "No mass list in spectrum for rowID=" + row.getID(), e);
-        errorCounter++;
+    if (matches == null) {
+      if (getStatus() == TaskStatus.CANCELED) {
+        logger.info("Cancelled spectral library matching");
+        repaintWindow();
       }
-      // check for max error (missing masslist)
-      if (errorCounter > MAX_ERROR) {
-        logger.log(Level.WARNING, "Data base matching failed. To many missing mass lists ");
-        setStatus(TaskStatus.ERROR);
-        setErrorMessage("Data base matching failed. To many missing mass lists ");
-        list = null;
-        return;
+      list = null;
+      return;
+    }
+
+    // add identities to the rows in their original order
+    for (int i = 0; i < rows.length; i++) {
+      List<LibraryMatch> rowMatches = matches.get(i);
+      if (rowMatches == null || rowMatches.isEmpty())
+        continue;
+      for (LibraryMatch best : rowMatches) {
+        addIdentity(rows[i], new SpectralDBPeakIdentity(best.scan, massListName, best.entry,
+            best.similarity, METHOD));
+        count++;
       }
-      // next row
-      finishedRows++;
+      // sort identities based on similarity score
+      SortSpectralDBIdentitiesTask.sortIdentities(rows[i]);
     }
+
     if (count > 0)
       logger.info("Added " + count + " spectral library matches");
 
@@ -245,6 +211,58 @@ public class RowsSpectralMatchTask extends AbstractTask {
     setStatus(TaskStatus.FINISHED);
   }
 
+  /**
+   * Matches all scans of a row against all library entries
+   * 
+   * @param row
+   * @return the best match of each matching library entry, or null if the mass list is missing
+   */
+  private List<LibraryMatch> matchRow(PeakListRow row) {
+    try {
+      // All MS2 or only best MS2 scan
+      // best MS1 scan
+      // check for MS1 or MSMS scan
+      List<Scan> scans = getScans(row);
+      List<DataPoint[]> rowMassLists = new ArrayList<>();
+      for (Scan scan : scans) {
+        // get mass list and perform deisotoping if active
+        DataPoint[] rowMassList = getDataPoints(scan, true);
+        if (removeIsotopes)
+          rowMassList = removeIsotopes(rowMassList);
+        rowMassLists.add(rowMassList);
+      }
+
+      // match against all library entries
+      List<LibraryMatch> matches = new ArrayList<>();
+      for (SpectralDBEntry ident : list) {
+        LibraryMatch best = null;
+        // match all scans against this ident to find best match
+        for (int i = 0; i < scans.size(); i++) {
+          SpectralSimilarity sim = spectraDBMatch(row, rowMassLists.get(i), ident);
+          if (sim != null
+              && (!needsIsotopePattern || SpectralMatchTask.checkForIsotopePattern(sim,
+                  mzToleranceSpectra, minMatchedIsoSignals))
+              && (best == null || best.similarity.getScore() < sim.getScore())) {
+            best = new LibraryMatch(scans.get(i), ident, sim);
+          }
+        }
+        // has match?
+        if (best != null)
+          matches.add(best);
+      }
+      return matches;
+    } catch (MissingMassListException e) {
+      logger.log(Level.WARNING, "No mass list in spectrum for rowID=" + row.getID(), e);
+      // check for max error (missing masslist)
+      if (errorCounter.incrementAndGet() > MAX_ERROR) {
+        logger.log(Level.WARNING, "Data base matching failed. To many missing mass lists ");
+        setStatus(TaskStatus.ERROR);
+        setErrorMessage("Data base matching failed. To many missing mass lists ");
+      }
+      return null;
+    }
+  }
+
   private void repaintWindow() {
     Desktop desktop = MZmineCore.getDesktop();
     if (!(desktop instanceof HeadLessDesktop))
@@ -369,4 +387,20 @@ public class RowsSpectralMatchTask extends AbstractTask {
     return count;
   }
 
+  /**
+   * Best match of a library entry. The identities are created after all rows were matched, as
+   * their name is formatted with a shared number format.
+   */
+  private static class LibraryMatch {
+    private final Scan scan;
+    private final SpectralDBEntry entry;
+    private final SpectralSimilarity similarity;
+
+    private LibraryMatch(Scan scan, SpectralDBEntry entry, SpectralSimilarity similarity) {
+      this.scan = scan;
+      this.entry = entry;
+      this.similarity = similarity;
+    }
+  }
+
 }
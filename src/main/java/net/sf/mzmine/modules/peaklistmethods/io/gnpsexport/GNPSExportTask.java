@@ -33,6 +33,8 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
 import java.util.regex.Pattern;
 
 import net.sf.mzmine.datamodel.DataPoint;
@@ -157,6 +159,14 @@ public class GNPSExportTask extends AbstractTask {
   private void export(PeakList peakList, FileWriter writer, File curFile) throws IOException {
     final String newLine = System.lineSeparator();
 
+    // Merge the MS/MS spectra of all rows in parallel before writing
+    Map<PeakListRow, MergedSpectrum> mergedSpectra = Collections.emptyMap();
+    if (mergeParameters != null) {
+      PeakListRow rows[] = peakList.getRows();
+      mergedSpectra = MZmineCore.getModuleInstance(MsMsSpectraMergeModule.class)
+          .getBestMergedSpectra(mergeParameters, rows, massListName);
+    }
+
     for (PeakListRow row : peakList.getRows()) {
       String rowID = Integer.toString(row.getID());
 
@@ -223,8 +233,7 @@ public class GNPSExportTask extends AbstractTask {
         writer.write("MSLEVEL=2" + newLine);
         DataPoint[] dataPoints = massList.getDataPoints();
         if (mergeParameters != null) {
-          MsMsSpectraMergeModule merger = MZmineCore.getModuleInstance(MsMsSpectraMergeModule.class);
-          MergedSpectrum spectrum = merger.getBestMergedSpectrum(mergeParameters, row, massListName);
+          MergedSpectrum spectrum = mergedSpectra.get(row);
           if (spectrum!=null) {
             dataPoints = spectrum.data;
             writer.write("MERGED_STATS=");
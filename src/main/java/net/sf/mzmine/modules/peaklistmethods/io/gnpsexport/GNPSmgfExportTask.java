@@ -36,6 +36,8 @@ import java.text.DecimalFormat;
 import java.text.MessageFormat;
 import java.text.NumberFormat;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
 
@@ -180,6 +182,15 @@ public class GNPSmgfExportTask extends AbstractTask {
     // count exported
     int count = 0;
     int countMissingMassList = 0;
+    // Merge the MS/MS spectra of all rows in parallel before writing
+    Map<PeakListRow, MergedSpectrum> mergedSpectra = Collections.emptyMap();
+    if (mergeParameters != null) {
+      PeakListRow rows[] = Arrays.stream(peakList.getRows()).filter(filter::filter)
+          .toArray(PeakListRow[]::new);
+      mergedSpectra = MZmineCore.getModuleInstance(MsMsSpectraMergeModule.class)
+          .getBestMergedSpectra(mergeParameters, rows, massListName);
+    }
+
     for (PeakListRow row : peakList.getRows()) {
       // do not export if no MSMS
       if (!filter.filter(row))
@@ -256,8 +267,7 @@ public class GNPSmgfExportTask extends AbstractTask {
 
         DataPoint[] dataPoints = massList.getDataPoints();
         if (mergeParameters != null) {
-          MsMsSpectraMergeModule merger = MZmineCore.getModuleInstance(MsMsSpectraMergeModule.class);
-          MergedSpectrum spectrum = merger.getBestMergedSpectrum(mergeParameters, row, massListName);
+          MergedSpectrum spectrum = mergedSpectra.get(row);
           if (spectrum!=null) {
             dataPoints = spectrum.data;
             writer.write("MERGED_STATS=");
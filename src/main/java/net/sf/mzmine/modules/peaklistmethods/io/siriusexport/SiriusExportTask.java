@@ -148,6 +148,7 @@ public class SiriusExportTask extends AbstractTask {
     setStatus(TaskStatus.PROCESSING);
     // prefill statistics
     prefillStatistics(rows);
+    mergeSpectra(rows);
     try (final BufferedWriter bw = new BufferedWriter(new FileWriter(fileName, true))) {
       for (PeakListRow row : rows)
         exportPeakListRow(row, bw);
@@ -166,6 +167,8 @@ public class SiriusExportTask extends AbstractTask {
 
 
   private void exportPeakList(PeakList peakList, BufferedWriter writer) throws IOException {
+    mergeSpectra(Arrays.stream(peakList.getRows()).filter(row -> !isSkipRow(row))
+        .toArray(PeakListRow[]::new));
     for (PeakListRow row : peakList.getRows()) {
       if (!isSkipRow(row))
         exportPeakListRow(row, writer);
@@ -194,6 +197,9 @@ public class SiriusExportTask extends AbstractTask {
       MergeMode mergeMode =
           mergeParameters.getParameter(MsMsSpectraMergeParameters.MERGE_MODE).getValue();
       MsMsSpectraMergeModule merger = MZmineCore.getModuleInstance(MsMsSpectraMergeModule.class);
+      // usually already merged by mergeSpectra(), so this is a cache lookup
+      List<MergedSpectrum> spectra =
+          merger.getMergedSpectra(mergeParameters, row, massListName);
       if (mergeMode != MergeMode.ACROSS_SAMPLES) {
         for (Feature f : row.getPeaks()) {
           if (f.getFeatureStatus() == Feature.FeatureStatus.DETECTED
@@ -201,21 +207,9 @@ public class SiriusExportTask extends AbstractTask {
             // write correlation spectrum
             writeHeader(writer, row, f.getDataFile(), polarity, MsType.CORRELATED, -1);
             writeCorrelationSpectrum(writer, f);
-            if (mergeMode == MergeMode.CONSECUTIVE_SCANS) {
-              // merge MS/MS
-              List<MergedSpectrum> spectra =
-                  merger.mergeConsecutiveScans(mergeParameters, f, massListName);
-              for (MergedSpectrum spectrum : spectra) {
-                writeHeader(writer, row, f.getDataFile(), polarity, MsType.MSMS,
-                    spectrum.filterByRelativeNumberOfScans(mergeParameters
-                        .getParameter(MsMsSpectraMergeParameters.PEAK_COUNT_PARAMETER).getValue()));
-                writeSpectrum(writer, spectrum.data);
-              }
-            } else {
-              MergedSpectrum spectrum = merger.mergeFromSameSample(mergeParameters, f, massListName)
-                  .filterByRelativeNumberOfScans(mergeParameters
-                      .getParameter(MsMsSpectraMergeParameters.PEAK_COUNT_PARAMETER).getValue());
-              if (spectrum.data.length > 0) {
+            // write the MS/MS merged from the raw data file of this feature
+            for (MergedSpectrum spectrum : spectra) {
+              if ((spectrum.origins[0] == f.getDataFile()) && (spectrum.data.length > 0)) {
                 writeHeader(writer, row, f.getDataFile(), polarity, MsType.MSMS, spectrum);
                 writeSpectrum(writer, spectrum.data);
               }
@@ -226,11 +220,8 @@ public class SiriusExportTask extends AbstractTask {
         // write correlation spectrum
         writeHeader(writer, row, row.getBestPeak().getDataFile(), polarity, MsType.CORRELATED, -1);
         writeCorrelationSpectrum(writer, row.getBestPeak());
-        // merge everything into one
-        MergedSpectrum spectrum = merger.mergeAcrossSamples(mergeParameters, row, massListName)
-            .filterByRelativeNumberOfScans(mergeParameters
-                .getParameter(MsMsSpectraMergeParameters.PEAK_COUNT_PARAMETER).getValue());
-        if (spectrum.data.length > 0) {
+        // everything is merged into one spectrum
+        for (MergedSpectrum spectrum : spectra) {
           writeHeader(writer, row, row.getBestPeak().getDataFile(), polarity, MsType.MSMS,
               spectrum);
           writeSpectrum(writer, spectrum.data);
@@ -260,6 +251,17 @@ public class SiriusExportTask extends AbstractTask {
     }
   }
 
+  /**
+   * Merges the MS/MS spectra of all rows in parallel. The merged spectra are cached by the merge
+   * module, so exporting the rows afterwards only looks them up.
+   */
+  private void mergeSpectra(PeakListRow rows[]) {
+    if (!mergeEnabled)
+      return;
+    MsMsSpectraMergeModule merger = MZmineCore.getModuleInstance(MsMsSpectraMergeModule.class);
+    merger.getMergedSpectra(mergeParameters, rows, massListName);
+  }
+
   private boolean isSkipRow(PeakListRow row) {
     // skip rows which have no isotope pattern and no MS/MS spectrum
     for (Feature f : row.getPeaks()) {
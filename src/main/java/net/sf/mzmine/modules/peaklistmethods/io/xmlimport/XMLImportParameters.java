@@ -20,6 +20,7 @@ package net.sf.mzmine.modules.peaklistmethods.io.xmlimport;
 
 import net.sf.mzmine.parameters.Parameter;
 import net.sf.mzmine.parameters.impl.SimpleParameterSet;
+import net.sf.mzmine.parameters.parametertypes.BooleanParameter;
 import net.sf.mzmine.parameters.parametertypes.filenames.FileNameParameter;
 
 public class XMLImportParameters extends SimpleParameterSet {
@@ -27,8 +28,11 @@ public class XMLImportParameters extends SimpleParameterSet {
   public static final FileNameParameter filename =
       new FileNameParameter("Filename", "Name of imported feature list file name", "mpl");
 
+  public static final BooleanParameter parallel = new BooleanParameter("Parallel decoding",
+      "Decode the data points of the features of each block of rows in parallel", true);
+
   public XMLImportParameters() {
-    super(new Parameter[] {filename});
+    super(new Parameter[] {filename, parallel});
   }
 
 }
@@ -32,7 +32,7 @@ import net.sf.mzmine.datamodel.MZmineProject;
 import net.sf.mzmine.datamodel.PeakList;
 import net.sf.mzmine.datamodel.RawDataFile;
 import net.sf.mzmine.modules.projectmethods.projectload.PeakListOpenHandler;
-import net.sf.mzmine.modules.projectmethods.projectload.version_2_0.PeakListOpenHandler_2_0;
+import net.sf.mzmine.modules.projectmethods.projectload.version_2_5.PeakListOpenHandler_2_5;
 import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.taskcontrol.AbstractTask;
 import net.sf.mzmine.taskcontrol.TaskStatus;
@@ -48,6 +48,7 @@ public class XMLImportTask extends AbstractTask {
   // parameter values
   private final MZmineProject project;
   private final File fileName;
+  private final boolean parallel;
 
   // progress
   private CountingInputStream cis;
@@ -60,6 +61,7 @@ public class XMLImportTask extends AbstractTask {
   public XMLImportTask(MZmineProject project, ParameterSet parameters) {
     this.project = project;
     fileName = parameters.getParameter(XMLImportParameters.filename).getValue();
+    parallel = parameters.getParameter(XMLImportParameters.parallel).getValue();
   }
 
   /**
@@ -128,7 +130,7 @@ public class XMLImportTask extends AbstractTask {
         dataFilesIDMap.put(file.getName(), file);
       }
 
-      peakListOpenHander = new PeakListOpenHandler_2_0(dataFilesIDMap);
+      peakListOpenHander = new PeakListOpenHandler_2_5(dataFilesIDMap, parallel);
 
       buildingPeakList = peakListOpenHander.readPeakList(finalStream);
       finalStream.close();
@@ -23,9 +23,9 @@ import static net.sf.mzmine.modules.peaklistmethods.peakpicking.deconvolution.De
 import static net.sf.mzmine.modules.peaklistmethods.peakpicking.deconvolution.DeconvolutionParameters.RetentionTimeMSMS;
 import static net.sf.mzmine.modules.peaklistmethods.peakpicking.deconvolution.DeconvolutionParameters.SUFFIX;
 import static net.sf.mzmine.modules.peaklistmethods.peakpicking.deconvolution.DeconvolutionParameters.mzRangeMSMS;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import net.sf.mzmine.datamodel.Feature;
 import net.sf.mzmine.datamodel.MZmineProject;
 import net.sf.mzmine.datamodel.PeakList;
 import net.sf.mzmine.datamodel.PeakList.PeakListAppliedMethod;
@@ -37,14 +37,14 @@ import net.sf.mzmine.datamodel.impl.SimplePeakListRow;
 import net.sf.mzmine.modules.MZmineProcessingStep;
 import net.sf.mzmine.modules.peaklistmethods.qualityparameters.QualityParameters;
 import net.sf.mzmine.parameters.ParameterSet;
-import net.sf.mzmine.taskcontrol.AbstractTask;
+import net.sf.mzmine.taskcontrol.AbstractRowTask;
 import net.sf.mzmine.taskcontrol.TaskStatus;
 import net.sf.mzmine.util.R.REngineType;
 import net.sf.mzmine.util.R.RSessionWrapper;
 import net.sf.mzmine.util.R.RSessionWrapperException;
 import net.sf.mzmine.util.maths.CenterFunction;
 
-public class DeconvolutionTask extends AbstractTask {
+public class DeconvolutionTask extends AbstractRowTask {
 
   // Logger.
   private static final Logger LOG = Logger.getLogger(DeconvolutionTask.class.getName());
@@ -54,10 +54,6 @@ public class DeconvolutionTask extends AbstractTask {
   private final PeakList originalPeakList;
   private PeakList newPeakList;
 
-  // Counters.
-  private int processedRows;
-  private int totalRows;
-
   // User parameters
   private final ParameterSet parameters;
 
@@ -83,8 +79,6 @@ public class DeconvolutionTask extends AbstractTask {
     parameters = parameterSet;
     originalPeakList = list;
     newPeakList = null;
-    processedRows = 0;
-    totalRows = 0;
     this.mzCenterFunction = mzCenterFunction;
   }
 
@@ -94,12 +88,6 @@ public class DeconvolutionTask extends AbstractTask {
     return "Peak recognition on " + originalPeakList;
   }
 
-  @Override
-  public double getFinishedPercentage() {
-
-    return totalRows == 0 ? 0.0 : (double) processedRows / (double) totalRows;
-  }
-
   @Override
   public void run() {
 
@@ -205,10 +193,10 @@ public class DeconvolutionTask extends AbstractTask {
    * @param peakList holds the chromatogram to deconvolve.
    * @param mzCenterFunction2
    * @return a new feature list holding the resolved peaks.
-   * @throws RSessionWrapperException
+   * @throws Exception
    */
   private PeakList resolvePeaks(final PeakList peakList, RSessionWrapper rSession)
-      throws RSessionWrapperException {
+      throws Exception {
 
     // Get data file information.
     final RawDataFile dataFile = peakList.getRawDataFile(0);
@@ -244,37 +232,31 @@ public class DeconvolutionTask extends AbstractTask {
     resolvedPeaks.addDescriptionOfAppliedTask(new SimplePeakListAppliedMethod(
         "Peak deconvolution by " + resolver, resolver.getParameterSet()));
 
-    // Initialise counters.
-    processedRows = 0;
-    totalRows = peakList.getNumberOfRows();
-    int peakId = 1;
-
-    // Process each chromatogram.
+    // Resolve the chromatograms in parallel, unless they share the R session.
+    final PeakResolver resolverModule = resolver.getModule();
+    final ParameterSet resolverParams = resolver.getParameterSet();
     final PeakListRow[] peakListRows = peakList.getRows();
-    final int chromatogramCount = peakListRows.length;
-    for (int index = 0; !isCanceled() && index < chromatogramCount; index++) {
+    final List<ResolvedPeak[]> resolved =
+        processRows(peakListRows, rSession == null, currentRow -> resolverModule.resolvePeaks(
+            currentRow.getPeak(dataFile), resolverParams, rSession, mzCenterFunction, msmsRange,
+            RTRangeMSMS));
 
-      final PeakListRow currentRow = peakListRows[index];
-      final Feature chromatogram = currentRow.getPeak(dataFile);
+    if (resolved == null)
+      return resolvedPeaks;
 
-      // Resolve peaks.
-      final PeakResolver resolverModule = resolver.getModule();
-      final ParameterSet resolverParams = resolver.getParameterSet();
-      final ResolvedPeak[] peaks = resolverModule.resolvePeaks(chromatogram, resolverParams, rSession,
-          mzCenterFunction, msmsRange, RTRangeMSMS);
+    // Add peaks to the new feature list, in the order of the chromatograms.
+    int peakId = 1;
+    for (int index = 0; index < peakListRows.length; index++) {
 
-      // Add peaks to the new feature list.
-      for (final ResolvedPeak peak : peaks) {
+      for (final ResolvedPeak peak : resolved.get(index)) {
 
-        peak.setParentChromatogramRowID(currentRow.getID());
+        peak.setParentChromatogramRowID(peakListRows[index].getID());
 
         final PeakListRow newRow = new SimplePeakListRow(peakId++);
         newRow.addPeak(dataFile, peak);
         newRow.setPeakInformation(peak.getPeakInformation());
         resolvedPeaks.addRow(newRow);
       }
-
-      processedRows++;
     }
 
     return resolvedPeaks;
@@ -125,11 +125,11 @@ public class ResolvedPeak implements Feature {
 
       if (rawDataPointsIntensityRange == null) {
         rawDataPointsIntensityRange = Range.singleton(dp.getIntensity());
-        rawDataPointsRTRange = Range.singleton(dataFile.getScan(scanNumbers[i]).getRetentionTime());
+        rawDataPointsRTRange = Range.singleton(dataFile.getRetentionTime(scanNumbers[i]));
         rawDataPointsMZRange = Range.singleton(dp.getMZ());
       } else {
         rawDataPointsRTRange = rawDataPointsRTRange
-            .span(Range.singleton(dataFile.getScan(scanNumbers[i]).getRetentionTime()));
+            .span(Range.singleton(dataFile.getRetentionTime(scanNumbers[i])));
         rawDataPointsIntensityRange =
             rawDataPointsIntensityRange.span(Range.singleton(dp.getIntensity()));
         rawDataPointsMZRange = rawDataPointsMZRange.span(Range.singleton(dp.getMZ()));
@@ -137,7 +137,7 @@ public class ResolvedPeak implements Feature {
 
       if (height < dp.getIntensity()) {
         height = dp.getIntensity();
-        rt = dataFile.getScan(scanNumbers[i]).getRetentionTime();
+        rt = dataFile.getRetentionTime(scanNumbers[i]);
         representativeScan = scanNumbers[i];
 
       }
@@ -151,8 +151,8 @@ public class ResolvedPeak implements Feature {
     for (int i = 1; i < scanNumbers.length; i++) {
 
       // For area calculation, we use retention time in seconds
-      double previousRT = dataFile.getScan(scanNumbers[i - 1]).getRetentionTime() * 60d;
-      double currentRT = dataFile.getScan(scanNumbers[i]).getRetentionTime() * 60d;
+      double previousRT = dataFile.getRetentionTime(scanNumbers[i - 1]) * 60d;
+      double currentRT = dataFile.getRetentionTime(scanNumbers[i]) * 60d;
 
       double previousHeight = dataPointIntensityValues[i - 1];
       double currentHeight = dataPointIntensityValues[i];
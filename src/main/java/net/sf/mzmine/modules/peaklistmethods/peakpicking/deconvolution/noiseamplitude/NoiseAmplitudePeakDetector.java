@@ -62,7 +62,7 @@ public class NoiseAmplitudePeakDetector implements PeakResolver {
     RawDataFile dataFile = chromatogram.getDataFile();
     for (int i = 0; i < scanCount; i++) {
       final int scanNum = scanNumbers[i];
-      retentionTimes[i] = dataFile.getScan(scanNum).getRetentionTime();
+      retentionTimes[i] = dataFile.getRetentionTime(scanNum);
       DataPoint dp = chromatogram.getDataPoint(scanNum);
       if (dp != null)
         intensities[i] = dp.getIntensity();
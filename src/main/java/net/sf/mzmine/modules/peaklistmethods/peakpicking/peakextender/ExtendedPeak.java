@@ -185,54 +185,60 @@ public class ExtendedPeak implements Feature {
 
     scanNumbers = allScanNumbers;
 
-    // Calculate median m/z
-    double allMzValues[] = new double[allScanNumbers.length];
-    for (int i = 0; i < allScanNumbers.length; i++) {
-      allMzValues[i] = dataPointsMap.get(allScanNumbers[i]).getMZ();
-    }
-    mz = MathUtils.calcQuantile(allMzValues, 0.5f);
-
-    // Update raw data point ranges, height, rt and representative scan
-    height = Double.MIN_VALUE;
-    for (int i = 0; i < allScanNumbers.length; i++) {
-
+    // Read the data points once into primitive arrays
+    final int numOfPoints = allScanNumbers.length;
+    double allMzValues[] = new double[numOfPoints];
+    double allIntensities[] = new double[numOfPoints];
+    double allRetentionTimes[] = new double[numOfPoints];
+    for (int i = 0; i < numOfPoints; i++) {
       DataPoint mzPeak = dataPointsMap.get(allScanNumbers[i]);
-      Scan aScan = dataFile.getScan(allScanNumbers[i]);
+      allMzValues[i] = mzPeak.getMZ();
+      allIntensities[i] = mzPeak.getIntensity();
+      allRetentionTimes[i] = dataFile.getRetentionTime(allScanNumbers[i]);
 
       // Replace the MzPeak instance with an instance of SimpleDataPoint,
       // to reduce the memory usage. After we finish this extended peak,
       // we don't need the additional data provided by the MzPeak
-      SimpleDataPoint newDataPoint = new SimpleDataPoint(mzPeak);
-      dataPointsMap.put(allScanNumbers[i], newDataPoint);
-
-      if (i == 0) {
-        rawDataPointsIntensityRange = Range.singleton(mzPeak.getIntensity());
-        rawDataPointsMZRange = Range.singleton(mzPeak.getMZ());
-        rawDataPointsRTRange = Range.singleton(aScan.getRetentionTime());
-      } else {
-        rawDataPointsIntensityRange =
-            rawDataPointsIntensityRange.span(Range.singleton(mzPeak.getIntensity()));
-        rawDataPointsMZRange = rawDataPointsMZRange.span(Range.singleton(mzPeak.getMZ()));
-        rawDataPointsRTRange = rawDataPointsRTRange.span(Range.singleton(aScan.getRetentionTime()));
-      }
+      dataPointsMap.put(allScanNumbers[i], new SimpleDataPoint(mzPeak));
+    }
 
-      if (height < mzPeak.getIntensity()) {
-        height = mzPeak.getIntensity();
-        rt = aScan.getRetentionTime();
+    // Update raw data point ranges, height, rt and representative scan
+    double minMz = Double.POSITIVE_INFINITY, maxMz = Double.NEGATIVE_INFINITY;
+    double minIntensity = Double.POSITIVE_INFINITY, maxIntensity = Double.NEGATIVE_INFINITY;
+    double minRT = Double.POSITIVE_INFINITY, maxRT = Double.NEGATIVE_INFINITY;
+    height = Double.MIN_VALUE;
+    for (int i = 0; i < numOfPoints; i++) {
+
+      minMz = Math.min(minMz, allMzValues[i]);
+      maxMz = Math.max(maxMz, allMzValues[i]);
+      minIntensity = Math.min(minIntensity, allIntensities[i]);
+      maxIntensity = Math.max(maxIntensity, allIntensities[i]);
+      minRT = Math.min(minRT, allRetentionTimes[i]);
+      maxRT = Math.max(maxRT, allRetentionTimes[i]);
+
+      if (height < allIntensities[i]) {
+        height = allIntensities[i];
+        rt = allRetentionTimes[i];
         representativeScan = allScanNumbers[i];
       }
     }
+    rawDataPointsIntensityRange = Range.closed(minIntensity, maxIntensity);
+    rawDataPointsMZRange = Range.closed(minMz, maxMz);
+    rawDataPointsRTRange = Range.closed(minRT, maxRT);
+
+    // Calculate median m/z
+    mz = MathUtils.calcQuantile(allMzValues, 0.5f);
 
     // Update area
     area = 0;
 
-    for (int i = 1; i < allScanNumbers.length; i++) {
+    for (int i = 1; i < numOfPoints; i++) {
       // For area calculation, we use retention time in seconds
-      double previousRT = dataFile.getScan(allScanNumbers[i - 1]).getRetentionTime() * 60d;
-      double currentRT = dataFile.getScan(allScanNumbers[i]).getRetentionTime() * 60d;
+      double previousRT = allRetentionTimes[i - 1] * 60d;
+      double currentRT = allRetentionTimes[i] * 60d;
 
-      double previousHeight = dataPointsMap.get(allScanNumbers[i - 1]).getIntensity();
-      double currentHeight = dataPointsMap.get(allScanNumbers[i]).getIntensity();
+      double previousHeight = allIntensities[i - 1];
+      double currentHeight = allIntensities[i];
       area += (currentRT - previousRT) * (currentHeight + previousHeight) / 2;
     }
 
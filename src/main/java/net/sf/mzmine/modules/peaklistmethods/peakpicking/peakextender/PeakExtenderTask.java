@@ -19,7 +19,9 @@
 package net.sf.mzmine.modules.peaklistmethods.peakpicking.peakextender;
 
 import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
+import java.util.stream.IntStream;
 
 import net.sf.mzmine.datamodel.DataPoint;
 import net.sf.mzmine.datamodel.Feature;
@@ -52,7 +54,8 @@ public class PeakExtenderTask extends AbstractTask {
   private PeakList peakList, extendedPeakList;
 
   // peaks counter
-  private int processedPeaks, totalPeaks;
+  private final AtomicInteger processedPeaks = new AtomicInteger(0);
+  private int totalPeaks;
 
   // Parameters
   private MZTolerance mzTolerance;
@@ -87,7 +90,7 @@ public class PeakExtenderTask extends AbstractTask {
   public double getFinishedPercentage() {
     if (totalPeaks == 0)
       return 0.0;
-    return (double) processedPeaks / (double) totalPeaks;
+    return (double) processedPeaks.get() / (double) totalPeaks;
   }
 
   /**
@@ -108,33 +111,44 @@ public class PeakExtenderTask extends AbstractTask {
     Feature[] sortedPeaks = peakList.getPeaks(dataFile);
     Arrays.sort(sortedPeaks, new PeakSorter(SortingProperty.Height, SortingDirection.Descending));
 
-    // Loop through all peaks
+    // MS1 scans of the data file, the peaks are extended along these
+    final int ms1ScanNumbers[] = dataFile.getScanNumbers(1);
+
+    // Extend the peaks in parallel
     totalPeaks = sortedPeaks.length;
-    Feature oldPeak;
+    final Feature extendedPeaks[] = new Feature[totalPeaks];
 
-    for (int ind = 0; ind < totalPeaks; ind++) {
+    IntStream.range(0, totalPeaks).parallel().forEach(ind -> {
 
       if (isCanceled())
         return;
 
-      oldPeak = sortedPeaks[ind];
+      Feature oldPeak = sortedPeaks[ind];
+      if (oldPeak.getHeight() >= minimumHeight)
+        extendedPeaks[ind] = getExtendedPeak(oldPeak, ms1ScanNumbers);
+
+      // Update completion rate
+      processedPeaks.incrementAndGet();
+    });
 
-      if (oldPeak.getHeight() >= minimumHeight) {
-        Feature newPeak = this.getExtendedPeak(oldPeak);
-        // Get previous pekaListRow
-        PeakListRow oldRow = peakList.getPeakRow(oldPeak);
+    if (isCanceled())
+      return;
 
-        // keep old ID
-        int oldID = oldRow.getID();
-        SimplePeakListRow newRow = new SimplePeakListRow(oldID);
-        PeakUtils.copyPeakListRowProperties(oldRow, newRow);
-        newRow.addPeak(dataFile, newPeak);
-        extendedPeakList.addRow(newRow);
-      }
+    // Add the rows in the order of descending height
+    for (int ind = 0; ind < totalPeaks; ind++) {
 
-      // Update completion rate
-      processedPeaks++;
+      if (extendedPeaks[ind] == null)
+        continue;
+
+      // Get previous pekaListRow
+      PeakListRow oldRow = peakList.getPeakRow(sortedPeaks[ind]);
 
+      // keep old ID
+      int oldID = oldRow.getID();
+      SimplePeakListRow newRow = new SimplePeakListRow(oldID);
+      PeakUtils.copyPeakListRowProperties(oldRow, newRow);
+      newRow.addPeak(dataFile, extendedPeaks[ind]);
+      extendedPeakList.addRow(newRow);
     }
 
     // Add new peakList to the project
@@ -161,34 +175,35 @@ public class PeakExtenderTask extends AbstractTask {
 
   }
 
-  private Feature getExtendedPeak(Feature oldPeak) {
+  /**
+   * Extends the given peak to the neighbouring MS1 scans, as long as they contain a data point within
+   * the m/z tolerance that is above the minimum height
+   */
+  private Feature getExtendedPeak(Feature oldPeak, int ms1ScanNumbers[]) {
 
     double maxHeight = oldPeak.getHeight();
     int originScanNumber = oldPeak.getRepresentativeScanNumber();
     RawDataFile rawFile = oldPeak.getDataFile();
     ExtendedPeak newPeak = new ExtendedPeak(rawFile);
-    int totalScanNumber = rawFile.getNumOfScans();
     Range<Double> mzRange = mzTolerance.getToleranceRange(oldPeak.getMZ());
     Scan scan;
     DataPoint dataPoint;
 
-    // Look for dataPoint related to this peak to the left
-    int scanNumber = originScanNumber;
-    scanNumber--;
-    while (scanNumber > 0) {
-
-      scan = rawFile.getScan(scanNumber);
-
-      if (scan == null) {
-        scanNumber--;
-        continue;
-      }
+    // Position of the original scan among the MS1 scans
+    int leftIndex, rightIndex;
+    int originIndex = Arrays.binarySearch(ms1ScanNumbers, originScanNumber);
+    if (originIndex >= 0) {
+      leftIndex = originIndex - 1;
+      rightIndex = originIndex + 1;
+    } else {
+      leftIndex = -originIndex - 2;
+      rightIndex = -originIndex - 1;
+    }
 
-      if (scan.getMSLevel() != 1) {
-        scanNumber--;
-        continue;
-      }
+    // Look for dataPoint related to this peak to the left
+    for (int index = leftIndex; index >= 0; index--) {
 
+      scan = rawFile.getScan(ms1ScanNumbers[index]);
       dataPoint = ScanUtils.findBasePeak(scan, mzRange);
 
       if (dataPoint == null)
@@ -196,34 +211,19 @@ public class PeakExtenderTask extends AbstractTask {
       if (dataPoint.getIntensity() < minimumHeight)
         break;
 
-      newPeak.addMzPeak(scanNumber, dataPoint);
+      newPeak.addMzPeak(ms1ScanNumbers[index], dataPoint);
       if (dataPoint.getIntensity() > maxHeight)
         maxHeight = dataPoint.getIntensity();
 
-      scanNumber--;
-
     }
 
     // Add original dataPoint
     newPeak.addMzPeak(originScanNumber, oldPeak.getDataPoint(originScanNumber));
 
     // Look to the right
-    scanNumber = originScanNumber;
-    scanNumber++;
-    while (scanNumber <= totalScanNumber) {
-
-      scan = rawFile.getScan(scanNumber);
-
-      if (scan == null) {
-        scanNumber++;
-        continue;
-      }
-
-      if (scan.getMSLevel() != 1) {
-        scanNumber++;
-        continue;
-      }
+    for (int index = rightIndex; index < ms1ScanNumbers.length; index++) {
 
+      scan = rawFile.getScan(ms1ScanNumbers[index]);
       dataPoint = ScanUtils.findBasePeak(scan, mzRange);
 
       if (dataPoint == null)
@@ -231,12 +231,10 @@ public class PeakExtenderTask extends AbstractTask {
       if (dataPoint.getIntensity() < minimumHeight)
         break;
 
-      newPeak.addMzPeak(scanNumber, dataPoint);
+      newPeak.addMzPeak(ms1ScanNumbers[index], dataPoint);
       if (dataPoint.getIntensity() > maxHeight)
         maxHeight = dataPoint.getIntensity();
 
-      scanNumber++;
-
     }
 
     newPeak.finishExtendedPeak();
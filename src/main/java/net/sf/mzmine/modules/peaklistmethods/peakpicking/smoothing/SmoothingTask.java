@@ -24,8 +24,10 @@
 
 package net.sf.mzmine.modules.peaklistmethods.peakpicking.smoothing;
 
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.IntStream;
 import net.sf.mzmine.datamodel.DataPoint;
 import net.sf.mzmine.datamodel.Feature;
 import net.sf.mzmine.datamodel.MZmineProject;
@@ -64,7 +66,7 @@ public class SmoothingTask extends AbstractTask {
   private final boolean removeOriginal;
   private final int filterWidth;
 
-  private int progress;
+  private final AtomicInteger progress;
   private final int progressMax;
 
   /**
@@ -79,7 +81,7 @@ public class SmoothingTask extends AbstractTask {
     // Initialize.
     this.project = project;
     origPeakList = peakList;
-    progress = 0;
+    progress = new AtomicInteger(0);
     progressMax = peakList.getNumberOfRows();
 
     // Parameters.
@@ -96,7 +98,7 @@ public class SmoothingTask extends AbstractTask {
 
   @Override
   public double getFinishedPercentage() {
-    return progressMax == 0 ? 0.0 : (double) progress / (double) progressMax;
+    return progressMax == 0 ? 0.0 : (double) progress.get() / (double) progressMax;
   }
 
   @Override
@@ -111,97 +113,45 @@ public class SmoothingTask extends AbstractTask {
       // Create new feature list
       newPeakList = new SimplePeakList(origPeakList + " " + suffix, origPeakList.getRawDataFiles());
 
-      // Process each row.
-      for (final PeakListRow row : origPeakList.getRows()) {
-
-        if (!isCanceled()) {
-
-          // Create a new peak-list row.
-          final int originalID = row.getID();
-          final PeakListRow newRow = new SimplePeakListRow(originalID);
-
-          // Process each peak.
-          for (final Feature peak : row.getPeaks()) {
-
-            if (!isCanceled()) {
-
-              // Copy original peak intensities.
-              final int[] scanNumbers = peak.getScanNumbers();
-              final int numScans = scanNumbers.length;
-              final double[] intensities = new double[numScans];
-              for (int i = 0; i < numScans; i++) {
-
-                final DataPoint dataPoint = peak.getDataPoint(scanNumbers[i]);
-                intensities[i] = dataPoint == null ? 0.0 : dataPoint.getIntensity();
-              }
-
-              // Smooth peak.
-              final double[] smoothed = convolve(intensities, filterWeights);
-
-              // Measure peak (max, ranges, area etc.)
-              final RawDataFile dataFile = peak.getDataFile();
-              final DataPoint[] newDataPoints = new DataPoint[numScans];
-              double maxIntensity = 0.0;
-              int maxScanNumber = -1;
-              DataPoint maxDataPoint = null;
-              Range<Double> intensityRange = null;
-              double area = 0.0;
-              for (int i = 0; i < numScans; i++) {
-
-                final int scanNumber = scanNumbers[i];
-                final DataPoint dataPoint = peak.getDataPoint(scanNumber);
-                final double intensity = smoothed[i];
-                if (dataPoint != null && intensity > 0.0) {
-
-                  // Create a new data point.
-                  final double mz = dataPoint.getMZ();
-                  final double rt = dataFile.getScan(scanNumber).getRetentionTime();
-                  final DataPoint newDataPoint = new SimpleDataPoint(mz, intensity);
-                  newDataPoints[i] = newDataPoint;
-
-                  // Track maximum intensity data point.
-                  if (intensity > maxIntensity) {
-
-                    maxIntensity = intensity;
-                    maxScanNumber = scanNumber;
-                    maxDataPoint = newDataPoint;
-                  }
-
-                  // Update ranges.
-                  if (intensityRange == null) {
-                    intensityRange = Range.singleton(intensity);
-                  } else {
-                    intensityRange = intensityRange.span(Range.singleton(intensity));
-                  }
-
-                  // Accumulate peak area.
-                  if (i != 0) {
-
-                    final DataPoint lastDP = newDataPoints[i - 1];
-                    final double lastIntensity = lastDP == null ? 0.0 : lastDP.getIntensity();
-                    final double lastRT = dataFile.getScan(scanNumbers[i - 1]).getRetentionTime();
-                    area += (rt - lastRT) * 60d * (intensity + lastIntensity) / 2.0;
-                  }
-                }
-              }
-
-              assert maxDataPoint != null;
-
-              if (!isCanceled() && maxScanNumber >= 0) {
-
-                // Create a new peak.
-                newRow.addPeak(dataFile,
-                    new SimpleFeature(dataFile, maxDataPoint.getMZ(), peak.getRT(), maxIntensity,
-                        area, scanNumbers, newDataPoints, peak.getFeatureStatus(), maxScanNumber,
-                        peak.getMostIntenseFragmentScanNumber(),
-                        peak.getAllMS2FragmentScanNumbers(), peak.getRawDataPointsRTRange(),
-                        peak.getRawDataPointsMZRange(), intensityRange));
-              }
-            }
+      // Process the rows in parallel, each thread reusing its own work buffers.
+      final PeakListRow rows[] = origPeakList.getRows();
+      final PeakListRow newRows[] = new PeakListRow[rows.length];
+      final ThreadLocal<SmoothingBuffers> buffers = ThreadLocal.withInitial(SmoothingBuffers::new);
+
+      IntStream.range(0, rows.length).parallel().forEach(r -> {
+
+        if (isCanceled()) {
+          return;
+        }
+
+        // Create a new peak-list row.
+        final PeakListRow row = rows[r];
+        final PeakListRow newRow = new SimplePeakListRow(row.getID());
+
+        // Process each peak.
+        for (final Feature peak : row.getPeaks()) {
+
+          if (isCanceled()) {
+            return;
+          }
+
+          final Feature newPeak = smoothPeak(peak, filterWeights, buffers.get());
+          if (newPeak != null) {
+            newRow.addPeak(peak.getDataFile(), newPeak);
           }
-          newPeakList.addRow(newRow);
-          progress++;
         }
+
+        newRows[r] = newRow;
+        progress.incrementAndGet();
+      });
+
+      if (isCanceled()) {
+        return;
+      }
+
+      // Add the new rows in the original order.
+      for (final PeakListRow newRow : newRows) {
+        newPeakList.addRow(newRow);
       }
 
       // Finish up.
@@ -228,7 +178,7 @@ public class SmoothingTask extends AbstractTask {
         newPeakList.addDescriptionOfAppliedTask(
             new SimplePeakListAppliedMethod("Peaks smoothed by Savitzky-Golay filter", parameters));
 
-        LOG.finest("Finished peak smoothing: " + progress + " rows processed");
+        LOG.finest("Finished peak smoothing: " + progress.get() + " rows processed");
 
         setStatus(TaskStatus.FINISHED);
       }
@@ -240,22 +190,104 @@ public class SmoothingTask extends AbstractTask {
     }
   }
 
+  /**
+   * Smooth a single peak.
+   *
+   * @param peak the peak.
+   * @param filterWeights the filter weights.
+   * @param buffers work buffers of the current thread.
+   * @return the smoothed peak, or null if no data point is left after smoothing.
+   */
+  private static Feature smoothPeak(final Feature peak, final double[] filterWeights,
+      final SmoothingBuffers buffers) {
+
+    // Copy original peak m/z values, intensities and retention times.
+    final RawDataFile dataFile = peak.getDataFile();
+    final int[] scanNumbers = peak.getScanNumbers();
+    final int numScans = scanNumbers.length;
+    buffers.ensureCapacity(numScans);
+    final double[] mzValues = buffers.mzValues;
+    final double[] intensities = buffers.intensities;
+    final double[] retentionTimes = buffers.retentionTimes;
+    for (int i = 0; i < numScans; i++) {
+
+      final DataPoint dataPoint = peak.getDataPoint(scanNumbers[i]);
+      mzValues[i] = dataPoint == null ? Double.NaN : dataPoint.getMZ();
+      intensities[i] = dataPoint == null ? 0.0 : dataPoint.getIntensity();
+      retentionTimes[i] = dataFile.getRetentionTime(scanNumbers[i]);
+    }
+
+    // Smooth peak.
+    final double[] smoothed = buffers.smoothed;
+    convolve(intensities, numScans, filterWeights, smoothed);
+
+    // Measure peak (max, ranges, area etc.)
+    final DataPoint[] newDataPoints = new DataPoint[numScans];
+    double maxIntensity = 0.0;
+    int maxScanNumber = -1;
+    double maxMZ = 0.0;
+    double minPositiveIntensity = Double.POSITIVE_INFINITY;
+    double area = 0.0;
+    for (int i = 0; i < numScans; i++) {
+
+      final double intensity = smoothed[i];
+      if (!Double.isNaN(mzValues[i]) && intensity > 0.0) {
+
+        // Create a new data point.
+        newDataPoints[i] = new SimpleDataPoint(mzValues[i], intensity);
+
+        // Track maximum intensity data point.
+        if (intensity > maxIntensity) {
+
+          maxIntensity = intensity;
+          maxScanNumber = scanNumbers[i];
+          maxMZ = mzValues[i];
+        }
+
+        // Update ranges.
+        if (intensity < minPositiveIntensity) {
+          minPositiveIntensity = intensity;
+        }
+
+        // Accumulate peak area.
+        if (i != 0) {
+
+          final DataPoint lastDP = newDataPoints[i - 1];
+          final double lastIntensity = lastDP == null ? 0.0 : lastDP.getIntensity();
+          area += (retentionTimes[i] - retentionTimes[i - 1]) * 60d * (intensity + lastIntensity)
+              / 2.0;
+        }
+      }
+    }
+
+    if (maxScanNumber < 0) {
+      return null;
+    }
+
+    // Create a new peak.
+    return new SimpleFeature(dataFile, maxMZ, peak.getRT(), maxIntensity, area, scanNumbers,
+        newDataPoints, peak.getFeatureStatus(), maxScanNumber,
+        peak.getMostIntenseFragmentScanNumber(), peak.getAllMS2FragmentScanNumbers(),
+        peak.getRawDataPointsRTRange(), peak.getRawDataPointsMZRange(),
+        Range.closed(minPositiveIntensity, maxIntensity));
+  }
+
   /**
    * Convolve a set of weights with a set of intensities.
    *
    * @param intensities the intensities.
+   * @param numPoints number of intensities to use.
    * @param weights the filter weights.
-   * @return the convolution results.
+   * @param convolved array to store the convolution results.
    */
-  private static double[] convolve(final double[] intensities, final double[] weights) {
+  private static void convolve(final double[] intensities, final int numPoints,
+      final double[] weights, final double[] convolved) {
 
     // Initialise.
     final int fullWidth = weights.length;
     final int halfWidth = (fullWidth - 1) / 2;
-    final int numPoints = intensities.length;
 
     // Convolve.
-    final double[] convolved = new double[numPoints];
     for (int i = 0; i < numPoints; i++) {
 
       double sum = 0.0;
@@ -268,7 +300,26 @@ public class SmoothingTask extends AbstractTask {
       // Set the result.
       convolved[i] = sum;
     }
+  }
+
+  /**
+   * Per-thread work buffers, grown to the longest peak processed so far.
+   */
+  private static final class SmoothingBuffers {
+
+    private double[] mzValues = new double[0];
+    private double[] intensities = new double[0];
+    private double[] retentionTimes = new double[0];
+    private double[] smoothed = new double[0];
+
+    private void ensureCapacity(final int numScans) {
 
-    return convolved;
+      if (intensities.length < numScans) {
+        mzValues = new double[numScans];
+        intensities = new double[numScans];
+        retentionTimes = new double[numScans];
+        smoothed = new double[numScans];
+      }
+    }
   }
 }
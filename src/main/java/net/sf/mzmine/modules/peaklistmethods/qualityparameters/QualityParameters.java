@@ -18,6 +18,9 @@
 
 package net.sf.mzmine.modules.peaklistmethods.qualityparameters;
 
+import java.util.stream.IntStream;
+
+import net.sf.mzmine.datamodel.DataPoint;
 import net.sf.mzmine.datamodel.Feature;
 import net.sf.mzmine.datamodel.PeakList;
 import net.sf.mzmine.datamodel.RawDataFile;
@@ -25,79 +28,94 @@ import net.sf.mzmine.datamodel.RawDataFile;
 /**
  * Calculates quality parameters for each peak in a feature list: - Full width at half maximum (FWHM) -
  * Tailing Factor - Asymmetry factor
+ * 
+ * The rows are processed in parallel. The retention times and intensities of each peak are read
+ * once into primitive arrays, using the scan number to retention time lookup of the raw data file.
  */
 public class QualityParameters {
 
   public static void calculateQualityParameters(PeakList peakList) {
 
-    Feature peak;
-    double height, rt;
-
-    for (int i = 0; i < peakList.getNumberOfRows(); i++) {
-      for (int x = 0; x < peakList.getNumberOfRawDataFiles(); x++) {
-
-        peak = peakList.getPeak(i, peakList.getRawDataFile(x));
-        if (peak != null) {
-          height = peak.getHeight();
-          rt = peak.getRT();
-
-          // FWHM
-          double rtValues[] = PeakFindRTs(height / 2, rt, peak);
-          Double fwhm = rtValues[1] - rtValues[0];
-          if (fwhm <= 0 || Double.isNaN(fwhm) || Double.isInfinite(fwhm)) {
-            fwhm = null;
-          }
-          peak.setFWHM(fwhm);
-
-          // Tailing Factor - TF
-          double rtValues2[] = PeakFindRTs(height * 0.05, rt, peak);
-          Double tf = (rtValues2[1] - rtValues2[0]) / (2 * (rt - rtValues2[0]));
-          if (tf <= 0 || Double.isNaN(tf) || Double.isInfinite(tf)) {
-            tf = null;
-          }
-          peak.setTailingFactor(tf);
-
-          // Asymmetry factor - AF
-          double rtValues3[] = PeakFindRTs(height * 0.1, rt, peak);
-          Double af = (rtValues3[1] - rt) / (rt - rtValues3[0]);
-          if (af <= 0 || Double.isNaN(af) || Double.isInfinite(af)) {
-            af = null;
-          }
-          peak.setAsymmetryFactor(af);
+    final RawDataFile dataFiles[] = peakList.getRawDataFiles();
 
-        }
+    IntStream.range(0, peakList.getNumberOfRows()).parallel().forEach(i -> {
+      for (RawDataFile dataFile : dataFiles) {
+        Feature peak = peakList.getPeak(i, dataFile);
+        if (peak != null)
+          calculateQualityParameters(peak);
       }
+    });
+
+  }
+
+  private static void calculateQualityParameters(Feature peak) {
+
+    final double height = peak.getHeight();
+    final double rt = peak.getRT();
+
+    // Read the peak shape into primitive arrays, NaN marks missing data points
+    final int scanNumbers[] = peak.getScanNumbers();
+    final RawDataFile dataFile = peak.getDataFile();
+    final double retentionTimes[] = new double[scanNumbers.length];
+    final double intensities[] = new double[scanNumbers.length];
+    for (int i = 0; i < scanNumbers.length; i++) {
+      DataPoint dp = peak.getDataPoint(scanNumbers[i]);
+      intensities[i] = (dp == null) ? Double.NaN : dp.getIntensity();
+      retentionTimes[i] = dataFile.getRetentionTime(scanNumbers[i]);
+    }
+
+    // FWHM
+    double rtValues[] = PeakFindRTs(height / 2, rt, peak, retentionTimes, intensities);
+    Double fwhm = rtValues[1] - rtValues[0];
+    if (fwhm <= 0 || Double.isNaN(fwhm) || Double.isInfinite(fwhm)) {
+      fwhm = null;
+    }
+    peak.setFWHM(fwhm);
+
+    // Tailing Factor - TF
+    double rtValues2[] = PeakFindRTs(height * 0.05, rt, peak, retentionTimes, intensities);
+    Double tf = (rtValues2[1] - rtValues2[0]) / (2 * (rt - rtValues2[0]));
+    if (tf <= 0 || Double.isNaN(tf) || Double.isInfinite(tf)) {
+      tf = null;
+    }
+    peak.setTailingFactor(tf);
+
+    // Asymmetry factor - AF
+    double rtValues3[] = PeakFindRTs(height * 0.1, rt, peak, retentionTimes, intensities);
+    Double af = (rtValues3[1] - rt) / (rt - rtValues3[0]);
+    if (af <= 0 || Double.isNaN(af) || Double.isInfinite(af)) {
+      af = null;
     }
+    peak.setAsymmetryFactor(af);
 
   }
 
-  private static double[] PeakFindRTs(double intensity, double rt, Feature peak) {
+  private static double[] PeakFindRTs(double intensity, double rt, Feature peak,
+      double retentionTimes[], double intensities[]) {
 
     double x1 = 0, x2 = 0, x3 = 0, x4 = 0, y1 = 0, y2 = 0, y3 = 0, y4 = 0, lastDiff1 = intensity,
         lastDiff2 = intensity, currentDiff, currentRT;
-    int[] scanNumbers = peak.getScanNumbers();
-    RawDataFile dataFile = peak.getDataFile();
 
     // Find the data points closet to input intensity on both side of the
     // peak apex
-    for (int i = 1; i < scanNumbers.length - 1; i++) {
+    for (int i = 1; i < intensities.length - 1; i++) {
 
-      if (peak.getDataPoint(scanNumbers[i]) != null) {
-        currentDiff = Math.abs(intensity - peak.getDataPoint(scanNumbers[i]).getIntensity());
-        currentRT = dataFile.getScan(scanNumbers[i]).getRetentionTime();
+      if (!Double.isNaN(intensities[i])) {
+        currentDiff = Math.abs(intensity - intensities[i]);
+        currentRT = retentionTimes[i];
         if (currentDiff < lastDiff1 & currentDiff > 0 & currentRT <= rt
-            & peak.getDataPoint(scanNumbers[i + 1]) != null) {
-          x1 = dataFile.getScan(scanNumbers[i]).getRetentionTime();
-          y1 = peak.getDataPoint(scanNumbers[i]).getIntensity();
-          x2 = dataFile.getScan(scanNumbers[i + 1]).getRetentionTime();
-          y2 = peak.getDataPoint(scanNumbers[i + 1]).getIntensity();
+            & !Double.isNaN(intensities[i + 1])) {
+          x1 = retentionTimes[i];
+          y1 = intensities[i];
+          x2 = retentionTimes[i + 1];
+          y2 = intensities[i + 1];
           lastDiff1 = currentDiff;
         } else if (currentDiff < lastDiff2 & currentDiff > 0 & currentRT >= rt
-            & peak.getDataPoint(scanNumbers[i - 1]) != null) {
-          x3 = dataFile.getScan(scanNumbers[i - 1]).getRetentionTime();
-          y3 = peak.getDataPoint(scanNumbers[i - 1]).getIntensity();
-          x4 = dataFile.getScan(scanNumbers[i]).getRetentionTime();
-          y4 = peak.getDataPoint(scanNumbers[i]).getIntensity();
+            & !Double.isNaN(intensities[i - 1])) {
+          x3 = retentionTimes[i - 1];
+          y3 = intensities[i - 1];
+          x4 = retentionTimes[i];
+          y4 = intensities[i];
           lastDiff2 = currentDiff;
         }
       }
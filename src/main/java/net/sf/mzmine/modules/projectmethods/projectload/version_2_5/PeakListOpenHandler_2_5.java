@@ -18,22 +18,24 @@
 
 package net.sf.mzmine.modules.projectmethods.projectload.version_2_5;
 
-import java.io.ByteArrayInputStream;
-import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Base64;
 import java.util.HashMap;
 import java.util.Hashtable;
+import java.util.List;
 import java.util.Map;
 import java.util.Vector;
 import java.util.logging.Logger;
+import java.util.stream.IntStream;
 import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.parsers.SAXParser;
-import javax.xml.parsers.SAXParserFactory;
-import org.xml.sax.Attributes;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import org.xml.sax.SAXException;
-import org.xml.sax.helpers.DefaultHandler;
-import com.Ostermiller.util.Base64;
 import com.google.common.collect.Range;
 import net.sf.mzmine.datamodel.DataPoint;
 import net.sf.mzmine.datamodel.Feature.FeatureStatus;
@@ -53,40 +55,43 @@ import net.sf.mzmine.datamodel.impl.SimplePeakListAppliedMethod;
 import net.sf.mzmine.datamodel.impl.SimplePeakListRow;
 import net.sf.mzmine.modules.projectmethods.projectload.PeakListOpenHandler;
 
-public class PeakListOpenHandler_2_5 extends DefaultHandler implements PeakListOpenHandler {
+/**
+ * Reads a feature list saved by MZmine 2.5 and higher. The XML is read with a StAX stream reader.
+ * The encoded data points of the features are kept until a chunk of rows has been read, then they
+ * are decoded directly into primitive arrays, optionally in parallel, and the rows are added to the
+ * feature list. This way only one chunk of rows is kept in memory besides the feature list itself.
+ */
+public class PeakListOpenHandler_2_5 implements PeakListOpenHandler {
+
+  // Number of rows whose features are built at once
+  private static final int ROW_CHUNK_SIZE = 1000;
 
   private Logger logger = Logger.getLogger(this.getClass().getName());
 
+  private final boolean parallel;
+
   private SimplePeakListRow buildingRow;
   private SimplePeakList buildingPeakList;
 
-  private int numOfMZpeaks, representativeScan, fragmentScan;
-  private String peakColumnID;
-  private double mass, rt, area;
-  private int[] scanNumbers;
-  private int[] allMS2FragmentScanNumbers;
-  private Vector<Integer> currentAllMS2FragmentScans;
-  private double height;
-  private double[] masses, intensities;
-  private String peakStatus, peakListName, name, identityPropertyName, rawDataFileID;
+  private EncodedPeak buildingPeak;
+  private String peakListName;
   private Hashtable<String, String> identityProperties;
   private boolean preferred;
   private String dateCreated;
 
   private Map<String, String> informationProperties;
-  private String infoPropertyName;
-
-  private StringBuffer charBuffer;
 
   private Vector<String> appliedMethods, appliedMethodParameters;
   private Vector<RawDataFile> currentPeakListDataFiles;
 
   private Vector<DataPoint> currentIsotopes;
   private IsotopePatternStatus currentIsotopePatternStatus;
-  private int currentPeakCharge;
   private String currentIsotopePatternDescription;
+  private Vector<Integer> currentAllMS2FragmentScans;
 
-  private Integer parentChromatogramRowID = null;
+  // Rows of the current chunk and their features, which are not decoded yet
+  private List<SimplePeakListRow> chunkRows;
+  private List<EncodedPeak> chunkPeaks;
 
   private Hashtable<String, RawDataFile> dataFilesIDMap;
 
@@ -95,11 +100,21 @@ public class PeakListOpenHandler_2_5 extends DefaultHandler implements PeakListO
   private boolean canceled = false;
 
   public PeakListOpenHandler_2_5(Hashtable<String, RawDataFile> dataFilesIDMap) {
+    this(dataFilesIDMap, false);
+  }
+
+  /**
+   * @param parallel decode the data points of the features of each chunk of rows in parallel
+   */
+  public PeakListOpenHandler_2_5(Hashtable<String, RawDataFile> dataFilesIDMap,
+      boolean parallel) {
     this.dataFilesIDMap = dataFilesIDMap;
+    this.parallel = parallel;
   }
 
   /**
-   * Load the feature list from the zip file reading the XML feature list file
+   * Load the feature list from the zip file reading the XML feature list file. The stream is not
+   * closed.
    */
   @Override
   public PeakList readPeakList(InputStream peakListStream)
@@ -108,25 +123,46 @@ public class PeakListOpenHandler_2_5 extends DefaultHandler implements PeakListO
     totalRows = 0;
     parsedRows = 0;
 
-    charBuffer = new StringBuffer();
     appliedMethods = new Vector<String>();
     appliedMethodParameters = new Vector<String>();
     currentPeakListDataFiles = new Vector<RawDataFile>();
     currentIsotopes = new Vector<DataPoint>();
     currentAllMS2FragmentScans = new Vector<Integer>();
+    chunkRows = new ArrayList<>(ROW_CHUNK_SIZE);
+    chunkPeaks = new ArrayList<>();
 
     buildingPeakList = null;
 
     // Parse the XML file
-    SAXParserFactory factory = SAXParserFactory.newInstance();
-    SAXParser saxParser = factory.newSAXParser();
-    saxParser.parse(peakListStream, this);
+    try {
+      XMLStreamReader xml = XMLInputFactory.newInstance().createXMLStreamReader(peakListStream);
+      try {
+        while (xml.hasNext()) {
+          if (canceled)
+            throw new SAXException("Parsing canceled");
+          switch (xml.next()) {
+            case XMLStreamConstants.START_ELEMENT:
+              startElement(xml);
+              break;
+            case XMLStreamConstants.END_ELEMENT:
+              endElement(xml.getLocalName());
+              break;
+          }
+        }
+      } finally {
+        xml.close();
+      }
+    } catch (XMLStreamException e) {
+      throw new SAXException(e);
+    }
 
     // If there were no rows in the peaklist, it is still not initialized
     if (buildingPeakList == null) {
       initializePeakList();
     }
 
+    addChunkRows();
+
     return buildingPeakList;
 
   }
@@ -146,126 +182,108 @@ public class PeakListOpenHandler_2_5 extends DefaultHandler implements PeakListO
   }
 
   /**
-   * @see org.xml.sax.helpers.DefaultHandler#startElement(java.lang.String, java.lang.String,
-   *      java.lang.String, org.xml.sax.Attributes)
+   * Processes the attributes of an element. Elements which only contain text are read completely.
    */
-  @Override
-  public void startElement(String namespaceURI, String lName, String qName, Attributes attrs)
-      throws SAXException {
+  private void startElement(XMLStreamReader xml) throws XMLStreamException, SAXException {
 
-    if (canceled)
-      throw new SAXException("Parsing canceled");
-
-    // This will remove any remaining characters from previous elements
-    getTextOfElement();
+    final String name = xml.getLocalName();
 
     // <ROW>
-    if (qName.equals(PeakListElementName_2_5.ROW.getElementName())) {
+    if (name.equals(PeakListElementName_2_5.ROW.getElementName())) {
 
       if (buildingPeakList == null) {
         initializePeakList();
       }
-      int rowID = Integer.parseInt(attrs.getValue(PeakListElementName_2_5.ID.getElementName()));
+      int rowID = Integer.parseInt(getAttribute(xml, PeakListElementName_2_5.ID));
       buildingRow = new SimplePeakListRow(rowID);
-      String comment = attrs.getValue(PeakListElementName_2_5.COMMENT.getElementName());
+      String comment = getAttribute(xml, PeakListElementName_2_5.COMMENT);
       buildingRow.setComment(comment);
     }
 
     // <PEAK_IDENTITY>
-    if (qName.equals(PeakListElementName_2_5.PEAK_IDENTITY.getElementName())) {
+    else if (name.equals(PeakListElementName_2_5.PEAK_IDENTITY.getElementName())) {
       identityProperties = new Hashtable<String, String>();
-      preferred =
-          Boolean.parseBoolean(attrs.getValue(PeakListElementName_2_5.PREFERRED.getElementName()));
+      preferred = Boolean.parseBoolean(getAttribute(xml, PeakListElementName_2_5.PREFERRED));
     }
 
     // <IDENTITY_PROPERTY>
-    if (qName.equals(PeakListElementName_2_5.IDPROPERTY.getElementName())) {
-      identityPropertyName = attrs.getValue(PeakListElementName_2_5.NAME.getElementName());
+    else if (name.equals(PeakListElementName_2_5.IDPROPERTY.getElementName())) {
+      String identityPropertyName = getAttribute(xml, PeakListElementName_2_5.NAME);
+      identityProperties.put(identityPropertyName, getTextOfElement(xml));
     }
 
     // <PEAK_INFORMATION>
-    if (qName.equals(PeakListElementName_2_5.PEAK_INFORMATION.getElementName())) {
+    else if (name.equals(PeakListElementName_2_5.PEAK_INFORMATION.getElementName())) {
       informationProperties = new HashMap<>();
     }
 
     // <INFO_PROPERTY>
-    if (qName.equals(PeakListElementName_2_5.INFO_PROPERTY.getElementName())) {
-      infoPropertyName = attrs.getValue(PeakListElementName_2_5.NAME.getElementName());
+    else if (name.equals(PeakListElementName_2_5.INFO_PROPERTY.getElementName())) {
+      String infoPropertyName = getAttribute(xml, PeakListElementName_2_5.NAME);
+      informationProperties.put(infoPropertyName, getTextOfElement(xml));
     }
 
     // <PEAK>
-    if (qName.equals(PeakListElementName_2_5.PEAK.getElementName())) {
+    else if (name.equals(PeakListElementName_2_5.PEAK.getElementName())) {
 
-      peakColumnID = attrs.getValue(PeakListElementName_2_5.COLUMN.getElementName());
-      mass = Double.parseDouble(attrs.getValue(PeakListElementName_2_5.MZ.getElementName()));
+      String peakColumnID = getAttribute(xml, PeakListElementName_2_5.COLUMN);
+      buildingPeak = new EncodedPeak();
+      buildingPeak.row = buildingRow;
+      buildingPeak.dataFile = dataFilesIDMap.get(peakColumnID);
+      if (buildingPeak.dataFile == null)
+        throw new SAXException("Error in project: data file " + peakColumnID + " not found");
+      buildingPeak.mass = Double.parseDouble(getAttribute(xml, PeakListElementName_2_5.MZ));
       // Before MZmine 2.6 retention time was saved in seconds, but now we
       // use minutes, so we need to divide by 60
-      rt = Double.parseDouble(attrs.getValue(PeakListElementName_2_5.RT.getElementName())) / 60d;
-      height = Double.parseDouble(attrs.getValue(PeakListElementName_2_5.HEIGHT.getElementName()));
-      area = Double.parseDouble(attrs.getValue(PeakListElementName_2_5.AREA.getElementName()));
-      peakStatus = attrs.getValue(PeakListElementName_2_5.STATUS.getElementName());
-      String chargeString = attrs.getValue(PeakListElementName_2_5.CHARGE.getElementName());
+      buildingPeak.rt = Double.parseDouble(getAttribute(xml, PeakListElementName_2_5.RT)) / 60d;
+      buildingPeak.height = Double.parseDouble(getAttribute(xml, PeakListElementName_2_5.HEIGHT));
+      buildingPeak.area = Double.parseDouble(getAttribute(xml, PeakListElementName_2_5.AREA));
+      buildingPeak.status =
+          FeatureStatus.valueOf(getAttribute(xml, PeakListElementName_2_5.STATUS));
+      String chargeString = getAttribute(xml, PeakListElementName_2_5.CHARGE);
       if (chargeString != null)
-        currentPeakCharge = Integer.valueOf(chargeString);
-      else
-        currentPeakCharge = 0;
+        buildingPeak.charge = Integer.valueOf(chargeString);
       try {
-        parentChromatogramRowID = Integer.parseInt(
-                attrs.getValue(
-                        PeakListElementName_2_5.PARENT_CHROMATOGRAM_ROW_ID.getElementName()));
+        buildingPeak.parentChromatogramRowID =
+            Integer.parseInt(getAttribute(xml, PeakListElementName_2_5.PARENT_CHROMATOGRAM_ROW_ID));
       } catch (NumberFormatException e) {
-        parentChromatogramRowID = null;
+        buildingPeak.parentChromatogramRowID = null;
       }
     }
 
     // <MZPEAK>
-    if (qName.equals(PeakListElementName_2_5.MZPEAKS.getElementName())) {
-      numOfMZpeaks =
-          Integer.parseInt(attrs.getValue(PeakListElementName_2_5.QUANTITY.getElementName()));
+    else if (name.equals(PeakListElementName_2_5.MZPEAKS.getElementName())) {
+      buildingPeak.numOfMZpeaks =
+          Integer.parseInt(getAttribute(xml, PeakListElementName_2_5.QUANTITY));
     }
 
     // <ISOTOPE_PATTERN>
-    if (qName.equals(PeakListElementName_2_5.ISOTOPE_PATTERN.getElementName())) {
+    else if (name.equals(PeakListElementName_2_5.ISOTOPE_PATTERN.getElementName())) {
       currentIsotopes.clear();
-      currentIsotopePatternStatus = IsotopePatternStatus
-          .valueOf(attrs.getValue(PeakListElementName_2_5.STATUS.getElementName()));
-      currentIsotopePatternDescription =
-          attrs.getValue(PeakListElementName_2_5.DESCRIPTION.getElementName());
+      currentIsotopePatternStatus =
+          IsotopePatternStatus.valueOf(getAttribute(xml, PeakListElementName_2_5.STATUS));
+      currentIsotopePatternDescription = getAttribute(xml, PeakListElementName_2_5.DESCRIPTION);
     }
 
-  }
-
-  /**
-   * @see org.xml.sax.helpers.DefaultHandler#endElement(java.lang.String, java.lang.String,
-   *      java.lang.String)
-   */
-  @Override
-  public void endElement(String namespaceURI, String sName, String qName) throws SAXException {
-
-    if (canceled)
-      throw new SAXException("Parsing canceled");
-
     // <NAME>
-    if (qName.equals(PeakListElementName_2_5.PEAKLIST_NAME.getElementName())) {
-      name = getTextOfElement();
-      logger.info("Loading feature list: " + name);
-      peakListName = name;
+    else if (name.equals(PeakListElementName_2_5.PEAKLIST_NAME.getElementName())) {
+      peakListName = getTextOfElement(xml);
+      logger.info("Loading feature list: " + peakListName);
     }
 
     // <PEAKLIST_DATE>
-    if (qName.equals(PeakListElementName_2_5.PEAKLIST_DATE.getElementName())) {
-      dateCreated = getTextOfElement();
+    else if (name.equals(PeakListElementName_2_5.PEAKLIST_DATE.getElementName())) {
+      dateCreated = getTextOfElement(xml);
     }
 
     // <QUANTITY>
-    if (qName.equals(PeakListElementName_2_5.QUANTITY.getElementName())) {
-      String text = getTextOfElement();
-      totalRows = Integer.parseInt(text);
+    else if (name.equals(PeakListElementName_2_5.QUANTITY.getElementName())) {
+      totalRows = Integer.parseInt(getTextOfElement(xml));
     }
 
     // <RAW_FILE>
-    if (qName.equals(PeakListElementName_2_5.RAWFILE.getElementName())) {
-      rawDataFileID = getTextOfElement();
+    else if (name.equals(PeakListElementName_2_5.RAWFILE.getElementName())) {
+      String rawDataFileID = getTextOfElement(xml);
       RawDataFile dataFile = dataFilesIDMap.get(rawDataFileID);
       if (dataFile == null) {
         throw new SAXException(
@@ -275,214 +293,148 @@ public class PeakListOpenHandler_2_5 extends DefaultHandler implements PeakListO
     }
 
     // <SCAN_ID>
-    if (qName.equals(PeakListElementName_2_5.SCAN_ID.getElementName())) {
-
-      byte[] bytes = Base64.decodeToBytes(getTextOfElement());
-      // make a data input stream
-      DataInputStream dataInputStream = new DataInputStream(new ByteArrayInputStream(bytes));
-      scanNumbers = new int[numOfMZpeaks];
-      for (int i = 0; i < numOfMZpeaks; i++) {
-        try {
-          scanNumbers[i] = dataInputStream.readInt();
-        } catch (IOException ex) {
-          throw new SAXException(ex);
-        }
-      }
+    else if (name.equals(PeakListElementName_2_5.SCAN_ID.getElementName())) {
+      buildingPeak.encodedScanNumbers = xml.getElementText();
     }
 
     // <REPRESENTATIVE_SCAN>
-    if (qName.equals(PeakListElementName_2_5.REPRESENTATIVE_SCAN.getElementName())) {
-      representativeScan = Integer.valueOf(getTextOfElement());
+    else if (name.equals(PeakListElementName_2_5.REPRESENTATIVE_SCAN.getElementName())) {
+      buildingPeak.representativeScan = Integer.valueOf(getTextOfElement(xml));
     }
 
     // <FRAGMENT_SCAN>
-    if (qName.equals(PeakListElementName_2_5.FRAGMENT_SCAN.getElementName())) {
-      fragmentScan = Integer.valueOf(getTextOfElement());
+    else if (name.equals(PeakListElementName_2_5.FRAGMENT_SCAN.getElementName())) {
+      buildingPeak.fragmentScan = Integer.valueOf(getTextOfElement(xml));
     }
 
     // <All_MS2_FRAGMENT_SCANS>
-    if (qName.equals(PeakListElementName_2_5.ALL_MS2_FRAGMENT_SCANS.getElementName())) {
-      Integer fragmentNumber = Integer.valueOf(getTextOfElement());
+    else if (name.equals(PeakListElementName_2_5.ALL_MS2_FRAGMENT_SCANS.getElementName())) {
+      Integer fragmentNumber = Integer.valueOf(getTextOfElement(xml));
       currentAllMS2FragmentScans.add(fragmentNumber);
     }
 
     // <MASS>
-    if (qName.equals(PeakListElementName_2_5.MZ.getElementName())) {
-
-      byte[] bytes = Base64.decodeToBytes(getTextOfElement());
-      // make a data input stream
-      DataInputStream dataInputStream = new DataInputStream(new ByteArrayInputStream(bytes));
-      masses = new double[numOfMZpeaks];
-      for (int i = 0; i < numOfMZpeaks; i++) {
-        try {
-          masses[i] = dataInputStream.readFloat();
-        } catch (IOException ex) {
-          throw new SAXException(ex);
-        }
-      }
+    else if (name.equals(PeakListElementName_2_5.MZ.getElementName())) {
+      buildingPeak.encodedMasses = xml.getElementText();
     }
 
     // <HEIGHT>
-    if (qName.equals(PeakListElementName_2_5.HEIGHT.getElementName())) {
-
-      byte[] bytes = Base64.decodeToBytes(getTextOfElement());
-      // make a data input stream
-      DataInputStream dataInputStream = new DataInputStream(new ByteArrayInputStream(bytes));
-      intensities = new double[numOfMZpeaks];
-      for (int i = 0; i < numOfMZpeaks; i++) {
-        try {
-          intensities[i] = dataInputStream.readFloat();
-        } catch (IOException ex) {
-          throw new SAXException(ex);
-        }
-      }
+    else if (name.equals(PeakListElementName_2_5.HEIGHT.getElementName())) {
+      buildingPeak.encodedIntensities = xml.getElementText();
     }
 
-    // <PEAK>
-    if (qName.equals(PeakListElementName_2_5.PEAK.getElementName())) {
-
-      DataPoint[] mzPeaks = new DataPoint[numOfMZpeaks];
-      Range<Double> peakRTRange = null, peakMZRange = null, peakIntensityRange = null;
-      RawDataFile dataFile = dataFilesIDMap.get(peakColumnID);
-
-      if (dataFile == null)
-        throw new SAXException("Error in project: data file " + peakColumnID + " not found");
-
-      for (int i = 0; i < numOfMZpeaks; i++) {
+    // <ISOTOPE>
+    else if (name.equals(PeakListElementName_2_5.ISOTOPE.getElementName())) {
+      String text = getTextOfElement(xml);
+      String items[] = text.split(":");
+      double mz = Double.valueOf(items[0]);
+      double intensity = Double.valueOf(items[1]);
+      DataPoint isotope = new SimpleDataPoint(mz, intensity);
+      currentIsotopes.add(isotope);
+    }
 
-        Scan sc = dataFile.getScan(scanNumbers[i]);
-        double retentionTime = sc.getRetentionTime();
+    else if (name.equals(PeakListElementName_2_5.METHOD_NAME.getElementName())) {
+      String appliedMethod = getTextOfElement(xml);
+      appliedMethods.add(appliedMethod);
+    }
 
-        double mz = masses[i];
-        double intensity = intensities[i];
+    else if (name.equals(PeakListElementName_2_5.METHOD_PARAMETERS.getElementName())) {
+      String appliedMethodParam = getTextOfElement(xml);
+      appliedMethodParameters.add(appliedMethodParam);
+    }
 
-        if (peakIntensityRange == null) {
-          peakIntensityRange = Range.singleton(intensity);
-        } else {
-          peakIntensityRange = peakIntensityRange.span(Range.singleton(intensity));
-        }
-        if (intensity > 0) {
-          if (peakRTRange == null) {
-            peakRTRange = Range.singleton(retentionTime);
-          } else {
-            peakRTRange = peakRTRange.span(Range.singleton(retentionTime));
-          }
-        }
+  }
 
-        if (mz > 0.0) {
-          mzPeaks[i] = new SimpleDataPoint(mz, intensity);
-          if (peakMZRange == null)
-            peakMZRange = Range.singleton(mz);
-          else
-            peakMZRange = peakMZRange.span(Range.singleton(mz));
-        }
-      }
+  /**
+   * Completes the objects of elements with child elements
+   */
+  private void endElement(String name) {
 
-      FeatureStatus status = FeatureStatus.valueOf(peakStatus);
+    // <PEAK>
+    if (name.equals(PeakListElementName_2_5.PEAK.getElementName())) {
 
       // convert vector of allMS2FragmentScans to array
-      allMS2FragmentScanNumbers = new int[currentAllMS2FragmentScans.size()];
-      for (int i = 0; i < allMS2FragmentScanNumbers.length; i++) {
-        allMS2FragmentScanNumbers[i] = currentAllMS2FragmentScans.get(i);
+      buildingPeak.allMS2FragmentScanNumbers = new int[currentAllMS2FragmentScans.size()];
+      for (int i = 0; i < buildingPeak.allMS2FragmentScanNumbers.length; i++) {
+        buildingPeak.allMS2FragmentScanNumbers[i] = currentAllMS2FragmentScans.get(i);
       }
 
       // clear all MS2 fragment scan numbers list for next peak
       currentAllMS2FragmentScans.clear();
 
-      SimpleFeature peak = new SimpleFeature(dataFile, mass, rt, height, area, scanNumbers, mzPeaks,
-          status, representativeScan, fragmentScan, allMS2FragmentScanNumbers, peakRTRange,
-          peakMZRange, peakIntensityRange);
-
-      peak.setCharge(currentPeakCharge);
-
       if (currentIsotopes.size() > 0) {
-        SimpleIsotopePattern newPattern =
+        buildingPeak.isotopePattern =
             new SimpleIsotopePattern(currentIsotopes.toArray(new DataPoint[0]),
                 currentIsotopePatternStatus, currentIsotopePatternDescription);
-        peak.setIsotopePattern(newPattern);
         currentIsotopes.clear();
       }
 
-      peak.setParentChromatogramRowID(parentChromatogramRowID);
-
-      buildingRow.addPeak(dataFile, peak);
-
-    }
-
-    // <IDENTITY_PROPERTY>
-    if (qName.equals(PeakListElementName_2_5.IDPROPERTY.getElementName())) {
-      identityProperties.put(identityPropertyName, getTextOfElement());
-    }
-
-    // <INFO_PROPERTY>
-    if (qName.equals(PeakListElementName_2_5.INFO_PROPERTY.getElementName())) {
-      informationProperties.put(infoPropertyName, getTextOfElement());
+      chunkPeaks.add(buildingPeak);
+      buildingPeak = null;
     }
 
     // <PEAK_IDENTITY>
-    if (qName.equals(PeakListElementName_2_5.PEAK_IDENTITY.getElementName())) {
+    else if (name.equals(PeakListElementName_2_5.PEAK_IDENTITY.getElementName())) {
       SimplePeakIdentity identity = new SimplePeakIdentity(identityProperties);
       buildingRow.addPeakIdentity(identity, preferred);
     }
 
-    if (qName.equals(PeakListElementName_2_5.PEAK_INFORMATION.getElementName())) {
+    else if (name.equals(PeakListElementName_2_5.PEAK_INFORMATION.getElementName())) {
       PeakInformation information = new SimplePeakInformation(informationProperties);
 
       buildingRow.setPeakInformation(information);
     }
 
     // <ROW>
-    if (qName.equals(PeakListElementName_2_5.ROW.getElementName())) {
-      buildingPeakList.addRow(buildingRow);
+    else if (name.equals(PeakListElementName_2_5.ROW.getElementName())) {
+      chunkRows.add(buildingRow);
       buildingRow = null;
-      parsedRows++;
+      if (chunkRows.size() == ROW_CHUNK_SIZE)
+        addChunkRows();
     }
 
-    // <ISOTOPE>
-    if (qName.equals(PeakListElementName_2_5.ISOTOPE.getElementName())) {
-      String text = getTextOfElement();
-      String items[] = text.split(":");
-      double mz = Double.valueOf(items[0]);
-      double intensity = Double.valueOf(items[1]);
-      DataPoint isotope = new SimpleDataPoint(mz, intensity);
-      currentIsotopes.add(isotope);
-    }
+  }
 
-    if (qName.equals(PeakListElementName_2_5.METHOD_NAME.getElementName())) {
-      String appliedMethod = getTextOfElement();
-      appliedMethods.add(appliedMethod);
-    }
+  /**
+   * Decodes the features of the rows read so far and adds the rows to the feature list
+   */
+  private void addChunkRows() {
 
-    if (qName.equals(PeakListElementName_2_5.METHOD_PARAMETERS.getElementName())) {
-      String appliedMethodParam = getTextOfElement();
-      appliedMethodParameters.add(appliedMethodParam);
+    final EncodedPeak peaks[] = chunkPeaks.toArray(new EncodedPeak[0]);
+    final SimpleFeature features[] = new SimpleFeature[peaks.length];
+    if (parallel)
+      IntStream.range(0, peaks.length).parallel().forEach(i -> features[i] = peaks[i].decode());
+    else
+      IntStream.range(0, peaks.length).forEach(i -> features[i] = peaks[i].decode());
+
+    for (int i = 0; i < peaks.length; i++)
+      peaks[i].row.addPeak(peaks[i].dataFile, features[i]);
+
+    for (SimplePeakListRow row : chunkRows) {
+      buildingPeakList.addRow(row);
+      parsedRows++;
     }
 
+    chunkRows.clear();
+    chunkPeaks.clear();
+  }
+
+  private static String getAttribute(XMLStreamReader xml, PeakListElementName_2_5 attribute) {
+    return xml.getAttributeValue(null, attribute.getElementName());
   }
 
   /**
-   * Return a string without tab an EOF characters
+   * Reads the text of the current element and returns it without tab an EOF characters
    * 
    * @return String element text
    */
-  private String getTextOfElement() {
-    String text = charBuffer.toString();
+  private static String getTextOfElement(XMLStreamReader xml) throws XMLStreamException {
+    String text = xml.getElementText();
     text = text.replaceAll("[\n\r\t]+", "");
     text = text.replaceAll("^\\s+", "");
-    charBuffer.setLength(0);
     return text;
   }
 
-  /**
-   * characters()
-   * 
-   * @see org.xml.sax.ContentHandler#characters(char[], int, int)
-   */
-  @Override
-  public void characters(char buf[], int offset, int len) throws SAXException {
-    charBuffer = charBuffer.append(buf, offset, len);
-  }
-
   /**
    * Initializes the feature list
    */
@@ -500,4 +452,90 @@ public class PeakListOpenHandler_2_5 extends DefaultHandler implements PeakListO
     }
     buildingPeakList.setDateCreated(dateCreated);
   }
+
+  /**
+   * Feature as read from the XML, with its data points still base64 encoded
+   */
+  private static class EncodedPeak {
+
+    private SimplePeakListRow row;
+    private RawDataFile dataFile;
+    private double mass, rt, height, area;
+    private FeatureStatus status;
+    private int charge, representativeScan, fragmentScan, numOfMZpeaks;
+    private int allMS2FragmentScanNumbers[];
+    private SimpleIsotopePattern isotopePattern;
+    private Integer parentChromatogramRowID;
+    private String encodedScanNumbers, encodedMasses, encodedIntensities;
+
+    private SimpleFeature decode() {
+
+      final ByteBuffer scanBytes = decodeBase64(encodedScanNumbers, numOfMZpeaks * 4);
+      final ByteBuffer massBytes = decodeBase64(encodedMasses, numOfMZpeaks * 4);
+      final ByteBuffer intensityBytes = decodeBase64(encodedIntensities, numOfMZpeaks * 4);
+
+      int scanNumbers[] = new int[numOfMZpeaks];
+      DataPoint[] mzPeaks = new DataPoint[numOfMZpeaks];
+      Range<Double> peakRTRange = null, peakMZRange = null, peakIntensityRange = null;
+
+      for (int i = 0; i < numOfMZpeaks; i++) {
+
+        scanNumbers[i] = scanBytes.getInt(i * 4);
+        Scan sc = dataFile.getScan(scanNumbers[i]);
+        double retentionTime = sc.getRetentionTime();
+
+        double mz = massBytes.getFloat(i * 4);
+        double intensity = intensityBytes.getFloat(i * 4);
+
+        if (peakIntensityRange == null) {
+          peakIntensityRange = Range.singleton(intensity);
+        } else {
+          peakIntensityRange = peakIntensityRange.span(Range.singleton(intensity));
+        }
+        if (intensity > 0) {
+          if (peakRTRange == null) {
+            peakRTRange = Range.singleton(retentionTime);
+          } else {
+            peakRTRange = peakRTRange.span(Range.singleton(retentionTime));
+          }
+        }
+
+        if (mz > 0.0) {
+          mzPeaks[i] = new SimpleDataPoint(mz, intensity);
+          if (peakMZRange == null)
+            peakMZRange = Range.singleton(mz);
+          else
+            peakMZRange = peakMZRange.span(Range.singleton(mz));
+        }
+      }
+
+      SimpleFeature peak = new SimpleFeature(dataFile, mass, rt, height, area, scanNumbers, mzPeaks,
+          status, representativeScan, fragmentScan, allMS2FragmentScanNumbers, peakRTRange,
+          peakMZRange, peakIntensityRange);
+
+      peak.setCharge(charge);
+
+      if (isotopePattern != null)
+        peak.setIsotopePattern(isotopePattern);
+
+      peak.setParentChromatogramRowID(parentChromatogramRowID);
+
+      return peak;
+    }
+
+    /**
+     * Decodes base64 text, ignoring line breaks and other whitespace
+     */
+    private static ByteBuffer decodeBase64(String text, int expectedLength) {
+      if (text == null)
+        text = "";
+      byte bytes[] = Base64.getMimeDecoder().decode(text);
+      if (bytes.length < expectedLength)
+        throw new IllegalArgumentException("Corrupted data points of feature: expected "
+            + expectedLength + " bytes, found " + bytes.length);
+      return ByteBuffer.wrap(bytes);
+    }
+
+  }
+
 }
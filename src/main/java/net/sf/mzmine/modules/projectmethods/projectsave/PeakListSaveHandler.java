@@ -18,25 +18,18 @@
 
 package net.sf.mzmine.modules.projectmethods.projectsave;
 
-import java.io.ByteArrayOutputStream;
-import java.io.DataOutputStream;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Hashtable;
-import java.util.Map;
 import java.util.Map.Entry;
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerConfigurationException;
-import javax.xml.transform.sax.SAXTransformerFactory;
-import javax.xml.transform.sax.TransformerHandler;
-import javax.xml.transform.stream.StreamResult;
-import org.xml.sax.SAXException;
-import org.xml.sax.helpers.AttributesImpl;
-import com.Ostermiller.util.Base64;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
 import net.sf.mzmine.datamodel.DataPoint;
 import net.sf.mzmine.datamodel.Feature;
 import net.sf.mzmine.datamodel.IsotopePattern;
@@ -48,6 +41,11 @@ import net.sf.mzmine.datamodel.PeakListRow;
 import net.sf.mzmine.datamodel.RawDataFile;
 import net.sf.mzmine.datamodel.impl.SimplePeakList;
 
+/**
+ * Writes a feature list as XML. The document is streamed row by row with a StAX writer, and the data
+ * points of each feature are encoded from primitive arrays into reused buffers, so the memory needed
+ * does not depend on the size of the feature list.
+ */
 public class PeakListSaveHandler {
 
   public static DateFormat dateFormat = new SimpleDateFormat("yyyy/MM/dd HH:mm:ss");
@@ -59,6 +57,15 @@ public class PeakListSaveHandler {
 
   private OutputStream finalStream;
 
+  private XMLStreamWriter xml;
+
+  private static final char BASE64_ALPHABET[] =
+      "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+  // Buffers for encoding the data points of features, reused between features
+  private ByteBuffer dataBuffer = ByteBuffer.allocate(4096);
+  private char encodedChars[] = new char[1024];
+
   public PeakListSaveHandler(OutputStream finalStream,
       Hashtable<RawDataFile, String> dataFilesIDMap) {
     this.finalStream = finalStream;
@@ -66,160 +73,117 @@ public class PeakListSaveHandler {
   }
 
   /**
-   * Create an XML document with the feature list information an save it into the project zip file
+   * Create an XML document with the feature list information an save it into the project zip file.
+   * The output stream is flushed, but not closed.
    * 
    * @param peakList
-   * @param peakListSavedName name of the feature list
    * @throws java.io.IOException
    */
-  public void savePeakList(PeakList peakList)
-      throws IOException, TransformerConfigurationException, SAXException {
+  public void savePeakList(PeakList peakList) throws IOException, XMLStreamException {
 
     numberOfRows = peakList.getNumberOfRows();
     finishedRows = 0;
 
-    StreamResult streamResult = new StreamResult(finalStream);
-    SAXTransformerFactory tf = (SAXTransformerFactory) SAXTransformerFactory.newInstance();
+    // The XML writer does not close the underlying stream
+    final BufferedOutputStream bufferedStream = new BufferedOutputStream(finalStream, 1 << 16);
+    xml = XMLOutputFactory.newInstance().createXMLStreamWriter(bufferedStream, "UTF-8");
 
-    TransformerHandler hd = tf.newTransformerHandler();
+    try {
+      xml.writeStartDocument("UTF-8", "1.0");
 
-    Transformer serializer = hd.getTransformer();
-    serializer.setOutputProperty(OutputKeys.INDENT, "yes");
-    serializer.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
+      startElement(PeakListElementName.PEAKLIST);
 
-    hd.setResult(streamResult);
-    hd.startDocument();
-    AttributesImpl atts = new AttributesImpl();
-
-    hd.startElement("", "", PeakListElementName.PEAKLIST.getElementName(), atts);
-    atts.clear();
-
-    // <NAME>
-    hd.startElement("", "", PeakListElementName.PEAKLIST_NAME.getElementName(), atts);
-    hd.characters(peakList.getName().toCharArray(), 0, peakList.getName().length());
-    hd.endElement("", "", PeakListElementName.PEAKLIST_NAME.getElementName());
-
-    // <PEAKLIST_DATE>
-    String dateText = "";
-    if (((SimplePeakList) peakList).getDateCreated() == null) {
-      dateText = ((SimplePeakList) peakList).getDateCreated();
-    } else {
-      Date date = new Date();
-      dateText = dateFormat.format(date);
-    }
-    hd.startElement("", "", PeakListElementName.PEAKLIST_DATE.getElementName(), atts);
-    hd.characters(dateText.toCharArray(), 0, dateText.length());
-    hd.endElement("", "", PeakListElementName.PEAKLIST_DATE.getElementName());
+      // <NAME>
+      writeTextElement(PeakListElementName.PEAKLIST_NAME, peakList.getName());
 
-    // <QUANTITY>
-    hd.startElement("", "", PeakListElementName.QUANTITY.getElementName(), atts);
-    hd.characters(String.valueOf(numberOfRows).toCharArray(), 0,
-        String.valueOf(numberOfRows).length());
-    hd.endElement("", "", PeakListElementName.QUANTITY.getElementName());
-
-    // <PROCESS>
-    PeakListAppliedMethod[] processes = peakList.getAppliedMethods();
-    for (PeakListAppliedMethod proc : processes) {
-
-      hd.startElement("", "", PeakListElementName.METHOD.getElementName(), atts);
-
-      hd.startElement("", "", PeakListElementName.METHOD_NAME.getElementName(), atts);
-      String methodName = proc.getDescription();
-      hd.characters(methodName.toCharArray(), 0, methodName.length());
-      hd.endElement("", "", PeakListElementName.METHOD_NAME.getElementName());
-
-      hd.startElement("", "", PeakListElementName.METHOD_PARAMETERS.getElementName(), atts);
-      String methodParameters = proc.getParameters();
-      hd.characters(methodParameters.toCharArray(), 0, methodParameters.length());
-      hd.endElement("", "", PeakListElementName.METHOD_PARAMETERS.getElementName());
-
-      hd.endElement("", "", PeakListElementName.METHOD.getElementName());
-
-    }
-    atts.clear();
-
-    // <RAWFILE>
-    RawDataFile[] dataFiles = peakList.getRawDataFiles();
-
-    for (int i = 0; i < dataFiles.length; i++) {
-
-      String ID = dataFilesIDMap.get(dataFiles[i]);
+      // <PEAKLIST_DATE>
+      String dateText = ((SimplePeakList) peakList).getDateCreated();
+      if (dateText == null) {
+        Date date = new Date();
+        dateText = dateFormat.format(date);
+      }
+      writeTextElement(PeakListElementName.PEAKLIST_DATE, dateText);
+
+      // <QUANTITY>
+      writeTextElement(PeakListElementName.QUANTITY, String.valueOf(numberOfRows));
+
+      // <PROCESS>
+      PeakListAppliedMethod[] processes = peakList.getAppliedMethods();
+      for (PeakListAppliedMethod proc : processes) {
+        startElement(PeakListElementName.METHOD);
+        writeTextElement(PeakListElementName.METHOD_NAME, proc.getDescription());
+        writeTextElement(PeakListElementName.METHOD_PARAMETERS, proc.getParameters());
+        endElement();
+      }
 
-      hd.startElement("", "", PeakListElementName.RAWFILE.getElementName(), atts);
-      char idChars[] = ID.toCharArray();
-      hd.characters(idChars, 0, idChars.length);
+      // <RAWFILE>
+      RawDataFile[] dataFiles = peakList.getRawDataFiles();
+      for (int i = 0; i < dataFiles.length; i++) {
+        String ID = dataFilesIDMap.get(dataFiles[i]);
+        writeTextElement(PeakListElementName.RAWFILE, ID);
+      }
 
-      hd.endElement("", "", PeakListElementName.RAWFILE.getElementName());
-    }
+      // <ROW>
+      PeakListRow row;
+      for (int i = 0; i < numberOfRows; i++) {
 
-    // <ROW>
-    PeakListRow row;
-    for (int i = 0; i < numberOfRows; i++) {
+        if (canceled)
+          return;
 
-      if (canceled)
-        return;
+        row = peakList.getRow(i);
+        startElement(PeakListElementName.ROW);
+        xml.writeAttribute(PeakListElementName.ID.getElementName(), String.valueOf(row.getID()));
+        if (row.getComment() != null) {
+          xml.writeAttribute(PeakListElementName.COMMENT.getElementName(), row.getComment());
+        }
+        fillRowElement(row);
+        endElement();
 
-      atts.clear();
-      row = peakList.getRow(i);
-      atts.addAttribute("", "", PeakListElementName.ID.getElementName(), "CDATA",
-          String.valueOf(row.getID()));
-      if (row.getComment() != null) {
-        atts.addAttribute("", "", PeakListElementName.COMMENT.getElementName(), "CDATA",
-            row.getComment());
+        finishedRows++;
       }
 
-      hd.startElement("", "", PeakListElementName.ROW.getElementName(), atts);
-      fillRowElement(row, hd);
-      hd.endElement("", "", PeakListElementName.ROW.getElementName());
+      endElement();
+      xml.writeEndDocument();
 
-      finishedRows++;
+    } finally {
+      xml.flush();
+      xml.close();
+      bufferedStream.flush();
     }
-
-    hd.endElement("", "", PeakListElementName.PEAKLIST.getElementName());
-    hd.endDocument();
   }
 
   /**
    * Add the row information into the XML document
    * 
    * @param row
-   * @param element
-   * @throws IOException
    */
-  private void fillRowElement(PeakListRow row, TransformerHandler hd)
-      throws SAXException, IOException {
+  private void fillRowElement(PeakListRow row) throws XMLStreamException {
 
     // <PEAK_IDENTITY>
     PeakIdentity preferredIdentity = row.getPreferredPeakIdentity();
     PeakIdentity[] identities = row.getPeakIdentities();
-    AttributesImpl atts = new AttributesImpl();
 
     for (int i = 0; i < identities.length; i++) {
 
       if (canceled)
         return;
 
-      atts.addAttribute("", "", PeakListElementName.ID.getElementName(), "CDATA",
-          String.valueOf(i));
-      atts.addAttribute("", "", PeakListElementName.PREFERRED.getElementName(), "CDATA",
+      startElement(PeakListElementName.PEAK_IDENTITY);
+      xml.writeAttribute(PeakListElementName.ID.getElementName(), String.valueOf(i));
+      xml.writeAttribute(PeakListElementName.PREFERRED.getElementName(),
           String.valueOf(identities[i] == preferredIdentity));
-      hd.startElement("", "", PeakListElementName.PEAK_IDENTITY.getElementName(), atts);
-      fillIdentityElement(identities[i], hd);
-      hd.endElement("", "", PeakListElementName.PEAK_IDENTITY.getElementName());
+      fillIdentityElement(identities[i]);
+      endElement();
     }
 
     // <PEAK_INFORMATION>
 
-    // atts.clear();
-
     if (canceled)
       return;
 
-    // atts.addAttribute("", "", PeakListElementName.ID.getElementName(),
-    // "CDATA", "INFORMATION");
-    hd.startElement("", "", PeakListElementName.PEAK_INFORMATION.getElementName(), atts);
-    fillInformationElement(row.getPeakInformation(), hd);
-    hd.endElement("", "", PeakListElementName.PEAK_INFORMATION.getElementName());
+    startElement(PeakListElementName.PEAK_INFORMATION);
+    fillInformationElement(row.getPeakInformation());
+    endElement();
 
     // <PEAK>
     Feature[] peaks = row.getPeaks();
@@ -227,30 +191,27 @@ public class PeakListSaveHandler {
       if (canceled)
         return;
 
-      atts.clear();
       String dataFileID = dataFilesIDMap.get(p.getDataFile());
-      atts.addAttribute("", "", PeakListElementName.COLUMN.getElementName(), "CDATA", dataFileID);
-      atts.addAttribute("", "", PeakListElementName.MZ.getElementName(), "CDATA",
-          String.valueOf(p.getMZ()));
+      startElement(PeakListElementName.PEAK);
+      xml.writeAttribute(PeakListElementName.COLUMN.getElementName(), dataFileID);
+      xml.writeAttribute(PeakListElementName.MZ.getElementName(), String.valueOf(p.getMZ()));
       // In the project file, retention time is represented in seconds,
       // for historical reasons
       double rt = p.getRT() * 60d;
-      atts.addAttribute("", "", PeakListElementName.RT.getElementName(), "CDATA",
-          String.valueOf(rt));
-      atts.addAttribute("", "", PeakListElementName.HEIGHT.getElementName(), "CDATA",
+      xml.writeAttribute(PeakListElementName.RT.getElementName(), String.valueOf(rt));
+      xml.writeAttribute(PeakListElementName.HEIGHT.getElementName(),
           String.valueOf(p.getHeight()));
-      atts.addAttribute("", "", PeakListElementName.AREA.getElementName(), "CDATA",
-          String.valueOf(p.getArea()));
-      atts.addAttribute("", "", PeakListElementName.STATUS.getElementName(), "CDATA",
+      xml.writeAttribute(PeakListElementName.AREA.getElementName(), String.valueOf(p.getArea()));
+      xml.writeAttribute(PeakListElementName.STATUS.getElementName(),
           p.getFeatureStatus().toString());
-      atts.addAttribute("", "", PeakListElementName.CHARGE.getElementName(), "CDATA",
+      xml.writeAttribute(PeakListElementName.CHARGE.getElementName(),
           String.valueOf(p.getCharge()));
-      atts.addAttribute("", "", PeakListElementName.PARENT_CHROMATOGRAM_ROW_ID.getElementName(), "CDATA",
-          p.getParentChromatogramRowID() != null ? String.valueOf(p.getParentChromatogramRowID()) : "");
-      hd.startElement("", "", PeakListElementName.PEAK.getElementName(), atts);
+      xml.writeAttribute(PeakListElementName.PARENT_CHROMATOGRAM_ROW_ID.getElementName(),
+          p.getParentChromatogramRowID() != null ? String.valueOf(p.getParentChromatogramRowID())
+              : "");
 
-      fillPeakElement(p, hd);
-      hd.endElement("", "", PeakListElementName.PEAK.getElementName());
+      fillPeakElement(p);
+      endElement();
     }
 
   }
@@ -259,45 +220,27 @@ public class PeakListSaveHandler {
    * Add the peak identity information into the XML document
    * 
    * @param identity
-   * @param element
    */
-  private void fillIdentityElement(PeakIdentity identity, TransformerHandler hd)
-      throws SAXException {
-
-    AttributesImpl atts = new AttributesImpl();
-
-    Map<String, String> idProperties = identity.getAllProperties();
-
-    for (Entry<String, String> property : idProperties.entrySet()) {
-      String propertyValue = property.getValue();
-      atts.clear();
-      atts.addAttribute("", "", PeakListElementName.NAME.getElementName(), "CDATA",
-          property.getKey());
+  private void fillIdentityElement(PeakIdentity identity) throws XMLStreamException {
 
-      hd.startElement("", "", PeakListElementName.IDPROPERTY.getElementName(), atts);
-      hd.characters(propertyValue.toCharArray(), 0, propertyValue.length());
-      hd.endElement("", "", PeakListElementName.IDPROPERTY.getElementName());
+    for (Entry<String, String> property : identity.getAllProperties().entrySet()) {
+      startElement(PeakListElementName.IDPROPERTY);
+      xml.writeAttribute(PeakListElementName.NAME.getElementName(), property.getKey());
+      xml.writeCharacters(property.getValue());
+      xml.writeEndElement();
     }
 
   }
 
-  private void fillInformationElement(PeakInformation information, TransformerHandler hd)
-      throws SAXException {
+  private void fillInformationElement(PeakInformation information) throws XMLStreamException {
     if (information == null)
       return;
 
-    AttributesImpl atts = new AttributesImpl();
-
     for (Entry<String, String> property : information.getAllProperties().entrySet()) {
-      String value = property.getValue();
-
-      atts.clear();
-      atts.addAttribute("", "", PeakListElementName.NAME.getElementName(), "CDATA",
-          property.getKey());
-
-      hd.startElement("", "", PeakListElementName.INFO_PROPERTY.getElementName(), atts);
-      hd.characters(property.getValue().toCharArray(), 0, value.length());
-      hd.endElement("", "", PeakListElementName.INFO_PROPERTY.getElementName());
+      startElement(PeakListElementName.INFO_PROPERTY);
+      xml.writeAttribute(PeakListElementName.NAME.getElementName(), property.getKey());
+      xml.writeCharacters(property.getValue());
+      xml.writeEndElement();
     }
   }
 
@@ -305,127 +248,139 @@ public class PeakListSaveHandler {
    * Add the peaks information into the XML document
    * 
    * @param peak
-   * @param element
-   * @param dataFileID
-   * @throws IOException
    */
-  private void fillPeakElement(Feature peak, TransformerHandler hd)
-      throws SAXException, IOException {
-    AttributesImpl atts = new AttributesImpl();
+  private void fillPeakElement(Feature peak) throws XMLStreamException {
 
     // <REPRESENTATIVE_SCAN>
-    hd.startElement("", "", PeakListElementName.REPRESENTATIVE_SCAN.getElementName(), atts);
-    hd.characters(String.valueOf(peak.getRepresentativeScanNumber()).toCharArray(), 0,
-        String.valueOf(peak.getRepresentativeScanNumber()).length());
-    hd.endElement("", "", PeakListElementName.REPRESENTATIVE_SCAN.getElementName());
+    writeTextElement(PeakListElementName.REPRESENTATIVE_SCAN,
+        String.valueOf(peak.getRepresentativeScanNumber()));
 
     // <FRAGMENT_SCAN>
-    hd.startElement("", "", PeakListElementName.FRAGMENT_SCAN.getElementName(), atts);
-    hd.characters(String.valueOf(peak.getMostIntenseFragmentScanNumber()).toCharArray(), 0,
-        String.valueOf(peak.getMostIntenseFragmentScanNumber()).length());
-    hd.endElement("", "", PeakListElementName.FRAGMENT_SCAN.getElementName());
+    writeTextElement(PeakListElementName.FRAGMENT_SCAN,
+        String.valueOf(peak.getMostIntenseFragmentScanNumber()));
 
     // <ALL_MS2_FRAGMENT_SCANS>
-    fillAllMS2FragmentScanNumbers(peak.getAllMS2FragmentScanNumbers(), hd);
+    int allMS2FragmentScanNumbers[] = peak.getAllMS2FragmentScanNumbers();
+    if (allMS2FragmentScanNumbers != null) {
+      for (int scan : allMS2FragmentScanNumbers) {
+        writeTextElement(PeakListElementName.ALL_MS2_FRAGMENT_SCANS, String.valueOf(scan));
+      }
+    }
 
     int scanNumbers[] = peak.getScanNumbers();
 
     // <ISOTOPE_PATTERN>
     IsotopePattern isotopePattern = peak.getIsotopePattern();
     if (isotopePattern != null) {
-      atts.addAttribute("", "", PeakListElementName.STATUS.getElementName(), "CDATA",
+      startElement(PeakListElementName.ISOTOPE_PATTERN);
+      xml.writeAttribute(PeakListElementName.STATUS.getElementName(),
           String.valueOf(isotopePattern.getStatus()));
-      atts.addAttribute("", "", PeakListElementName.DESCRIPTION.getElementName(), "CDATA",
+      xml.writeAttribute(PeakListElementName.DESCRIPTION.getElementName(),
           isotopePattern.getDescription());
-      hd.startElement("", "", PeakListElementName.ISOTOPE_PATTERN.getElementName(), atts);
-      atts.clear();
-
-      fillIsotopePatternElement(isotopePattern, hd);
-
-      hd.endElement("", "", PeakListElementName.ISOTOPE_PATTERN.getElementName());
-
+      for (DataPoint isotope : isotopePattern.getDataPoints()) {
+        writeTextElement(PeakListElementName.ISOTOPE,
+            isotope.getMZ() + ":" + isotope.getIntensity());
+      }
+      endElement();
     }
 
     // <MZPEAK>
-    atts.addAttribute("", "", PeakListElementName.QUANTITY.getElementName(), "CDATA",
+    startElement(PeakListElementName.MZPEAKS);
+    xml.writeAttribute(PeakListElementName.QUANTITY.getElementName(),
         String.valueOf(scanNumbers.length));
-    hd.startElement("", "", PeakListElementName.MZPEAKS.getElementName(), atts);
-    atts.clear();
-
-    // <SCAN_ID> <MASS> <HEIGHT>
-    ByteArrayOutputStream byteScanStream = new ByteArrayOutputStream();
-    DataOutputStream dataScanStream = new DataOutputStream(byteScanStream);
-
-    ByteArrayOutputStream byteMassStream = new ByteArrayOutputStream();
-    DataOutputStream dataMassStream = new DataOutputStream(byteMassStream);
-
-    ByteArrayOutputStream byteHeightStream = new ByteArrayOutputStream();
-    DataOutputStream dataHeightStream = new DataOutputStream(byteHeightStream);
 
-    float mass, height;
-    for (int scan : scanNumbers) {
-      dataScanStream.writeInt(scan);
-      dataScanStream.flush();
-      DataPoint mzPeak = peak.getDataPoint(scan);
+    // <SCAN_ID>
+    ByteBuffer buffer = getDataBuffer(scanNumbers.length * 4);
+    for (int i = 0; i < scanNumbers.length; i++)
+      buffer.putInt(i * 4, scanNumbers[i]);
+    writeEncodedElement(PeakListElementName.SCAN_ID, buffer.array(), 0, scanNumbers.length * 4);
+
+    // <MASS> <HEIGHT>, both as floats, missing data points are saved as zeros. The intensities
+    // follow the masses in the buffer, so each data point is only retrieved once.
+    final int heightsStart = scanNumbers.length * 4;
+    buffer = getDataBuffer(heightsStart * 2);
+    for (int i = 0; i < scanNumbers.length; i++) {
+      DataPoint mzPeak = peak.getDataPoint(scanNumbers[i]);
       if (mzPeak != null) {
-        mass = (float) mzPeak.getMZ();
-        height = (float) mzPeak.getIntensity();
+        buffer.putFloat(i * 4, (float) mzPeak.getMZ());
+        buffer.putFloat(heightsStart + i * 4, (float) mzPeak.getIntensity());
       } else {
-        mass = 0f;
-        height = 0f;
+        buffer.putFloat(i * 4, 0f);
+        buffer.putFloat(heightsStart + i * 4, 0f);
       }
-      dataMassStream.writeFloat(mass);
-      dataMassStream.flush();
-      dataHeightStream.writeFloat(height);
-      dataHeightStream.flush();
     }
+    writeEncodedElement(PeakListElementName.MZ, buffer.array(), 0, heightsStart);
+    writeEncodedElement(PeakListElementName.HEIGHT, buffer.array(), heightsStart, heightsStart);
 
-    byte[] bytes = Base64.encode(byteScanStream.toByteArray());
-    hd.startElement("", "", PeakListElementName.SCAN_ID.getElementName(), atts);
-    String sbytes = new String(bytes);
-    hd.characters(sbytes.toCharArray(), 0, sbytes.length());
-    hd.endElement("", "", PeakListElementName.SCAN_ID.getElementName());
-
-    bytes = Base64.encode(byteMassStream.toByteArray());
-    hd.startElement("", "", PeakListElementName.MZ.getElementName(), atts);
-    sbytes = new String(bytes);
-    hd.characters(sbytes.toCharArray(), 0, sbytes.length());
-    hd.endElement("", "", PeakListElementName.MZ.getElementName());
-
-    bytes = Base64.encode(byteHeightStream.toByteArray());
-    hd.startElement("", "", PeakListElementName.HEIGHT.getElementName(), atts);
-    sbytes = new String(bytes);
-    hd.characters(sbytes.toCharArray(), 0, sbytes.length());
-    hd.endElement("", "", PeakListElementName.HEIGHT.getElementName());
-
-    hd.endElement("", "", PeakListElementName.MZPEAKS.getElementName());
+    endElement();
   }
 
-  private void fillIsotopePatternElement(IsotopePattern isotopePattern, TransformerHandler hd)
-      throws SAXException, IOException {
+  /**
+   * Returns the reused data buffer with at least the given capacity
+   */
+  private ByteBuffer getDataBuffer(int capacity) {
+    if (dataBuffer.capacity() < capacity)
+      dataBuffer = ByteBuffer.allocate(Math.max(capacity, dataBuffer.capacity() * 2));
+    return dataBuffer;
+  }
 
-    AttributesImpl atts = new AttributesImpl();
+  /**
+   * Writes the given bytes as a base64 encoded element. The characters are encoded into a reused
+   * buffer, so no intermediate strings are created.
+   */
+  private void writeEncodedElement(PeakListElementName element, byte data[], int offset,
+      int length) throws XMLStreamException {
+
+    final int encodedLength = 4 * ((length + 2) / 3);
+    if (encodedChars.length < encodedLength)
+      encodedChars = new char[Math.max(encodedLength, encodedChars.length * 2)];
+
+    final int end = offset + length;
+    int in = offset, out = 0;
+    while (end - in >= 3) {
+      int bits = ((data[in] & 0xff) << 16) | ((data[in + 1] & 0xff) << 8) | (data[in + 2] & 0xff);
+      encodedChars[out++] = BASE64_ALPHABET[bits >>> 18];
+      encodedChars[out++] = BASE64_ALPHABET[(bits >>> 12) & 0x3f];
+      encodedChars[out++] = BASE64_ALPHABET[(bits >>> 6) & 0x3f];
+      encodedChars[out++] = BASE64_ALPHABET[bits & 0x3f];
+      in += 3;
+    }
+    if (end - in > 0) {
+      int bits = (data[in] & 0xff) << 16;
+      if (end - in == 2)
+        bits |= (data[in + 1] & 0xff) << 8;
+      encodedChars[out++] = BASE64_ALPHABET[bits >>> 18];
+      encodedChars[out++] = BASE64_ALPHABET[(bits >>> 12) & 0x3f];
+      encodedChars[out++] = (end - in == 2) ? BASE64_ALPHABET[(bits >>> 6) & 0x3f] : '=';
+      encodedChars[out++] = '=';
+    }
 
-    DataPoint isotopes[] = isotopePattern.getDataPoints();
+    startElement(element);
+    xml.writeCharacters(encodedChars, 0, encodedLength);
+    xml.writeEndElement();
+  }
 
-    for (DataPoint isotope : isotopes) {
-      hd.startElement("", "", PeakListElementName.ISOTOPE.getElementName(), atts);
-      String isotopeString = isotope.getMZ() + ":" + isotope.getIntensity();
-      hd.characters(isotopeString.toCharArray(), 0, isotopeString.length());
-      hd.endElement("", "", PeakListElementName.ISOTOPE.getElementName());
-    }
+  /**
+   * Starts an element on a new line
+   */
+  private void startElement(PeakListElementName element) throws XMLStreamException {
+    xml.writeCharacters("\n");
+    xml.writeStartElement(element.getElementName());
   }
 
-  private void fillAllMS2FragmentScanNumbers(int[] scanNumbers, TransformerHandler hd)
-      throws SAXException, IOException {
-    AttributesImpl atts = new AttributesImpl();
-    if (scanNumbers != null) {
-      for (int scan : scanNumbers) {
-        hd.startElement("", "", PeakListElementName.ALL_MS2_FRAGMENT_SCANS.getElementName(), atts);
-        hd.characters(String.valueOf(scan).toCharArray(), 0, String.valueOf(scan).length());
-        hd.endElement("", "", PeakListElementName.ALL_MS2_FRAGMENT_SCANS.getElementName());
-      }
-    }
+  /**
+   * Ends an element with child elements on a new line
+   */
+  private void endElement() throws XMLStreamException {
+    xml.writeCharacters("\n");
+    xml.writeEndElement();
+  }
+
+  private void writeTextElement(PeakListElementName element, String text)
+      throws XMLStreamException {
+    startElement(element);
+    xml.writeCharacters(text);
+    xml.writeEndElement();
   }
 
   /**
@@ -26,6 +26,7 @@ import java.util.Hashtable;
 import java.util.logging.Logger;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
+import javax.xml.stream.XMLStreamException;
 import javax.xml.transform.TransformerConfigurationException;
 import org.xml.sax.SAXException;
 import net.sf.mzmine.datamodel.MZmineProject;
@@ -316,11 +317,9 @@ public class ProjectSavingTask extends AbstractTask {
   /**
    * Save the feature lists
    * 
-   * @throws SAXException
-   * @throws TransformerConfigurationException
+   * @throws XMLStreamException
    */
-  private void savePeakLists(ZipOutputStream zipStream)
-      throws IOException, TransformerConfigurationException, SAXException {
+  private void savePeakLists(ZipOutputStream zipStream) throws IOException, XMLStreamException {
 
     PeakList peakLists[] = savedProject.getPeakLists();
 
@@ -39,6 +39,7 @@ import net.sf.mzmine.datamodel.Scan;
 import net.sf.mzmine.project.impl.RawDataFileImpl;
 import net.sf.mzmine.project.impl.StorableMassList;
 import net.sf.mzmine.project.impl.StorableScan;
+import net.sf.mzmine.project.impl.VirtualRawDataFile;
 
 import org.xml.sax.SAXException;
 import org.xml.sax.helpers.AttributesImpl;
@@ -74,6 +75,10 @@ class RawDataFileSaveHandler {
   void writeRawDataFile(RawDataFileImpl rawDataFile, int number)
       throws IOException, TransformerConfigurationException, SAXException {
 
+    // Virtual files compute their data points from another file, which is not saved with them
+    if (rawDataFile instanceof VirtualRawDataFile)
+      ((VirtualRawDataFile) rawDataFile).storeAllScans();
+
     numOfScans = rawDataFile.getNumOfScans();
 
     // Get the structure of the data points file
@@ -52,9 +52,15 @@ public class AlignScansParameters extends SimpleParameterSet {
   public static final StringParameter suffix =
       new StringParameter("Suffix", "This string is added to filename as suffix", "align");
 
+  public static final BooleanParameter virtualFile = new BooleanParameter("Virtual file",
+      "If checked, the aligned file does not store its data points, the scans are aligned when "
+          + "they are read. Not used when the previous files are removed, as the data points would "
+          + "be stored right away",
+      false);
+
   public AlignScansParameters() {
     super(new Parameter[] {dataFiles, suffix, scanSpan, mzSpan, minimumHeight, logTransform,
-        removeOld});
+        removeOld, virtualFile});
   }
 
 }
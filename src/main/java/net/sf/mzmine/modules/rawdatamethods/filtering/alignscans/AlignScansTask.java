@@ -26,6 +26,7 @@ import net.sf.mzmine.datamodel.MZmineProject;
 import net.sf.mzmine.datamodel.RawDataFile;
 import net.sf.mzmine.datamodel.RawDataFileWriter;
 import net.sf.mzmine.datamodel.Scan;
+import net.sf.mzmine.datamodel.VirtualRawDataFileWriter;
 import net.sf.mzmine.datamodel.impl.SimpleDataPoint;
 import net.sf.mzmine.datamodel.impl.SimpleScan;
 import net.sf.mzmine.main.MZmineCore;
@@ -50,6 +51,7 @@ public class AlignScansTask extends AbstractTask {
   private int scanSpan, mzSpan;
   private boolean logScale = false;
   private boolean removeOriginal;
+  private boolean virtualFile;
   RawDataFile newRDF = null;
 
   /**
@@ -67,6 +69,9 @@ public class AlignScansTask extends AbstractTask {
     this.suffix = parameters.getParameter(AlignScansParameters.suffix).getValue();
     this.removeOriginal = parameters.getParameter(AlignScansParameters.removeOld).getValue();
     this.logScale = parameters.getParameter(AlignScansParameters.logTransform).getValue();
+    // With the original file removed, a virtual file would store its data points right away
+    this.virtualFile =
+        parameters.getParameter(AlignScansParameters.virtualFile).getValue() && !removeOriginal;
 
   }
 
@@ -104,96 +109,32 @@ public class AlignScansTask extends AbstractTask {
     totalScans = scanNumbers.length;
 
     RawDataFileWriter newRDFW = null;
+    VirtualRawDataFileWriter virtualRDFW = null;
+    int i;
+    int shiftedScans[] = new int[mzSpan * 2 + 1];
     try {
-      newRDFW = MZmineCore.createNewFile(dataFile.getName() + ' ' + suffix);
+      if (virtualFile) {
+        virtualRDFW =
+            MZmineCore.createNewVirtualFile(dataFile.getName() + ' ' + suffix, dataFile, true);
+        newRDFW = virtualRDFW;
+      } else {
+        newRDFW = MZmineCore.createNewFile(dataFile.getName() + ' ' + suffix);
+      }
 
-      DataPoint mzValues[][] = null; // [relative scan][j value]
-      int i, j, si, sj, ii, k, shift, ks;
-      int shiftedScans[] = new int[mzSpan * 2 + 1];
       for (i = 0; i < totalScans; i++) {
 
         if (isCanceled())
           return;
 
         Scan scan = dataFile.getScan(scanNumbers[i]);
-        si = (int) Math.max(0, i - scanSpan);
-        sj = (int) (si + 2 * scanSpan);
-        if (sj >= totalScans) {
-          si = (int) Math.max(0, si - (sj - totalScans + 1));
-          sj = (int) (si + 2 * scanSpan);
-        }
         if (scan != null) {
-          // Allocate
-          if (mzValues == null || mzValues.length < sj - si + 1)
-            mzValues = new DataPoint[sj - si + 1][];
-          // Load Data Points
-          for (j = si; j <= sj; j++) {
-            Scan xscan = dataFile.getScan(scanNumbers[j]);
-            mzValues[j - si] = xscan.getDataPoints();
-          }
-          // Estimate Correlations
-          ii = i - si;
-          final SimpleScan newScan = new SimpleScan(scan);
-          DataPoint[] newDP = new DataPoint[mzValues[ii].length];
-          int maxShift = 0;
-          double maxCorrelation = 0;
-          int ndp = mzValues[ii].length;
-          // System.out.print("Scan="+i);
-          for (shift = -mzSpan; shift <= mzSpan; shift++) {
-            PearsonCorrelation thisShift = new PearsonCorrelation();
-            for (k = 0; k < ndp; k++) {
-              ks = k + shift;
-              if (ks >= 0 && ks < ndp && mzValues[ii][ks].getIntensity() >= minimumHeight) {
-                DataPoint dp = mzValues[ii][k];
-                double mz = dp.getMZ();
-                int f = 0;
-                for (j = 0; j < mzValues.length; j++) {
-                  // System.out.println(j);
-                  if (j != ii) {
-                    if (mzValues[j].length > k && Math.abs(mzValues[j][k].getMZ() - mz) < 1e-10) {
-                      f = k;
-                    } else {
-                      f = findFirstMass(mz, mzValues[j]);
-                      if (Math.abs(mzValues[j][f].getMZ() - mz) > 1e-10) {
-                        f = -f;
-                      }
-                    }
-                    if (f >= 0) {
-                      if (logScale) {
-                        thisShift.enter(Math.log(mzValues[j][f].getIntensity()),
-                            Math.log(mzValues[ii][ks].getIntensity()));
-                      } else {
-                        thisShift.enter(mzValues[j][f].getIntensity(),
-                            mzValues[ii][ks].getIntensity());
-                      }
-                    }
-                  }
-                }
-              }
-            }
-            // System.out.print(", shift="+shift+",
-            // correlation="+Math.round(thisShift.correlation()*1000)/1000.0);
-            if (thisShift.correlation() > maxCorrelation) {
-              maxShift = shift;
-              maxCorrelation = thisShift.correlation();
-            }
-            // newDP[k] = new SimpleDataPoint(mz, c > 0 ? a/c : 0);
+          // Virtual scans are aligned when their data points are read
+          if (virtualFile) {
+            final int scanIndex = i;
+            virtualRDFW.addScan(scan, s -> alignScan(scanIndex, null));
+          } else {
+            newRDFW.addScan(alignScan(i, shiftedScans));
           }
-          // Copy DataPoints with maxShift as the shift
-          shift = maxShift;
-          // System.out.println("\nScan="+i+", Shift="+maxShift+", Correlation="+maxCorrelation);
-          shiftedScans[maxShift + mzSpan]++;
-          for (k = 0; k < ndp; k++) {
-            ks = k + shift;
-            if (ks >= 0 && ks < ndp) {
-              newDP[k] =
-                  new SimpleDataPoint(mzValues[ii][k].getMZ(), mzValues[ii][ks].getIntensity());
-            } else {
-              newDP[k] = new SimpleDataPoint(mzValues[ii][k].getMZ(), 0);
-            }
-          }
-          newScan.setDataPoints(newDP);
-          newRDFW.addScan(newScan);
         }
 
         processedScans++;
@@ -214,11 +155,15 @@ public class AlignScansTask extends AbstractTask {
 
         setStatus(TaskStatus.FINISHED);
 
-        String shifts = "";
-        for (i = -mzSpan; i <= mzSpan; i++) {
-          shifts = shifts + i + ":" + shiftedScans[i + mzSpan] + " | ";
+        if (virtualFile) {
+          logger.info("Finished Scan Alignment on " + dataFile + ", scans are aligned when read");
+        } else {
+          String shifts = "";
+          for (i = -mzSpan; i <= mzSpan; i++) {
+            shifts = shifts + i + ":" + shiftedScans[i + mzSpan] + " | ";
+          }
+          logger.info("Finished Scan Alignment on " + dataFile + ". Scans per shift = " + shifts);
         }
-        logger.info("Finished Scan Alignment on " + dataFile + ". Scans per shift = " + shifts);
 
       }
 
@@ -228,6 +173,96 @@ public class AlignScansTask extends AbstractTask {
 
   }
 
+  /**
+   * Returns a copy of scan i whose intensities are shifted by the m/z offset which correlates best
+   * with the neighbouring scans. Reads only the data file, so virtual scans can call it from any
+   * thread.
+   *
+   * @param shiftedScans counts of scans per shift to update, or null
+   */
+  private Scan alignScan(int i, int shiftedScans[]) {
+
+    int j, si, sj, ii, k, shift, ks;
+    Scan scan = dataFile.getScan(scanNumbers[i]);
+    si = (int) Math.max(0, i - scanSpan);
+    sj = (int) (si + 2 * scanSpan);
+    if (sj >= totalScans) {
+      si = (int) Math.max(0, si - (sj - totalScans + 1));
+      sj = (int) (si + 2 * scanSpan);
+    }
+
+    DataPoint mzValues[][] = new DataPoint[sj - si + 1][]; // [relative scan][j value]
+    // Load Data Points
+    for (j = si; j <= sj; j++) {
+      Scan xscan = dataFile.getScan(scanNumbers[j]);
+      mzValues[j - si] = xscan.getDataPoints();
+    }
+    // Estimate Correlations
+    ii = i - si;
+    final SimpleScan newScan = new SimpleScan(scan);
+    DataPoint[] newDP = new DataPoint[mzValues[ii].length];
+    int maxShift = 0;
+    double maxCorrelation = 0;
+    int ndp = mzValues[ii].length;
+    // System.out.print("Scan="+i);
+    for (shift = -mzSpan; shift <= mzSpan; shift++) {
+      PearsonCorrelation thisShift = new PearsonCorrelation();
+      for (k = 0; k < ndp; k++) {
+        ks = k + shift;
+        if (ks >= 0 && ks < ndp && mzValues[ii][ks].getIntensity() >= minimumHeight) {
+          DataPoint dp = mzValues[ii][k];
+          double mz = dp.getMZ();
+          int f = 0;
+          for (j = 0; j < mzValues.length; j++) {
+            // System.out.println(j);
+            if (j != ii) {
+              if (mzValues[j].length > k && Math.abs(mzValues[j][k].getMZ() - mz) < 1e-10) {
+                f = k;
+              } else {
+                f = findFirstMass(mz, mzValues[j]);
+                if (Math.abs(mzValues[j][f].getMZ() - mz) > 1e-10) {
+                  f = -f;
+                }
+              }
+              if (f >= 0) {
+                if (logScale) {
+                  thisShift.enter(Math.log(mzValues[j][f].getIntensity()),
+                      Math.log(mzValues[ii][ks].getIntensity()));
+                } else {
+                  thisShift.enter(mzValues[j][f].getIntensity(),
+                      mzValues[ii][ks].getIntensity());
+                }
+              }
+            }
+          }
+        }
+      }
+      // System.out.print(", shift="+shift+",
+      // correlation="+Math.round(thisShift.correlation()*1000)/1000.0);
+      if (thisShift.correlation() > maxCorrelation) {
+        maxShift = shift;
+        maxCorrelation = thisShift.correlation();
+      }
+      // newDP[k] = new SimpleDataPoint(mz, c > 0 ? a/c : 0);
+    }
+    // Copy DataPoints with maxShift as the shift
+    shift = maxShift;
+    // System.out.println("\nScan="+i+", Shift="+maxShift+", Correlation="+maxCorrelation);
+    if (shiftedScans != null)
+      shiftedScans[maxShift + mzSpan]++;
+    for (k = 0; k < ndp; k++) {
+      ks = k + shift;
+      if (ks >= 0 && ks < ndp) {
+        newDP[k] =
+            new SimpleDataPoint(mzValues[ii][k].getMZ(), mzValues[ii][ks].getIntensity());
+      } else {
+        newDP[k] = new SimpleDataPoint(mzValues[ii][k].getMZ(), 0);
+      }
+    }
+    newScan.setDataPoints(newDP);
+    return newScan;
+  }
+
   int findFirstMass(double mass, DataPoint mzValues[]) {
     int l = 0;
     int r = mzValues.length - 1;
@@ -42,8 +42,14 @@ public class CropFilterParameters extends SimpleParameterSet {
       new BooleanParameter("Remove source file after filtering",
           "If checked, original file will be removed and only filtered version remains");
 
+  public static final BooleanParameter virtualFile = new BooleanParameter("Virtual file",
+      "If checked, the filtered file does not store its data points, they are cropped from the "
+          + "original file whenever they are read. Not used when the source file is removed after "
+          + "filtering, as the data points would be stored right away",
+      false);
+
   public CropFilterParameters() {
-    super(new Parameter[] {dataFiles, scanSelection, mzRange, suffix, autoRemove});
+    super(new Parameter[] {dataFiles, scanSelection, mzRange, suffix, autoRemove, virtualFile});
   }
 
 }
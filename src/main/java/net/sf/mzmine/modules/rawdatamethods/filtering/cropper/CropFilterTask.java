@@ -27,6 +27,7 @@ import net.sf.mzmine.datamodel.MZmineProject;
 import net.sf.mzmine.datamodel.RawDataFile;
 import net.sf.mzmine.datamodel.RawDataFileWriter;
 import net.sf.mzmine.datamodel.Scan;
+import net.sf.mzmine.datamodel.VirtualRawDataFileWriter;
 import net.sf.mzmine.datamodel.impl.SimpleScan;
 import net.sf.mzmine.main.MZmineCore;
 import net.sf.mzmine.parameters.ParameterSet;
@@ -48,6 +49,7 @@ public class CropFilterTask extends AbstractTask {
   private Range<Double> mzRange;
   private String suffix;
   private boolean removeOriginal;
+  private boolean virtualFile;
 
   CropFilterTask(MZmineProject project, RawDataFile dataFile, ParameterSet parameters) {
     this.project = project;
@@ -57,6 +59,9 @@ public class CropFilterTask extends AbstractTask {
     this.mzRange = parameters.getParameter(CropFilterParameters.mzRange).getValue();
     this.suffix = parameters.getParameter(CropFilterParameters.suffix).getValue();
     this.removeOriginal = parameters.getParameter(CropFilterParameters.autoRemove).getValue();
+    // With the original file removed, a virtual file would store its data points right away
+    this.virtualFile =
+        parameters.getParameter(CropFilterParameters.virtualFile).getValue() && !removeOriginal;
   }
 
   /**
@@ -81,22 +86,21 @@ public class CropFilterTask extends AbstractTask {
 
     try {
 
-      RawDataFileWriter rawDataFileWriter =
-          MZmineCore.createNewFile(dataFile.getName() + " " + suffix);
-
-      for (Scan scan : scans) {
-
-        SimpleScan scanCopy = new SimpleScan(scan);
-
-        // Check if we have something to crop
-        if (!mzRange.encloses(scan.getDataPointMZRange())) {
-          DataPoint croppedDataPoints[] = scan.getDataPointsByMass(mzRange);
-          scanCopy.setDataPoints(croppedDataPoints);
+      RawDataFileWriter rawDataFileWriter;
+      if (virtualFile) {
+        VirtualRawDataFileWriter virtualFileWriter =
+            MZmineCore.createNewVirtualFile(dataFile.getName() + " " + suffix, dataFile, false);
+        for (Scan scan : scans) {
+          virtualFileWriter.addScan(scan, this::cropScan);
+          processedScans++;
+        }
+        rawDataFileWriter = virtualFileWriter;
+      } else {
+        rawDataFileWriter = MZmineCore.createNewFile(dataFile.getName() + " " + suffix);
+        for (Scan scan : scans) {
+          rawDataFileWriter.addScan(cropScan(scan));
+          processedScans++;
         }
-
-        rawDataFileWriter.addScan(scanCopy);
-
-        processedScans++;
       }
 
       RawDataFile filteredRawDataFile = rawDataFileWriter.finishWriting();
@@ -116,6 +120,19 @@ public class CropFilterTask extends AbstractTask {
     }
   }
 
+  private Scan cropScan(Scan scan) {
+
+    SimpleScan scanCopy = new SimpleScan(scan);
+
+    // Check if we have something to crop
+    if (!mzRange.encloses(scan.getDataPointMZRange())) {
+      DataPoint croppedDataPoints[] = scan.getDataPointsByMass(mzRange);
+      scanCopy.setDataPoints(croppedDataPoints);
+    }
+
+    return scanCopy;
+  }
+
   @Override
   public double getFinishedPercentage() {
     if (totalScans == 0)
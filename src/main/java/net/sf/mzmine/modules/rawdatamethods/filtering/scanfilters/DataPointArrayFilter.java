@@ -0,0 +1,52 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.modules.rawdatamethods.filtering.scanfilters;
+
+import net.sf.mzmine.datamodel.MassSpectrumType;
+import net.sf.mzmine.parameters.ParameterSet;
+
+/**
+ * Scan filter which can also filter the data points given as primitive arrays, so the scans can be
+ * filtered without creating DataPoint objects
+ */
+public interface DataPointArrayFilter extends ScanFilter {
+
+  /**
+   * Filters the data points given as primitive arrays, same as filterScan(). Implementations must
+   * not allocate memory and must be thread-safe, as ScanFilteringTask calls this method from
+   * several threads with buffers reused for all scans.
+   * 
+   * @param numOfDataPoints number of data points in mzValues and intensityValues, the arrays may be
+   *        longer
+   * @param newMzValues m/z values of the filtered data points, at least as long as numOfDataPoints
+   * @param newIntensityValues intensities of the filtered data points, at least as long as
+   *        numOfDataPoints
+   * @return number of filtered data points
+   */
+  public int filterDataPoints(double mzValues[], double intensityValues[], int numOfDataPoints,
+      double newMzValues[], double newIntensityValues[], ParameterSet parameters);
+
+  /**
+   * Returns the spectrum type of a scan filtered by filterDataPoints()
+   */
+  public default MassSpectrumType getFilteredSpectrumType(MassSpectrumType spectrumType) {
+    return spectrumType;
+  }
+
+}
@@ -19,15 +19,24 @@
 package net.sf.mzmine.modules.rawdatamethods.filtering.scanfilters;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
 import java.util.logging.Logger;
+import java.util.stream.IntStream;
+import net.sf.mzmine.datamodel.DataPoint;
 import net.sf.mzmine.datamodel.MZmineProject;
 import net.sf.mzmine.datamodel.RawDataFile;
 import net.sf.mzmine.datamodel.RawDataFileWriter;
 import net.sf.mzmine.datamodel.Scan;
+import net.sf.mzmine.datamodel.VirtualRawDataFileWriter;
+import net.sf.mzmine.datamodel.impl.SimpleScan;
 import net.sf.mzmine.main.MZmineCore;
 import net.sf.mzmine.modules.MZmineProcessingStep;
 import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.parameters.parametertypes.selectors.ScanSelection;
+import net.sf.mzmine.project.impl.RawDataFileImpl;
+import net.sf.mzmine.project.impl.StorableScan;
 import net.sf.mzmine.taskcontrol.AbstractTask;
 import net.sf.mzmine.taskcontrol.TaskStatus;
 
@@ -45,6 +54,7 @@ class ScanFilteringTask extends AbstractTask {
   // User parameters
   private String suffix;
   private boolean removeOriginal;
+  private boolean virtualFile;
 
   // Raw Data Filter
   private MZmineProcessingStep<ScanFilter> rawDataFilter;
@@ -65,6 +75,10 @@ class ScanFilteringTask extends AbstractTask {
 
     suffix = parameters.getParameter(ScanFiltersParameters.suffix).getValue();
     select = parameters.getParameter(ScanFiltersParameters.scanSelect).getValue();
+    removeOriginal = parameters.getParameter(ScanFiltersParameters.autoRemove).getValue();
+    // With the original file removed, a virtual file would store its data points right away
+    virtualFile =
+        parameters.getParameter(ScanFiltersParameters.virtualFile).getValue() && !removeOriginal;
 
   }
 
@@ -110,27 +124,38 @@ class ScanFilteringTask extends AbstractTask {
       // Create new raw data file
 
       String newName = dataFile.getName() + " " + suffix;
-      RawDataFileWriter rawDataFileWriter = MZmineCore.createNewFile(newName);
-
-      for (int i = 0; i < totalScans; i++) {
+      RawDataFileWriter rawDataFileWriter;
+      VirtualRawDataFileWriter virtualFileWriter = null;
+      if (virtualFile) {
+        virtualFileWriter = MZmineCore.createNewVirtualFile(newName, dataFile, false);
+        rawDataFileWriter = virtualFileWriter;
+      } else {
+        rawDataFileWriter = MZmineCore.createNewFile(newName);
+      }
 
-        if (isCanceled()) {
-          return;
-        }
+      final ScanFilter filter = rawDataFilter.getModule();
+      final ParameterSet filterParameters = rawDataFilter.getParameterSet();
 
+      if (virtualFile) {
+        for (int i = 0; i < totalScans; i++) {
 
-        Scan scan = dataFile.getScan(scanNumbers[i]);
-        Scan newScan = null;
-        if (select.matches(scan))
-          newScan = rawDataFilter.getModule().filterScan(scan, rawDataFilter.getParameterSet());
-        else
-          newScan = scan;
+          if (isCanceled()) {
+            return;
+          }
 
-        if (newScan != null) {
-          rawDataFileWriter.addScan(newScan);
+          // Virtual scans are filtered when their data points are read
+          Scan scan = dataFile.getScan(scanNumbers[i]);
+          if (select.matches(scan))
+            virtualFileWriter.addScan(scan, s -> filter.filterScan(s, filterParameters));
+          else
+            virtualFileWriter.addScan(scan, s -> s);
+          processedScans++;
+        }
+      } else {
+        filterScans(filter, filterParameters, rawDataFileWriter);
+        if (isCanceled()) {
+          return;
         }
-
-        processedScans++;
       }
 
       // Finalize writing
@@ -157,4 +182,118 @@ class ScanFilteringTask extends AbstractTask {
 
   }
 
-}
+  /**
+   * Filters the scans in parallel, in batches of a few scans per thread, and adds the filtered
+   * scans to the new file in their original order. Filters which support it get the data points as
+   * primitive arrays, read directly from the storage of the original file.
+   */
+  private void filterScans(ScanFilter filter, ParameterSet filterParameters,
+      RawDataFileWriter rawDataFileWriter) throws IOException {
+
+    final DataPointArrayFilter arrayFilter =
+        ((filter instanceof DataPointArrayFilter) && (rawDataFileWriter instanceof RawDataFileImpl))
+            ? (DataPointArrayFilter) filter
+            : null;
+    final int batchSize = (ForkJoinPool.getCommonPoolParallelism() + 1) * 4;
+    final ThreadLocal<FilterBuffers> buffers = ThreadLocal.withInitial(FilterBuffers::new);
+
+    final Scan scans[] = new Scan[batchSize];
+    final Scan newScans[] = new Scan[batchSize];
+    final double newMzValues[][] = new double[batchSize][];
+    final double newIntensityValues[][] = new double[batchSize][];
+
+    for (int first = 0; first < totalScans; first += batchSize) {
+
+      if (isCanceled()) {
+        return;
+      }
+
+      final int batchStart = first;
+      final int batchLength = Math.min(batchSize, totalScans - first);
+
+      try {
+        IntStream.range(0, batchLength).parallel().forEach(j -> {
+
+          final Scan scan = dataFile.getScan(scanNumbers[batchStart + j]);
+          scans[j] = scan;
+          newScans[j] = null;
+          newMzValues[j] = null;
+          newIntensityValues[j] = null;
+
+          if (!select.matches(scan)) {
+            // Copy the scan, the new file must not refer to the data of the original file
+            newScans[j] = new SimpleScan(scan);
+          } else if (arrayFilter != null) {
+            final FilterBuffers b = buffers.get();
+            final int numOfDataPoints = b.readDataPoints(scan);
+            final int newNumOfDataPoints = arrayFilter.filterDataPoints(b.mzValues,
+                b.intensityValues, numOfDataPoints, b.newMzValues, b.newIntensityValues,
+                filterParameters);
+            newMzValues[j] = Arrays.copyOf(b.newMzValues, newNumOfDataPoints);
+            newIntensityValues[j] = Arrays.copyOf(b.newIntensityValues, newNumOfDataPoints);
+          } else {
+            newScans[j] = filter.filterScan(scan, filterParameters);
+          }
+        });
+      } catch (UncheckedIOException e) {
+        throw e.getCause();
+      }
+
+      // Write the filtered scans in order
+      for (int j = 0; j < batchLength; j++) {
+        if (newMzValues[j] != null) {
+          final Scan scan = scans[j];
+          final RawDataFileImpl newFile = (RawDataFileImpl) rawDataFileWriter;
+          final int numOfDataPoints = newMzValues[j].length;
+          final int storageID =
+              newFile.storeDataPoints(newMzValues[j], newIntensityValues[j], 0, numOfDataPoints);
+          newFile.addScan(new StorableScan(newFile, storageID, numOfDataPoints,
+              scan.getScanNumber(), scan.getMSLevel(), scan.getRetentionTime(),
+              scan.getPrecursorMZ(), scan.getPrecursorCharge(), scan.getFragmentScanNumbers(),
+              arrayFilter.getFilteredSpectrumType(scan.getSpectrumType()), scan.getPolarity(),
+              scan.getScanDefinition(), scan.getScanningMZRange()));
+        } else if (newScans[j] != null) {
+          rawDataFileWriter.addScan(newScans[j]);
+        }
+        processedScans++;
+      }
+    }
+
+  }
+
+  /**
+   * Work buffers of one thread, reused for all scans it filters
+   */
+  private static final class FilterBuffers {
+
+    private double mzValues[] = new double[0];
+    private double intensityValues[] = new double[0];
+    private double newMzValues[] = new double[0];
+    private double newIntensityValues[] = new double[0];
+
+    /**
+     * Reads the data points of the scan into mzValues and intensityValues. Scans stored by
+     * RawDataFileImpl are read directly from the storage, without creating DataPoint objects.
+     *
+     * @return Number of data points
+     */
+    private int readDataPoints(Scan scan) {
+      ensureCapacity(scan.getNumberOfDataPoints());
+      try {
+        return StorableScan.readDataPoints(scan, mzValues, intensityValues);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    private void ensureCapacity(int numOfDataPoints) {
+      if (mzValues.length < numOfDataPoints) {
+        mzValues = new double[numOfDataPoints];
+        intensityValues = new double[numOfDataPoints];
+        newMzValues = new double[numOfDataPoints];
+        newIntensityValues = new double[numOfDataPoints];
+      }
+    }
+  }
+
+}
\ No newline at end of file
@@ -51,8 +51,14 @@ public class ScanFiltersParameters extends SimpleParameterSet {
       new BooleanParameter("Remove source file after filtering",
           "If checked, original file will be removed and only filtered version remains");
 
+  public static final BooleanParameter virtualFile = new BooleanParameter("Virtual file",
+      "If checked, the filtered file does not store its data points, the filter is applied to "
+          + "the original scans whenever they are read. Not used when the source file is removed "
+          + "after filtering, as the data points would be stored right away",
+      false);
+
   public ScanFiltersParameters() {
-    super(new Parameter[] {dataFiles, scanSelect, suffix, filter, autoRemove});
+    super(new Parameter[] {dataFiles, scanSelect, suffix, filter, autoRemove, virtualFile});
   }
 
 }
@@ -18,85 +18,97 @@
 
 package net.sf.mzmine.modules.rawdatamethods.filtering.scanfilters.mean;
 
-import java.util.Vector;
 import javax.annotation.Nonnull;
 import net.sf.mzmine.datamodel.DataPoint;
 import net.sf.mzmine.datamodel.MassSpectrumType;
 import net.sf.mzmine.datamodel.Scan;
 import net.sf.mzmine.datamodel.impl.SimpleDataPoint;
 import net.sf.mzmine.datamodel.impl.SimpleScan;
-import net.sf.mzmine.modules.rawdatamethods.filtering.scanfilters.ScanFilter;
+import net.sf.mzmine.modules.rawdatamethods.filtering.scanfilters.DataPointArrayFilter;
 import net.sf.mzmine.parameters.ParameterSet;
 
-public class MeanFilter implements ScanFilter {
+public class MeanFilter implements DataPointArrayFilter {
 
   @Override
   public Scan filterScan(Scan sc, ParameterSet parameters) {
 
-    double windowLength =
-        parameters.getParameter(MeanFilterParameters.oneSidedWindowLength).getValue();
+    DataPoint oldDataPoints[] = sc.getDataPoints();
+    double mzValues[] = new double[oldDataPoints.length];
+    double intensityValues[] = new double[oldDataPoints.length];
+    for (int i = 0; i < oldDataPoints.length; i++) {
+      mzValues[i] = oldDataPoints[i].getMZ();
+      intensityValues[i] = oldDataPoints[i].getIntensity();
+    }
 
+    double newIntensityValues[] = new double[oldDataPoints.length];
+    filterDataPoints(mzValues, intensityValues, oldDataPoints.length, mzValues,
+        newIntensityValues, parameters);
 
-    // changed to also allow MS2 if selected in ScanSelection
+    DataPoint newDataPoints[] = new DataPoint[oldDataPoints.length];
+    for (int i = 0; i < oldDataPoints.length; i++) {
+      newDataPoints[i] = new SimpleDataPoint(mzValues[i], newIntensityValues[i]);
+    }
 
-    Vector<Double> massWindow = new Vector<Double>();
-    Vector<Double> intensityWindow = new Vector<Double>();
+    // Create filtered scan
+    Scan newScan = new SimpleScan(sc.getDataFile(), sc.getScanNumber(), sc.getMSLevel(),
+        sc.getRetentionTime(), sc.getPrecursorMZ(), sc.getPrecursorCharge(),
+        sc.getFragmentScanNumbers(), newDataPoints, getFilteredSpectrumType(sc.getSpectrumType()),
+        sc.getPolarity(), sc.getScanDefinition(), sc.getScanningMZRange());
 
-    double currentMass;
-    double lowLimit;
-    double hiLimit;
-    double mzVal;
+    return newScan;
 
-    double elSum;
+  }
 
-    DataPoint oldDataPoints[] = sc.getDataPoints();
-    DataPoint newDataPoints[] = new DataPoint[oldDataPoints.length];
+  /**
+   * Replaces the intensity of each data point by the mean intensity of the data points within the
+   * window around its m/z value. The m/z values are not changed, so newMzValues may be the same
+   * array as mzValues.
+   */
+  @Override
+  public int filterDataPoints(double mzValues[], double intensityValues[], int numOfDataPoints,
+      double newMzValues[], double newIntensityValues[], ParameterSet parameters) {
 
-    int addi = 0;
-    for (int i = 0; i < oldDataPoints.length; i++) {
+    double windowLength =
+        parameters.getParameter(MeanFilterParameters.oneSidedWindowLength).getValue();
+
+    // changed to also allow MS2 if selected in ScanSelection
+
+    // Window of data points from windowStart to windowEnd (exclusive)
+    int windowStart = 0, windowEnd = 0;
+
+    for (int i = 0; i < numOfDataPoints; i++) {
 
-      currentMass = oldDataPoints[i].getMZ();
-      lowLimit = currentMass - windowLength;
-      hiLimit = currentMass + windowLength;
+      double currentMass = mzValues[i];
+      double lowLimit = currentMass - windowLength;
+      double hiLimit = currentMass + windowLength;
 
       // Remove all elements from window whose m/z value is less than the
       // low limit
-      if (massWindow.size() > 0) {
-        mzVal = massWindow.get(0).doubleValue();
-        while ((massWindow.size() > 0) && (mzVal < lowLimit)) {
-          massWindow.remove(0);
-          intensityWindow.remove(0);
-          if (massWindow.size() > 0) {
-            mzVal = massWindow.get(0).doubleValue();
-          }
-        }
-      }
+      while ((windowStart < windowEnd) && (mzValues[windowStart] < lowLimit))
+        windowStart++;
 
       // Add new elements as long as their m/z values are less than the hi
       // limit
-      while ((addi < oldDataPoints.length) && (oldDataPoints[addi].getMZ() <= hiLimit)) {
-        massWindow.add(oldDataPoints[addi].getMZ());
-        intensityWindow.add(oldDataPoints[addi].getIntensity());
-        addi++;
-      }
+      while ((windowEnd < numOfDataPoints) && (mzValues[windowEnd] <= hiLimit))
+        windowEnd++;
 
-      elSum = 0;
-      for (int j = 0; j < intensityWindow.size(); j++) {
-        elSum += (intensityWindow.get(j)).doubleValue();
+      double elSum = 0;
+      for (int j = windowStart; j < windowEnd; j++) {
+        elSum += intensityValues[j];
       }
 
-      newDataPoints[i] = new SimpleDataPoint(currentMass, elSum / intensityWindow.size());
+      newMzValues[i] = currentMass;
+      newIntensityValues[i] = elSum / (windowEnd - windowStart);
 
     }
 
-    // Create filtered scan
-    Scan newScan = new SimpleScan(sc.getDataFile(), sc.getScanNumber(), sc.getMSLevel(),
-        sc.getRetentionTime(), sc.getPrecursorMZ(), sc.getPrecursorCharge(),
-        sc.getFragmentScanNumbers(), newDataPoints, MassSpectrumType.CENTROIDED, sc.getPolarity(),
-        sc.getScanDefinition(), sc.getScanningMZRange());
+    return numOfDataPoints;
 
-    return newScan;
+  }
 
+  @Override
+  public MassSpectrumType getFilteredSpectrumType(MassSpectrumType spectrumType) {
+    return MassSpectrumType.CENTROIDED;
   }
 
   @Override
@@ -24,10 +24,10 @@ import net.sf.mzmine.datamodel.DataPoint;
 import net.sf.mzmine.datamodel.Scan;
 import net.sf.mzmine.datamodel.impl.SimpleDataPoint;
 import net.sf.mzmine.datamodel.impl.SimpleScan;
-import net.sf.mzmine.modules.rawdatamethods.filtering.scanfilters.ScanFilter;
+import net.sf.mzmine.modules.rawdatamethods.filtering.scanfilters.DataPointArrayFilter;
 import net.sf.mzmine.parameters.ParameterSet;
 
-public class SGFilter implements ScanFilter {
+public class SGFilter implements DataPointArrayFilter {
 
   private static final Hashtable<Integer, Integer> Hvalues = new Hashtable<Integer, Integer>();
   private static final Hashtable<Integer, int[]> Avalues = new Hashtable<Integer, int[]>();
@@ -73,43 +73,77 @@ public class SGFilter implements ScanFilter {
   @Override
   public Scan filterScan(Scan scan, ParameterSet parameters) {
 
-    int numOfDataPoints = parameters.getParameter(SGFilterParameters.datapoints).getValue();
+    DataPoint oldDataPoints[] = scan.getDataPoints();
+    double mzValues[] = new double[oldDataPoints.length];
+    double intensityValues[] = new double[oldDataPoints.length];
+    for (int i = 0; i < oldDataPoints.length; i++) {
+      mzValues[i] = oldDataPoints[i].getMZ();
+      intensityValues[i] = oldDataPoints[i].getIntensity();
+    }
+
+    double newMzValues[] = new double[oldDataPoints.length];
+    double newIntensityValues[] = new double[oldDataPoints.length];
+    int newDataPointsLength = filterDataPoints(mzValues, intensityValues, oldDataPoints.length,
+        newMzValues, newIntensityValues, parameters);
+
+    // only process scans with datapoints
+    if (newDataPointsLength == oldDataPoints.length) {
+      return scan;
+    }
 
-    assert Avalues.containsKey(numOfDataPoints);
-    assert Hvalues.containsKey(numOfDataPoints);
+    DataPoint newDataPoints[] = new DataPoint[newDataPointsLength];
+    for (int i = 0; i < newDataPointsLength; i++) {
+      newDataPoints[i] = new SimpleDataPoint(newMzValues[i], newIntensityValues[i]);
+    }
 
-    int[] aVals = Avalues.get(numOfDataPoints);
-    int h = Hvalues.get(numOfDataPoints).intValue();
+    SimpleScan newScan = new SimpleScan(scan);
+    newScan.setDataPoints(newDataPoints);
+    return newScan;
+
+  }
+
+  @Override
+  public int filterDataPoints(double mzValues[], double intensityValues[], int numOfDataPoints,
+      double newMzValues[], double newIntensityValues[], ParameterSet parameters) {
+
+    int windowSize = parameters.getParameter(SGFilterParameters.datapoints).getValue();
+
+    assert Avalues.containsKey(windowSize);
+    assert Hvalues.containsKey(windowSize);
+
+    int[] aVals = Avalues.get(windowSize);
+    int h = Hvalues.get(windowSize).intValue();
 
     // changed to also allow MS2 if selected in ScanSelection
 
-    int marginSize = (numOfDataPoints + 1) / 2 - 1;
+    int marginSize = (windowSize + 1) / 2 - 1;
     double sumOfInts;
 
-    DataPoint oldDataPoints[] = scan.getDataPoints();
-    int newDataPointsLength = oldDataPoints.length - (marginSize * 2);
+    int newDataPointsLength = numOfDataPoints - (marginSize * 2);
 
     // only process scans with datapoints
     if (newDataPointsLength < 1) {
-      return scan;
+      System.arraycopy(mzValues, 0, newMzValues, 0, numOfDataPoints);
+      System.arraycopy(intensityValues, 0, newIntensityValues, 0, numOfDataPoints);
+      return numOfDataPoints;
     }
 
-    DataPoint newDataPoints[] = new DataPoint[newDataPointsLength];
-
     for (int spectrumInd =
-        marginSize; spectrumInd < (oldDataPoints.length - marginSize); spectrumInd++) {
+        marginSize; spectrumInd < (numOfDataPoints - marginSize); spectrumInd++) {
+
+      newMzValues[spectrumInd - marginSize] = mzValues[spectrumInd];
 
       // zero intensity data points must be left unchanged
-      if (oldDataPoints[spectrumInd].getIntensity() == 0) {
-        newDataPoints[spectrumInd - marginSize] = oldDataPoints[spectrumInd];
+      if (intensityValues[spectrumInd] == 0) {
+        newIntensityValues[spectrumInd - marginSize] = 0;
         continue;
       }
 
-      sumOfInts = aVals[0] * oldDataPoints[spectrumInd].getIntensity();
+      sumOfInts = aVals[0] * intensityValues[spectrumInd];
 
       for (int windowInd = 1; windowInd <= marginSize; windowInd++) {
-        sumOfInts += aVals[windowInd] * (oldDataPoints[spectrumInd + windowInd].getIntensity()
-            + oldDataPoints[spectrumInd - windowInd].getIntensity());
+        sumOfInts += aVals[windowInd]
+            * (intensityValues[spectrumInd + windowInd] + intensityValues[spectrumInd - windowInd]);
       }
 
       sumOfInts = sumOfInts / h;
@@ -117,14 +151,11 @@ public class SGFilter implements ScanFilter {
       if (sumOfInts < 0) {
         sumOfInts = 0;
       }
-      newDataPoints[spectrumInd - marginSize] =
-          new SimpleDataPoint(oldDataPoints[spectrumInd].getMZ(), sumOfInts);
+      newIntensityValues[spectrumInd - marginSize] = sumOfInts;
 
     }
 
-    SimpleScan newScan = new SimpleScan(scan);
-    newScan.setDataPoints(newDataPoints);
-    return newScan;
+    return newDataPointsLength;
 
   }
 
@@ -57,9 +57,15 @@ public class ScanSmoothingParameters extends SimpleParameterSet {
   public static final StringParameter suffix =
       new StringParameter("Suffix", "This string is added to filename as suffix", "smooth");
 
+  public static final BooleanParameter virtualFile = new BooleanParameter("Virtual file",
+      "If checked, the smoothed file does not store its data points, the scans are smoothed "
+          + "when they are read. Not used when the previous files are removed, as the data points "
+          + "would be stored right away",
+      false);
+
   public ScanSmoothingParameters() {
     super(new Parameter[] {dataFiles, suffix, timeSpan, scanSpan, mzTolerance, mzPoints,
-        minimumHeight, removeOld});
+        minimumHeight, removeOld, virtualFile});
   }
 
 }
@@ -19,17 +19,25 @@
 package net.sf.mzmine.modules.rawdatamethods.filtering.scansmoothing;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntConsumer;
 import java.util.logging.Logger;
+import java.util.stream.IntStream;
 
 import net.sf.mzmine.datamodel.DataPoint;
 import net.sf.mzmine.datamodel.MZmineProject;
 import net.sf.mzmine.datamodel.RawDataFile;
 import net.sf.mzmine.datamodel.RawDataFileWriter;
 import net.sf.mzmine.datamodel.Scan;
+import net.sf.mzmine.datamodel.VirtualRawDataFileWriter;
 import net.sf.mzmine.datamodel.impl.SimpleDataPoint;
 import net.sf.mzmine.datamodel.impl.SimpleScan;
 import net.sf.mzmine.main.MZmineCore;
 import net.sf.mzmine.parameters.ParameterSet;
+import net.sf.mzmine.project.impl.RawDataFileImpl;
+import net.sf.mzmine.project.impl.StorableScan;
 import net.sf.mzmine.taskcontrol.AbstractTask;
 import net.sf.mzmine.taskcontrol.TaskStatus;
 
@@ -37,6 +45,9 @@ public class ScanSmoothingTask extends AbstractTask {
 
   private Logger logger = Logger.getLogger(this.getClass().getName());
 
+  // Minimum number of data points to split a scan between threads
+  private static final int MIN_PARALLEL_DATA_POINTS = 10000;
+
   private final MZmineProject project;
   private final RawDataFile dataFile;
 
@@ -51,6 +62,7 @@ public class ScanSmoothingTask extends AbstractTask {
   private int mzPoints;
   private double mzTol;
   private boolean removeOriginal;
+  private boolean virtualFile;
   RawDataFile newRDF = null;
 
   /**
@@ -69,6 +81,9 @@ public class ScanSmoothingTask extends AbstractTask {
     this.minimumHeight = parameters.getParameter(ScanSmoothingParameters.minimumHeight).getValue();
     this.suffix = parameters.getParameter(ScanSmoothingParameters.suffix).getValue();
     this.removeOriginal = parameters.getParameter(ScanSmoothingParameters.removeOld).getValue();
+    // With the original file removed, a virtual file would store its data points right away
+    this.virtualFile =
+        parameters.getParameter(ScanSmoothingParameters.virtualFile).getValue() && !removeOriginal;
 
   }
 
@@ -106,133 +121,49 @@ public class ScanSmoothingTask extends AbstractTask {
     totalScans = scanNumbers.length;
 
     RawDataFileWriter newRDFW = null;
+    VirtualRawDataFileWriter virtualRDFW = null;
     int timepassed = 0;
     int mzpassed = 0;
     try {
-      newRDFW = MZmineCore.createNewFile(dataFile.getName() + ' ' + suffix);
+      if (virtualFile) {
+        virtualRDFW =
+            MZmineCore.createNewVirtualFile(dataFile.getName() + ' ' + suffix, dataFile, true);
+        newRDFW = virtualRDFW;
+      } else {
+        newRDFW = MZmineCore.createNewFile(dataFile.getName() + ' ' + suffix);
+      }
 
-      DataPoint mzValues[][] = null; // [relative scan][j value]
-      int i, j, si, sj, ii, k, ssi, ssj;
-      for (i = 0; i < totalScans; i++) {
+      // Neighbouring scans of the materialized file, each scan is read once
+      final ScanWindow scanWindow = new ScanWindow();
+
+      for (int i = 0; i < totalScans; i++) {
 
         if (isCanceled())
           return;
 
-        // Smoothing in TIME space
         Scan scan = dataFile.getScan(scanNumbers[i]);
         if (scan != null) {
-          double rt = scan.getRetentionTime();
-          final SimpleScan newScan = new SimpleScan(scan);
-          DataPoint[] newDP = null;
-          sj = si = i;
-          ssi = ssj = i;
+
+          // Scans without any neighbours in the time window are dropped
           if (timeSpan > 0 || scanSpan > 0) {
-            double timeMZtol = Math.max(mzTol, 1e-5);
-            for (si = i; si > 1; si--) {
-              Scan scanS = dataFile.getScan(scanNumbers[si - 1]);
-              if (scanS == null || scanS.getRetentionTime() < rt - timeSpan / 2) {
-                break;
-              }
-            }
-            for (sj = i; sj < totalScans - 1; sj++) {
-              Scan scanS = dataFile.getScan(scanNumbers[sj + 1]);
-              if (scanS == null || scanS.getRetentionTime() >= rt + timeSpan / 2) {
-                break;
-              }
+            int window[] = getTimeWindow(i);
+            if (window[1] <= window[0]) {
+              processedScans++;
+              continue;
             }
-            ssi = i - (scanSpan - 1) / 2;
-            ssj = i + (scanSpan - 1) / 2;
-            if (ssi < 0) {
-              ssj += -ssi;
-              ssi = 0;
-            }
-            if (ssj >= totalScans) {
-              ssi -= (ssj - totalScans + 1);
-              ssj = totalScans - 1;
-            }
-            if (sj - si + 1 < scanSpan) {
-              si = ssi;
-              sj = ssj;
-              // si = Math.min(si, ssi);
-              // sj = Math.max(sj, ssj);
-            }
-            if (sj > si) {
-              timepassed++;
-              // Allocate
-              if (mzValues == null || mzValues.length < sj - si + 1)
-                mzValues = new DataPoint[sj - si + 1][];
-              // Load Data Points
-              for (j = si; j <= sj; j++) {
-                Scan xscan = dataFile.getScan(scanNumbers[j]);
-                mzValues[j - si] = xscan.getDataPoints();
-              }
-              // Estimate Averages
-              ii = i - si;
-              newDP = new DataPoint[mzValues[ii].length];
-              for (k = 0; k < mzValues[ii].length; k++) {
-                DataPoint dp = mzValues[ii][k];
-                double mz = dp.getMZ();
-                double intensidad = 0;
-                if (dp.getIntensity() > 0) { // only process
-                  // those > 0
-                  double a = 0;
-                  short c = 0;
-                  int f = 0;
-                  for (j = 0; j < mzValues.length; j++) {
-                    // System.out.println(j);
-                    if (mzValues[j].length > k
-                        && Math.abs(mzValues[j][k].getMZ() - mz) < timeMZtol) {
-                      f = k;
-                    } else {
-                      f = findFirstMass(mz, mzValues[j]);
-                      if (Math.abs(mzValues[j][f].getMZ() - mz) > timeMZtol) {
-                        f = -f;
-                      }
-                    }
-                    if (f >= 0 && mzValues[j][f].getIntensity() >= minimumHeight) {
-                      a += mzValues[j][f].getIntensity();
-                      c++;
-                    } else {
-                      c = (short) (c + 0);
-                    }
-                  }
-                  intensidad = c > 0 ? a / c : 0;
-                }
-                newDP[k] = new SimpleDataPoint(mz, intensidad);
-              }
-            }
-          } else if (scan != null) {
-            newDP = scan.getDataPoints();
+            timepassed++;
           }
-
-          // Smoothing in MZ space
-
-          if ((mzTol > 0 || mzPoints > 0)) {
+          if (mzTol > 0 || mzPoints > 0)
             mzpassed++;
-            DataPoint[] updatedDP = new DataPoint[newDP.length];
-            for (k = 0; k < newDP.length; k++) {
-              double mz = newDP[k].getMZ();
-              double intensidad = 0;
-              if (newDP[k].getIntensity() > 0) {
-                for (si = k; si > 0
-                    && (newDP[si].getMZ() + mzTol >= mz || k - si <= mzPoints); si--);
-                for (sj = k; sj < newDP.length - 1
-                    && (newDP[sj].getMZ() - mzTol <= mz || sj - k <= mzPoints); sj++);
-                double sum = 0;
-                for (j = si; j <= sj; j++) {
-                  sum += newDP[j].getIntensity();
-                }
-                intensidad = sum / (sj - si + 1);
-              }
-              updatedDP[k] = new SimpleDataPoint(mz, intensidad);
-            }
-            newDP = updatedDP;
-          }
 
-          // Register new smoothing data
-          if (scan != null && newDP != null) {
-            newScan.setDataPoints(newDP);
-            newRDFW.addScan(newScan);
+          // Virtual scans are smoothed when their data points are read
+          if (virtualFile) {
+            final int scanIndex = i;
+            virtualRDFW.addScan(scan, s -> smoothScan(scanIndex));
+          } else {
+            ScanData smoothed = smoothDataPoints(i, scanWindow, true);
+            if (smoothed != null)
+              addSmoothedScan(newRDFW, scan, smoothed);
           }
         }
         processedScans++;
@@ -262,21 +193,315 @@ public class ScanSmoothingTask extends AbstractTask {
 
       }
 
-    } catch (IOException e) {
+    } catch (IOException | UncheckedIOException e) {
       e.printStackTrace();
     }
 
   }
 
-  static int findFirstMass(double mass, DataPoint mzValues[]) {
+  /**
+   * Returns the indexes of the first and last scan of the time window around scan i
+   */
+  private int[] getTimeWindow(int i) {
+    double rt = dataFile.getScan(scanNumbers[i]).getRetentionTime();
+    int si, sj, ssi, ssj;
+    for (si = i; si > 1; si--) {
+      Scan scanS = dataFile.getScan(scanNumbers[si - 1]);
+      if (scanS == null || scanS.getRetentionTime() < rt - timeSpan / 2) {
+        break;
+      }
+    }
+    for (sj = i; sj < totalScans - 1; sj++) {
+      Scan scanS = dataFile.getScan(scanNumbers[sj + 1]);
+      if (scanS == null || scanS.getRetentionTime() >= rt + timeSpan / 2) {
+        break;
+      }
+    }
+    ssi = i - (scanSpan - 1) / 2;
+    ssj = i + (scanSpan - 1) / 2;
+    if (ssi < 0) {
+      ssj += -ssi;
+      ssi = 0;
+    }
+    if (ssj >= totalScans) {
+      ssi -= (ssj - totalScans + 1);
+      ssj = totalScans - 1;
+    }
+    if (sj - si + 1 < scanSpan) {
+      si = ssi;
+      sj = ssj;
+      // si = Math.min(si, ssi);
+      // sj = Math.max(sj, ssj);
+    }
+    return new int[] {si, sj};
+  }
+
+  /**
+   * Returns a copy of scan i with smoothed data points, or null if the scan has no neighbours in
+   * the time window. Reads only the data file, so virtual scans can call it from any thread.
+   */
+  private Scan smoothScan(int i) {
+    final ScanData smoothed = smoothDataPoints(i, new ScanWindow(), false);
+    if (smoothed == null)
+      return null;
+    final SimpleScan newScan = new SimpleScan(dataFile.getScan(scanNumbers[i]));
+    newScan.setDataPoints(smoothed.toDataPoints());
+    return newScan;
+  }
+
+  /**
+   * Returns the smoothed data points of scan i, or null if the scan has no neighbours in the time
+   * window
+   * 
+   * @param scanWindow data points of the neighbouring scans, moved to the time window of scan i
+   * @param parallel process chunks of the data points in parallel
+   */
+  private ScanData smoothDataPoints(int i, ScanWindow scanWindow, boolean parallel) {
+
+    ScanData newData;
+
+    // Smoothing in TIME space
+    if (timeSpan > 0 || scanSpan > 0) {
+      int window[] = getTimeWindow(i);
+      int si = window[0];
+      int sj = window[1];
+      if (sj <= si)
+        return null;
+      scanWindow.moveTo(si, sj);
+      newData = smoothInTime(scanWindow.getScans(si, sj), i - si, parallel);
+    } else {
+      newData = new ScanData(dataFile.getScan(scanNumbers[i]));
+    }
+
+    // Smoothing in MZ space
+    if ((mzTol > 0 || mzPoints > 0)) {
+      newData = smoothInMZ(newData, parallel);
+    }
+
+    return newData;
+  }
+
+  /**
+   * Replaces the intensity of each data point of scan ii by the average intensity of the data
+   * points with the same m/z in the scans of the window
+   */
+  private ScanData smoothInTime(ScanData scans[], int ii, boolean parallel) {
+
+    final double timeMZtol = Math.max(mzTol, 1e-5);
+    final ScanData scan = scans[ii];
+    final int numOfDataPoints = scan.mzValues.length;
+    final double newIntensityValues[] = new double[numOfDataPoints];
+
+    forEachDataPoint(numOfDataPoints, parallel, k -> {
+      final double mz = scan.mzValues[k];
+      double intensidad = 0;
+      if (scan.intensityValues[k] > 0) { // only process those > 0
+        double a = 0;
+        int c = 0;
+        int f = 0;
+        for (ScanData s : scans) {
+          if (s.mzValues.length == 0)
+            continue;
+          if (s.mzValues.length > k && Math.abs(s.mzValues[k] - mz) < timeMZtol) {
+            f = k;
+          } else {
+            f = findFirstMass(mz, s.mzValues);
+            if (Math.abs(s.mzValues[f] - mz) > timeMZtol) {
+              f = -f;
+            }
+          }
+          if (f >= 0 && s.intensityValues[f] >= minimumHeight) {
+            a += s.intensityValues[f];
+            c++;
+          }
+        }
+        intensidad = c > 0 ? a / c : 0;
+      }
+      newIntensityValues[k] = intensidad;
+    });
+
+    return new ScanData(scan.mzValues, newIntensityValues);
+  }
+
+  /**
+   * Replaces the intensity of each data point by the average intensity of its neighbours within
+   * the m/z tolerance or number of m/z points
+   */
+  private ScanData smoothInMZ(ScanData scan, boolean parallel) {
+
+    final double mzValues[] = scan.mzValues;
+    final double intensityValues[] = scan.intensityValues;
+    final int numOfDataPoints = mzValues.length;
+    final double newIntensityValues[] = new double[numOfDataPoints];
+
+    forEachDataPoint(numOfDataPoints, parallel, k -> {
+      final double mz = mzValues[k];
+      double intensidad = 0;
+      if (intensityValues[k] > 0) {
+        int si, sj;
+        for (si = k; si > 0 && (mzValues[si] + mzTol >= mz || k - si <= mzPoints); si--);
+        for (sj = k; sj < numOfDataPoints - 1
+            && (mzValues[sj] - mzTol <= mz || sj - k <= mzPoints); sj++);
+        double sum = 0;
+        for (int j = si; j <= sj; j++) {
+          sum += intensityValues[j];
+        }
+        intensidad = sum / (sj - si + 1);
+      }
+      newIntensityValues[k] = intensidad;
+    });
+
+    return new ScanData(mzValues, newIntensityValues);
+  }
+
+  /**
+   * Runs the action for each data point index, in parallel chunks if requested and the scan is
+   * large enough
+   */
+  private static void forEachDataPoint(int numOfDataPoints, boolean parallel, IntConsumer action) {
+    if (!parallel || numOfDataPoints < MIN_PARALLEL_DATA_POINTS) {
+      for (int k = 0; k < numOfDataPoints; k++)
+        action.accept(k);
+      return;
+    }
+    final int numOfChunks = (ForkJoinPool.getCommonPoolParallelism() + 1) * 4;
+    final int chunkSize = (numOfDataPoints + numOfChunks - 1) / numOfChunks;
+    IntStream.range(0, numOfChunks).parallel().forEach(chunk -> {
+      final int end = Math.min(numOfDataPoints, (chunk + 1) * chunkSize);
+      for (int k = chunk * chunkSize; k < end; k++)
+        action.accept(k);
+    });
+  }
+
+  /**
+   * Adds a scan with the smoothed data points to the new file. Data points are stored directly in
+   * a RawDataFileImpl, without creating DataPoint objects.
+   */
+  private void addSmoothedScan(RawDataFileWriter newRDFW, Scan scan, ScanData smoothed)
+      throws IOException {
+    if (newRDFW instanceof RawDataFileImpl) {
+      final RawDataFileImpl newFile = (RawDataFileImpl) newRDFW;
+      final int numOfDataPoints = smoothed.mzValues.length;
+      final int storageID = newFile.storeDataPoints(smoothed.mzValues, smoothed.intensityValues,
+          0, numOfDataPoints);
+      newFile.addScan(new StorableScan(newFile, storageID, numOfDataPoints, scan.getScanNumber(),
+          scan.getMSLevel(), scan.getRetentionTime(), scan.getPrecursorMZ(),
+          scan.getPrecursorCharge(), scan.getFragmentScanNumbers(), scan.getSpectrumType(),
+          scan.getPolarity(), scan.getScanDefinition(), scan.getScanningMZRange()));
+    } else {
+      final SimpleScan newScan = new SimpleScan(scan);
+      newScan.setDataPoints(smoothed.toDataPoints());
+      newRDFW.addScan(newScan);
+    }
+  }
+
+  /**
+   * Data points of one scan as primitive arrays
+   */
+  private static final class ScanData {
+
+    private final double mzValues[], intensityValues[];
+
+    private ScanData(double mzValues[], double intensityValues[]) {
+      this.mzValues = mzValues;
+      this.intensityValues = intensityValues;
+    }
+
+    /**
+     * Reads the data points of the scan, see StorableScan.readDataPoints()
+     */
+    private ScanData(Scan scan) {
+      final int numOfDataPoints = scan.getNumberOfDataPoints();
+      final double readMzValues[] = new double[numOfDataPoints];
+      final double readIntensityValues[] = new double[numOfDataPoints];
+      try {
+        final int numOfRead = StorableScan.readDataPoints(scan, readMzValues, readIntensityValues);
+        if (numOfRead == numOfDataPoints) {
+          mzValues = readMzValues;
+          intensityValues = readIntensityValues;
+        } else {
+          mzValues = Arrays.copyOf(readMzValues, numOfRead);
+          intensityValues = Arrays.copyOf(readIntensityValues, numOfRead);
+        }
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    private DataPoint[] toDataPoints() {
+      final DataPoint dataPoints[] = new DataPoint[mzValues.length];
+      for (int i = 0; i < dataPoints.length; i++)
+        dataPoints[i] = new SimpleDataPoint(mzValues[i], intensityValues[i]);
+      return dataPoints;
+    }
+  }
+
+  /**
+   * Data points of the scans from index first to first + size - 1, kept in a ring buffer. While the
+   * window slides over the file, the scans entering the window are read and the scans leaving it
+   * are released, so each scan is read only once.
+   */
+  private final class ScanWindow {
+
+    private ScanData buffer[] = new ScanData[16];
+    private int head = 0, first = 0, size = 0;
+
+    /**
+     * Makes sure the scans from index si to sj are loaded
+     */
+    private void moveTo(int si, int sj) {
+
+      // The window may move back when switching between time span and scan span
+      if ((si < first) || (si > first + size)) {
+        Arrays.fill(buffer, null);
+        head = 0;
+        first = si;
+        size = 0;
+      }
+
+      // Release the scans leaving the window
+      while (first < si) {
+        buffer[head] = null;
+        head = (head + 1) % buffer.length;
+        first++;
+        size--;
+      }
+
+      // Read the scans entering the window
+      while (first + size <= sj) {
+        if (size == buffer.length) {
+          ScanData newBuffer[] = new ScanData[buffer.length * 2];
+          for (int j = 0; j < size; j++)
+            newBuffer[j] = buffer[(head + j) % buffer.length];
+          buffer = newBuffer;
+          head = 0;
+        }
+        buffer[(head + size) % buffer.length] =
+            new ScanData(dataFile.getScan(scanNumbers[first + size]));
+        size++;
+      }
+    }
+
+    /**
+     * Returns the loaded scans from index si to sj
+     */
+    private ScanData[] getScans(int si, int sj) {
+      final ScanData scans[] = new ScanData[sj - si + 1];
+      for (int j = si; j <= sj; j++)
+        scans[j - si] = buffer[(head + j - first) % buffer.length];
+      return scans;
+    }
+  }
+
+  static int findFirstMass(double mass, double mzValues[]) {
     int l = 0;
     int r = mzValues.length - 1;
     int mid = 0;
     while (l < r) {
       mid = (r + l) / 2;
-      if (mzValues[mid].getMZ() > mass) {
+      if (mzValues[mid] > mass) {
         r = mid - 1;
-      } else if (mzValues[mid].getMZ() < mass) {
+      } else if (mzValues[mid] < mass) {
         l = mid + 1;
       } else {
         r = mid;
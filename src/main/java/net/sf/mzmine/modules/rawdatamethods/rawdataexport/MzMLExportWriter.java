@@ -0,0 +1,362 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.modules.rawdatamethods.rawdataexport;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.zip.Deflater;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import com.google.common.collect.Range;
+
+import net.sf.mzmine.datamodel.DataPoint;
+import net.sf.mzmine.datamodel.MassSpectrumType;
+import net.sf.mzmine.datamodel.RawDataFile;
+import net.sf.mzmine.datamodel.Scan;
+import net.sf.mzmine.main.MZmineCore;
+import net.sf.mzmine.project.impl.StorableScan;
+
+/**
+ * Writes the scans of a raw data file to an mzML file. The scans are streamed one by one: the data
+ * points are read from the storage of the raw data file into primitive float arrays and encoded as
+ * zlib compressed 32-bit binary arrays, which is the precision they are stored with.
+ */
+class MzMLExportWriter {
+
+  private static final String MZML_NAMESPACE = "http://psi.hupo.org/ms/mzml";
+
+  private final RawDataFile dataFile;
+  private final File outFile;
+
+  private float mzValues[] = new float[0], intensityValues[] = new float[0];
+  private final Deflater deflater = new Deflater();
+  private byte compressed[] = new byte[0];
+
+  private volatile int processedScans, totalScans;
+  private volatile boolean canceled = false;
+
+  MzMLExportWriter(RawDataFile dataFile, File outFile) {
+    this.dataFile = dataFile;
+    this.outFile = outFile;
+  }
+
+  double getFinishedPercentage() {
+    if (totalScans == 0)
+      return 0;
+    return (double) processedScans / totalScans;
+  }
+
+  void cancel() {
+    canceled = true;
+  }
+
+  /**
+   * Writes the mzML file. If the writer is canceled or fails, the incomplete file is deleted.
+   */
+  void write() throws IOException, XMLStreamException {
+
+    final int scanNumbers[] = dataFile.getScanNumbers();
+    totalScans = scanNumbers.length;
+
+    boolean finished = false;
+    try (OutputStream out = new BufferedOutputStream(new FileOutputStream(outFile), 1 << 16)) {
+
+      XMLStreamWriter xml = XMLOutputFactory.newInstance().createXMLStreamWriter(out, "UTF-8");
+      try {
+        xml.writeStartDocument("UTF-8", "1.0");
+        xml.writeCharacters("\n");
+        xml.writeStartElement("mzML");
+        xml.writeDefaultNamespace(MZML_NAMESPACE);
+        xml.writeAttribute("version", "1.1.0");
+        xml.writeAttribute("id", dataFile.getName());
+
+        writeHeader(xml);
+
+        xml.writeStartElement("run");
+        xml.writeAttribute("id", dataFile.getName());
+        xml.writeAttribute("defaultInstrumentConfigurationRef", "IC1");
+
+        xml.writeStartElement("spectrumList");
+        xml.writeAttribute("count", String.valueOf(scanNumbers.length));
+        xml.writeAttribute("defaultDataProcessingRef", "MZmine_export");
+
+        for (int index = 0; index < scanNumbers.length; index++) {
+          if (canceled)
+            return;
+          writeSpectrum(xml, dataFile.getScan(scanNumbers[index]), index);
+          processedScans++;
+        }
+
+        xml.writeEndElement(); // spectrumList
+        xml.writeEndElement(); // run
+        xml.writeEndElement(); // mzML
+        xml.writeEndDocument();
+        xml.flush();
+        finished = true;
+      } finally {
+        xml.close();
+        deflater.end();
+      }
+    } finally {
+      // The stream is closed at this point, so the file can be deleted on all platforms
+      if (!finished)
+        outFile.delete();
+    }
+  }
+
+  private void writeHeader(XMLStreamWriter xml) throws XMLStreamException {
+
+    xml.writeStartElement("cvList");
+    xml.writeAttribute("count", "2");
+    xml.writeEmptyElement("cv");
+    xml.writeAttribute("id", "MS");
+    xml.writeAttribute("fullName", "Proteomics Standards Initiative Mass Spectrometry Ontology");
+    xml.writeAttribute("URI",
+        "https://raw.githubusercontent.com/HUPO-PSI/psi-ms-CV/master/psi-ms.obo");
+    xml.writeEmptyElement("cv");
+    xml.writeAttribute("id", "UO");
+    xml.writeAttribute("fullName", "Unit Ontology");
+    xml.writeAttribute("URI", "http://ontologies.berkeleybop.org/uo.obo");
+    xml.writeEndElement();
+
+    xml.writeStartElement("fileDescription");
+    xml.writeStartElement("fileContent");
+    writeCVParam(xml, "MS:1000579", "MS1 spectrum", null);
+    if (dataFile.getNumOfScans(2) > 0)
+      writeCVParam(xml, "MS:1000580", "MSn spectrum", null);
+    xml.writeEndElement();
+    xml.writeEndElement();
+
+    xml.writeStartElement("softwareList");
+    xml.writeAttribute("count", "1");
+    xml.writeStartElement("software");
+    xml.writeAttribute("id", "MZmine");
+    xml.writeAttribute("version", String.valueOf(MZmineCore.getMZmineVersion()));
+    writeCVParam(xml, "MS:1002342", "MZmine", null);
+    xml.writeEndElement();
+    xml.writeEndElement();
+
+    xml.writeStartElement("instrumentConfigurationList");
+    xml.writeAttribute("count", "1");
+    xml.writeStartElement("instrumentConfiguration");
+    xml.writeAttribute("id", "IC1");
+    writeCVParam(xml, "MS:1000031", "instrument model", null);
+    xml.writeEndElement();
+    xml.writeEndElement();
+
+    xml.writeStartElement("dataProcessingList");
+    xml.writeAttribute("count", "1");
+    xml.writeStartElement("dataProcessing");
+    xml.writeAttribute("id", "MZmine_export");
+    xml.writeStartElement("processingMethod");
+    xml.writeAttribute("order", "0");
+    xml.writeAttribute("softwareRef", "MZmine");
+    writeCVParam(xml, "MS:1000544", "Conversion to mzML", null);
+    xml.writeEndElement();
+    xml.writeEndElement();
+    xml.writeEndElement();
+  }
+
+  private void writeSpectrum(XMLStreamWriter xml, Scan scan, int index)
+      throws IOException, XMLStreamException {
+
+    final int numOfDataPoints = readDataPoints(scan);
+
+    xml.writeStartElement("spectrum");
+    xml.writeAttribute("index", String.valueOf(index));
+    xml.writeAttribute("id", "scan=" + scan.getScanNumber());
+    xml.writeAttribute("defaultArrayLength", String.valueOf(numOfDataPoints));
+
+    final int msLevel = scan.getMSLevel();
+    writeCVParam(xml, "MS:1000511", "ms level", String.valueOf(msLevel));
+    if (msLevel > 1)
+      writeCVParam(xml, "MS:1000580", "MSn spectrum", null);
+    else
+      writeCVParam(xml, "MS:1000579", "MS1 spectrum", null);
+
+    if (scan.getSpectrumType() == MassSpectrumType.CENTROIDED)
+      writeCVParam(xml, "MS:1000127", "centroid spectrum", null);
+    else
+      writeCVParam(xml, "MS:1000128", "profile spectrum", null);
+
+    switch (scan.getPolarity()) {
+      case POSITIVE:
+        writeCVParam(xml, "MS:1000130", "positive scan", null);
+        break;
+      case NEGATIVE:
+        writeCVParam(xml, "MS:1000129", "negative scan", null);
+        break;
+      default:
+        break;
+    }
+
+    writeCVParam(xml, "MS:1000285", "total ion current", String.valueOf(scan.getTIC()));
+    DataPoint basePeak = scan.getHighestDataPoint();
+    if (basePeak != null) {
+      writeCVParam(xml, "MS:1000504", "base peak m/z", String.valueOf(basePeak.getMZ()));
+      writeCVParam(xml, "MS:1000505", "base peak intensity",
+          String.valueOf(basePeak.getIntensity()));
+    }
+
+    // Scan time and window
+    xml.writeStartElement("scanList");
+    xml.writeAttribute("count", "1");
+    writeCVParam(xml, "MS:1000795", "no combination", null);
+    xml.writeStartElement("scan");
+    xml.writeStartElement("cvParam");
+    xml.writeAttribute("cvRef", "MS");
+    xml.writeAttribute("accession", "MS:1000016");
+    xml.writeAttribute("name", "scan start time");
+    xml.writeAttribute("value", String.valueOf(scan.getRetentionTime()));
+    xml.writeAttribute("unitCvRef", "UO");
+    xml.writeAttribute("unitAccession", "UO:0000031");
+    xml.writeAttribute("unitName", "minute");
+    xml.writeEndElement();
+    if ((scan.getScanDefinition() != null) && (!scan.getScanDefinition().isEmpty()))
+      writeCVParam(xml, "MS:1000512", "filter string", scan.getScanDefinition());
+    Range<Double> scanningRange = scan.getScanningMZRange();
+    if (scanningRange != null) {
+      xml.writeStartElement("scanWindowList");
+      xml.writeAttribute("count", "1");
+      xml.writeStartElement("scanWindow");
+      writeCVParam(xml, "MS:1000501", "scan window lower limit",
+          String.valueOf(scanningRange.lowerEndpoint()));
+      writeCVParam(xml, "MS:1000500", "scan window upper limit",
+          String.valueOf(scanningRange.upperEndpoint()));
+      xml.writeEndElement();
+      xml.writeEndElement();
+    }
+    xml.writeEndElement(); // scan
+    xml.writeEndElement(); // scanList
+
+    // Precursor of MS/MS scans
+    if ((msLevel > 1) && (scan.getPrecursorMZ() > 0)) {
+      xml.writeStartElement("precursorList");
+      xml.writeAttribute("count", "1");
+      xml.writeStartElement("precursor");
+      xml.writeStartElement("selectedIonList");
+      xml.writeAttribute("count", "1");
+      xml.writeStartElement("selectedIon");
+      writeCVParam(xml, "MS:1000744", "selected ion m/z", String.valueOf(scan.getPrecursorMZ()));
+      if (scan.getPrecursorCharge() > 0)
+        writeCVParam(xml, "MS:1000041", "charge state",
+            String.valueOf(scan.getPrecursorCharge()));
+      xml.writeEndElement();
+      xml.writeEndElement();
+      xml.writeStartElement("activation");
+      writeCVParam(xml, "MS:1000044", "dissociation method", null);
+      xml.writeEndElement();
+      xml.writeEndElement();
+      xml.writeEndElement();
+    }
+
+    xml.writeStartElement("binaryDataArrayList");
+    xml.writeAttribute("count", "2");
+    writeBinaryArray(xml, mzValues, numOfDataPoints, "MS:1000514", "m/z array", "MS:1000040",
+        "m/z");
+    writeBinaryArray(xml, intensityValues, numOfDataPoints, "MS:1000515", "intensity array",
+        "MS:1000131", "number of detector counts");
+    xml.writeEndElement();
+
+    xml.writeEndElement(); // spectrum
+  }
+
+  /**
+   * Reads the data points of the scan into mzValues and intensityValues, see
+   * StorableScan.readDataPoints()
+   *
+   * @return Number of data points
+   */
+  private int readDataPoints(Scan scan) throws IOException {
+    ensureCapacity(scan.getNumberOfDataPoints());
+    return StorableScan.readDataPoints(scan, mzValues, intensityValues);
+  }
+
+  private void ensureCapacity(int numOfDataPoints) {
+    if (mzValues.length < numOfDataPoints) {
+      mzValues = new float[numOfDataPoints];
+      intensityValues = new float[numOfDataPoints];
+    }
+  }
+
+  /**
+   * Writes the first numOfValues values as zlib compressed, base64 encoded little-endian floats
+   */
+  private void writeBinaryArray(XMLStreamWriter xml, float values[], int numOfValues,
+      String accession, String name, String unitAccession, String unitName)
+      throws XMLStreamException {
+
+    ByteBuffer bytes = ByteBuffer.allocate(numOfValues * 4).order(ByteOrder.LITTLE_ENDIAN);
+    bytes.asFloatBuffer().put(values, 0, numOfValues);
+
+    deflater.reset();
+    deflater.setInput(bytes.array());
+    deflater.finish();
+    if (compressed.length < bytes.capacity() + 64)
+      compressed = new byte[bytes.capacity() + 64];
+    int compressedLength = 0;
+    while (!deflater.finished()) {
+      if (compressedLength == compressed.length)
+        compressed = Arrays.copyOf(compressed, compressed.length * 2);
+      compressedLength +=
+          deflater.deflate(compressed, compressedLength, compressed.length - compressedLength);
+    }
+
+    final String encoded = Base64.getEncoder()
+        .encodeToString(Arrays.copyOf(compressed, compressedLength));
+
+    xml.writeStartElement("binaryDataArray");
+    xml.writeAttribute("encodedLength", String.valueOf(encoded.length()));
+    writeCVParam(xml, "MS:1000521", "32-bit float", null);
+    writeCVParam(xml, "MS:1000574", "zlib compression", null);
+    xml.writeStartElement("cvParam");
+    xml.writeAttribute("cvRef", "MS");
+    xml.writeAttribute("accession", accession);
+    xml.writeAttribute("name", name);
+    xml.writeAttribute("value", "");
+    xml.writeAttribute("unitCvRef", "MS");
+    xml.writeAttribute("unitAccession", unitAccession);
+    xml.writeAttribute("unitName", unitName);
+    xml.writeEndElement();
+    xml.writeStartElement("binary");
+    xml.writeCharacters(encoded);
+    xml.writeEndElement();
+    xml.writeEndElement();
+  }
+
+  private static void writeCVParam(XMLStreamWriter xml, String accession, String name,
+      String value) throws XMLStreamException {
+    xml.writeEmptyElement("cvParam");
+    xml.writeAttribute("cvRef", "MS");
+    xml.writeAttribute("accession", accession);
+    xml.writeAttribute("name", name);
+    xml.writeAttribute("value", value == null ? "" : value);
+  }
+
+}
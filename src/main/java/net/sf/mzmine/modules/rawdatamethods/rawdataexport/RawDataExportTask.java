@@ -22,8 +22,6 @@ import java.io.File;
 import java.util.logging.Logger;
 
 import io.github.msdk.MSDKMethod;
-import io.github.msdk.io.mzml.MzMLFileExportMethod;
-import io.github.msdk.io.mzml.data.MzMLCompressionType;
 import io.github.msdk.io.netcdf.NetCDFFileExportMethod;
 import net.sf.mzmine.datamodel.RawDataFile;
 import net.sf.mzmine.datamodel.impl.MZmineToMSDKRawDataFile;
@@ -39,6 +37,7 @@ public class RawDataExportTask extends AbstractTask {
   private File outFilename;
 
   private MSDKMethod<?> msdkMethod = null;
+  private MzMLExportWriter mzMLWriter = null;
 
   /**
    * @param dataFile
@@ -60,6 +59,8 @@ public class RawDataExportTask extends AbstractTask {
    * @see net.sf.mzmine.taskcontrol.Task#getFinishedPercentage()
    */
   public double getFinishedPercentage() {
+    if (mzMLWriter != null)
+      return mzMLWriter.getFinishedPercentage();
     if ((msdkMethod == null) || (msdkMethod.getFinishedPercentage() == null))
       return 0;
     return msdkMethod.getFinishedPercentage().doubleValue();
@@ -77,21 +78,25 @@ public class RawDataExportTask extends AbstractTask {
 
       logger.info("Started export of file " + dataFile + " to " + outFilename);
 
-      MZmineToMSDKRawDataFile msdkDataFile = new MZmineToMSDKRawDataFile(dataFile);
-
       if (outFilename.getName().toLowerCase().endsWith("mzml")) {
-        msdkMethod = new MzMLFileExportMethod(msdkDataFile, outFilename, MzMLCompressionType.ZLIB,
-            MzMLCompressionType.ZLIB);
+        // Scans are streamed from the raw data file storage, without the MSDK adapter
+        mzMLWriter = new MzMLExportWriter(dataFile, outFilename);
+        if (isCanceled())
+          return;
+        // The writer deletes the incomplete file if it is canceled or fails
+        mzMLWriter.write();
+        if (isCanceled())
+          return;
       }
 
       if (outFilename.getName().toLowerCase().endsWith("cdf")) {
+        MZmineToMSDKRawDataFile msdkDataFile = new MZmineToMSDKRawDataFile(dataFile);
         msdkMethod = new NetCDFFileExportMethod(msdkDataFile, outFilename);
+        if (isCanceled())
+          return;
+        msdkMethod.execute();
       }
 
-      if (isCanceled())
-        return;
-      msdkMethod.execute();
-
       setStatus(TaskStatus.FINISHED);
 
       logger.info("Finished export of file " + dataFile + " to " + outFilename);
@@ -109,5 +114,7 @@ public class RawDataExportTask extends AbstractTask {
     super.cancel();
     if (msdkMethod != null)
       msdkMethod.cancel();
+    if (mzMLWriter != null)
+      mzMLWriter.cancel();
   }
 }
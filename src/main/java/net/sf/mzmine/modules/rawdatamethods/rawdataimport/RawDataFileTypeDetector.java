@@ -20,6 +20,8 @@ package net.sf.mzmine.modules.rawdatamethods.rawdataimport;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 
 /**
@@ -85,37 +87,76 @@ public class RawDataFileTypeDetector {
       reader.close();
       String fileHeader = new String(buffer);
 
-      if (fileHeader.startsWith(THERMO_HEADER)) {
-        return RawDataFileType.THERMO_RAW;
-      }
+      return detectHeaderType(fileHeader);
 
-      if (fileHeader.startsWith(GZIP_HEADER)) {
-        return RawDataFileType.GZIP;
-      }
+    } catch (Exception e) {
+      e.printStackTrace();
+    }
 
-      if (fileHeader.startsWith(ZIP_HEADER)) {
-        return RawDataFileType.ZIP;
-      }
+    return null;
 
-      if (fileHeader.startsWith(CDF_HEADER)) {
-        return RawDataFileType.NETCDF;
-      }
+  }
 
-      if (fileHeader.contains(MZML_HEADER))
-        return RawDataFileType.MZML;
+  /**
+   * Detects the type of the data in a stream, e.g. a decompressing stream of a zipped file, from
+   * its first 1kB. The stream must support mark() and reset(), the data read for the detection is
+   * not consumed.
+   * 
+   * @param fileName name of the file in the stream, used to recognize CSV files
+   * @return Detected file type or null if the data is not of any supported type
+   */
+  public static RawDataFileType detectDataFileType(String fileName, InputStream is)
+      throws IOException {
 
-      if (fileHeader.contains(MZDATA_HEADER))
-        return RawDataFileType.MZDATA;
+    if (fileName.toLowerCase().endsWith(".csv")) {
+      return RawDataFileType.AGILENT_CSV;
+    }
 
-      if (fileHeader.contains(MZXML_HEADER))
-        return RawDataFileType.MZXML;
+    byte buffer[] = new byte[1024];
+    int length = 0;
+    is.mark(buffer.length);
+    while (length < buffer.length) {
+      int read = is.read(buffer, length, buffer.length - length);
+      if (read < 0)
+        break;
+      length += read;
+    }
+    is.reset();
 
-    } catch (Exception e) {
-      e.printStackTrace();
+    // Same as reading the file header with InputStreamReader, unread characters stay zero
+    String fileHeader = new String(buffer, "ISO-8859-1");
+
+    return detectHeaderType(fileHeader);
+  }
+
+  private static RawDataFileType detectHeaderType(String fileHeader) {
+
+    if (fileHeader.startsWith(THERMO_HEADER)) {
+      return RawDataFileType.THERMO_RAW;
     }
 
-    return null;
+    if (fileHeader.startsWith(GZIP_HEADER)) {
+      return RawDataFileType.GZIP;
+    }
 
+    if (fileHeader.startsWith(ZIP_HEADER)) {
+      return RawDataFileType.ZIP;
+    }
+
+    if (fileHeader.startsWith(CDF_HEADER)) {
+      return RawDataFileType.NETCDF;
+    }
+
+    if (fileHeader.contains(MZML_HEADER))
+      return RawDataFileType.MZML;
+
+    if (fileHeader.contains(MZDATA_HEADER))
+      return RawDataFileType.MZDATA;
+
+    if (fileHeader.contains(MZXML_HEADER))
+      return RawDataFileType.MZXML;
+
+    return null;
   }
 
 }
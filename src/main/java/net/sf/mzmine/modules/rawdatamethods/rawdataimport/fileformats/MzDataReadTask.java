@@ -20,6 +20,7 @@ package net.sf.mzmine.modules.rawdatamethods.rawdataimport.fileformats;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.Base64;
@@ -54,6 +55,7 @@ public class MzDataReadTask extends AbstractTask {
   private Logger logger = Logger.getLogger(this.getClass().getName());
 
   private File file;
+  private InputStream inputStream;
   private MZmineProject project;
   private RawDataFileWriter newMZmineFile;
   private RawDataFile finalRawDataFile;
@@ -108,6 +110,16 @@ public class MzDataReadTask extends AbstractTask {
     this.newMZmineFile = newMZmineFile;
   }
 
+  /**
+   * Parses the data from the given stream instead of the file, e.g. a decompressing stream of a
+   * zipped file. The file is only used in the messages.
+   */
+  public MzDataReadTask(MZmineProject project, File fileToOpen, InputStream inputStream,
+      RawDataFileWriter newMZmineFile) {
+    this(project, fileToOpen, newMZmineFile);
+    this.inputStream = inputStream;
+  }
+
   /**
    * @see net.sf.mzmine.taskcontrol.Task#getFinishedPercentage()
    */
@@ -129,7 +141,10 @@ public class MzDataReadTask extends AbstractTask {
     try {
 
       SAXParser saxParser = factory.newSAXParser();
-      saxParser.parse(file, handler);
+      if (inputStream != null)
+        saxParser.parse(inputStream, handler);
+      else
+        saxParser.parse(file, handler);
 
       // Close file
       finalRawDataFile = newMZmineFile.finishWriting();
@@ -22,6 +22,7 @@ import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.Base64;
 import java.util.Date;
 import java.util.LinkedList;
@@ -61,6 +62,7 @@ public class MzXMLReadTask extends AbstractTask {
   private Logger logger = Logger.getLogger(this.getClass().getName());
 
   private File file;
+  private InputStream inputStream;
   private MZmineProject project;
   private RawDataFileWriter newMZmineFile;
   private RawDataFile finalRawDataFile;
@@ -102,6 +104,16 @@ public class MzXMLReadTask extends AbstractTask {
     this.newMZmineFile = newMZmineFile;
   }
 
+  /**
+   * Parses the data from the given stream instead of the file, e.g. a decompressing stream of a
+   * zipped file. The file is only used in the messages.
+   */
+  public MzXMLReadTask(MZmineProject project, File fileToOpen, InputStream inputStream,
+      RawDataFileWriter newMZmineFile) {
+    this(project, fileToOpen, newMZmineFile);
+    this.inputStream = inputStream;
+  }
+
   /**
    * @see net.sf.mzmine.taskcontrol.Task#getFinishedPercentage()
    */
@@ -125,7 +137,10 @@ public class MzXMLReadTask extends AbstractTask {
       dataTypeFactory = DatatypeFactory.newInstance();
 
       SAXParser saxParser = factory.newSAXParser();
-      saxParser.parse(file, handler);
+      if (inputStream != null)
+        saxParser.parse(inputStream, handler);
+      else
+        saxParser.parse(file, handler);
 
       // Close file
       finalRawDataFile = newMZmineFile.finishWriting();
@@ -33,12 +33,13 @@ import net.sf.mzmine.datamodel.RawDataFileWriter;
 import net.sf.mzmine.datamodel.Scan;
 import net.sf.mzmine.datamodel.impl.SimpleDataPoint;
 import net.sf.mzmine.datamodel.impl.SimpleScan;
+import net.sf.mzmine.project.impl.RawDataFileImpl;
+import net.sf.mzmine.project.impl.StorableScan;
 import net.sf.mzmine.taskcontrol.AbstractTask;
 import net.sf.mzmine.taskcontrol.TaskStatus;
 import net.sf.mzmine.util.ExceptionUtils;
 import net.sf.mzmine.util.scans.ScanUtils;
 import ucar.ma2.Array;
-import ucar.ma2.Index;
 import ucar.ma2.IndexIterator;
 import ucar.nc2.Attribute;
 import ucar.nc2.NetcdfFile;
@@ -51,6 +52,9 @@ public class NetCDFReadTask extends AbstractTask {
 
   private Logger logger = Logger.getLogger(this.getClass().getName());
 
+  // Number of mass and intensity values read at once by readScansInBulk()
+  private static final int BULK_SECTION_SIZE = 1 << 20;
+
   private NetcdfFile inputFile;
 
   private int parsedScans;
@@ -97,18 +101,29 @@ public class NetCDFReadTask extends AbstractTask {
       // Open file
       this.startReading();
 
-      // Parse scans
-      Scan buildingScan;
-      while ((buildingScan = this.readNextScan()) != null) {
+      if (newMZmineFile instanceof RawDataFileImpl) {
 
-        // Check if cancel is requested
+        // Read the data points of many scans at once and store them directly
+        readScansInBulk((RawDataFileImpl) newMZmineFile);
         if (isCanceled()) {
           return;
         }
-        // buildingFile.addScan(scan);
-        newMZmineFile.addScan(buildingScan);
-        parsedScans++;
 
+      } else {
+
+        // Parse scans
+        Scan buildingScan;
+        while ((buildingScan = this.readNextScan()) != null) {
+
+          // Check if cancel is requested
+          if (isCanceled()) {
+            return;
+          }
+          // buildingFile.addScan(scan);
+          newMZmineFile.addScan(buildingScan);
+          parsedScans++;
+
+        }
       }
 
       // Close file
@@ -361,81 +376,144 @@ public class NetCDFReadTask extends AbstractTask {
     inputFile.close();
   }
 
+  /**
+   * Reads the mass and intensity values of consecutive scans in sections of about
+   * BULK_SECTION_SIZE values and stores the data points of each scan directly in the raw data file,
+   * without creating DataPoint or SimpleScan objects. The scans are the same as the ones created by
+   * readNextScan(). Requires that general information has already been read.
+   */
+  private void readScansInBulk(RawDataFileImpl rawDataFile) throws IOException {
+
+    int firstScan = 0;
+    while (firstScan < totalScans) {
+
+      if (isCanceled())
+        return;
+
+      // Find the scans stored in the next section of the variables
+      final int sectionStart = scansIndex.get(firstScan)[0];
+      int sectionEnd = sectionStart;
+      int lastScan = firstScan;
+      while (lastScan < totalScans) {
+        Integer[] startAndLength = scansIndex.get(lastScan);
+        int scanEnd = startAndLength[0] + startAndLength[1];
+        if ((lastScan > firstScan) && ((startAndLength[0] < sectionStart)
+            || (Math.max(sectionEnd, scanEnd) - sectionStart > BULK_SECTION_SIZE)))
+          break;
+        sectionEnd = Math.max(sectionEnd, scanEnd);
+        lastScan++;
+      }
+
+      // Read mass and intensity values of the whole section
+      double values[][] = readValues(sectionStart, sectionEnd - sectionStart);
+
+      for (int i = firstScan; i < lastScan; i++) {
+        Integer[] startAndLength = scansIndex.get(i);
+        rawDataFile.addScan(createScan(i, values[0], values[1], startAndLength[0] - sectionStart,
+            startAndLength[1], rawDataFile));
+        parsedScans++;
+      }
+
+      firstScan = lastScan;
+    }
+
+  }
+
   /**
    * Reads one scan from the file. Requires that general information has already been read.
    */
   private Scan readNextScan() throws IOException {
 
     // Get scan starting position and length
-    int[] scanStartPosition = new int[1];
-    int[] scanLength = new int[1];
     Integer[] startAndLength = scansIndex.get(scanNum);
 
     // End of file
     if (startAndLength == null) {
       return null;
     }
-    scanStartPosition[0] = startAndLength[0];
-    scanLength[0] = startAndLength[1];
 
-    // Get retention time of the scan
-    Double retentionTime = scansRetentionTimes.get(scanNum);
-    if (retentionTime == null) {
-      logger.severe("Could not find retention time for scan " + scanNum);
-      throw (new IOException("Could not find retention time for scan " + scanNum));
-    }
+    double values[][] = readValues(startAndLength[0], startAndLength[1]);
+    Scan buildingScan = createScan(scanNum, values[0], values[1], 0, startAndLength[1], null);
+    scanNum++;
 
-    // An empty scan needs special attention..
-    if (scanLength[0] == 0) {
-      scanNum++;
-      return new SimpleScan(null, scanNum, 1, retentionTime.doubleValue(), 0, 0, null,
-          new DataPoint[0], MassSpectrumType.CENTROIDED, PolarityType.UNKNOWN, "", null);
-    }
+    return buildingScan;
 
-    // Is there any way how to extract polarity from netcdf?
-    PolarityType polarity = PolarityType.UNKNOWN;
+  }
 
-    // Is there any way how to extract scan definition from netcdf?
-    String scanDefinition = "";
+  /**
+   * Reads given number of mass and intensity values from given position, and applies the scale
+   * factors
+   *
+   * @return Array of the mass values and array of the intensity values
+   */
+  private double[][] readValues(int start, int length) throws IOException {
+
+    if (length == 0)
+      return new double[][] {new double[0], new double[0]};
 
-    // Read mass and intensity values
-    Array massValueArray;
-    Array intensityValueArray;
+    int origin[] = {start};
+    int shape[] = {length};
+    double massValues[], intensityValues[];
     try {
-      massValueArray = massValueVariable.read(scanStartPosition, scanLength);
-      intensityValueArray = intensityValueVariable.read(scanStartPosition, scanLength);
+      massValues = (double[]) massValueVariable.read(origin, shape).get1DJavaArray(double.class);
+      intensityValues =
+          (double[]) intensityValueVariable.read(origin, shape).get1DJavaArray(double.class);
     } catch (Exception e) {
       logger.log(Level.SEVERE, "Could not read from variables mass_values and/or intensity_values.",
           e);
       throw (new IOException("Could not read from variables mass_values and/or intensity_values."));
     }
 
-    Index massValuesIndex = massValueArray.getIndex();
-    Index intensityValuesIndex = intensityValueArray.getIndex();
-
-    int arrayLength = massValueArray.getShape()[0];
-
-    DataPoint dataPoints[] = new DataPoint[arrayLength];
+    if (massValueScaleFactor != 1) {
+      for (int j = 0; j < massValues.length; j++)
+        massValues[j] *= massValueScaleFactor;
+    }
+    if (intensityValueScaleFactor != 1) {
+      for (int j = 0; j < intensityValues.length; j++)
+        intensityValues[j] *= intensityValueScaleFactor;
+    }
 
-    for (int j = 0; j < arrayLength; j++) {
-      Index massIndex0 = massValuesIndex.set0(j);
-      Index intensityIndex0 = intensityValuesIndex.set0(j);
+    return new double[][] {massValues, intensityValues};
+  }
 
-      double mz = massValueArray.getDouble(massIndex0) * massValueScaleFactor;
-      double intensity = intensityValueArray.getDouble(intensityIndex0) * intensityValueScaleFactor;
-      dataPoints[j] = new SimpleDataPoint(mz, intensity);
+  /**
+   * Creates the scan of given index from the data points from index offset to offset + length
+   * (exclusive) of the given arrays. If rawDataFile is not null, the data points are stored in it
+   * directly, otherwise the scan keeps them as DataPoint objects.
+   */
+  private Scan createScan(int scanIndex, double massValues[], double intensityValues[], int offset,
+      int length, RawDataFileImpl rawDataFile) throws IOException {
 
+    // Get retention time of the scan
+    Double retentionTime = scansRetentionTimes.get(scanIndex);
+    if (retentionTime == null) {
+      logger.severe("Could not find retention time for scan " + scanIndex);
+      throw (new IOException("Could not find retention time for scan " + scanIndex));
     }
 
-    scanNum++;
+    // Is there any way how to extract polarity from netcdf?
+    PolarityType polarity = PolarityType.UNKNOWN;
+
+    // Is there any way how to extract scan definition from netcdf?
+    String scanDefinition = "";
 
     // Auto-detect whether this scan is centroided
-    MassSpectrumType spectrumType = ScanUtils.detectSpectrumType(dataPoints);
+    MassSpectrumType spectrumType =
+        ScanUtils.detectSpectrumType(massValues, intensityValues, offset, length);
+
+    if (rawDataFile != null) {
+      int storageID = rawDataFile.storeDataPoints(massValues, intensityValues, offset, length);
+      return new StorableScan(rawDataFile, storageID, length, scanIndex + 1, 1,
+          retentionTime.doubleValue(), 0, 0, null, spectrumType, polarity, scanDefinition, null);
+    }
 
-    SimpleScan buildingScan = new SimpleScan(null, scanNum, 1, retentionTime.doubleValue(), 0, 0,
-        null, dataPoints, spectrumType, polarity, scanDefinition, null);
+    DataPoint dataPoints[] = new DataPoint[length];
+    for (int j = 0; j < length; j++) {
+      dataPoints[j] = new SimpleDataPoint(massValues[offset + j], intensityValues[offset + j]);
+    }
 
-    return buildingScan;
+    return new SimpleScan(null, scanIndex + 1, 1, retentionTime.doubleValue(), 0, 0, null,
+        dataPoints, spectrumType, polarity, scanDefinition, null);
 
   }
 
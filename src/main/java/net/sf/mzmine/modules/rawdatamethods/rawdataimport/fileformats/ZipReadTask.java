@@ -18,6 +18,7 @@
 
 package net.sf.mzmine.modules.rawdatamethods.rawdataimport.fileformats;
 
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -58,6 +59,9 @@ public class ZipReadTask extends AbstractTask {
   private StreamCopy copy = null;
   private Task decompressedOpeningTask = null;
 
+  // True if the decompressed data is parsed directly from the stream, without a temporary file
+  private boolean streaming = false;
+
   public ZipReadTask(@Nonnull MZmineProject project, File fileToOpen, RawDataFileType fileType) {
     this.project = project;
     this.file = fileToOpen;
@@ -111,51 +115,73 @@ public class ZipReadTask extends AbstractTask {
           return;
       }
 
-      tmpDir = Files.createTempDir();
-      tmpFile = new File(tmpDir, newName);
-      logger.finest("Decompressing to file " + tmpFile);
-      tmpFile.deleteOnExit();
-      tmpDir.deleteOnExit();
-      FileOutputStream ous = new FileOutputStream(tmpFile);
-
-      // Decompress the contents
-      copy = new StreamCopy();
-      copy.copy(is, ous, decompressedSize);
-
-      // Close the streams
-      is.close();
-      ous.close();
-
-      if (isCanceled())
-        return;
-
-      // Find the type of the decompressed file
-      RawDataFileType fileType = RawDataFileTypeDetector.detectDataFileType(tmpFile);
-      logger.finest("File " + tmpFile + " type detected as " + fileType);
+      // Find the type of the decompressed data from the beginning of the stream
+      BufferedInputStream bis = new BufferedInputStream(is, 1 << 16);
+      RawDataFileType fileType = RawDataFileTypeDetector.detectDataFileType(newName, bis);
+      logger.finest("File " + newName + " type detected as " + fileType);
 
       if (fileType == null) {
+        bis.close();
         setErrorMessage("Could not determine the file type of file " + newName);
         setStatus(TaskStatus.ERROR);
         return;
       }
 
-      // Run the import module on the decompressed file
-      RawDataFileWriter newMZmineFile = MZmineCore.createNewFile(newName);
-      decompressedOpeningTask =
-          RawDataImportModule.createOpeningTask(fileType, project, tmpFile, newMZmineFile);
+      if ((fileType == RawDataFileType.MZXML) || (fileType == RawDataFileType.MZDATA)) {
+
+        // SAX based readers parse the decompressing stream directly
+        streaming = true;
+        RawDataFileWriter newMZmineFile = MZmineCore.createNewFile(newName);
+        if (fileType == RawDataFileType.MZXML)
+          decompressedOpeningTask = new MzXMLReadTask(project, file, bis, newMZmineFile);
+        else
+          decompressedOpeningTask = new MzDataReadTask(project, file, bis, newMZmineFile);
+
+        try {
+          decompressedOpeningTask.run();
+        } finally {
+          bis.close();
+        }
+
+      } else {
+
+        // Other readers need random access, so the file is decompressed to disk first
+        tmpDir = Files.createTempDir();
+        tmpFile = new File(tmpDir, newName);
+        logger.finest("Decompressing to file " + tmpFile);
+        tmpFile.deleteOnExit();
+        tmpDir.deleteOnExit();
+        FileOutputStream ous = new FileOutputStream(tmpFile);
+
+        // Decompress the contents
+        copy = new StreamCopy();
+        copy.copy(bis, ous, decompressedSize);
+
+        // Close the streams
+        bis.close();
+        ous.close();
+
+        if (isCanceled())
+          return;
 
-      if (decompressedOpeningTask == null) {
-        setErrorMessage("File type " + fileType + " of file " + newName + " is not supported.");
-        setStatus(TaskStatus.ERROR);
-        return;
-      }
+        // Run the import module on the decompressed file
+        RawDataFileWriter newMZmineFile = MZmineCore.createNewFile(newName);
+        decompressedOpeningTask =
+            RawDataImportModule.createOpeningTask(fileType, project, tmpFile, newMZmineFile);
+
+        if (decompressedOpeningTask == null) {
+          setErrorMessage("File type " + fileType + " of file " + newName + " is not supported.");
+          setStatus(TaskStatus.ERROR);
+          return;
+        }
 
-      // Run the underlying task
-      decompressedOpeningTask.run();
+        // Run the underlying task
+        decompressedOpeningTask.run();
 
-      // Delete the temporary folder
-      tmpFile.delete();
-      tmpDir.delete();
+        // Delete the temporary folder
+        tmpFile.delete();
+        tmpDir.delete();
+      }
 
       if (isCanceled())
         return;
@@ -186,6 +212,8 @@ public class ZipReadTask extends AbstractTask {
    * @see net.sf.mzmine.taskcontrol.Task#getFinishedPercentage()
    */
   public double getFinishedPercentage() {
+    if ((decompressedOpeningTask != null) && streaming)
+      return decompressedOpeningTask.getFinishedPercentage();
     if (decompressedOpeningTask != null)
       return (decompressedOpeningTask.getFinishedPercentage() / 2.0) + 0.5; // Reports 50% to 100%
     if (copy != null) {
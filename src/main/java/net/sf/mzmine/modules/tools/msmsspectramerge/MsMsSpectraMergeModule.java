@@ -28,9 +28,14 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -47,6 +52,7 @@ import net.sf.mzmine.datamodel.PeakListRow;
 import net.sf.mzmine.datamodel.RawDataFile;
 import net.sf.mzmine.datamodel.Scan;
 import net.sf.mzmine.modules.MZmineModule;
+import net.sf.mzmine.parameters.Parameter;
 import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.parameters.parametertypes.tolerances.MZTolerance;
 import net.sf.mzmine.util.scans.ScanUtils;
@@ -69,6 +75,11 @@ import net.sf.mzmine.util.scans.ScanUtils;
  */
 public class MsMsSpectraMergeModule implements MZmineModule {
 
+  // Merged spectra of feature list rows for each parameter setting. Rows are weak keys, so the
+  // spectra are released together with their feature list.
+  private final Map<PeakListRow, Map<String, CachedSpectra>> mergedSpectraCache =
+      Collections.synchronizedMap(new WeakHashMap<>());
+
   @Nonnull
   @Override
   public String getName() {
@@ -89,10 +100,72 @@ public class MsMsSpectraMergeModule implements MZmineModule {
    * 
    * @param row the feature which MS/MS should be merged
    * @param massList name of the mass list to use when extracting peaks
-   * @return list of merged MS/MS spectra belonging to this feature
+   * @return list of merged MS/MS spectra belonging to this feature. The list is cached until the
+   *         features of the row or their MS/MS scans change.
    */
   public List<MergedSpectrum> getMergedSpectra(ParameterSet parameters, PeakListRow row,
       String massList) {
+    final String key = getCacheKey(parameters, massList);
+    final Map<String, CachedSpectra> rowCache =
+        mergedSpectraCache.computeIfAbsent(row, r -> new ConcurrentHashMap<>());
+    final CachedSpectra cached = rowCache.get(key);
+    if ((cached != null) && cached.isValidFor(row))
+      return cached.spectra;
+
+    // Take the snapshot of the row before merging, so a concurrent change invalidates the result
+    final Feature peaks[] = row.getPeaks();
+    final int fragmentScans[][] = getFragmentScans(peaks);
+    final List<MergedSpectrum> spectra =
+        Collections.unmodifiableList(mergeSpectra(parameters, row, massList));
+    rowCache.put(key, new CachedSpectra(peaks, fragmentScans, spectra));
+    return spectra;
+  }
+
+  /**
+   * Merge MS/MS spectra of all given rows in parallel, see
+   * #getMergedSpectra(ParameterSet,PeakListRow,String). The results are cached, so exporting the
+   * same feature list again with the same parameters does not merge the spectra again.
+   * 
+   * @param rows the features which MS/MS should be merged
+   * @param massList name of the mass list to use when extracting peaks
+   * @return merged MS/MS spectra of each row, in the order of rows
+   */
+  public Map<PeakListRow, List<MergedSpectrum>> getMergedSpectra(ParameterSet parameters,
+      PeakListRow rows[], String massList) {
+    // Pre-sized, so each thread only sets its own elements
+    final List<List<MergedSpectrum>> spectra =
+        new ArrayList<>(Collections.nCopies(rows.length, null));
+    IntStream.range(0, rows.length).parallel()
+        .forEach(i -> spectra.set(i, getMergedSpectra(parameters, rows[i], massList)));
+
+    final Map<PeakListRow, List<MergedSpectrum>> result = new LinkedHashMap<>();
+    for (int i = 0; i < rows.length; i++)
+      result.put(rows[i], spectra.get(i));
+    return result;
+  }
+
+  /**
+   * Merge MS/MS spectra of all given rows in parallel and pick the best merged spectrum of each
+   * row, see #getBestMergedSpectrum(ParameterSet,PeakListRow,String).
+   * 
+   * @param rows the features which MS/MS should be merged
+   * @param massList name of the mass list to use when extracting peaks
+   * @return best merged spectrum of each row, rows without merged spectrum are not contained
+   */
+  public Map<PeakListRow, MergedSpectrum> getBestMergedSpectra(ParameterSet parameters,
+      PeakListRow rows[], String massList) {
+    final Map<PeakListRow, MergedSpectrum> result = new LinkedHashMap<>();
+    for (Map.Entry<PeakListRow, List<MergedSpectrum>> e : getMergedSpectra(parameters, rows,
+        massList).entrySet()) {
+      e.getValue().stream()
+          .max(Comparator.comparingDouble(MergedSpectrum::getBestFragmentScanScore))
+          .ifPresent(best -> result.put(e.getKey(), best));
+    }
+    return result;
+  }
+
+  private List<MergedSpectrum> mergeSpectra(ParameterSet parameters, PeakListRow row,
+      String massList) {
     final MergeMode mode =
         parameters.getParameter(MsMsSpectraMergeParameters.MERGE_MODE).getValue();
     final double npeaksFilter =
@@ -516,4 +589,47 @@ public class MsMsSpectraMergeModule implements MZmineModule {
     return orderedByMz;
   }
 
+  /**
+   * Key of the cached merged spectra, built from the mass list and all parameter values
+   */
+  private static String getCacheKey(ParameterSet parameters, String massList) {
+    final StringBuilder key = new StringBuilder(String.valueOf(massList));
+    for (Parameter<?> parameter : parameters.getParameters()) {
+      key.append('\n').append(parameter.getName()).append('=').append(parameter.getValue());
+    }
+    return key.toString();
+  }
+
+  private static int[][] getFragmentScans(Feature peaks[]) {
+    final int fragmentScans[][] = new int[peaks.length][];
+    for (int i = 0; i < peaks.length; i++)
+      fragmentScans[i] = peaks[i].getAllMS2FragmentScanNumbers();
+    return fragmentScans;
+  }
+
+  /**
+   * Merged spectra of a row, together with the features and MS/MS scans they were merged from
+   */
+  private static final class CachedSpectra {
+
+    private final Feature peaks[];
+    private final int fragmentScans[][];
+    private final List<MergedSpectrum> spectra;
+
+    private CachedSpectra(Feature peaks[], int fragmentScans[][], List<MergedSpectrum> spectra) {
+      this.peaks = peaks;
+      this.fragmentScans = fragmentScans;
+      this.spectra = spectra;
+    }
+
+    /**
+     * The spectra are still valid if the row contains the same features with the same MS/MS scans
+     */
+    private boolean isValidFor(PeakListRow row) {
+      final Feature currentPeaks[] = row.getPeaks();
+      return Arrays.equals(peaks, currentPeaks)
+          && Arrays.deepEquals(fragmentScans, getFragmentScans(currentPeaks));
+    }
+  }
+
 }
@@ -32,6 +32,8 @@ import net.sf.mzmine.datamodel.Scan;
 import net.sf.mzmine.desktop.Desktop;
 import net.sf.mzmine.main.MZmineCore;
 import net.sf.mzmine.parameters.parametertypes.selectors.ScanSelection;
+import net.sf.mzmine.project.impl.RawDataFileImpl;
+import net.sf.mzmine.project.impl.RawDataPyramid;
 import net.sf.mzmine.taskcontrol.AbstractTask;
 import net.sf.mzmine.taskcontrol.TaskStatus;
 import net.sf.mzmine.util.ExceptionUtils;
@@ -109,137 +111,193 @@ class Fx3DSamplingTask extends AbstractTask {
 
         try {
 
-            final double rtStep = (rtRange.upperEndpoint()
-                    - rtRange.lowerEndpoint()) / rtResolution;
+            // Use the precomputed raster of the raw data file, if it covers
+            // the selected scans
+            float[][] finalIntensityValues = samplePyramid();
+            if (finalIntensityValues == null)
+                finalIntensityValues = sampleScans();
 
-            // create an array for all data points
-            float[][] intensityValues = new float[1][mzResolution
-                    * rtResolution];
-            boolean rtDataSet[] = new boolean[rtResolution];
+            if ((isCanceled()) || (finalIntensityValues == null))
+                return;
 
-            // load scans
-            for (int scanIndex = 0; scanIndex < scans.length; scanIndex++) {
+            Fx3DRawDataFileDataset plotMesh = new Fx3DRawDataFileDataset(
+                    dataFile, finalIntensityValues, rtResolution, mzResolution,
+                    maxBinnedIntensity, dataFile.toString(),
+                    PEAK_COLORS[random.nextInt(14)]);
 
-                if (isCanceled())
-                    return;
+            Platform.runLater(() -> {
+                controller.addDataset(plotMesh);
+            });
 
-                Scan scan = scans[scanIndex];
-                final Desktop desktop = MZmineCore.getDesktop();
+        } catch (Throwable e) {
+            setStatus(TaskStatus.ERROR);
+            setErrorMessage("Error while sampling 3D data,"
+                    + ExceptionUtils.exceptionToString(e));
+            return;
+        }
 
-                // Check scan numbers.
-                if (scans.length == 0) {
-                    desktop.displayErrorMessage(
-                            MZmineCore.getDesktop().getMainWindow(),
-                            "No scans found");
-                    return;
-                }
+        logger.info("Finished sampling 3D plot of " + dataFile);
 
-                DataPoint dataPoints[] = scan.getDataPoints();
-                double[] scanMZValues = new double[dataPoints.length];
-                double[] scanIntensityValues = new double[dataPoints.length];
-                for (int dp = 0; dp < dataPoints.length; dp++) {
-                    scanMZValues[dp] = dataPoints[dp].getMZ();
-                    scanIntensityValues[dp] = dataPoints[dp].getIntensity();
-                }
+        setStatus(TaskStatus.FINISHED);
 
-                double[] binnedIntensities = ScanUtils.binValues(scanMZValues,
-                        scanIntensityValues, mzRange, mzResolution,
-                        scan.getSpectrumType() != MassSpectrumType.CENTROIDED,
-                        BinningType.MAX);
+    }
 
-                int scanBinIndex;
+    /**
+     * Samples the intensities from the precomputed raster of the raw data
+     * file. Returns null if the raster is not available or too coarse.
+     */
+    private float[][] samplePyramid() {
+
+        if (!(dataFile instanceof RawDataFileImpl))
+            return null;
+        RawDataPyramid pyramid = ((RawDataFileImpl) dataFile)
+                .getRawDataPyramid();
+        if ((pyramid == null) || (!pyramid.coversScans(scans)))
+            return null;
+
+        double values[][] = new double[rtResolution][mzResolution];
+        if (!pyramid.fillRaster(rtRange, mzRange, values))
+            return null;
+
+        maxBinnedIntensity = 0;
+        for (int rtIndex = 0; rtIndex < rtResolution; rtIndex++) {
+            for (int mzIndex = 0; mzIndex < mzResolution; mzIndex++) {
+                if (values[rtIndex][mzIndex] > maxBinnedIntensity)
+                    maxBinnedIntensity = values[rtIndex][mzIndex];
+            }
+        }
+        if (maxBinnedIntensity == 0)
+            return null;
+
+        float[][] finalIntensityValues = new float[rtResolution][mzResolution];
+        for (int rtIndex = 0; rtIndex < rtResolution; rtIndex++) {
+            for (int mzIndex = 0; mzIndex < mzResolution; mzIndex++) {
+                finalIntensityValues[rtIndex][mzIndex] = (float) (values[rtIndex][mzIndex]
+                        / maxBinnedIntensity);
+            }
+        }
+        retrievedScans = scans.length;
+        return finalIntensityValues;
+    }
 
-                double rt = scan.getRetentionTime();
-                scanBinIndex = (int) ((rt - rtRange.lowerEndpoint()) / rtStep);
+    /**
+     * Samples the intensities by reading and binning the data points of
+     * each scan
+     */
+    private float[][] sampleScans() {
 
-                // last scan falls into last bin
-                if (scanBinIndex == rtResolution) {
-                    scanBinIndex--;
-                }
+        final double rtStep = (rtRange.upperEndpoint()
+                - rtRange.lowerEndpoint()) / rtResolution;
 
-                for (int mzIndex = 0; mzIndex < mzResolution; mzIndex++) {
+        // create an array for all data points
+        float[][] intensityValues = new float[1][mzResolution
+                * rtResolution];
+        boolean rtDataSet[] = new boolean[rtResolution];
 
-                    int intensityValuesIndex = (rtResolution * mzIndex)
-                            + scanBinIndex;
-                    if (binnedIntensities[mzIndex] > intensityValues[0][intensityValuesIndex]) {
-                        intensityValues[0][intensityValuesIndex] = (float) binnedIntensities[mzIndex];
-                    }
-                    if (intensityValues[0][intensityValuesIndex] > maxBinnedIntensity)
-                        maxBinnedIntensity = (double) binnedIntensities[mzIndex];
-                }
+        // load scans
+        for (int scanIndex = 0; scanIndex < scans.length; scanIndex++) {
 
-                rtDataSet[scanBinIndex] = true;
+            if (isCanceled())
+                return null;
 
-                retrievedScans++;
+            Scan scan = scans[scanIndex];
+            final Desktop desktop = MZmineCore.getDesktop();
 
+            // Check scan numbers.
+            if (scans.length == 0) {
+                desktop.displayErrorMessage(
+                        MZmineCore.getDesktop().getMainWindow(),
+                        "No scans found");
+                return null;
             }
 
-            // Interpolate missing values on the RT-axis
-            for (int rtIndex = 1; rtIndex < rtResolution - 1; rtIndex++) {
-
-                // If the data was set, go to next RT line
-                if (rtDataSet[rtIndex])
-                    continue;
-                int prevIndex, nextIndex;
-                for (prevIndex = rtIndex - 1; prevIndex >= 0; prevIndex--) {
-                    if (rtDataSet[prevIndex])
-                        break;
-                }
-                for (nextIndex = rtIndex
-                        + 1; nextIndex < rtResolution; nextIndex++) {
-                    if (rtDataSet[nextIndex])
-                        break;
-                }
+            DataPoint dataPoints[] = scan.getDataPoints();
+            double[] scanMZValues = new double[dataPoints.length];
+            double[] scanIntensityValues = new double[dataPoints.length];
+            for (int dp = 0; dp < dataPoints.length; dp++) {
+                scanMZValues[dp] = dataPoints[dp].getMZ();
+                scanIntensityValues[dp] = dataPoints[dp].getIntensity();
+            }
 
-                // If no neighboring data was found, give up
-                if ((prevIndex < 0) || (nextIndex >= rtResolution))
-                    continue;
+            double[] binnedIntensities = ScanUtils.binValues(scanMZValues,
+                    scanIntensityValues, mzRange, mzResolution,
+                    scan.getSpectrumType() != MassSpectrumType.CENTROIDED,
+                    BinningType.MAX);
 
-                for (int mzIndex = 0; mzIndex < mzResolution; mzIndex++) {
+            int scanBinIndex;
 
-                    int valueIndex = (rtResolution * mzIndex) + rtIndex;
-                    int nextValueIndex = (rtResolution * mzIndex) + nextIndex;
-                    int prevValueIndex = (rtResolution * mzIndex) + prevIndex;
+            double rt = scan.getRetentionTime();
+            scanBinIndex = (int) ((rt - rtRange.lowerEndpoint()) / rtStep);
 
-                    double prevValue = intensityValues[0][prevValueIndex];
-                    double nextValue = intensityValues[0][nextValueIndex];
+            // last scan falls into last bin
+            if (scanBinIndex == rtResolution) {
+                scanBinIndex--;
+            }
 
-                    double slope = (nextValue - prevValue)
-                            / (nextIndex - prevIndex);
-                    intensityValues[0][valueIndex] = (float) (prevValue
-                            + (slope * (rtIndex - prevIndex)));
+            for (int mzIndex = 0; mzIndex < mzResolution; mzIndex++) {
 
+                int intensityValuesIndex = (rtResolution * mzIndex)
+                        + scanBinIndex;
+                if (binnedIntensities[mzIndex] > intensityValues[0][intensityValuesIndex]) {
+                    intensityValues[0][intensityValuesIndex] = (float) binnedIntensities[mzIndex];
                 }
+                if (intensityValues[0][intensityValuesIndex] > maxBinnedIntensity)
+                    maxBinnedIntensity = (double) binnedIntensities[mzIndex];
             }
 
-            float[][] finalIntensityValues = new float[rtResolution][mzResolution];
-            for (int rtIndex = 0; rtIndex < rtResolution; rtIndex++) {
-                for (int mzIndex = 0; mzIndex < mzResolution; mzIndex++) {
-                    int valueIndex = (rtResolution * mzIndex) + rtIndex;
-                    finalIntensityValues[rtIndex][mzIndex] = (float) (intensityValues[0][valueIndex]
-                            / maxBinnedIntensity);
-                }
-            }
-            Fx3DRawDataFileDataset plotMesh = new Fx3DRawDataFileDataset(
-                    dataFile, finalIntensityValues, rtResolution, mzResolution,
-                    maxBinnedIntensity, dataFile.toString(),
-                    PEAK_COLORS[random.nextInt(14)]);
+            rtDataSet[scanBinIndex] = true;
 
-            Platform.runLater(() -> {
-                controller.addDataset(plotMesh);
-            });
+            retrievedScans++;
 
-        } catch (Throwable e) {
-            setStatus(TaskStatus.ERROR);
-            setErrorMessage("Error while sampling 3D data,"
-                    + ExceptionUtils.exceptionToString(e));
-            return;
         }
 
-        logger.info("Finished sampling 3D plot of " + dataFile);
+        // Interpolate missing values on the RT-axis
+        for (int rtIndex = 1; rtIndex < rtResolution - 1; rtIndex++) {
 
-        setStatus(TaskStatus.FINISHED);
+            // If the data was set, go to next RT line
+            if (rtDataSet[rtIndex])
+                continue;
+            int prevIndex, nextIndex;
+            for (prevIndex = rtIndex - 1; prevIndex >= 0; prevIndex--) {
+                if (rtDataSet[prevIndex])
+                    break;
+            }
+            for (nextIndex = rtIndex
+                    + 1; nextIndex < rtResolution; nextIndex++) {
+                if (rtDataSet[nextIndex])
+                    break;
+            }
+
+            // If no neighboring data was found, give up
+            if ((prevIndex < 0) || (nextIndex >= rtResolution))
+                continue;
+
+            for (int mzIndex = 0; mzIndex < mzResolution; mzIndex++) {
+
+                int valueIndex = (rtResolution * mzIndex) + rtIndex;
+                int nextValueIndex = (rtResolution * mzIndex) + nextIndex;
+                int prevValueIndex = (rtResolution * mzIndex) + prevIndex;
 
+                double prevValue = intensityValues[0][prevValueIndex];
+                double nextValue = intensityValues[0][nextValueIndex];
+
+                double slope = (nextValue - prevValue)
+                        / (nextIndex - prevIndex);
+                intensityValues[0][valueIndex] = (float) (prevValue
+                        + (slope * (rtIndex - prevIndex)));
+
+            }
+        }
+
+        float[][] finalIntensityValues = new float[rtResolution][mzResolution];
+        for (int rtIndex = 0; rtIndex < rtResolution; rtIndex++) {
+            for (int mzIndex = 0; mzIndex < mzResolution; mzIndex++) {
+                int valueIndex = (rtResolution * mzIndex) + rtIndex;
+                finalIntensityValues[rtIndex][mzIndex] = (float) (intensityValues[0][valueIndex]
+                        / maxBinnedIntensity);
+            }
+        }
+        return finalIntensityValues;
     }
 
 }
@@ -20,10 +20,11 @@ package net.sf.mzmine.modules.visualization.peaklisttable.table;
 
 import java.awt.Color;
 import java.awt.Component;
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
 
-import javax.swing.JPanel;
+import javax.swing.JComponent;
 import javax.swing.JTable;
-import javax.swing.OverlayLayout;
 import javax.swing.table.TableCellRenderer;
 
 import net.sf.mzmine.datamodel.Feature;
@@ -34,13 +35,50 @@ import net.sf.mzmine.modules.visualization.peaklisttable.PeakListTableParameters
 import net.sf.mzmine.modules.visualization.peaklisttable.PeakShapeNormalization;
 import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.util.components.CombinedXICComponent;
+import net.sf.mzmine.util.components.ComponentToolTipManager;
 import net.sf.mzmine.util.components.PeakXICComponent;
 
+/**
+ * Table cell renderer of the peak shapes. The shapes are painted into cached images in the
+ * background, the cell shows a baseline until its image is ready.
+ */
 class PeakShapeCellRenderer implements TableCellRenderer {
 
+  /**
+   * Component showing the cached image, one instance is reused for all cells
+   */
+  private static class ThumbnailComponent extends JComponent {
+
+    private static final long serialVersionUID = 1L;
+
+    private BufferedImage image;
+    private boolean pending;
+
+    ThumbnailComponent() {
+      setBorder(PeakXICComponent.componentBorder);
+    }
+
+    @Override
+    public void paint(Graphics g) {
+      g.setColor(getBackground());
+      g.fillRect(0, 0, getWidth(), getHeight());
+      super.paint(g);
+      if (image != null) {
+        g.drawImage(image, 0, 0, null);
+      } else if (pending) {
+        // Placeholder until the image is painted
+        g.setColor(Color.lightGray);
+        g.drawLine(2, getHeight() - 3, getWidth() - 3, getHeight() - 3);
+      }
+    }
+  }
+
   private PeakList peakList;
   private ParameterSet parameters;
 
+  private final PeakShapeThumbnailCache cache = new PeakShapeThumbnailCache();
+  private final ThumbnailComponent thumbnail = new ThumbnailComponent();
+
   PeakShapeCellRenderer(PeakList peakList, ParameterSet parameters) {
     this.peakList = peakList;
     this.parameters = parameters;
@@ -53,9 +91,6 @@ class PeakShapeCellRenderer implements TableCellRenderer {
   public Component getTableCellRendererComponent(JTable table, Object value, boolean isSelected,
       boolean hasFocus, int row, int column) {
 
-    JPanel newPanel = new JPanel();
-    newPanel.setLayout(new OverlayLayout(newPanel));
-
     Color bgColor;
 
     if (isSelected)
@@ -63,7 +98,16 @@ class PeakShapeCellRenderer implements TableCellRenderer {
     else
       bgColor = table.getBackground();
 
-    newPanel.setBackground(bgColor);
+    thumbnail.setBackground(bgColor);
+    thumbnail.image = null;
+    thumbnail.pending = false;
+    thumbnail.setToolTipText(null);
+
+    final int width = table.getColumnModel().getColumn(column).getWidth();
+    final int height = table.getRowHeight(row);
+    // The row and column of the cell may change until the image is ready (e.g. by sorting), so
+    // the whole visible part of the table is repainted. Cells with cached images are cheap.
+    final Runnable onPainted = () -> table.repaint(table.getVisibleRect());
 
     if (value instanceof Feature) {
 
@@ -79,18 +123,21 @@ class PeakShapeCellRenderer implements TableCellRenderer {
           maxHeight = peakList.getDataPointMaxIntensity();
           break;
         case ROWMAX:
-          int rowNumber = peakList.getPeakRowNum(peak);
-          maxHeight = peakList.getRow(rowNumber).getDataPointMaxIntensity();
+          maxHeight = findRow(table, row, peak).getDataPointMaxIntensity();
           break;
         default:
           maxHeight = peak.getRawDataPointsIntensityRange().upperEndpoint();
           break;
       }
-      PeakXICComponent xic = new PeakXICComponent(peak, maxHeight);
 
-      newPanel.add(xic);
+      final double maxIntensity = maxHeight;
+      thumbnail.image = cache.getImage(new Feature[] {peak}, width, height, maxIntensity,
+          g2 -> PeakXICComponent.paintPeakShape(g2, peak, peak.getDataFile().getDataRTRange(),
+              maxIntensity, width, height),
+          onPainted);
 
-      newPanel.setToolTipText(xic.getToolTipText());
+      thumbnail.pending = (thumbnail.image == null);
+      thumbnail.setToolTipText(peak.toString());
 
     }
 
@@ -104,16 +151,32 @@ class PeakShapeCellRenderer implements TableCellRenderer {
         peaks[i] = plRow.getPeak(dataFiles[i]);
       }
 
-      CombinedXICComponent xic = new CombinedXICComponent(peaks, plRow.getID());
+      thumbnail.image = cache.getImage(peaks, width, height, 0,
+          g2 -> CombinedXICComponent.paintPeakShapes(g2, peaks, width, height), onPainted);
 
-      newPanel.add(xic);
+      thumbnail.pending = (thumbnail.image == null);
 
-      newPanel.setToolTipText(xic.getToolTipText());
+      // We use the tool tip text as a id for customTooltipProvider
+      thumbnail.setToolTipText(ComponentToolTipManager.CUSTOM + plRow.getID());
 
     }
 
-    return newPanel;
+    return thumbnail;
 
   }
 
+  /**
+   * Returns the row of the peak. The row shown in the table is tried first, so the peak list does
+   * not need to be searched on every repaint.
+   */
+  private PeakListRow findRow(JTable table, int row, Feature peak) {
+    int modelRow = table.convertRowIndexToModel(row);
+    if ((modelRow >= 0) && (modelRow < peakList.getNumberOfRows())) {
+      PeakListRow plRow = peakList.getRow(modelRow);
+      if (plRow.getPeak(peak.getDataFile()) == peak)
+        return plRow;
+    }
+    return peakList.getRow(peakList.getPeakRowNum(peak));
+  }
+
 }
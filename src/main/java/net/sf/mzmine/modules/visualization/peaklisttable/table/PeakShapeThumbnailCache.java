@@ -0,0 +1,218 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.modules.visualization.peaklisttable.table;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.swing.SwingUtilities;
+
+import net.sf.mzmine.datamodel.Feature;
+
+/**
+ * Cache of the peak shape images of the feature list table. The images are painted by background
+ * threads, so scrolling does not wait for the data points of the peaks. The most recently requested
+ * images are painted first, and the least recently used ones are dropped when the total number of
+ * pixels exceeds the limit.
+ */
+class PeakShapeThumbnailCache {
+
+  // About 32 MB of ARGB images
+  private static final long MAX_PIXELS = 8_000_000;
+
+  // Older requests are dropped, their cells have most likely been scrolled away
+  private static final int MAX_PENDING = 1000;
+
+  private static final int NUMBER_OF_THREADS =
+      Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+
+  /**
+   * Identity of a thumbnail: the painted peaks, the size and the normalization of the intensity
+   */
+  private static final class Key {
+
+    private final Feature peaks[];
+    private final int width, height;
+    private final double maxIntensity;
+
+    private Key(Feature peaks[], int width, int height, double maxIntensity) {
+      this.peaks = peaks;
+      this.width = width;
+      this.height = height;
+      this.maxIntensity = maxIntensity;
+    }
+
+    @Override
+    public int hashCode() {
+      int hash = Arrays.hashCode(peaks);
+      hash = 31 * hash + width;
+      hash = 31 * hash + height;
+      hash = 31 * hash + Double.hashCode(maxIntensity);
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Key))
+        return false;
+      Key key = (Key) o;
+      return (width == key.width) && (height == key.height)
+          && (Double.compare(maxIntensity, key.maxIntensity) == 0)
+          && Arrays.equals(peaks, key.peaks);
+    }
+  }
+
+  /**
+   * Paints one thumbnail, the newest request is run first
+   */
+  private final class PaintRequest implements Runnable {
+
+    private final Key key;
+    private final Consumer<Graphics2D> painter;
+    private final Runnable onPainted;
+
+    private PaintRequest(Key key, Consumer<Graphics2D> painter, Runnable onPainted) {
+      this.key = key;
+      this.painter = painter;
+      this.onPainted = onPainted;
+    }
+
+    @Override
+    public void run() {
+      BufferedImage image = null;
+      try {
+        image = new BufferedImage(key.width, key.height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g2 = image.createGraphics();
+        try {
+          painter.accept(g2);
+        } finally {
+          g2.dispose();
+        }
+      } catch (Exception e) {
+        // Keep the empty image, so the failing peak is not painted again and again
+        logger.log(Level.WARNING, "Could not paint the peak shape", e);
+      }
+      put(key, image);
+      SwingUtilities.invokeLater(onPainted);
+    }
+
+    private void cancel() {
+      PeakShapeThumbnailCache.this.cancel(key);
+    }
+  }
+
+  private static final ThreadPoolExecutor executor =
+      new ThreadPoolExecutor(NUMBER_OF_THREADS, NUMBER_OF_THREADS, 30, TimeUnit.SECONDS,
+          new LinkedBlockingDeque<Runnable>() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public boolean offer(Runnable r) {
+              // Last in, first out: the cells visible now are painted first
+              if (size() >= MAX_PENDING) {
+                Runnable dropped = pollLast();
+                if (dropped instanceof PaintRequest)
+                  ((PaintRequest) dropped).cancel();
+              }
+              return offerFirst(r);
+            }
+          }, r -> {
+            Thread thread = new Thread(r, "Peak shape thumbnail painter");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+          });
+
+  static {
+    executor.allowCoreThreadTimeOut(true);
+  }
+
+  private Logger logger = Logger.getLogger(this.getClass().getName());
+
+  private final LinkedHashMap<Key, BufferedImage> images = new LinkedHashMap<>(256, 0.75f, true);
+  private final Set<Key> pending = new HashSet<>();
+  private long numberOfPixels = 0;
+
+  /**
+   * Returns the image of the peak shapes, or null if it is not painted yet. In that case the image
+   * is painted in the background and onPainted is called in the Swing thread once it is ready.
+   *
+   * @param peaks the painted peaks, which identify the image together with the size and the
+   *        maxIntensity
+   * @param painter paints the peak shapes into the graphics of the image
+   */
+  BufferedImage getImage(Feature peaks[], int width, int height, double maxIntensity,
+      Consumer<Graphics2D> painter, Runnable onPainted) {
+
+    if ((width <= 0) || (height <= 0))
+      return null;
+
+    Key key = new Key(peaks, width, height, maxIntensity);
+    synchronized (this) {
+      BufferedImage image = images.get(key);
+      if (image != null)
+        return image;
+      if (!pending.add(key))
+        return null;
+    }
+
+    // Submitted outside of the lock, the queue may cancel requests of other tables
+    executor.execute(new PaintRequest(key, painter, onPainted));
+    return null;
+  }
+
+  private synchronized void put(Key key, BufferedImage image) {
+    if (!pending.remove(key))
+      return;
+    if (image == null)
+      image = new BufferedImage(key.width, key.height, BufferedImage.TYPE_INT_ARGB);
+
+    BufferedImage previous = images.put(key, image);
+    if (previous != null)
+      numberOfPixels -= (long) previous.getWidth() * previous.getHeight();
+    numberOfPixels += (long) key.width * key.height;
+
+    // Drop the least recently used images
+    Iterator<Map.Entry<Key, BufferedImage>> iterator = images.entrySet().iterator();
+    while ((numberOfPixels > MAX_PIXELS) && iterator.hasNext()) {
+      BufferedImage eldest = iterator.next().getValue();
+      if (eldest == image)
+        break;
+      numberOfPixels -= (long) eldest.getWidth() * eldest.getHeight();
+      iterator.remove();
+    }
+  }
+
+  private synchronized void cancel(Key key) {
+    pending.remove(key);
+  }
+
+}
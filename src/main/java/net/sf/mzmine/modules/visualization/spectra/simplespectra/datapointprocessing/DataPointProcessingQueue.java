@@ -22,7 +22,6 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.Collection;
 import java.util.Vector;
 import java.util.logging.Logger;
 import javax.annotation.Nonnull;
@@ -59,9 +58,6 @@ public class DataPointProcessingQueue
   public static @Nonnull DataPointProcessingQueue loadfromXML(final @Nonnull Element xmlElement) {
     DataPointProcessingQueue queue = new DataPointProcessingQueue();
 
-    // Get the loaded modules.
-    final Collection<MZmineModule> allModules = MZmineCore.getAllModules();
-
     // Process the processing step elements.
     final NodeList nodes = xmlElement.getElementsByTagName(DATA_POINT_PROCESSING_STEP_ELEMENT);
     final int nodesLength = nodes.getLength();
@@ -72,22 +68,19 @@ public class DataPointProcessingQueue
       final String methodName = stepElement.getAttribute(METHOD_ELEMENT);
       logger.finest("loading method " + methodName);
 
-      for (MZmineModule module : allModules) {
-        if (module instanceof DataPointProcessingModule
-            && module.getClass().getName().equals(methodName)) {
-
-          // since the same module can be used in different ms levels, we need to clone the
-          // parameter set, so we can have different values for every ms level
-          ParameterSet parameterSet = MZmineCore.getConfiguration()
-              .getModuleParameters(module.getClass()).cloneParameterSet();
+      // the module is initialized on first use
+      MZmineModule module = MZmineCore.getModuleInstance(methodName);
+      if (module instanceof DataPointProcessingModule) {
 
-          parameterSet.loadValuesFromXML(stepElement);
-          queue.add(new MZmineProcessingStepImpl<DataPointProcessingModule>(
-              (DataPointProcessingModule) module, parameterSet));
-          // add to treeView
-          break;
-        }
+        // since the same module can be used in different ms levels, we need to clone the
+        // parameter set, so we can have different values for every ms level
+        ParameterSet parameterSet = MZmineCore.getConfiguration()
+            .getModuleParameters(module.getClass()).cloneParameterSet();
 
+        parameterSet.loadValuesFromXML(stepElement);
+        queue.add(new MZmineProcessingStepImpl<DataPointProcessingModule>(
+            (DataPointProcessingModule) module, parameterSet));
+        // add to treeView
       }
 
     }
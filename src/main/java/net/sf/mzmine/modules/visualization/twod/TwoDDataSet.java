@@ -28,6 +28,8 @@ import net.sf.mzmine.datamodel.RawDataFile;
 import net.sf.mzmine.datamodel.Scan;
 import net.sf.mzmine.datamodel.impl.SimpleDataPoint;
 import net.sf.mzmine.main.MZmineCore;
+import net.sf.mzmine.project.impl.RawDataFileImpl;
+import net.sf.mzmine.project.impl.RawDataPyramid;
 import net.sf.mzmine.taskcontrol.Task;
 import net.sf.mzmine.taskcontrol.TaskPriority;
 import net.sf.mzmine.taskcontrol.TaskStatus;
@@ -82,6 +84,10 @@ class TwoDDataSet extends AbstractXYDataset implements Task {
 
     status = TaskStatus.PROCESSING;
 
+    // If the precomputed raster covers our scans, the data points are only read on demand, when
+    // the plot is zoomed in beyond the resolution of the raster
+    final boolean preloadDataPoints = (getRawDataPyramid() == null);
+
     for (int index = 0; index < totalScans; index++) {
 
       // Cancel?
@@ -92,8 +98,10 @@ class TwoDDataSet extends AbstractXYDataset implements Task {
       DataPoint scanBasePeak = scan.getHighestDataPoint();
       retentionTimes[index] = scan.getRetentionTime();
       basePeaks[index] = (scanBasePeak == null ? 0 : scanBasePeak.getIntensity());
-      DataPoint scanDataPoints[] = scan.getDataPoints();
-      dataPointMatrix[index] = new SoftReference<DataPoint[]>(scanDataPoints);
+      if (preloadDataPoints) {
+        DataPoint scanDataPoints[] = scan.getDataPoints();
+        dataPointMatrix[index] = new SoftReference<DataPoint[]>(scanDataPoints);
+      }
       processedScans++;
     }
 
@@ -149,6 +157,31 @@ class TwoDDataSet extends AbstractXYDataset implements Task {
       return totalMZRange.upperEndpoint();
   }
 
+  /**
+   * Returns the precomputed raster of the raw data file, if it is available and covers exactly the
+   * scans of this data set
+   */
+  private RawDataPyramid getRawDataPyramid() {
+    if (!(rawDataFile instanceof RawDataFileImpl))
+      return null;
+    RawDataPyramid pyramid = ((RawDataFileImpl) rawDataFile).getRawDataPyramid();
+    if ((pyramid == null) || (!pyramid.coversScans(scans)))
+      return null;
+    return pyramid;
+  }
+
+  /**
+   * Fills values[rtPixels][mzPixels] with the maximum intensities in the given area using the
+   * precomputed raster of the raw data file. Returns false if the raster is not available or too
+   * coarse for the requested area, in that case upperEndpointIntensity() has to be used.
+   */
+  boolean fillIntensityRaster(Range<Double> rtRange, Range<Double> mzRange, double values[][]) {
+    RawDataPyramid pyramid = getRawDataPyramid();
+    if (pyramid == null)
+      return false;
+    return pyramid.fillRaster(rtRange, mzRange, values);
+  }
+
   double upperEndpointIntensity(Range<Double> rtRange, Range<Double> mzRange, PlotMode plotMode) {
 
     double maxIntensity = 0;
@@ -243,7 +276,7 @@ class TwoDDataSet extends AbstractXYDataset implements Task {
     for (int scanIndex = startScanIndex; ((scanIndex < searchRetentionTimes.length)
         && (searchRetentionTimes[scanIndex] <= rtRange.upperEndpoint())); scanIndex++) {
       // get the list of data points
-      DataPoint dataPoints[] = dataPointMatrix[scanIndex].get();
+      DataPoint dataPoints[] = getDataPoints(scanIndex);
       // Binary search for the mz values in the range you want
 
       DataPoint searchMZ = new SimpleDataPoint(mzRange.lowerEndpoint(), 0);
@@ -285,13 +318,20 @@ class TwoDDataSet extends AbstractXYDataset implements Task {
 
   private double upperEndpointIntensity(int dataPointMatrixIndex, Range<Double> mzRange,
       PlotMode plotMode) {
-    DataPoint dataPoints[] = dataPointMatrix[dataPointMatrixIndex].get();
+    DataPoint dataPoints[] = getDataPoints(dataPointMatrixIndex);
+    return upperEndpointIntensity(dataPoints, mzRange, plotMode);
+  }
+
+  private DataPoint[] getDataPoints(int dataPointMatrixIndex) {
+    DataPoint dataPoints[] = null;
+    if (dataPointMatrix[dataPointMatrixIndex] != null)
+      dataPoints = dataPointMatrix[dataPointMatrixIndex].get();
     if (dataPoints == null) {
       Scan scan = scans[dataPointMatrixIndex];
       dataPoints = scan.getDataPoints();
       dataPointMatrix[dataPointMatrixIndex] = new SoftReference<DataPoint[]>(dataPoints);
     }
-    return upperEndpointIntensity(dataPoints, mzRange, plotMode);
+    return dataPoints;
   }
 
   private double upperEndpointIntensity(DataPoint dataPoints[], Range<Double> mzRange,
@@ -86,16 +86,25 @@ class TwoDXYPlot extends BaseXYPlot {
     double values[][] = new double[width][height];
     maxValue = 0; // now this is an instance variable
 
+    // use the precomputed raster of the raw data file, if possible
+    final boolean rasterFilled = dataset.fillIntensityRaster(Range.closed(imageRTMin, imageRTMax),
+        Range.closed(imageMZMin, imageMZMax), values);
+
     for (int i = 0; i < width; i++)
       for (int j = 0; j < height; j++) {
 
-        double pointRTMin = imageRTMin + (i * imageRTStep);
-        double pointRTMax = pointRTMin + imageRTStep;
-        double pointMZMin = imageMZMin + (j * imageMZStep);
-        double pointMZMax = pointMZMin + imageMZStep;
+        double lv;
+        if (rasterFilled) {
+          lv = values[i][j];
+        } else {
+          double pointRTMin = imageRTMin + (i * imageRTStep);
+          double pointRTMax = pointRTMin + imageRTStep;
+          double pointMZMin = imageMZMin + (j * imageMZStep);
+          double pointMZMax = pointMZMin + imageMZStep;
 
-        double lv = dataset.upperEndpointIntensity(Range.closed(pointRTMin, pointRTMax),
-            Range.closed(pointMZMin, pointMZMax), plotMode);
+          lv = dataset.upperEndpointIntensity(Range.closed(pointRTMin, pointRTMax),
+              Range.closed(pointMZMin, pointMZMax), plotMode);
+        }
 
         if (logScale) {
           lv = Math.log10(lv);
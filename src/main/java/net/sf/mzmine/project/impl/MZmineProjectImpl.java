@@ -19,11 +19,14 @@
 package net.sf.mzmine.project.impl;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Hashtable;
 import java.util.LinkedList;
 import java.util.Vector;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import javax.swing.SwingUtilities;
 
@@ -43,6 +46,8 @@ import net.sf.mzmine.parameters.UserParameter;
  */
 public class MZmineProjectImpl implements MZmineProject {
 
+  private final Logger logger = Logger.getLogger(this.getClass().getName());
+
   private Hashtable<UserParameter<?, ?>, Hashtable<RawDataFile, Object>> projectParametersAndValues;
 
   private PeakListTreeModel peakListTreeModel;
@@ -156,6 +161,15 @@ public class MZmineProjectImpl implements MZmineProject {
       listener.dataFileAdded(newFile);
     }
 
+    // Prepare the raster for the 2D/3D visualizers in the background. This is only useful when
+    // running with GUI. Virtual files are skipped, because the raster would compute all their
+    // scans.
+    if ((MZmineCore.getDesktop() instanceof MainWindow) && (newFile instanceof RawDataFileImpl)
+        && !(newFile instanceof VirtualRawDataFile)) {
+      MZmineCore.getTaskController()
+          .addTask(new RawDataPyramidBuildTask((RawDataFileImpl) newFile));
+    }
+
   }
 
   public void removeFile(final RawDataFile file) {
@@ -176,6 +190,18 @@ public class MZmineProjectImpl implements MZmineProject {
       e.printStackTrace();
     }
 
+    // Virtual files derived from this file need its data points, so they store them first
+    for (RawDataFile dataFile : getDataFiles()) {
+      if ((dataFile instanceof VirtualRawDataFile)
+          && (((VirtualRawDataFile) dataFile).getParentFile() == file)) {
+        try {
+          ((VirtualRawDataFile) dataFile).storeAllScans();
+        } catch (IOException e) {
+          logger.log(Level.SEVERE, "Could not store the data points of " + dataFile, e);
+        }
+      }
+    }
+
     // Close the data file, which also removed the temporary data
     file.close();
 
@@ -75,6 +75,9 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
   private File dataPointsFileName;
   private RandomAccessFile dataPointsFile;
 
+  // Multi-resolution raster for the 2D/3D visualizers, built in the background
+  private RawDataPyramid rawDataPyramid;
+
   // To store mass lists that have been added but not yet reflected in the GUI by the
   // notifyUpdatedMassLists() method
   private final List<MassList> newMassLists = new ArrayList<>();
@@ -84,6 +87,12 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
    */
   private final Hashtable<Integer, StorableScan> scans;
 
+  // Primitive scan number -> index/retention time lookup, built on first use
+  private volatile RetentionTimeLookup retentionTimeLookup;
+
+  // MS/MS scans sorted by precursor m/z, built on first use
+  private volatile MS2ScanIndex ms2ScanIndex;
+
   public RawDataFileImpl(String dataFileName) throws IOException {
 
     this.dataFileName = dataFileName;
@@ -120,6 +129,26 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
     return dataPointsFile;
   }
 
+  /**
+   * Returns the name of the data points file. May return null in case no scans have been added yet
+   */
+  public File getDataPointsFileName() {
+    return dataPointsFileName;
+  }
+
+  /**
+   * Returns the multi-resolution raster of MS1 scans, or null if it has not been built (yet)
+   */
+  public synchronized @Nullable RawDataPyramid getRawDataPyramid() {
+    return rawDataPyramid;
+  }
+
+  synchronized void setRawDataPyramid(RawDataPyramid rawDataPyramid) {
+    if (this.rawDataPyramid != null)
+      this.rawDataPyramid.close();
+    this.rawDataPyramid = rawDataPyramid;
+  }
+
   /**
    * Opens the given file as a data points file for this RawDataFileImpl instance. If the file is
    * not empty, the TreeMaps supplied as parameters have to describe the mapping of storage IDs to
@@ -167,6 +196,43 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
     return scans.get(scanNumber);
   }
 
+  /**
+   * @see net.sf.mzmine.datamodel.RawDataFile#getRetentionTime(int)
+   */
+  @Override
+  public double getRetentionTime(int scanNumber) {
+    RetentionTimeLookup lookup = getRetentionTimeLookup();
+    int index = Arrays.binarySearch(lookup.scanNumbers, scanNumber);
+    if (index < 0)
+      return Double.NaN;
+    return lookup.retentionTimes[index];
+  }
+
+  /**
+   * @see net.sf.mzmine.datamodel.RawDataFile#getScanIndex(int)
+   */
+  @Override
+  public int getScanIndex(int scanNumber) {
+    return Arrays.binarySearch(getRetentionTimeLookup().scanNumbers, scanNumber);
+  }
+
+  private RetentionTimeLookup getRetentionTimeLookup() {
+    RetentionTimeLookup lookup = retentionTimeLookup;
+    if (lookup != null)
+      return lookup;
+    synchronized (this) {
+      if (retentionTimeLookup == null) {
+        int scanNumbers[] = Ints.toArray(scans.keySet());
+        Arrays.sort(scanNumbers);
+        double retentionTimes[] = new double[scanNumbers.length];
+        for (int i = 0; i < scanNumbers.length; i++)
+          retentionTimes[i] = scans.get(scanNumbers[i]).getRetentionTime();
+        retentionTimeLookup = new RetentionTimeLookup(scanNumbers, retentionTimes);
+      }
+      return retentionTimeLookup;
+    }
+  }
+
   /**
    * @see net.sf.mzmine.datamodel.RawDataFile#getScanNumbers(int)
    */
@@ -204,6 +270,81 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
     return numbersArray;
   }
 
+  /**
+   * @see net.sf.mzmine.datamodel.RawDataFile#getMS2ScanNumbers(Range, Range)
+   */
+  @Override
+  public @Nonnull int[] getMS2ScanNumbers(@Nonnull Range<Double> rtRange,
+      @Nonnull Range<Double> precursorMZRange) {
+
+    assert rtRange != null;
+    assert precursorMZRange != null;
+
+    final MS2ScanIndex index = getMS2ScanIndex();
+    final double precursorMZs[] = index.precursorMZs;
+
+    // First scan with precursor m/z >= lower endpoint
+    int first = 0;
+    if (precursorMZRange.hasLowerBound()) {
+      final double lower = precursorMZRange.lowerEndpoint();
+      int hi = precursorMZs.length;
+      while (first < hi) {
+        int mid = (first + hi) >>> 1;
+        if (precursorMZs[mid] < lower)
+          first = mid + 1;
+        else
+          hi = mid;
+      }
+    }
+
+    int result[] = new int[16];
+    int size = 0;
+    for (int i = first; i < precursorMZs.length; i++) {
+      if (precursorMZRange.hasUpperBound()
+          && (precursorMZs[i] > precursorMZRange.upperEndpoint()))
+        break;
+      if (!precursorMZRange.contains(precursorMZs[i])
+          || !rtRange.contains(index.retentionTimes[i]))
+        continue;
+      if (size == result.length)
+        result = Arrays.copyOf(result, size * 2);
+      result[size++] = index.scanNumbers[i];
+    }
+
+    result = Arrays.copyOf(result, size);
+    Arrays.sort(result);
+    return result;
+  }
+
+  private MS2ScanIndex getMS2ScanIndex() {
+    MS2ScanIndex index = ms2ScanIndex;
+    if (index != null)
+      return index;
+    synchronized (this) {
+      if (ms2ScanIndex == null) {
+        List<StorableScan> ms2Scans = new ArrayList<>();
+        for (StorableScan scan : scans.values()) {
+          if (scan.getMSLevel() == 2)
+            ms2Scans.add(scan);
+        }
+        ms2Scans.sort((s1, s2) -> Double.compare(s1.getPrecursorMZ(), s2.getPrecursorMZ()));
+
+        final int numOfScans = ms2Scans.size();
+        int scanNumbers[] = new int[numOfScans];
+        double precursorMZs[] = new double[numOfScans];
+        double retentionTimes[] = new double[numOfScans];
+        for (int i = 0; i < numOfScans; i++) {
+          StorableScan scan = ms2Scans.get(i);
+          scanNumbers[i] = scan.getScanNumber();
+          precursorMZs[i] = scan.getPrecursorMZ();
+          retentionTimes[i] = scan.getRetentionTime();
+        }
+        ms2ScanIndex = new MS2ScanIndex(scanNumbers, precursorMZs, retentionTimes);
+      }
+      return ms2ScanIndex;
+    }
+  }
+
   /**
    * @see net.sf.mzmine.datamodel.RawDataFile#getScanNumbers()
    */
@@ -321,24 +462,45 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
 
   public synchronized int storeDataPoints(DataPoint dataPoints[]) throws IOException {
 
-    if (dataPointsFile == null) {
-      File newFile = RawDataFileImpl.createNewDataPointsFile();
-      openDataPointsFile(newFile);
+    final int numOfDataPoints = dataPoints.length;
+
+    FloatBuffer floatBuffer = getStoreBuffer(numOfDataPoints);
+    for (DataPoint dp : dataPoints) {
+      floatBuffer.put((float) dp.getMZ());
+      floatBuffer.put((float) dp.getIntensity());
     }
 
-    final long currentOffset = dataPointsFile.length();
+    return writeStoreBuffer(numOfDataPoints);
 
-    final int currentID;
-    if (!dataPointsOffsets.isEmpty())
-      currentID = dataPointsOffsets.lastKey() + 1;
-    else
-      currentID = 1;
+  }
 
-    final int numOfDataPoints = dataPoints.length;
+  /**
+   * Stores the data points from index offset to offset + numOfDataPoints (exclusive) of the given
+   * arrays, without creating DataPoint objects. Same as storeDataPoints(DataPoint[]).
+   * 
+   * @return Storage ID
+   */
+  public synchronized int storeDataPoints(double mzValues[], double intensityValues[], int offset,
+      int numOfDataPoints) throws IOException {
+
+    FloatBuffer floatBuffer = getStoreBuffer(numOfDataPoints);
+    final int end = offset + numOfDataPoints;
+    for (int i = offset; i < end; i++) {
+      floatBuffer.put((float) mzValues[i]);
+      floatBuffer.put((float) intensityValues[i]);
+    }
+
+    return writeStoreBuffer(numOfDataPoints);
+
+  }
 
-    // Convert the dataPoints into a byte array. Each float takes 4 bytes,
-    // so we get the current float offset by dividing the size of the file
-    // by 4
+  /**
+   * Returns the buffer to be filled with the m/z and intensity values of given number of data
+   * points, which are then stored by writeStoreBuffer()
+   */
+  private FloatBuffer getStoreBuffer(int numOfDataPoints) {
+
+    // Each float takes 4 bytes
     final int numOfBytes = numOfDataPoints * 2 * 4;
 
     if (buffer.capacity() < numOfBytes) {
@@ -349,14 +511,31 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
       ((Buffer) buffer).clear();
     }
 
-    FloatBuffer floatBuffer = buffer.asFloatBuffer();
-    for (DataPoint dp : dataPoints) {
-      floatBuffer.put((float) dp.getMZ());
-      floatBuffer.put((float) dp.getIntensity());
+    return buffer.asFloatBuffer();
+  }
+
+  /**
+   * Appends the filled buffer to the data points file
+   * 
+   * @return Storage ID
+   */
+  private int writeStoreBuffer(int numOfDataPoints) throws IOException {
+
+    if (dataPointsFile == null) {
+      File newFile = RawDataFileImpl.createNewDataPointsFile();
+      openDataPointsFile(newFile);
     }
 
+    final long currentOffset = dataPointsFile.length();
+
+    final int currentID;
+    if (!dataPointsOffsets.isEmpty())
+      currentID = dataPointsOffsets.lastKey() + 1;
+    else
+      currentID = 1;
+
     dataPointsFile.seek(currentOffset);
-    dataPointsFile.write(buffer.array(), 0, numOfBytes);
+    dataPointsFile.write(buffer.array(), 0, numOfDataPoints * 2 * 4);
 
     dataPointsOffsets.put(currentID, currentOffset);
     dataPointsLengths.put(currentID, numOfDataPoints);
@@ -367,6 +546,69 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
 
   public synchronized DataPoint[] readDataPoints(int ID) throws IOException {
 
+    FloatBuffer floatBuffer = readStoredValues(ID);
+    final int numOfDataPoints = floatBuffer.remaining() / 2;
+
+    DataPoint dataPoints[] = new DataPoint[numOfDataPoints];
+
+    for (int i = 0; i < numOfDataPoints; i++) {
+      float mz = floatBuffer.get();
+      float intensity = floatBuffer.get();
+      dataPoints[i] = new SimpleDataPoint(mz, intensity);
+    }
+
+    return dataPoints;
+
+  }
+
+  /**
+   * Reads the data points of given storage ID into the given arrays, without creating DataPoint
+   * objects. The arrays must hold at least the number of stored data points.
+   * 
+   * @return Number of data points
+   */
+  public synchronized int readDataPoints(int ID, float mzValues[], float intensityValues[])
+      throws IOException {
+
+    FloatBuffer floatBuffer = readStoredValues(ID);
+    final int numOfDataPoints = floatBuffer.remaining() / 2;
+
+    for (int i = 0; i < numOfDataPoints; i++) {
+      mzValues[i] = floatBuffer.get();
+      intensityValues[i] = floatBuffer.get();
+    }
+
+    return numOfDataPoints;
+
+  }
+
+  /**
+   * Same as readDataPoints(int, float[], float[]), for arrays of doubles
+   * 
+   * @return Number of data points
+   */
+  public synchronized int readDataPoints(int ID, double mzValues[], double intensityValues[])
+      throws IOException {
+
+    FloatBuffer floatBuffer = readStoredValues(ID);
+    final int numOfDataPoints = floatBuffer.remaining() / 2;
+
+    for (int i = 0; i < numOfDataPoints; i++) {
+      mzValues[i] = floatBuffer.get();
+      intensityValues[i] = floatBuffer.get();
+    }
+
+    return numOfDataPoints;
+
+  }
+
+  /**
+   * Reads the stored m/z and intensity values of given storage ID into the shared buffer
+   * 
+   * @return m/z and intensity values of each data point, in turn
+   */
+  private FloatBuffer readStoredValues(int ID) throws IOException {
+
     final Long currentOffset = dataPointsOffsets.get(ID);
     final Integer numOfDataPoints = dataPointsLengths.get(ID);
 
@@ -387,17 +629,8 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
     dataPointsFile.seek(currentOffset);
     dataPointsFile.read(buffer.array(), 0, numOfBytes);
 
-    FloatBuffer floatBuffer = buffer.asFloatBuffer();
-
-    DataPoint dataPoints[] = new DataPoint[numOfDataPoints];
-
-    for (int i = 0; i < numOfDataPoints; i++) {
-      float mz = floatBuffer.get();
-      float intensity = floatBuffer.get();
-      dataPoints[i] = new SimpleDataPoint(mz, intensity);
-    }
-
-    return dataPoints;
+    ((Buffer) buffer).limit(numOfBytes);
+    return buffer.asFloatBuffer();
 
   }
 
@@ -409,6 +642,9 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
   @Override
   public synchronized void addScan(Scan newScan) throws IOException {
 
+    retentionTimeLookup = null;
+    ms2ScanIndex = null;
+
     // When we are loading the project, scan data file is already prepare
     // and we just need store the reference
     if (newScan instanceof StorableScan) {
@@ -431,7 +667,9 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
   @Override
   public synchronized RawDataFile finishWriting() throws IOException {
     for (StorableScan scan : scans.values()) {
-      scan.updateValues();
+      // Values of virtual scans are computed when they are first needed
+      if (!(scan instanceof VirtualScan))
+        scan.updateValues();
     }
     logger.finest("Writing of scans to file " + dataPointsFileName + " finished");
     return this;
@@ -534,6 +772,10 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
 
   @Override
   public synchronized void close() {
+    if (rawDataPyramid != null) {
+      rawDataPyramid.close();
+      rawDataPyramid = null;
+    }
     try {
       if (dataPointsFileName != null) {
         dataPointsFile.close();
@@ -560,4 +802,34 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
     return dataFileName;
   }
 
+  /**
+   * Sorted scan numbers and their retention times
+   */
+  private static final class RetentionTimeLookup {
+
+    private final int scanNumbers[];
+    private final double retentionTimes[];
+
+    private RetentionTimeLookup(int scanNumbers[], double retentionTimes[]) {
+      this.scanNumbers = scanNumbers;
+      this.retentionTimes = retentionTimes;
+    }
+  }
+
+  /**
+   * MS/MS scans sorted by precursor m/z, with their scan numbers and retention times
+   */
+  private static final class MS2ScanIndex {
+
+    private final int scanNumbers[];
+    private final double precursorMZs[];
+    private final double retentionTimes[];
+
+    private MS2ScanIndex(int scanNumbers[], double precursorMZs[], double retentionTimes[]) {
+      this.scanNumbers = scanNumbers;
+      this.precursorMZs = precursorMZs;
+      this.retentionTimes = retentionTimes;
+    }
+  }
+
 }
@@ -0,0 +1,308 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.project.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import javax.annotation.Nonnull;
+
+import com.google.common.collect.Range;
+
+import net.sf.mzmine.datamodel.Scan;
+
+/**
+ * Multi-resolution RT x m/z intensity raster of the MS1 scans of a raw data file. Level 0 has one
+ * column per MS1 scan and MZ_BINS rows spanning the MS1 m/z range of the file; each further level
+ * halves both axes by taking the maximum of 2x2 cells of the level below. The raster is split into
+ * square tiles of TILE_SIZE x TILE_SIZE floats, which are stored in a file next to the data points
+ * file of the raw data file and loaded on demand. The pyramid is built by RawDataPyramidBuildTask.
+ */
+public class RawDataPyramid {
+
+  private final Logger logger = Logger.getLogger(this.getClass().getName());
+
+  /**
+   * Number of m/z bins on level 0
+   */
+  static final int MZ_BINS = 4096;
+
+  /**
+   * Tiles are square, TILE_SIZE columns (scans) x TILE_SIZE rows (m/z bins)
+   */
+  static final int TILE_SIZE = 256;
+
+  static final int TILE_BYTES = TILE_SIZE * TILE_SIZE * 4;
+
+  // Number of decoded tiles kept in memory (64 tiles = 16 MB)
+  private static final int TILE_CACHE_SIZE = 64;
+
+  private final File pyramidFileName;
+  private final RandomAccessFile pyramidFile;
+
+  private final int scanNumbers[];
+  private final double retentionTimes[];
+  private final double mzMin, mzMax;
+
+  // Number of columns, rows and tiles of each level, and the offset of each level in the file
+  private final int levelColumns[], levelRows[], levelTilesX[], levelTilesY[];
+  private final long levelOffsets[];
+
+  private final Map<Long, float[]> tileCache =
+      new LinkedHashMap<Long, float[]>(TILE_CACHE_SIZE, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, float[]> eldest) {
+          return size() > TILE_CACHE_SIZE;
+        }
+      };
+
+  private final ByteBuffer tileBuffer = ByteBuffer.allocate(TILE_BYTES);
+
+  RawDataPyramid(File pyramidFileName, RandomAccessFile pyramidFile, int scanNumbers[],
+      double retentionTimes[], Range<Double> mzRange) {
+
+    this.pyramidFileName = pyramidFileName;
+    this.pyramidFile = pyramidFile;
+    this.scanNumbers = scanNumbers;
+    this.retentionTimes = retentionTimes;
+    this.mzMin = mzRange.lowerEndpoint();
+    this.mzMax = mzRange.upperEndpoint();
+
+    // Calculate the geometry of all levels, until the whole raster fits into a single tile
+    int numOfLevels = 1;
+    int columns = Math.max(scanNumbers.length, 1), rows = MZ_BINS;
+    while ((columns > TILE_SIZE) || (rows > TILE_SIZE)) {
+      columns = (columns + 1) / 2;
+      rows = (rows + 1) / 2;
+      numOfLevels++;
+    }
+
+    levelColumns = new int[numOfLevels];
+    levelRows = new int[numOfLevels];
+    levelTilesX = new int[numOfLevels];
+    levelTilesY = new int[numOfLevels];
+    levelOffsets = new long[numOfLevels];
+
+    columns = Math.max(scanNumbers.length, 1);
+    rows = MZ_BINS;
+    long offset = 0;
+    for (int level = 0; level < numOfLevels; level++) {
+      levelColumns[level] = columns;
+      levelRows[level] = rows;
+      levelTilesX[level] = (columns + TILE_SIZE - 1) / TILE_SIZE;
+      levelTilesY[level] = (rows + TILE_SIZE - 1) / TILE_SIZE;
+      levelOffsets[level] = offset;
+      offset += (long) levelTilesX[level] * levelTilesY[level] * TILE_BYTES;
+      columns = (columns + 1) / 2;
+      rows = (rows + 1) / 2;
+    }
+
+  }
+
+  /**
+   * Returns true if the pyramid was built from exactly the given scans, in the given order
+   */
+  public boolean coversScans(@Nonnull Scan scans[]) {
+    if (scans.length != scanNumbers.length)
+      return false;
+    for (int i = 0; i < scans.length; i++) {
+      if (scans[i].getScanNumber() != scanNumbers[i])
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * Fills the given values[rtPixels][mzPixels] array with the maximum intensity found in each pixel
+   * of the given RT x m/z area. Pixels with no scan in their RT range take the value of the closest
+   * scan. Returns false (and leaves the array untouched) if the m/z pixels are finer than the finest
+   * level of the pyramid - in that case, the caller has to read the raw data points.
+   */
+  public boolean fillRaster(@Nonnull Range<Double> rtRange, @Nonnull Range<Double> mzRange,
+      double values[][]) {
+
+    final int width = values.length;
+    if ((width == 0) || (retentionTimes.length == 0))
+      return false;
+    final int height = values[0].length;
+
+    final double binWidth0 = (mzMax - mzMin) / MZ_BINS;
+    final double rtStep = (rtRange.upperEndpoint() - rtRange.lowerEndpoint()) / width;
+    final double mzStep = (mzRange.upperEndpoint() - mzRange.lowerEndpoint()) / height;
+
+    if ((binWidth0 <= 0) || (mzStep < binWidth0))
+      return false;
+
+    // Pick the coarsest level that still resolves both axes
+    int firstScan = lowerScanIndex(rtRange.lowerEndpoint());
+    int lastScan = lowerScanIndex(Math.nextUp(rtRange.upperEndpoint()));
+    double scansPerPixel = Math.max(1d, (double) (lastScan - firstScan) / width);
+    double binsPerPixel = mzStep / binWidth0;
+    int level = (int) Math.floor(Math.log(Math.min(scansPerPixel, binsPerPixel)) / Math.log(2));
+    level = Math.max(0, Math.min(level, levelColumns.length - 1));
+
+    final double binWidth = binWidth0 * (1 << level);
+
+    try {
+      for (int i = 0; i < width; i++) {
+
+        double pixelRTMin = rtRange.lowerEndpoint() + (i * rtStep);
+        double pixelRTMax = pixelRTMin + rtStep;
+
+        int startScan = lowerScanIndex(pixelRTMin);
+        int endScan = lowerScanIndex(Math.nextUp(pixelRTMax)) - 1;
+
+        // No scan in this pixel - take the closest one, unless we are outside of the data
+        if (endScan < startScan) {
+          if ((startScan == 0) || (startScan >= retentionTimes.length)) {
+            Arrays.fill(values[i], 0);
+            continue;
+          }
+          if ((pixelRTMin - retentionTimes[startScan - 1]) < (retentionTimes[startScan]
+              - pixelRTMax))
+            startScan--;
+          endScan = startScan;
+        }
+
+        int startColumn = startScan >> level;
+        int endColumn = endScan >> level;
+
+        for (int j = 0; j < height; j++) {
+
+          double pixelMZMin = mzRange.lowerEndpoint() + (j * mzStep);
+          double pixelMZMax = pixelMZMin + mzStep;
+
+          if ((pixelMZMax < mzMin) || (pixelMZMin > mzMax)) {
+            values[i][j] = 0;
+            continue;
+          }
+
+          int startRow = Math.max(0, (int) ((pixelMZMin - mzMin) / binWidth));
+          int endRow = Math.min(levelRows[level] - 1, (int) ((pixelMZMax - mzMin) / binWidth));
+
+          float max = 0;
+          for (int column = startColumn; column <= endColumn; column++) {
+            for (int row = startRow; row <= endRow; row++) {
+              float value = getValue(level, column, row);
+              if (value > max)
+                max = value;
+            }
+          }
+          values[i][j] = max;
+        }
+      }
+    } catch (IOException e) {
+      logger.warning("Could not read raster tiles from " + pyramidFileName + ": " + e);
+      return false;
+    }
+
+    return true;
+
+  }
+
+  /**
+   * Returns the index of the first scan with retention time >= rt
+   */
+  private int lowerScanIndex(double rt) {
+    int index = Arrays.binarySearch(retentionTimes, rt);
+    if (index < 0)
+      return -index - 1;
+    // Move to the first of equal retention times
+    while ((index > 0) && (retentionTimes[index - 1] == rt))
+      index--;
+    return index;
+  }
+
+  private float getValue(int level, int column, int row) throws IOException {
+    float tile[] = getTile(level, column / TILE_SIZE, row / TILE_SIZE);
+    return tile[(column % TILE_SIZE) * TILE_SIZE + (row % TILE_SIZE)];
+  }
+
+  /**
+   * Returns the tile at given position, reading it from the pyramid file if it is not cached
+   */
+  synchronized float[] getTile(int level, int tileX, int tileY) throws IOException {
+
+    long tileOffset = getTileOffset(level, tileX, tileY);
+    float tile[] = tileCache.get(tileOffset);
+    if (tile != null)
+      return tile;
+
+    ((Buffer) tileBuffer).clear();
+    pyramidFile.getChannel().read(tileBuffer, tileOffset);
+    ((Buffer) tileBuffer).clear();
+
+    tile = new float[TILE_SIZE * TILE_SIZE];
+    tileBuffer.asFloatBuffer().get(tile);
+    tileCache.put(tileOffset, tile);
+
+    return tile;
+  }
+
+  long getTileOffset(int level, int tileX, int tileY) {
+    return levelOffsets[level] + ((long) tileX * levelTilesY[level] + tileY) * TILE_BYTES;
+  }
+
+  int getNumOfLevels() {
+    return levelColumns.length;
+  }
+
+  int getNumOfTilesX(int level) {
+    return levelTilesX[level];
+  }
+
+  int getNumOfTilesY(int level) {
+    return levelTilesY[level];
+  }
+
+  double getMZMin() {
+    return mzMin;
+  }
+
+  double getMZMax() {
+    return mzMax;
+  }
+
+  RandomAccessFile getPyramidFile() {
+    return pyramidFile;
+  }
+
+  /**
+   * Closes and removes the pyramid file
+   */
+  synchronized void close() {
+    tileCache.clear();
+    try {
+      pyramidFile.close();
+    } catch (IOException e) {
+      logger.warning("Could not close file " + pyramidFileName + ": " + e.toString());
+    }
+    pyramidFileName.delete();
+  }
+
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.project.impl;
+
+import static net.sf.mzmine.project.impl.RawDataPyramid.MZ_BINS;
+import static net.sf.mzmine.project.impl.RawDataPyramid.TILE_BYTES;
+import static net.sf.mzmine.project.impl.RawDataPyramid.TILE_SIZE;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.common.collect.Range;
+
+import net.sf.mzmine.datamodel.DataPoint;
+import net.sf.mzmine.datamodel.Scan;
+import net.sf.mzmine.taskcontrol.AbstractTask;
+import net.sf.mzmine.taskcontrol.TaskStatus;
+import net.sf.mzmine.util.ExceptionUtils;
+
+/**
+ * Builds the RawDataPyramid of the MS1 scans of a raw data file in the background. Level 0 is
+ * written in strips of TILE_SIZE scans, so only one strip is kept in memory; each coarser level is
+ * then computed from the tiles of the level below.
+ */
+public class RawDataPyramidBuildTask extends AbstractTask {
+
+  private final Logger logger = Logger.getLogger(this.getClass().getName());
+
+  private final RawDataFileImpl dataFile;
+
+  private int totalTiles, processedTiles;
+
+  public RawDataPyramidBuildTask(RawDataFileImpl dataFile) {
+    this.dataFile = dataFile;
+  }
+
+  @Override
+  public String getTaskDescription() {
+    return "Building 2D raster of " + dataFile;
+  }
+
+  @Override
+  public double getFinishedPercentage() {
+    if (totalTiles == 0)
+      return 0;
+    return (double) processedTiles / totalTiles;
+  }
+
+  @Override
+  public void run() {
+
+    setStatus(TaskStatus.PROCESSING);
+
+    final File dataPointsFileName = dataFile.getDataPointsFileName();
+    final int scanNumbers[] = dataFile.getScanNumbers(1);
+
+    if ((dataPointsFileName == null) || (scanNumbers.length == 0)) {
+      setStatus(TaskStatus.FINISHED);
+      return;
+    }
+
+    final File pyramidFileName = new File(dataPointsFileName.getPath() + ".pyramid");
+    RandomAccessFile pyramidFile = null;
+
+    try {
+
+      pyramidFile = new RandomAccessFile(pyramidFileName, "rw");
+      pyramidFileName.deleteOnExit();
+
+      // Lock the file, same as the data points file, so it is not removed by another instance of
+      // MZmine in TmpFileCleanup
+      try {
+        pyramidFile.getChannel().lock();
+      } catch (IOException e) {
+        logger.log(Level.WARNING, "Failed to lock the file " + pyramidFileName, e);
+      }
+
+      final double retentionTimes[] = new double[scanNumbers.length];
+      for (int i = 0; i < scanNumbers.length; i++) {
+        retentionTimes[i] = dataFile.getScan(scanNumbers[i]).getRetentionTime();
+      }
+      final Range<Double> mzRange = dataFile.getDataMZRange(1);
+
+      RawDataPyramid pyramid = new RawDataPyramid(pyramidFileName, pyramidFile, scanNumbers,
+          retentionTimes, mzRange);
+
+      for (int level = 0; level < pyramid.getNumOfLevels(); level++)
+        totalTiles += pyramid.getNumOfTilesX(level) * pyramid.getNumOfTilesY(level);
+
+      writeBaseLevel(pyramid, scanNumbers);
+
+      for (int level = 1; level < pyramid.getNumOfLevels(); level++) {
+        if (isCanceled())
+          break;
+        writeLevel(pyramid, level);
+      }
+
+      if (isCanceled()) {
+        pyramid.close();
+        return;
+      }
+
+      dataFile.setRawDataPyramid(pyramid);
+
+    } catch (Throwable e) {
+      if (pyramidFile != null) {
+        try {
+          pyramidFile.close();
+        } catch (IOException ioe) {
+          // ignore, we are removing the file anyway
+        }
+      }
+      pyramidFileName.delete();
+      logger.log(Level.WARNING, "Could not build 2D raster of " + dataFile, e);
+      setStatus(TaskStatus.ERROR);
+      setErrorMessage("Error while building 2D raster of " + dataFile + ": "
+          + ExceptionUtils.exceptionToString(e));
+      return;
+    }
+
+    logger.finest("Finished building 2D raster of " + dataFile);
+    setStatus(TaskStatus.FINISHED);
+
+  }
+
+  /**
+   * Bins the data points of all scans into level 0, one strip of TILE_SIZE scans at a time
+   */
+  private void writeBaseLevel(RawDataPyramid pyramid, int scanNumbers[]) throws IOException {
+
+    final FileChannel channel = pyramid.getPyramidFile().getChannel();
+    final double mzMin = pyramid.getMZMin();
+    final double binWidth = (pyramid.getMZMax() - mzMin) / MZ_BINS;
+
+    final float strip[] = new float[TILE_SIZE * MZ_BINS];
+    final ByteBuffer tileBuffer = ByteBuffer.allocate(TILE_BYTES);
+
+    for (int tileX = 0; tileX < pyramid.getNumOfTilesX(0); tileX++) {
+
+      if (isCanceled())
+        return;
+
+      // strip is stored as [column][m/z bin]
+      Arrays.fill(strip, 0f);
+
+      for (int column = 0; column < TILE_SIZE; column++) {
+        int scanIndex = tileX * TILE_SIZE + column;
+        if (scanIndex >= scanNumbers.length)
+          break;
+
+        Scan scan = dataFile.getScan(scanNumbers[scanIndex]);
+        DataPoint dataPoints[] = scan.getDataPoints();
+        int columnOffset = column * MZ_BINS;
+        for (DataPoint dp : dataPoints) {
+          int bin = (binWidth > 0) ? (int) ((dp.getMZ() - mzMin) / binWidth) : 0;
+          if (bin < 0)
+            bin = 0;
+          if (bin >= MZ_BINS)
+            bin = MZ_BINS - 1;
+          float intensity = (float) dp.getIntensity();
+          if (intensity > strip[columnOffset + bin])
+            strip[columnOffset + bin] = intensity;
+        }
+      }
+
+      for (int tileY = 0; tileY < pyramid.getNumOfTilesY(0); tileY++) {
+        ((Buffer) tileBuffer).clear();
+        FloatBuffer floatBuffer = tileBuffer.asFloatBuffer();
+        for (int column = 0; column < TILE_SIZE; column++) {
+          floatBuffer.put(strip, column * MZ_BINS + tileY * TILE_SIZE, TILE_SIZE);
+        }
+        writeTile(channel, tileBuffer, pyramid.getTileOffset(0, tileX, tileY));
+        processedTiles++;
+      }
+    }
+  }
+
+  /**
+   * Computes each tile of the given level as 2x2 maximum of the level below
+   */
+  private void writeLevel(RawDataPyramid pyramid, int level) throws IOException {
+
+    final FileChannel channel = pyramid.getPyramidFile().getChannel();
+    final ByteBuffer tileBuffer = ByteBuffer.allocate(TILE_BYTES);
+    final float tile[] = new float[TILE_SIZE * TILE_SIZE];
+
+    final int childTilesX = pyramid.getNumOfTilesX(level - 1);
+    final int childTilesY = pyramid.getNumOfTilesY(level - 1);
+
+    for (int tileX = 0; tileX < pyramid.getNumOfTilesX(level); tileX++) {
+      for (int tileY = 0; tileY < pyramid.getNumOfTilesY(level); tileY++) {
+
+        if (isCanceled())
+          return;
+
+        Arrays.fill(tile, 0f);
+
+        // Each tile covers 2x2 tiles of the level below
+        for (int dx = 0; dx < 2; dx++) {
+          for (int dy = 0; dy < 2; dy++) {
+            int childX = tileX * 2 + dx, childY = tileY * 2 + dy;
+            if ((childX >= childTilesX) || (childY >= childTilesY))
+              continue;
+            float child[] = pyramid.getTile(level - 1, childX, childY);
+            int halfTile = TILE_SIZE / 2;
+            for (int column = 0; column < TILE_SIZE; column++) {
+              int targetColumn = dx * halfTile + column / 2;
+              for (int row = 0; row < TILE_SIZE; row++) {
+                int targetIndex = targetColumn * TILE_SIZE + dy * halfTile + row / 2;
+                float value = child[column * TILE_SIZE + row];
+                if (value > tile[targetIndex])
+                  tile[targetIndex] = value;
+              }
+            }
+          }
+        }
+
+        ((Buffer) tileBuffer).clear();
+        tileBuffer.asFloatBuffer().put(tile);
+        writeTile(channel, tileBuffer, pyramid.getTileOffset(level, tileX, tileY));
+        processedTiles++;
+      }
+    }
+  }
+
+  private void writeTile(FileChannel channel, ByteBuffer tileBuffer, long offset)
+      throws IOException {
+    ((Buffer) tileBuffer).clear();
+    while (tileBuffer.hasRemaining()) {
+      offset += channel.write(tileBuffer, offset);
+    }
+  }
+
+}
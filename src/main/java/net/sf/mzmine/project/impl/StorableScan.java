@@ -35,6 +35,7 @@ import net.sf.mzmine.datamodel.MassSpectrumType;
 import net.sf.mzmine.datamodel.PolarityType;
 import net.sf.mzmine.datamodel.RawDataFile;
 import net.sf.mzmine.datamodel.Scan;
+import net.sf.mzmine.datamodel.impl.SimpleDataPoint;
 import net.sf.mzmine.desktop.impl.projecttree.RawDataTreeModel;
 import net.sf.mzmine.main.MZmineCore;
 import net.sf.mzmine.util.scans.ScanUtils;
@@ -182,6 +183,15 @@ public class StorableScan implements Scan {
     return storageID;
   }
 
+  /**
+   * Sets the storage ID and number of data points of a scan whose data points were stored after it
+   * was created (see VirtualScan)
+   */
+  void setStoredDataPoints(int storageID, int numberOfDataPoints) {
+    this.storageID = storageID;
+    this.numberOfDataPoints = numberOfDataPoints;
+  }
+
   /**
    * @see net.sf.mzmine.datamodel.Scan#getNumberOfDataPoints()
    */
@@ -224,32 +234,112 @@ public class StorableScan implements Scan {
     return retentionTime;
   }
 
+  /**
+   * Reads the data points of the scan into the given arrays, which must hold at least
+   * scan.getNumberOfDataPoints() values. Scans stored by RawDataFileImpl are read directly from the
+   * storage, without creating DataPoint objects. Other scans, including virtual scans which were
+   * not stored yet, are read by getDataPoints().
+   *
+   * @return Number of data points
+   */
+  public static int readDataPoints(Scan scan, double mzValues[], double intensityValues[])
+      throws IOException {
+    if (isStoredInFile(scan)) {
+      StorableScan storableScan = (StorableScan) scan;
+      return storableScan.rawDataFile.readDataPoints(storableScan.storageID, mzValues,
+          intensityValues);
+    }
+    DataPoint dataPoints[] = scan.getDataPoints();
+    for (int i = 0; i < dataPoints.length; i++) {
+      mzValues[i] = dataPoints[i].getMZ();
+      intensityValues[i] = dataPoints[i].getIntensity();
+    }
+    return dataPoints.length;
+  }
+
+  /**
+   * Same as readDataPoints(Scan, double[], double[]), for arrays of floats
+   *
+   * @return Number of data points
+   */
+  public static int readDataPoints(Scan scan, float mzValues[], float intensityValues[])
+      throws IOException {
+    if (isStoredInFile(scan)) {
+      StorableScan storableScan = (StorableScan) scan;
+      return storableScan.rawDataFile.readDataPoints(storableScan.storageID, mzValues,
+          intensityValues);
+    }
+    DataPoint dataPoints[] = scan.getDataPoints();
+    for (int i = 0; i < dataPoints.length; i++) {
+      mzValues[i] = (float) dataPoints[i].getMZ();
+      intensityValues[i] = (float) dataPoints[i].getIntensity();
+    }
+    return dataPoints.length;
+  }
+
+  private static boolean isStoredInFile(Scan scan) {
+    return (scan instanceof StorableScan) && (scan.getDataFile() instanceof RawDataFileImpl)
+        && !((scan instanceof VirtualScan) && !((VirtualScan) scan).isStored());
+  }
+
   void updateValues() {
-    DataPoint dataPoints[] = getDataPoints();
+
+    // Read the stored values directly, without creating a DataPoint object for each data point
+    final double mzValues[] = new double[numberOfDataPoints];
+    final double intensityValues[] = new double[numberOfDataPoints];
+    int numOfDataPoints;
+    try {
+      numOfDataPoints = rawDataFile.readDataPoints(storageID, mzValues, intensityValues);
+    } catch (IOException e) {
+      logger.severe("Could not read data from temporary file " + e.toString());
+      numOfDataPoints = 0;
+    }
+    updateValues(mzValues, intensityValues, numOfDataPoints);
+  }
+
+  /**
+   * Computes the m/z range, base peak and TIC from the given data points
+   */
+  void updateValues(DataPoint dataPoints[]) {
+    final double mzValues[] = new double[dataPoints.length];
+    final double intensityValues[] = new double[dataPoints.length];
+    for (int i = 0; i < dataPoints.length; i++) {
+      mzValues[i] = dataPoints[i].getMZ();
+      intensityValues[i] = dataPoints[i].getIntensity();
+    }
+    updateValues(mzValues, intensityValues, dataPoints.length);
+  }
+
+  private void updateValues(double mzValues[], double intensityValues[], int numOfDataPoints) {
 
     // find m/z range and base peak
-    if (dataPoints.length > 0) {
+    if (numOfDataPoints > 0) {
 
-      basePeak = dataPoints[0];
-      mzRange = Range.singleton(dataPoints[0].getMZ());
+      int basePeakIndex = 0;
+      double minMZ = mzValues[0], maxMZ = mzValues[0];
       double tic = 0;
 
-      for (DataPoint dp : dataPoints) {
+      for (int i = 0; i < numOfDataPoints; i++) {
 
-        if (dp.getIntensity() > basePeak.getIntensity())
-          basePeak = dp;
+        if (intensityValues[i] > intensityValues[basePeakIndex])
+          basePeakIndex = i;
 
-        mzRange = mzRange.span(Range.singleton(dp.getMZ()));
+        if (mzValues[i] < minMZ)
+          minMZ = mzValues[i];
+        if (mzValues[i] > maxMZ)
+          maxMZ = mzValues[i];
 
-        tic += dp.getIntensity();
+        tic += intensityValues[i];
 
       }
 
-      totalIonCurrent = new Double(tic);
+      basePeak = new SimpleDataPoint(mzValues[basePeakIndex], intensityValues[basePeakIndex]);
+      mzRange = Range.closed(minMZ, maxMZ);
+      totalIonCurrent = Double.valueOf(tic);
 
     } else {
       mzRange = Range.singleton(0.0);
-      totalIonCurrent = new Double(0);
+      totalIonCurrent = Double.valueOf(0);
     }
   }
 
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.project.impl;
+
+import java.io.IOException;
+import java.util.logging.Logger;
+
+import javax.annotation.Nonnull;
+
+import net.sf.mzmine.datamodel.RawDataFile;
+import net.sf.mzmine.datamodel.Scan;
+import net.sf.mzmine.datamodel.ScanTransformation;
+import net.sf.mzmine.datamodel.VirtualRawDataFileWriter;
+
+/**
+ * Raw data file derived from a parent raw data file, whose scans compute their data points from the
+ * parent scans when they are read (see VirtualScan). Creating such a file costs almost nothing, so
+ * chains of raw data filters only do their work for the data which is actually read. The parent
+ * file must stay open as long as the scans are not stored: when the parent is removed from the
+ * project or this file is saved in a project, the data points are stored by storeAllScans().
+ */
+public class VirtualRawDataFile extends RawDataFileImpl implements VirtualRawDataFileWriter {
+
+  private final Logger logger = Logger.getLogger(this.getClass().getName());
+
+  private final RawDataFile parentFile;
+  private final boolean cacheDataPoints;
+
+  /**
+   * @param cacheDataPoints keep the computed data points of each scan until the memory is needed
+   */
+  public VirtualRawDataFile(String dataFileName, RawDataFile parentFile, boolean cacheDataPoints)
+      throws IOException {
+    super(dataFileName);
+    this.parentFile = parentFile;
+    this.cacheDataPoints = cacheDataPoints;
+  }
+
+  /**
+   * Returns the file the scans are computed from
+   */
+  public @Nonnull RawDataFile getParentFile() {
+    return parentFile;
+  }
+
+  /**
+   * @see net.sf.mzmine.datamodel.VirtualRawDataFileWriter#addScan(Scan, ScanTransformation)
+   */
+  @Override
+  public void addScan(@Nonnull Scan parentScan, @Nonnull ScanTransformation transformation)
+      throws IOException {
+    addScan(new VirtualScan(this, parentScan, transformation, cacheDataPoints));
+  }
+
+  /**
+   * Returns true if all scans have their data points stored, so the parent file is not needed
+   */
+  public boolean isStored() {
+    for (int scanNumber : getScanNumbers()) {
+      Scan scan = getScan(scanNumber);
+      if ((scan instanceof VirtualScan) && !((VirtualScan) scan).isStored())
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * Computes the data points of all scans which are not stored yet and stores them in the temporary
+   * file, so this file does not depend on the parent file anymore
+   */
+  public void storeAllScans() throws IOException {
+    if (isStored())
+      return;
+    logger.info("Storing data points of " + getName() + " computed from " + parentFile);
+    for (int scanNumber : getScanNumbers()) {
+      Scan scan = getScan(scanNumber);
+      if (scan instanceof VirtualScan)
+        ((VirtualScan) scan).store();
+    }
+  }
+
+}
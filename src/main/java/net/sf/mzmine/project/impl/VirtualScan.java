@@ -0,0 +1,163 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.project.impl;
+
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+
+import javax.annotation.Nonnull;
+
+import net.sf.mzmine.datamodel.DataPoint;
+import net.sf.mzmine.datamodel.MassSpectrumType;
+import net.sf.mzmine.datamodel.Scan;
+import net.sf.mzmine.datamodel.ScanTransformation;
+
+/**
+ * Scan of a VirtualRawDataFile. The data points are computed from the parent scan by the
+ * transformation whenever they are read, and optionally kept in a cache which is cleared by the
+ * garbage collector when memory is needed. Once the data points are stored (see store()), the scan
+ * behaves like a StorableScan and does not need the parent scan anymore. Mass lists are always
+ * stored in the temporary file of the virtual raw data file.
+ */
+public class VirtualScan extends StorableScan {
+
+  private final VirtualRawDataFile rawDataFile;
+  private final boolean cacheDataPoints;
+
+  // Released once the data points are stored
+  private volatile Scan parentScan;
+  private volatile ScanTransformation transformation;
+
+  private volatile SoftReference<DataPoint[]> cachedDataPoints;
+  private volatile MassSpectrumType spectrumType;
+  private volatile boolean stored = false;
+
+  VirtualScan(VirtualRawDataFile rawDataFile, Scan parentScan, ScanTransformation transformation,
+      boolean cacheDataPoints) {
+
+    super(rawDataFile, -1, 0, parentScan.getScanNumber(), parentScan.getMSLevel(),
+        parentScan.getRetentionTime(), parentScan.getPrecursorMZ(),
+        parentScan.getPrecursorCharge(), parentScan.getFragmentScanNumbers(), null,
+        parentScan.getPolarity(), parentScan.getScanDefinition(),
+        parentScan.getScanningMZRange());
+
+    this.rawDataFile = rawDataFile;
+    this.parentScan = parentScan;
+    this.transformation = transformation;
+    this.cacheDataPoints = cacheDataPoints;
+  }
+
+  /**
+   * @return Data points computed from the parent scan, or read from the temporary file if they
+   *         were stored
+   */
+  @Override
+  public @Nonnull DataPoint[] getDataPoints() {
+
+    if (stored)
+      return super.getDataPoints();
+
+    final SoftReference<DataPoint[]> cache = cachedDataPoints;
+    if (cache != null) {
+      DataPoint cached[] = cache.get();
+      if (cached != null)
+        return cached.clone();
+    }
+
+    final Scan parent = parentScan;
+    final ScanTransformation currentTransformation = transformation;
+
+    // The data points may have been stored meanwhile
+    if ((parent == null) || (currentTransformation == null))
+      return super.getDataPoints();
+
+    final Scan transformedScan = currentTransformation.transform(parent);
+    DataPoint dataPoints[];
+    if (transformedScan != null) {
+      dataPoints = transformedScan.getDataPoints();
+      if (spectrumType == null)
+        spectrumType = transformedScan.getSpectrumType();
+    } else {
+      dataPoints = new DataPoint[0];
+      if (spectrumType == null)
+        spectrumType = parent.getSpectrumType();
+    }
+
+    if (cacheDataPoints) {
+      cachedDataPoints = new SoftReference<>(dataPoints);
+      return dataPoints.clone();
+    }
+    return dataPoints;
+  }
+
+  @Override
+  void updateValues() {
+    if (stored)
+      super.updateValues();
+    else
+      updateValues(getDataPoints());
+  }
+
+  @Override
+  public int getNumberOfDataPoints() {
+    if (stored)
+      return super.getNumberOfDataPoints();
+    return getDataPoints().length;
+  }
+
+  @Override
+  public DataPoint getHighestDataPoint() {
+    // Makes sure the base peak was computed, the number of data points is not known in advance
+    getDataPointMZRange();
+    return super.getHighestDataPoint();
+  }
+
+  @Override
+  public MassSpectrumType getSpectrumType() {
+    if (spectrumType == null)
+      getDataPoints();
+    if (spectrumType == null)
+      return super.getSpectrumType();
+    return spectrumType;
+  }
+
+  /**
+   * Returns true if the data points are stored in the temporary file of the raw data file
+   */
+  public boolean isStored() {
+    return stored;
+  }
+
+  /**
+   * Stores the computed data points in the temporary file of the raw data file, so they are not
+   * computed anymore and the parent scan is not needed
+   */
+  synchronized void store() throws IOException {
+    if (stored)
+      return;
+    DataPoint dataPoints[] = getDataPoints();
+    int storageID = rawDataFile.storeDataPoints(dataPoints);
+    setStoredDataPoints(storageID, dataPoints.length);
+    stored = true;
+    parentScan = null;
+    transformation = null;
+    cachedDataPoints = null;
+  }
+
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.taskcontrol;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.IntStream;
+
+import javax.annotation.Nullable;
+
+/**
+ * Task which processes the rows of a feature list (or any other array of items) independently of
+ * each other. The rows are split into chunks of consecutive rows, which are processed in parallel.
+ * The results are returned in the order of the rows, so the task can add them to the feature list
+ * deterministically, no matter in which order the rows were processed. The progress of the task is
+ * the fraction of processed rows.
+ */
+public abstract class AbstractRowTask extends AbstractTask {
+
+  /**
+   * Number of chunks per available thread, more chunks give a better load balance when the
+   * processing time of the rows differs
+   */
+  private static final int CHUNKS_PER_THREAD = 4;
+
+  private final AtomicInteger processedRows = new AtomicInteger(0);
+  private volatile int totalRows;
+
+  /**
+   * Processes a single row
+   */
+  @FunctionalInterface
+  public interface RowProcessor<T, R> {
+
+    /**
+     * @return Result of the row, or null if the row has no result
+     */
+    @Nullable
+    R processRow(T row) throws Exception;
+  }
+
+  /**
+   * Processes all rows in parallel.
+   *
+   * @return List of results in the order of rows, or null if the task was canceled
+   * @throws Exception The first exception thrown by the processor, once all running chunks stopped
+   */
+  protected final @Nullable <T, R> List<R> processRows(T rows[], RowProcessor<T, R> processor)
+      throws Exception {
+    return processRows(rows, true, processor);
+  }
+
+  /**
+   * Processes all rows, in parallel if requested. Processors which use a resource that can not be
+   * shared by several threads (e.g. an R session) have to run serially.
+   *
+   * @return List of results in the order of rows, or null if the task was canceled
+   * @throws Exception The first exception thrown by the processor, once all running chunks stopped
+   */
+  protected final @Nullable <T, R> List<R> processRows(T rows[], boolean parallel,
+      RowProcessor<T, R> processor) throws Exception {
+
+    totalRows = rows.length;
+    processedRows.set(0);
+
+    @SuppressWarnings("unchecked")
+    final R results[] = (R[]) new Object[rows.length];
+    final AtomicReference<Exception> failure = new AtomicReference<>();
+
+    final int threads = parallel ? ForkJoinPool.getCommonPoolParallelism() + 1 : 1;
+    final int chunkSize =
+        Math.max(1, (int) Math.ceil((double) rows.length / (threads * CHUNKS_PER_THREAD)));
+    final int numOfChunks = (rows.length + chunkSize - 1) / chunkSize;
+
+    IntStream chunks = IntStream.range(0, numOfChunks);
+    if (parallel)
+      chunks = chunks.parallel();
+
+    chunks.forEach(chunk -> {
+      final int end = Math.min(rows.length, (chunk + 1) * chunkSize);
+      for (int i = chunk * chunkSize; i < end; i++) {
+        if (isCanceled() || (failure.get() != null))
+          return;
+        try {
+          results[i] = processor.processRow(rows[i]);
+        } catch (Exception e) {
+          failure.compareAndSet(null, e);
+          return;
+        }
+        processedRows.incrementAndGet();
+      }
+    });
+
+    if (failure.get() != null)
+      throw failure.get();
+
+    if (isCanceled())
+      return null;
+
+    return Arrays.asList(results);
+  }
+
+  /**
+   * @see net.sf.mzmine.taskcontrol.Task#getFinishedPercentage()
+   */
+  @Override
+  public double getFinishedPercentage() {
+    if (totalRows == 0)
+      return 0.0;
+    return (double) processedRows.get() / (double) totalRows;
+  }
+
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.util;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+import net.sf.mzmine.datamodel.Feature;
+import net.sf.mzmine.datamodel.PeakListRow;
+import net.sf.mzmine.datamodel.RawDataFile;
+
+/**
+ * Extracts the peak heights or areas of feature list rows into primitive matrices for statistics.
+ * The rows are read in parallel.
+ */
+public class PeakListMatrixUtils {
+
+  /**
+   * Returns the rows x files matrix of the peak heights or areas
+   *
+   * @param missingValue value of the rows without a peak in the file, e.g. 0 or NaN
+   */
+  public static double[][] getRowMatrix(final PeakListRow rows[], final RawDataFile files[],
+      final PeakMeasurementType measure, final double missingValue) {
+
+    final double matrix[][] = new double[rows.length][files.length];
+    IntStream.range(0, rows.length).parallel().forEach(r -> {
+      final double values[] = matrix[r];
+      for (int f = 0; f < files.length; f++)
+        values[f] = getValue(rows[r], files[f], measure, missingValue);
+    });
+    return matrix;
+  }
+
+  /**
+   * Returns the files x rows matrix of the peak heights or areas, the layout used by the projection
+   * plots
+   *
+   * @param missingValue value of the rows without a peak in the file, e.g. 0 or NaN
+   */
+  public static double[][] getFileMatrix(final PeakListRow rows[], final RawDataFile files[],
+      final PeakMeasurementType measure, final double missingValue) {
+
+    final double matrix[][] = new double[files.length][rows.length];
+
+    // Blocks of rows, so each thread writes its own part of the file arrays
+    final int numOfBlocks =
+        Math.min(rows.length, (ForkJoinPool.getCommonPoolParallelism() + 1) * 4);
+    IntStream.range(0, numOfBlocks).parallel().forEach(b -> {
+      final int from = (int) ((long) rows.length * b / numOfBlocks);
+      final int to = (int) ((long) rows.length * (b + 1) / numOfBlocks);
+      for (int r = from; r < to; r++) {
+        for (int f = 0; f < files.length; f++)
+          matrix[f][r] = getValue(rows[r], files[f], measure, missingValue);
+      }
+    });
+    return matrix;
+  }
+
+  /**
+   * Centers each column of the matrix to zero mean and scales it to unit variance, in parallel over
+   * blocks of columns. Gives the same values as jmprojection.Preprocess.scaleToUnityVariance(),
+   * including NaN for constant columns.
+   */
+  public static void scaleToUnitVariance(final double matrix[][]) {
+
+    if (matrix.length == 0)
+      return;
+
+    final int numOfRows = matrix.length;
+    final int numOfColumns = matrix[0].length;
+    final int numOfBlocks =
+        Math.min(numOfColumns, (ForkJoinPool.getCommonPoolParallelism() + 1) * 4);
+
+    IntStream.range(0, numOfBlocks).parallel().forEach(b -> {
+      final int from = (int) ((long) numOfColumns * b / numOfBlocks);
+      final int to = (int) ((long) numOfColumns * (b + 1) / numOfBlocks);
+      final double mean[] = new double[to - from];
+      final double s[] = new double[to - from];
+
+      // Running mean and variance of all columns of the block, row by row
+      for (int j = 0; j < numOfRows; j++) {
+        final double values[] = matrix[j];
+        for (int i = from; i < to; i++) {
+          final double value = values[i];
+          final double delta = value - mean[i - from];
+          mean[i - from] += delta / (j + 1);
+          s[i - from] += delta * (value - mean[i - from]);
+        }
+      }
+      for (int i = 0; i < s.length; i++)
+        s[i] = Math.sqrt(s[i] / (numOfRows - 1));
+
+      for (int j = 0; j < numOfRows; j++) {
+        final double values[] = matrix[j];
+        for (int i = from; i < to; i++) {
+          values[i] -= mean[i - from];
+          values[i] /= s[i - from];
+        }
+      }
+    });
+  }
+
+  private static double getValue(PeakListRow row, RawDataFile file, PeakMeasurementType measure,
+      double missingValue) {
+    final Feature peak = row.getPeak(file);
+    if (peak == null)
+      return missingValue;
+    return (measure == PeakMeasurementType.AREA) ? peak.getArea() : peak.getHeight();
+  }
+
+}
@@ -26,7 +26,16 @@ import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.PrintStream;
 import java.io.PrintWriter;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
 import java.util.UUID;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -73,6 +82,15 @@ public class RSessionWrapper {
   private static int MASTER_PORT = -1;
   public static final ArrayList<RSessionWrapper> R_SESSIONS_REG = new ArrayList<RSessionWrapper>();
 
+  // Opened sessions released by their tasks (see release()), by engine type, caller feature and
+  // required packages.
+  private static final Map<String, Deque<RSessionWrapper>> IDLE_SESSIONS =
+      new HashMap<String, Deque<RSessionWrapper>>();
+  private static final int MAX_IDLE_SESSIONS = Runtime.getRuntime().availableProcessors();
+  // Idle sessions are closed after this time, so R processes do not stay alive after a batch
+  private static final long IDLE_TIMEOUT = 60000;
+  private static final Timer IDLE_TIMER = new Timer("Idle R sessions cleanup", true);
+
   private final Object R_DUMMY_SEMAPHORE = new Object();
 
   private static final Level rsLogLvl = Level.FINEST;
@@ -125,6 +143,9 @@ public class RSessionWrapper {
 
   private boolean wasRunAndReturned = false;
 
+  // Time when the session was released, see release()
+  private long idleSince;
+
 
   // MISC UTILITIES
 
@@ -1160,6 +1181,125 @@ public class RSessionWrapper {
     }
   }
 
+  /**
+   * Returns a session released by a previous task of the same feature (see release()), or a new
+   * session if none is idle. Reusing a session saves starting R and loading the packages for each
+   * feature list of a batch. open() must be called in both cases, it only checks the required
+   * packages again on a reused session.
+   */
+  public static RSessionWrapper acquire(REngineType rEngineType, String callerFeatureName,
+      String[] reqPackages, String[] reqPackagesVersions) {
+
+    final String key = getPoolKey(rEngineType, callerFeatureName, reqPackages, reqPackagesVersions);
+    while (true) {
+      RSessionWrapper idleSession;
+      synchronized (IDLE_SESSIONS) {
+        final Deque<RSessionWrapper> idleSessions = IDLE_SESSIONS.get(key);
+        idleSession = (idleSessions == null) ? null : idleSessions.pollFirst();
+      }
+      if (idleSession == null)
+        break;
+      if (idleSession.isReusable()) {
+        LOG.log(logLvl, "Reusing R session for '" + callerFeatureName + "'.");
+        return idleSession;
+      }
+      try {
+        idleSession.close(false);
+      } catch (RSessionWrapperException e) {
+        // Silent, the session is not used anymore.
+      }
+    }
+
+    return new RSessionWrapper(rEngineType, callerFeatureName, reqPackages, reqPackagesVersions);
+  }
+
+  /**
+   * Keeps this session opened, with a cleared workspace, for the next task calling acquire(). The
+   * session is closed if enough sessions are idle already. The caller must not use the session
+   * after releasing it.
+   */
+  public void release() throws RSessionWrapperException {
+
+    if (!this.isReusable())
+      return;
+
+    this.clearCode();
+    this.eval("rm(list = ls())", false);
+
+    final String key = getPoolKey(this.rEngineType, this.callerFeatureName, this.reqPackages,
+        this.reqPackagesVersions);
+    synchronized (IDLE_SESSIONS) {
+      Deque<RSessionWrapper> idleSessions = IDLE_SESSIONS.get(key);
+      if (idleSessions == null) {
+        idleSessions = new ArrayDeque<RSessionWrapper>();
+        IDLE_SESSIONS.put(key, idleSessions);
+      }
+      if (idleSessions.size() < MAX_IDLE_SESSIONS) {
+        this.idleSince = System.currentTimeMillis();
+        idleSessions.addLast(this);
+        IDLE_TIMER.schedule(new TimerTask() {
+          @Override
+          public void run() {
+            closeExpiredSessions();
+          }
+        }, IDLE_TIMEOUT);
+        return;
+      }
+    }
+
+    this.close(false);
+  }
+
+  /**
+   * Closes the sessions which are idle for longer than IDLE_TIMEOUT
+   */
+  private static void closeExpiredSessions() {
+
+    final long expiryTime = System.currentTimeMillis() - IDLE_TIMEOUT;
+    final List<RSessionWrapper> expiredSessions = new ArrayList<RSessionWrapper>();
+    synchronized (IDLE_SESSIONS) {
+      for (Deque<RSessionWrapper> idleSessions : IDLE_SESSIONS.values()) {
+        Iterator<RSessionWrapper> iterator = idleSessions.iterator();
+        while (iterator.hasNext()) {
+          RSessionWrapper idleSession = iterator.next();
+          if (idleSession.idleSince <= expiryTime) {
+            iterator.remove();
+            expiredSessions.add(idleSession);
+          }
+        }
+      }
+    }
+
+    for (RSessionWrapper expiredSession : expiredSessions) {
+      LOG.log(logLvl, "Closing idle R session for '" + expiredSession.callerFeatureName + "'.");
+      try {
+        expiredSession.close(false);
+      } catch (RSessionWrapperException e) {
+        // Silent, the session is not used anymore.
+      }
+    }
+  }
+
+  private boolean isReusable() {
+
+    if (this.rEngine == null || !this.isSessionRunning())
+      return false;
+    if (this.rEngineType == REngineType.RSERVE) {
+      try {
+        this.checkConnectivity();
+      } catch (RSessionWrapperException e) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static String getPoolKey(REngineType rEngineType, String callerFeatureName,
+      String[] reqPackages, String[] reqPackagesVersions) {
+    return rEngineType + "|" + callerFeatureName + "|" + Arrays.toString(reqPackages) + "|"
+        + Arrays.toString(reqPackagesVersions);
+  }
+
   private void register() {
     RSessionWrapper.R_SESSIONS_REG.add(this);
   }
@@ -1286,6 +1426,22 @@ public class RSessionWrapper {
 
   public static void CleanAll() {
 
+    // Idle sessions are closed below (Rserve) or not needed anymore (RCaller).
+    synchronized (IDLE_SESSIONS) {
+      for (Deque<RSessionWrapper> idleSessions : IDLE_SESSIONS.values()) {
+        for (RSessionWrapper idleSession : idleSessions) {
+          if (idleSession.rEngineType == REngineType.RCALLER) {
+            try {
+              idleSession.close(true);
+            } catch (RSessionWrapperException e) {
+              // Silent.
+            }
+          }
+        }
+      }
+      IDLE_SESSIONS.clear();
+    }
+
     // Cleanup Rserve instances.
     for (int i = RSessionWrapper.R_SESSIONS_REG.size() - 1; i >= 0; --i) {
       try {
@@ -50,9 +50,6 @@ public class CombinedXICComponent extends JComponent {
 
   private Feature[] peaks;
 
-  private Range<Double> rtRange;
-  private double maxIntensity;
-
   /**
    * @param ChromatographicPeak [] Picked peaks to plot
    */
@@ -62,9 +59,32 @@ public class CombinedXICComponent extends JComponent {
     if (id >= 0)
       setToolTipText(ComponentToolTipManager.CUSTOM + id);
 
-    double maxIntensity = 0;
     this.peaks = peaks;
 
+    this.setBorder(componentBorder);
+
+  }
+
+  public void paint(Graphics g) {
+
+    super.paint(g);
+
+    // get canvas size
+    Dimension size = getSize();
+
+    paintPeakShapes((Graphics2D) g, peaks, size.width, size.height);
+
+  }
+
+  /**
+   * Paints the shapes of the peaks into an area of the given size, so the same shapes can be
+   * painted into an off-screen image
+   */
+  public static void paintPeakShapes(Graphics2D g2, Feature[] peaks, int width, int height) {
+
+    Range<Double> rtRange = null;
+    double maxIntensity = 0;
+
     // find data boundaries
     for (Feature peak : peaks) {
       if (peak == null)
@@ -77,25 +97,9 @@ public class CombinedXICComponent extends JComponent {
         rtRange = rtRange.span(peak.getDataFile().getDataRTRange());
     }
 
-    this.maxIntensity = maxIntensity;
-
-    this.setBorder(componentBorder);
-
-  }
-
-  public void paint(Graphics g) {
-
-    super.paint(g);
-
-    // use Graphics2D for antialiasing
-    Graphics2D g2 = (Graphics2D) g;
-
     // turn on antialiasing
     g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
 
-    // get canvas size
-    Dimension size = getSize();
-
     int colorIndex = 0;
 
     for (Feature peak : peaks) {
@@ -130,18 +134,18 @@ public class CombinedXICComponent extends JComponent {
 
         // calculate [X:Y] coordinates
         xValues[i + 1] = (int) Math.floor((retentionTime - rtRange.lowerEndpoint())
-            / (rtRange.upperEndpoint() - rtRange.lowerEndpoint()) * (size.width - 1));
+            / (rtRange.upperEndpoint() - rtRange.lowerEndpoint()) * (width - 1));
         yValues[i + 1] =
-            size.height - (int) Math.floor(dataPointIntensity / maxIntensity * (size.height - 1));
+            height - (int) Math.floor(dataPointIntensity / maxIntensity * (height - 1));
       }
 
       // add first point
       xValues[0] = xValues[1];
-      yValues[0] = size.height - 1;
+      yValues[0] = height - 1;
 
       // add terminal point
       xValues[xValues.length - 1] = xValues[xValues.length - 2];
-      yValues[yValues.length - 1] = size.height - 1;
+      yValues[yValues.length - 1] = height - 1;
 
       // draw the peak shape
       g2.drawPolyline(xValues, yValues, xValues.length);
@@ -80,15 +80,23 @@ public class PeakXICComponent extends JComponent {
 
     super.paint(g);
 
-    // use Graphics2D for antialiasing
-    Graphics2D g2 = (Graphics2D) g;
+    // get canvas size
+    Dimension size = getSize();
+
+    paintPeakShape((Graphics2D) g, peak, rtRange, maxIntensity, size.width, size.height);
+
+  }
+
+  /**
+   * Paints the shape of the peak into an area of the given size, so the same shape can be painted
+   * into an off-screen image
+   */
+  public static void paintPeakShape(Graphics2D g2, Feature peak, Range<Double> rtRange,
+      double maxIntensity, int width, int height) {
 
     // turn on antialiasing
     g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
 
-    // get canvas size
-    Dimension size = getSize();
-
     // get scan numbers, one data point per each scan
     RawDataFile dataFile = peak.getDataFile();
     int scanNumbers[] = peak.getScanNumbers();
@@ -117,21 +125,20 @@ public class PeakXICComponent extends JComponent {
       // calculate [X:Y] coordinates
       final double rtLen = rtRange.upperEndpoint() - rtRange.lowerEndpoint();
       xValues[i] =
-          (int) Math.floor((retentionTime - rtRange.lowerEndpoint()) / rtLen * (size.width - 1));
-      yValues[i] =
-          size.height - (int) Math.floor(dataPointIntensity / maxIntensity * (size.height - 1));
+          (int) Math.floor((retentionTime - rtRange.lowerEndpoint()) / rtLen * (width - 1));
+      yValues[i] = height - (int) Math.floor(dataPointIntensity / maxIntensity * (height - 1));
 
     }
 
     // create a path for a peak polygon
     GeneralPath path = new GeneralPath(GeneralPath.WIND_EVEN_ODD);
-    path.moveTo(xValues[0], size.height - 1);
+    path.moveTo(xValues[0], height - 1);
 
     // add data points to the path
     for (int i = 0; i < (xValues.length - 1); i++) {
       path.lineTo(xValues[i + 1], yValues[i + 1]);
     }
-    path.lineTo(xValues[xValues.length - 1], size.height - 1);
+    path.lineTo(xValues[xValues.length - 1], height - 1);
 
     // close the path to form a polygon
     path.closePath();
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.util.maths;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.EigenDecomposition;
+
+/**
+ * Principal component analysis of centered data. The cross product matrix of the smaller dimension
+ * of the data (points x points or coordinates x coordinates) is computed in parallel over blocks
+ * and decomposed into its eigenvectors, which gives the same projection as the singular value
+ * decomposition of the data, up to the signs of the components.
+ */
+public class PrincipalComponentAnalysis {
+
+  // Points per tile and coordinates per block of the cross product, so that two tiles of a block
+  // stay in the cache
+  private static final int TILE_SIZE = 32;
+  private static final int BLOCK_SIZE = 512;
+
+  private volatile boolean canceled = false;
+  private volatile double finishedPercentage = 0.0;
+
+  /**
+   * Projects the data to the principal components, same as jmprojection.PCA.getState()
+   *
+   * @param data points x coordinates, centered
+   * @param numOfComponents number of principal components
+   * @return numOfComponents x points matrix of the projected points, or null if canceled
+   */
+  public double[][] getProjection(final double data[][], final int numOfComponents) {
+
+    final int numOfPoints = data.length;
+    final int numOfCoordinates = (numOfPoints > 0) ? data[0].length : 0;
+    final double projection[][] = new double[numOfComponents][numOfPoints];
+    if ((numOfPoints == 0) || (numOfCoordinates == 0))
+      return projection;
+
+    final boolean byPoints = numOfPoints <= numOfCoordinates;
+    final double crossProduct[][] =
+        crossProduct(byPoints ? data : transpose(data), byPoints ? numOfPoints : numOfCoordinates);
+    if (canceled)
+      return null;
+
+    final EigenDecomposition decomposition =
+        new EigenDecomposition(new Array2DRowRealMatrix(crossProduct, false));
+    final double eigenValues[] = decomposition.getRealEigenvalues();
+    final Integer order[] = new Integer[eigenValues.length];
+    for (int i = 0; i < order.length; i++)
+      order[i] = i;
+    Arrays.sort(order, (a, b) -> Double.compare(eigenValues[b], eigenValues[a]));
+
+    final int numOfAvailable = Math.min(numOfComponents, order.length);
+    for (int c = 0; c < numOfAvailable; c++) {
+      final double eigenVector[] = decomposition.getEigenvector(order[c]).toArray();
+      if (byPoints) {
+        // Eigenvectors of the points are the scaled projections
+        final double singularValue = Math.sqrt(Math.max(0.0, eigenValues[order[c]]));
+        for (int i = 0; i < numOfPoints; i++)
+          projection[c][i] = eigenVector[i] * singularValue;
+      } else {
+        // Eigenvectors of the coordinates are the principal axes
+        final double component[] = projection[c];
+        IntStream.range(0, numOfPoints).parallel().forEach(i -> {
+          double sum = 0.0;
+          for (int k = 0; k < numOfCoordinates; k++)
+            sum += eigenVector[k] * data[i][k];
+          component[i] = sum;
+        });
+      }
+    }
+
+    finishedPercentage = 1.0;
+    return projection;
+  }
+
+  public void cancel() {
+    canceled = true;
+  }
+
+  public double getFinishedPercentage() {
+    return finishedPercentage;
+  }
+
+  /**
+   * Computes rows x rows matrix of the dot products of the rows, in parallel over pairs of tiles of
+   * rows
+   */
+  private double[][] crossProduct(final double rows[][], final int n) {
+
+    final int length = rows[0].length;
+    final double result[][] = new double[n][n];
+
+    final int numOfTiles = (n + TILE_SIZE - 1) / TILE_SIZE;
+    final int numOfTasks = numOfTiles * (numOfTiles + 1) / 2;
+    final AtomicInteger finishedTasks = new AtomicInteger();
+
+    IntStream.range(0, numOfTasks).parallel().forEach(task -> {
+      if (canceled)
+        return;
+
+      // Pair of tiles ti >= tj of the lower triangle
+      int ti = (int) ((Math.sqrt(8.0 * task + 1) - 1) / 2);
+      while (ti * (ti + 1) / 2 > task)
+        ti--;
+      while ((ti + 1) * (ti + 2) / 2 <= task)
+        ti++;
+      final int tj = task - ti * (ti + 1) / 2;
+
+      final int iFrom = ti * TILE_SIZE, iTo = Math.min(n, iFrom + TILE_SIZE);
+      final int jFrom = tj * TILE_SIZE, jTo = Math.min(n, jFrom + TILE_SIZE);
+
+      for (int kFrom = 0; kFrom < length; kFrom += BLOCK_SIZE) {
+        final int kTo = Math.min(length, kFrom + BLOCK_SIZE);
+        for (int i = iFrom; i < iTo; i++) {
+          final double x[] = rows[i];
+          final double resultRow[] = result[i];
+          final int jMax = (ti == tj) ? i + 1 : jTo;
+          for (int j = jFrom; j < jMax; j++) {
+            final double y[] = rows[j];
+            double sum = 0.0;
+            for (int k = kFrom; k < kTo; k++)
+              sum += x[k] * y[k];
+            resultRow[j] += sum;
+          }
+        }
+      }
+
+      // Mirror the tile to the upper triangle, which no other task writes
+      for (int i = iFrom; i < iTo; i++) {
+        final int jMax = (ti == tj) ? i : jTo;
+        for (int j = jFrom; j < jMax; j++)
+          result[j][i] = result[i][j];
+      }
+
+      finishedPercentage = 0.9 * finishedTasks.incrementAndGet() / numOfTasks;
+    });
+
+    return result;
+  }
+
+  private static double[][] transpose(final double matrix[][]) {
+    final int numOfRows = matrix.length;
+    final int numOfColumns = matrix[0].length;
+    final double transposed[][] = new double[numOfColumns][numOfRows];
+    IntStream.range(0, numOfColumns).parallel().forEach(c -> {
+      for (int r = 0; r < numOfRows; r++)
+        transposed[c][r] = matrix[r][c];
+    });
+    return transposed;
+  }
+
+}
@@ -464,20 +464,31 @@ public class ScanUtils {
 
     double[] intensityValues = new double[dataPoints.length];
     double[] mzValues = new double[dataPoints.length];
+    for (int i = 0; i < dataPoints.length; i++) {
+      intensityValues[i] = dataPoints[i].getIntensity();
+      mzValues[i] = dataPoints[i].getMZ();
+    }
+
+    return detectSpectrumType(mzValues, intensityValues, 0, dataPoints.length);
+  }
+
+  /**
+   * Same as detectSpectrumType(DataPoint[]), for the data points from index offset to offset + size
+   * (exclusive) of the given arrays
+   */
+  public static MassSpectrumType detectSpectrumType(@Nonnull double mzValues[],
+      @Nonnull double intensityValues[], int offset, int size) {
 
     // If the spectrum has less than 5 data points, it should be centroided.
-    if (dataPoints.length < 5)
+    if (size < 5)
       return MassSpectrumType.CENTROIDED;
 
-    int basePeakIndex = 0;
+    int basePeakIndex = offset;
     boolean hasZeroDataPoint = false;
 
     // Go through the data points and find the highest one
-    int size = dataPoints.length;
-    for (int i = 0; i < size; i++) {
-
-      intensityValues[i] = dataPoints[i].getIntensity();
-      mzValues[i] = dataPoints[i].getMZ();
+    final int end = offset + size;
+    for (int i = offset; i < end; i++) {
 
       // Update the maxDataPointIndex accordingly
       if (intensityValues[i] > intensityValues[basePeakIndex])
@@ -487,17 +498,17 @@ public class ScanUtils {
         hasZeroDataPoint = true;
     }
 
-    final double scanMzSpan = mzValues[size - 1] - mzValues[0];
+    final double scanMzSpan = mzValues[end - 1] - mzValues[offset];
 
     // Find the all data points around the base peak that have intensity
     // above half maximum
     final double halfIntensity = intensityValues[basePeakIndex] / 2.0;
     int leftIndex = basePeakIndex;
-    while ((leftIndex > 0) && intensityValues[leftIndex - 1] > halfIntensity) {
+    while ((leftIndex > offset) && intensityValues[leftIndex - 1] > halfIntensity) {
       leftIndex--;
     }
     int rightIndex = basePeakIndex;
-    while ((rightIndex < size - 1) && intensityValues[rightIndex + 1] > halfIntensity) {
+    while ((rightIndex < end - 1) && intensityValues[rightIndex + 1] > halfIntensity) {
       rightIndex++;
     }
     final double mainPeakMzSpan = mzValues[rightIndex] - mzValues[leftIndex];
@@ -533,24 +544,21 @@ public class ScanUtils {
     int bestFragmentScan = -1;
     double topBasePeak = 0;
 
-    int[] fragmentScanNumbers = dataFile.getScanNumbers(2, rtRange);
+    int[] fragmentScanNumbers = dataFile.getMS2ScanNumbers(rtRange, mzRange);
 
     for (int number : fragmentScanNumbers) {
 
       Scan scan = dataFile.getScan(number);
 
-      if (mzRange.contains(scan.getPrecursorMZ())) {
+      DataPoint basePeak = scan.getHighestDataPoint();
 
-        DataPoint basePeak = scan.getHighestDataPoint();
-
-        // If there is no peak in the scan, basePeak can be null
-        if (basePeak == null)
-          continue;
+      // If there is no peak in the scan, basePeak can be null
+      if (basePeak == null)
+        continue;
 
-        if (basePeak.getIntensity() > topBasePeak) {
-          bestFragmentScan = scan.getScanNumber();
-          topBasePeak = basePeak.getIntensity();
-        }
+      if (basePeak.getIntensity() > topBasePeak) {
+        bestFragmentScan = scan.getScanNumber();
+        topBasePeak = basePeak.getIntensity();
       }
 
     }
@@ -571,24 +579,7 @@ public class ScanUtils {
     assert rtRange != null;
     assert mzRange != null;
 
-    int[] fragmentScanNumbers = dataFile.getScanNumbers(2, rtRange);
-    ArrayList<Integer> fragmentScanNumbersInMZRange = new ArrayList<Integer>();
-
-    for (int number : fragmentScanNumbers) {
-
-      Scan scan = dataFile.getScan(number);
-
-      if (mzRange.contains(scan.getPrecursorMZ())) {
-        fragmentScanNumbersInMZRange.add(number);
-      }
-    }
-    int[] resultScans = new int[fragmentScanNumbersInMZRange.size()];
-    if (resultScans.length > 0) {
-      resultScans = fragmentScanNumbersInMZRange.stream().mapToInt(i -> i).toArray();
-    } else {
-      resultScans = new int[] {};
-    }
-    return resultScans;
+    return dataFile.getMS2ScanNumbers(rtRange, mzRange);
   }
 
   /**